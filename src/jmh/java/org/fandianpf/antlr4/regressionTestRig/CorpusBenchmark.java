@@ -0,0 +1,204 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.CharArrayReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JMH benchmark which lexes and parses a corpus of test documents using the
+ * same code path as the RegressionTestRig's 
+ * {@link RegressionTestRig#processAnInputFile}.
+ * <p>
+ * By default the bundled CSV grammar and the testDocs test resources are used.
+ * Any other (compiled) grammar and corpus can be benchmarked by passing the 
+ * grammarName, startRuleName and corpusDir parameters to JMH, for example:
+ * <pre>
+ *   gradle jmh -PjmhArgs="-p grammarName=my.Grammar -p startRuleName=doc -p corpusDir=docs"
+ * </pre>
+ * Each benchmark operation lexes and parses every document in the corpus 
+ * once. The documents, tokens and bytes counters report the throughput in 
+ * documents, tokens and bytes per second. Use JMH's GC profiler 
+ * (<code>-prof gc</code>) to report the allocation rate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CorpusBenchmark {
+
+  /** The fully qualified root name of the grammar to be benchmarked. */
+  @Param({"org.fandianpf.testParser.CSV"})
+  public String grammarName;
+
+  /** The name of the parser's start rule (ignored in the tokens mode). */
+  @Param({"file"})
+  public String startRuleName;
+
+  /** The directory containing the corpus of documents. */
+  @Param({"src/test/resources/testDocs"})
+  public String corpusDir;
+
+  /** The encoding of the corpus documents (empty for the system default). */
+  @Param({""})
+  public String encoding;
+
+  /**
+   * The benchmark mode: tokens (lexer only), SLL (the faster but weaker SLL(*)
+   * parsing strategy), LL (the default ALL(*) parsing strategy), twoStage
+   * (SLL(*), falling back to ALL(*) only when SLL(*) fails) or treeless 
+   * (ALL(*) without building a parse tree).
+   */
+  @Param({"tokens", "SLL", "LL", "twoStage", "treeless"})
+  public String mode;
+
+  /** Counts the work done by the benchmark in each iteration. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Counters {
+    /** The number of documents lexed and parsed. */
+    public long documents;
+    /** The number of tokens produced by the lexer. */
+    public long tokens;
+    /** The number of bytes in the documents lexed and parsed. */
+    public long bytes;
+  }
+
+  /** The RegressionTestRig used to lex and parse the corpus. */
+  protected RegressionTestRig testRig;
+
+  /** The contents of each document in the corpus. */
+  protected List<char[]> documents = new ArrayList<char[]>();
+
+  /** The size, in bytes, of each document in the corpus. */
+  protected List<Long> documentSizes = new ArrayList<Long>();
+
+  /** A PrintStream which discards the results file output. */
+  protected PrintStream nullStream = new PrintStream(new OutputStream() {
+    @Override public void write(int b) { }
+    @Override public void write(byte[] b, int off, int len) { }
+  });
+
+  /** Load the grammar, using the RegressionTestRig, and read the corpus. */
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    List<String> args = new ArrayList<String>();
+    args.add(grammarName);
+    if (mode.equals("tokens")) {
+      args.add(RegressionTestRig.LEXER_START_RULE_NAME);
+    } else {
+      args.add(startRuleName);
+    }
+    if (mode.equals("SLL")) args.add("-SLL");
+    if (mode.equals("twoStage")) args.add("-twoStage");
+    if (mode.equals("treeless")) args.add("-treeless");
+    if (!encoding.isEmpty()) {
+      args.add("-encoding");
+      args.add(encoding);
+    }
+    testRig = new RegressionTestRig(args.toArray(new String[args.size()]));
+    if (testRig.lexer == null) {
+      throw new IllegalStateException("Could not load the grammar ["+grammarName+"]");
+    }
+
+    readCorpus(new File(corpusDir));
+    if (documents.isEmpty()) {
+      throw new IllegalStateException("No documents found in ["+corpusDir+"]");
+    }
+  }
+
+  /** Recursively read all documents found in the corpus directory. */
+  protected void readCorpus(File aFile) throws IOException {
+    if (aFile.isDirectory()) {
+      File[] children = aFile.listFiles();
+      Arrays.sort(children);
+      for (File child : children) readCorpus(child);
+      return;
+    }
+    if (!aFile.isFile()) return;
+
+    FileInputStream inputStream = new FileInputStream(aFile);
+    Reader reader = encoding.isEmpty() ?
+      new InputStreamReader(inputStream) :
+      new InputStreamReader(inputStream, encoding);
+    StringBuilder content = new StringBuilder();
+    char[] buffer = new char[8192];
+    for (int n = reader.read(buffer); 0 <= n; n = reader.read(buffer)) {
+      content.append(buffer, 0, n);
+    }
+    reader.close();
+
+    char[] document = new char[content.length()];
+    content.getChars(0, content.length(), document, 0);
+    documents.add(document);
+    documentSizes.add(aFile.length());
+  }
+
+  /** Lex and parse every document in the corpus once. */
+  @Benchmark
+  public long processCorpus(Counters counters) throws IOException {
+    long numTokens = 0L;
+    for (int i = 0; i < documents.size(); i++) {
+      Metrics metrics = testRig.processAnInputFile("benchmark", 
+        new CharArrayReader(documents.get(i)), nullStream);
+      numTokens += metrics.metric[Metrics.LEXER_NUM_TOKENS];
+      counters.bytes += documentSizes.get(i);
+    }
+    counters.documents += documents.size();
+    counters.tokens    += numTokens;
+    return numTokens;
+  }
+}
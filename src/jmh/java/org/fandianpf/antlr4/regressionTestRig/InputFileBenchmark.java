@@ -0,0 +1,175 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.UnbufferedCharStream;
+
+import org.fandianpf.testParser.CSVLexer;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JMH benchmark of reading (and lexing) one large input file, either through 
+ * a Reader into an {@link ANTLRInputStream} (the "reader" mode), using a 
+ * {@link MappedFileInputStream} (the "mmap" mode), or through an
+ * {@link UnbufferedCharStream} which never holds the whole input file (the
+ * "stream" mode, as used by the -stream option).
+ * <p>
+ * The input file is a synthetic CSV document of fileSizeMB megabytes. The 
+ * bytes counter reports the throughput in bytes per second, while JMH's GC
+ * profiler (<code>-prof gc</code>) reports the bytes allocated per operation,
+ * which bounds the peak heap needed to hold the input.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class InputFileBenchmark {
+
+  /** The size, in megabytes, of the synthetic input file. */
+  @Param({"64"})
+  public int fileSizeMB;
+
+  /** How the input file is read: reader, mmap or stream. */
+  @Param({"reader", "mmap", "stream"})
+  public String mode;
+
+  /** Counts the work done by the benchmark in each iteration. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Counters {
+    /** The number of bytes read and lexed. */
+    public long bytes;
+  }
+
+  /** The synthetic input file. */
+  protected File inputFile;
+
+  /** The lexer (reused for each iteration). */
+  protected CSVLexer lexer = new CSVLexer(null);
+
+  /** Write the synthetic input file. */
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    inputFile = File.createTempFile("inputFileBenchmark", ".csv");
+    PrintStream out = new PrintStream(inputFile, "UTF-8");
+    long numBytes = fileSizeMB*1024L*1024L;
+    for (long row = 0, written = 0; written < numBytes; row++) {
+      String line = "\"Row "+row+"\",some text,3.14159,\"a quoted, field\"\n";
+      out.print(line);
+      written += line.length();
+    }
+    out.close();
+  }
+
+  /** Remove the synthetic input file. */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    inputFile.delete();
+  }
+
+  /** Read the whole input file. */
+  @Benchmark
+  public int read(Counters counters) throws IOException {
+    counters.bytes += inputFile.length();
+    if (mode.equals("stream")) {
+      Reader reader = openReader();
+      CharStream input = new UnbufferedCharStream(reader);
+      int numChars = 0;
+      while (input.LA(1) != IntStream.EOF) { input.consume(); numChars++; }
+      reader.close();
+      return numChars;
+    }
+    ANTLRInputStream input = readInputFile();
+    return input.size();
+  }
+
+  /** Read and lex the whole input file, counting the tokens. */
+  @Benchmark
+  public long readAndLex(Counters counters) throws IOException {
+    Reader reader = null;
+    if (mode.equals("stream")) {
+      reader = openReader();
+      lexer.setInputStream(new UnbufferedCharStream(reader));
+    } else {
+      lexer.setInputStream(readInputFile());
+    }
+    long numTokens = 0L;
+    while (lexer.nextToken().getType() != Token.EOF) numTokens++;
+    if (reader != null) reader.close();
+    counters.bytes += inputFile.length();
+    return numTokens;
+  }
+
+  /** Read the input file as requested by the mode. */
+  protected ANTLRInputStream readInputFile() throws IOException {
+    ANTLRInputStream input;
+    if (mode.equals("mmap")) {
+      input = new MappedFileInputStream(inputFile.getPath(), "UTF-8");
+    } else {
+      Reader reader = openReader();
+      input = new ANTLRInputStream(reader);
+      reader.close();
+    }
+    return input;
+  }
+
+  /** Open a UTF-8 Reader on the input file. */
+  protected Reader openReader() throws IOException {
+    return new InputStreamReader(new FileInputStream(inputFile), "UTF-8");
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JMH benchmark of building a {@link MetricsHistory} of numRuns runs and
+ * computing its statistics.
+ * <p>
+ * The memory allocated per history can be measured using JMH's gc profiler:
+ * <pre>
+ *   gradle jmh -PjmhArgs="MetricsHistoryBenchmark -prof gc"
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetricsHistoryBenchmark {
+
+  /** The number of runs appended to the history. */
+  @Param({"1000"})
+  public int numRuns;
+
+  /** The (pre-computed) metrics of each run. */
+  protected Metrics[] runs;
+
+  /** Compute the synthetic metrics of each run. */
+  @Setup(Level.Trial)
+  public void setup() {
+    runs = new Metrics[numRuns];
+    for (int run = 0; run < numRuns; run++) {
+      runs[run] = new Metrics();
+      for (int i = 0; i < Metrics.NUM_METRICS; i++) {
+        runs[run].metric[i] = 1000000L*i + (run*7919L) % 1000;
+      }
+    }
+  }
+
+  /** Append every run and then compute the statistics. */
+  @Benchmark
+  public MetricsHistory appendAndComputeStats() {
+    MetricsHistory metricsHistory = new MetricsHistory();
+    for (int run = 0; run < numRuns; run++) {
+      metricsHistory.appendMetrics(runs[run]);
+    }
+    metricsHistory.computeStats();
+    return metricsHistory;
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JMH benchmark of the cost, per run of the RegressionTestRig, of recording
+ * the metrics of numDocs test documents which already have numRuns runs of 
+ * history, using either the CSV formated {@link MetricsTable} (which is 
+ * loaded and completely re-written) or the append-only {@link MetricsStore}.
+ * <p>
+ * The loadStore benchmark measures the cost of loading the whole history 
+ * from the (memory mapped) metrics store.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetricsStoreBenchmark {
+
+  /** The number of test documents. */
+  @Param({"1000"})
+  public int numDocs;
+
+  /** The number of runs already recorded for each test document. */
+  @Param({"100"})
+  public int numRuns;
+
+  /** The CSV formated metrics table file. */
+  protected File csvFile;
+
+  /** The metrics store file. */
+  protected File storeFile;
+
+  /** The metrics of one (new) run. */
+  protected MetricsTable runMetricsTable;
+
+  /** Create the metrics of one run of every test document. */
+  protected MetricsTable createRun(int run) {
+    MetricsTable aMetricsTable = new MetricsTable();
+    for (int doc = 0; doc < numDocs; doc++) {
+      Metrics metrics = new Metrics();
+      for (int i = 0; i < Metrics.NUM_METRICS; i++) metrics.metric[i] = run+doc+i;
+      aMetricsTable.appendMetrics("testDocs/doc"+doc+".txt", metrics);
+    }
+    return aMetricsTable;
+  }
+
+  /** Write the metrics table and store with numRuns runs of history. */
+  @Setup(Level.Iteration)
+  public void setup() throws IOException {
+    csvFile   = File.createTempFile("metricsStoreBenchmark", ".csv");
+    storeFile = File.createTempFile("metricsStoreBenchmark", ".bin");
+    MetricsTable history = new MetricsTable();
+    for (int run = 0; run < numRuns; run++) {
+      MetricsTable aRun = createRun(run);
+      for (String testDocName : aRun.getTestDocNames()) {
+        history.appendMetrics(testDocName, 
+          aRun.getMetricsHistory(testDocName).getMetrics(0));
+      }
+    }
+    history.saveMetricsTable(csvFile.getPath());
+    new MetricsStore(storeFile.getPath()).saveMetricsTable(history);
+    runMetricsTable = createRun(numRuns);
+  }
+
+  /** Remove the metrics table and store. */
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    csvFile.delete();
+    storeFile.delete();
+  }
+
+  /** Record one run by loading and re-writing the CSV metrics table. */
+  @Benchmark
+  public MetricsTable recordRunInCSV() throws IOException {
+    MetricsTable metricsTable = new MetricsTable();
+    metricsTable.loadMetricsTable(csvFile.getPath());
+    for (String testDocName : runMetricsTable.getTestDocNames()) {
+      metricsTable.appendMetrics(testDocName, 
+        runMetricsTable.getMetricsHistory(testDocName).getMetrics(0));
+    }
+    metricsTable.saveMetricsTable(csvFile.getPath());
+    return metricsTable;
+  }
+
+  /** Record one run by appending one run block to the metrics store. */
+  @Benchmark
+  public MetricsStore recordRunInStore() throws IOException {
+    MetricsStore metricsStore = new MetricsStore(storeFile.getPath());
+    metricsStore.appendRun(runMetricsTable);
+    return metricsStore;
+  }
+
+  /** Load the whole history from the metrics store. */
+  @Benchmark
+  public MetricsTable loadStore() throws IOException {
+    MetricsTable metricsTable = new MetricsTable();
+    new MetricsStore(storeFile.getPath()).loadMetricsTable(metricsTable);
+    return metricsTable;
+  }
+}
@@ -0,0 +1,153 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JMH benchmark of loading and saving a synthetic CSV formated 
+ * {@link MetricsTable} of numDocs test documents with numRuns runs each,
+ * using either the {@link MetricsTableCodec} (the "codec" mode) or the 
+ * original line by line {@link MetricsTableLineParser} and 
+ * {@link MetricsHistory#loadValues} loader and PrintStream based 
+ * {@link MetricsHistory#saveIntoFile} writer (the "lineByLine" mode).
+ * <p>
+ * The default table is small enough to benchmark quickly. The 10k document,
+ * 1k run table can be benchmarked using:
+ * <pre>
+ *   gradle jmh -PjmhArgs="MetricsTableCodecBenchmark -p numDocs=10000 -p numRuns=1000 -jvmArgsAppend -Xmx8g"
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class MetricsTableCodecBenchmark {
+
+  /** The number of test documents. */
+  @Param({"1000"})
+  public int numDocs;
+
+  /** The number of runs recorded for each test document. */
+  @Param({"100"})
+  public int numRuns;
+
+  /** How the metrics table is loaded and saved: codec or lineByLine. */
+  @Param({"codec", "lineByLine"})
+  public String mode;
+
+  /** The synthetic CSV formated metrics table file. */
+  protected File csvFile;
+
+  /** The metrics table which is saved. */
+  protected MetricsTable metricsTable;
+
+  /** Write the synthetic metrics table. */
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    metricsTable = new MetricsTable();
+    for (int run = 0; run < numRuns; run++) {
+      for (int doc = 0; doc < numDocs; doc++) {
+        Metrics metrics = new Metrics();
+        for (int i = 0; i < Metrics.NUM_METRICS; i++) {
+          metrics.metric[i] = (i < Metrics.LEXER_NANOS) ? run % 7 + i : 1000000L*i + run*doc;
+        }
+        metricsTable.appendMetrics("testDocs/doc"+doc+".txt", metrics);
+      }
+    }
+    csvFile = File.createTempFile("metricsTableCodecBenchmark", ".csv");
+    metricsTable.saveMetricsTable(csvFile.getPath());
+  }
+
+  /** Remove the synthetic metrics table. */
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    csvFile.delete();
+  }
+
+  /** Load the whole metrics table. */
+  @Benchmark
+  public MetricsTable load() throws IOException {
+    MetricsTable loadedTable = new MetricsTable();
+    if (mode.equals("codec")) {
+      loadedTable.loadMetricsTable(csvFile.getPath());
+      return loadedTable;
+    }
+    BufferedReader metricsBuffer = new BufferedReader(
+      new InputStreamReader(new FileInputStream(csvFile), "UTF-8"));
+    metricsBuffer.readLine();
+    for (String curLine = metricsBuffer.readLine(); 
+         curLine!=null; curLine = metricsBuffer.readLine()) {
+      if (!curLine.startsWith("\"")) continue;
+      MetricsTableLineParser lp = new MetricsTableLineParser(curLine);
+      loadedTable.addTestDocName(lp.testDocName);
+      loadedTable.getMetricsHistory(lp.testDocName).loadValues(lp.metricsType, lp.restOfLine, MetricsHistory.NUM_STATS);
+    }
+    metricsBuffer.close();
+    return loadedTable;
+  }
+
+  /** Save the whole metrics table. */
+  @Benchmark
+  public long save() throws IOException {
+    if (mode.equals("codec")) {
+      metricsTable.saveMetricsTable(csvFile.getPath());
+    } else {
+      PrintStream metricsFile = new PrintStream(csvFile, "UTF-8");
+      MetricsHistory.saveHeaderIntoFile(metricsFile);
+      for (String testDocName : metricsTable.getTestDocNames()) {
+        metricsTable.getMetricsHistory(testDocName).saveIntoFile(testDocName, metricsFile);
+      }
+      metricsFile.close();
+    }
+    return csvFile.length();
+  }
+}
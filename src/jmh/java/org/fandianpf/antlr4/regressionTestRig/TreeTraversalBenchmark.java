@@ -0,0 +1,148 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.TokenStream;
+
+import org.fandianpf.testParser.CSVParser;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A JMH benchmark of the cost per node of the {@link TreeCounter} and 
+ * {@link TreePrinter} parse tree traversals.
+ * <p>
+ * The synthetic parse trees are either "deep" (a single chain of rule nodes,
+ * as produced by long right recursive expressions) or "bushy" (a balanced 
+ * binary tree of rule nodes). Each rule node at the bottom of the tree has one
+ * terminal node. The rule nodes are CSV test grammar row contexts. The nodes
+ * counter reports the number of nodes traversed per second.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeTraversalBenchmark {
+
+  /** The shape of the parse tree: deep or bushy. */
+  @Param({"deep", "bushy"})
+  public String shape;
+
+  /** The (approximate) number of rule nodes in the parse tree. */
+  @Param({"1000"})
+  public int numRuleNodes;
+
+  /** Counts the work done by the benchmark in each iteration. */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class Counters {
+    /** The number of parse tree nodes traversed. */
+    public long nodes;
+  }
+
+  /** The buffer (reused for each iteration) into which the tree is printed. */
+  protected final StringBuilder output = new StringBuilder();
+
+  protected ParserRuleContext tree;
+  protected long numNodes;
+  protected TreeCounter treeCounter;
+  protected TreePrinter treePrinter;
+
+  /** Build the synthetic parse tree. */
+  @Setup(Level.Trial)
+  public void setup() {
+    if (shape.equals("deep")) {
+      tree = new CSVParser.RowContext(null, -1);
+      ParserRuleContext parent = tree;
+      for (int i = 1; i < numRuleNodes; i++) {
+        ParserRuleContext child = new CSVParser.RowContext(parent, -1);
+        parent.addChild(child);
+        parent = child;
+      }
+      parent.addChild(new CommonToken(1, "x"));
+    } else {
+      tree = buildBushyTree(null, numRuleNodes);
+    }
+    treeCounter = new TreeCounter();
+    treeCounter.countTree(tree);
+    numNodes = treeCounter.getNumberOfNodes() + 1;
+    treePrinter = new TreePrinter(". ", ", ", 5, new CSVParser((TokenStream)null));
+  }
+
+  /** Recursively build a balanced binary tree with numRules rule nodes. */
+  protected ParserRuleContext buildBushyTree(ParserRuleContext parent, int numRules) {
+    ParserRuleContext node = new CSVParser.RowContext(parent, -1);
+    int numChildRules = numRules - 1;
+    if (numChildRules < 1) {
+      node.addChild(new CommonToken(1, "x"));
+    } else {
+      int numLeftRules = numChildRules/2;
+      if (0 < numLeftRules) node.addChild(buildBushyTree(node, numLeftRules));
+      node.addChild(buildBushyTree(node, numChildRules - numLeftRules));
+    }
+    return node;
+  }
+
+  /** Count the parse tree. */
+  @Benchmark
+  public long countTree(Counters counters) {
+    treeCounter.countTree(tree);
+    counters.nodes += numNodes;
+    return treeCounter.getNumberOfNodes();
+  }
+
+  /** Print the parse tree into a reused buffer. */
+  @Benchmark
+  public int printTree(Counters counters) throws IOException {
+    output.setLength(0);
+    treePrinter.printTree(tree, output);
+    counters.nodes += numNodes;
+    return output.length();
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Static helpers which read the JVM's thread CPU time, garbage collection
+ * and JIT compilation counters, so that the wall clock time of the lexer and
+ * of the parser can be split into the time the thread actually ran and the
+ * time the JVM spent collecting garbage and compiling.
+ * <p>
+ * The thread CPU time is specific to the current thread, while the garbage
+ * collection and JIT compilation times are JVM wide (and so, with -threads,
+ * include the work done on behalf of every worker). Counters which the JVM
+ * does not provide are reported as -1.
+ */
+public class CPUMeter {
+
+  /** The index of the thread CPU time (ns) in the phase totals. */
+  public static final int CPU_NANOS  = 0;
+  
+  /** The index of the garbage collection time (ms) in the phase totals. */
+  public static final int GC_MILLIS  = 1;
+  
+  /** The index of the JIT compilation time (ms) in the phase totals. */
+  public static final int JIT_MILLIS = 2;
+  
+  /** The JVM's thread bean, if it measures the CPU time of each thread. */
+  protected static final ThreadMXBean cpuTimeBean = getCPUTimeBean();
+  
+  /** The JVM's compilation bean, if it measures the JIT compilation time. */
+  protected static final CompilationMXBean compilationBean = getCompilationBean();
+  
+  /** The JVM's thread bean, if it measures the CPU time of each thread. */
+  protected static ThreadMXBean getCPUTimeBean() {
+    try {
+      ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+      if (!threadBean.isCurrentThreadCpuTimeSupported()) return null;
+      if (!threadBean.isThreadCpuTimeEnabled()) threadBean.setThreadCpuTimeEnabled(true);
+      return threadBean;
+    } catch (Throwable throwable) {
+      return null;
+    }
+  }
+  
+  /** The JVM's compilation bean, if it measures the JIT compilation time. */
+  protected static CompilationMXBean getCompilationBean() {
+    try {
+      CompilationMXBean bean = ManagementFactory.getCompilationMXBean();
+      if (bean == null || !bean.isCompilationTimeMonitoringSupported()) return null;
+      return bean;
+    } catch (Throwable throwable) {
+      return null;
+    }
+  }
+  
+  /** 
+   * The CPU time (in nanoseconds) used by the current thread, or -1 if the 
+   * JVM does not measure it.
+   */
+  public static long getThreadCPUNanos() {
+    if (cpuTimeBean == null) return -1L;
+    return cpuTimeBean.getCurrentThreadCpuTime();
+  }
+  
+  /** 
+   * The total time (in milliseconds) the JVM has spent in JIT compilation, or
+   * -1 if the JVM does not measure it.
+   */
+  public static long getJITMillis() {
+    if (compilationBean == null) return -1L;
+    return compilationBean.getTotalCompilationTime();
+  }
+  
+  /**
+   * The current thread CPU time, garbage collection time and JIT compilation
+   * time, indexed by {@link #CPU_NANOS}, {@link #GC_MILLIS} and 
+   * {@link #JIT_MILLIS}.
+   */
+  public static long[] getPhaseTotals() {
+    long[] phaseTotals = new long[3];
+    phaseTotals[CPU_NANOS]  = getThreadCPUNanos();
+    phaseTotals[GC_MILLIS]  = MemoryMeter.getGCTotals()[1];
+    phaseTotals[JIT_MILLIS] = getJITMillis();
+    return phaseTotals;
+  }
+  
+  /**
+   * The thread CPU time, garbage collection time and JIT compilation time
+   * used since the earlier phaseTotals were taken (any which the JVM does 
+   * not measure are -1).
+   */
+  public static long[] getPhaseTotalsSince(long[] phaseTotals) {
+    long[] newTotals = getPhaseTotals();
+    for (int i = 0; i < newTotals.length; i++) {
+      if (phaseTotals[i] < 0 || newTotals[i] < 0) newTotals[i] = -1L;
+      else newTotals[i] -= phaseTotals[i];
+    }
+    return newTotals;
+  }
+}
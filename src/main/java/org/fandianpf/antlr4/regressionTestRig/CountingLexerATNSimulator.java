@@ -0,0 +1,91 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.atn.ATNConfigSet;
+import org.antlr.v4.runtime.atn.LexerATNConfig;
+import org.antlr.v4.runtime.atn.LexerATNSimulator;
+import org.antlr.v4.runtime.dfa.DFAState;
+
+/**
+ * A LexerATNSimulator which counts its DFA cache misses: the number of times
+ * the lexer falls back to ATN simulation, either to compute the start state 
+ * of a mode or to compute the target of a missing DFA edge (which includes 
+ * every character outside of the DFA's edge range).
+ * <p>
+ * The simulator shares the lexer's DFA cache. If it has a 
+ * {@link ParseWatchdog}, each closure checks for a timeout.
+ */
+public class CountingLexerATNSimulator extends LexerATNSimulator {
+  
+  /** The number of DFA cache misses since the last reset. */
+  protected long numDFAMisses = 0L;
+  
+  /** The watchdog of the current parse (or null). */
+  protected ParseWatchdog watchdog = null;
+  
+  /** Constructor which shares the DFA cache of the lexer's simulator. */
+  public CountingLexerATNSimulator(Lexer lexer) {
+    super(lexer, lexer.getATN(), lexer.getInterpreter().decisionToDFA, 
+          lexer.getInterpreter().getSharedContextCache());
+  }
+  
+  /** The number of DFA cache misses since the last reset. */
+  public long getNumDFAMisses() { return numDFAMisses; }
+  
+  /** Reset the number of DFA cache misses. */
+  public void resetNumDFAMisses() { numDFAMisses = 0L; }
+  
+  /** Set the watchdog of the current parse (or null). */
+  public void setWatchdog(ParseWatchdog aWatchdog) { watchdog = aWatchdog; }
+  
+  @Override
+  protected int matchATN(CharStream input) {
+    numDFAMisses++;
+    return super.matchATN(input);
+  }
+  
+  @Override
+  protected DFAState computeTargetState(CharStream input, DFAState s, int t) {
+    numDFAMisses++;
+    return super.computeTargetState(input, s, t);
+  }
+  
+  @Override
+  protected boolean closure(CharStream input, LexerATNConfig config, 
+                            ATNConfigSet configs, 
+                            boolean currentAltReachedAcceptState,
+                            boolean speculative, boolean treatEofAsEpsilon) {
+    if (watchdog != null) watchdog.checkTimeout();
+    return super.closure(input, config, configs, currentAltReachedAcceptState,
+                         speculative, treatEofAsEpsilon);
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.RuleContext;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.atn.ATNConfig;
+import org.antlr.v4.runtime.atn.ATNConfigSet;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.ParserATNSimulator;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.dfa.DFAState;
+
+import java.util.Set;
+
+/**
+ * A ParserATNSimulator which counts its DFA cache misses: the number of 
+ * times adaptive prediction falls back to ATN simulation, either to compute 
+ * the (SLL) start state of a decision, to compute the target of a missing 
+ * DFA edge, or to predict using full context (whose results are never 
+ * cached in the DFA).
+ * <p>
+ * Unlike the {@link org.antlr.v4.runtime.atn.ProfilingATNSimulator}, this
+ * simulator adds (almost) nothing to the cost of prediction. It shares the 
+ * parser's DFA cache. If it has a {@link ParseWatchdog}, each closure checks
+ * for a timeout.
+ */
+public class CountingParserATNSimulator extends ParserATNSimulator {
+  
+  /** The number of DFA cache misses since the last reset. */
+  protected long numDFAMisses = 0L;
+  
+  /** The watchdog of the current parse (or null). */
+  protected ParseWatchdog watchdog = null;
+  
+  /** Constructor which shares the DFA cache of the parser's simulator. */
+  public CountingParserATNSimulator(Parser parser) {
+    super(parser, parser.getATN(), parser.getInterpreter().decisionToDFA,
+          parser.getInterpreter().getSharedContextCache());
+  }
+  
+  /** The number of DFA cache misses since the last reset. */
+  public long getNumDFAMisses() { return numDFAMisses; }
+  
+  /** Reset the number of DFA cache misses. */
+  public void resetNumDFAMisses() { numDFAMisses = 0L; }
+  
+  /** Set the watchdog of the current parse (or null). */
+  public void setWatchdog(ParseWatchdog aWatchdog) { watchdog = aWatchdog; }
+  
+  @Override
+  protected ATNConfigSet computeStartState(ATNState p, RuleContext ctx, 
+                                           boolean fullCtx) {
+    if (!fullCtx) numDFAMisses++;
+    return super.computeStartState(p, ctx, fullCtx);
+  }
+  
+  @Override
+  protected DFAState computeTargetState(DFA dfa, DFAState previousD, int t) {
+    numDFAMisses++;
+    return super.computeTargetState(dfa, previousD, t);
+  }
+  
+  @Override
+  protected int execATNWithFullContext(DFA dfa, DFAState D, ATNConfigSet s0,
+                                       TokenStream input, int startIndex,
+                                       ParserRuleContext outerContext) {
+    numDFAMisses++;
+    return super.execATNWithFullContext(dfa, D, s0, input, startIndex, outerContext);
+  }
+  
+  @Override
+  protected void closureCheckingStopState(ATNConfig config, ATNConfigSet configs,
+                                          Set<ATNConfig> closureBusy,
+                                          boolean collectPredicates,
+                                          boolean fullCtx, int depth,
+                                          boolean treatEofAsEpsilon) {
+    if (watchdog != null) watchdog.checkTimeout();
+    super.closureCheckingStopState(config, configs, closureBusy, 
+      collectPredicates, fullCtx, depth, treatEofAsEpsilon);
+  }
+}
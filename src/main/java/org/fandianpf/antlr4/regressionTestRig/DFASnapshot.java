@@ -0,0 +1,627 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.ATNConfig;
+import org.antlr.v4.runtime.atn.ATNConfigSet;
+import org.antlr.v4.runtime.atn.ATNSimulator;
+import org.antlr.v4.runtime.atn.ATNState;
+import org.antlr.v4.runtime.atn.ArrayPredictionContext;
+import org.antlr.v4.runtime.atn.LexerATNConfig;
+import org.antlr.v4.runtime.atn.LexerActionExecutor;
+import org.antlr.v4.runtime.atn.LexerAction;
+import org.antlr.v4.runtime.atn.LexerIndexedCustomAction;
+import org.antlr.v4.runtime.atn.OrderedATNConfigSet;
+import org.antlr.v4.runtime.atn.PredictionContext;
+import org.antlr.v4.runtime.atn.SemanticContext;
+import org.antlr.v4.runtime.atn.SingletonPredictionContext;
+import org.antlr.v4.runtime.dfa.DFA;
+import org.antlr.v4.runtime.dfa.DFAState;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A snapshot, on disk, of the lexer and parser DFA caches, used by the
+ * RegressionTestRig's "persist" DFA cache mode so that a fresh JVM starts 
+ * with a warm prediction cache.
+ * <p>
+ * ANTLR's DFA caches are static (shared by every instance of a given lexer 
+ * or parser class) and are only ever grown by adaptive prediction. The 
+ * snapshot is a binary file holding, for each lexer mode and each parser 
+ * decision, the DFA's states (with their ATN configurations and prediction 
+ * contexts) and edges. It is tagged with the hash of the lexer and parser 
+ * class files, and is ignored if the grammar has since changed.
+ * <p>
+ * Only DFAs whose states do not depend upon semantic predicates are saved;
+ * the others are left to be rebuilt by prediction. Lexer actions are saved
+ * as indexes into the ATN's lexer actions.
+ */
+public class DFASnapshot {
+  
+  /** The first (magic) int of every snapshot file ("RTDF"). */
+  public static final int SNAPSHOT_MAGIC = 0x52544446;
+  
+  /** The version of the snapshot file format. */
+  public static final int SNAPSHOT_VERSION = 1;
+  
+  /** The id of a missing prediction context, DFA state or lexer action. */
+  protected static final int NO_ID = -1;
+  
+  /** The id of the (shared) {@link ATNSimulator#ERROR} DFA state. */
+  protected static final int ERROR_STATE_ID = -2;
+  
+  /** The path to the snapshot file. */
+  protected String snapshotPath;
+  
+  /** The number of DFA states saved into or loaded from the snapshot. */
+  protected int numStates = 0;
+  
+  /** The number of DFAs which could not be saved (or could not be loaded). */
+  protected int numSkippedDFAs = 0;
+  
+  /** Constructor. */
+  public DFASnapshot(String aSnapshotPath) {
+    snapshotPath = aSnapshotPath;
+  }
+  
+  /** The number of DFA states saved or loaded by the last save or load. */
+  public int getNumStates() { return numStates; }
+  
+  /** The number of DFAs skipped by the last save or load. */
+  public int getNumSkippedDFAs() { return numSkippedDFAs; }
+  
+  /** The total number of states in an array of DFAs. */
+  public static int countStates(DFA[] dfas) {
+    int count = 0;
+    for (DFA dfa : dfas) {
+      if (dfa != null) count += dfa.states.size();
+    }
+    return count;
+  }
+  
+  /** 
+   * The total number of edges between the states in an array of DFAs (the 
+   * DFAs may be growing in other threads).
+   */
+  public static int countEdges(DFA[] dfas) {
+    int count = 0;
+    for (DFA dfa : dfas) {
+      if (dfa == null) continue;
+      synchronized (dfa.states) {
+        for (DFAState state : dfa.states.values()) {
+          DFAState[] edges = state.edges;
+          if (edges == null) continue;
+          for (DFAState target : edges) if (target != null) count++;
+        }
+      }
+    }
+    return count;
+  }
+  
+  /**
+   * Save the DFA caches of the lexer and (if not null) the parser.
+   *
+   * @param grammarHash the hash of the lexer and parser class files.
+   * @throws IOException if the snapshot file could not be written.
+   */
+  public void save(Lexer lexer, Parser parser, String grammarHash) 
+    throws IOException {
+    numStates = 0;
+    numSkippedDFAs = 0;
+    DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(snapshotPath)));
+    try {
+      out.writeInt(SNAPSHOT_MAGIC);
+      out.writeInt(SNAPSHOT_VERSION);
+      out.writeUTF(grammarHash == null ? "" : grammarHash);
+      writeDFAs(out, lexer.getATN(), lexer.getInterpreter().decisionToDFA, true);
+      if (parser != null) {
+        writeDFAs(out, parser.getATN(), parser.getInterpreter().decisionToDFA, false);
+      } else {
+        out.writeInt(0);
+      }
+    } finally {
+      out.close();
+    }
+  }
+  
+  /**
+   * Load the DFA caches of the lexer and (if not null) the parser, replacing
+   * any DFA states they already hold. Nothing is loaded if the snapshot file
+   * does not exist, or was saved for a different grammar.
+   *
+   * @param grammarHash the hash of the lexer and parser class files.
+   * @return true if the snapshot has been loaded.
+   * @throws IOException if the snapshot file could not be read or is corrupt.
+   */
+  public boolean load(Lexer lexer, Parser parser, String grammarHash) 
+    throws IOException {
+    numStates = 0;
+    numSkippedDFAs = 0;
+    if (!new File(snapshotPath).exists()) return false;
+    
+    List<DFA>      dfas         = new ArrayList<DFA>();
+    List<Boolean>  precedenceDFAs = new ArrayList<Boolean>();
+    List<DFAState> startStates  = new ArrayList<DFAState>();
+    List<Map<DFAState, DFAState>> stateMaps = new ArrayList<Map<DFAState, DFAState>>();
+    DataInputStream in = new DataInputStream(
+      new BufferedInputStream(new FileInputStream(snapshotPath)));
+    try {
+      if (in.readInt() != SNAPSHOT_MAGIC) {
+        throw new IOException("not a DFA snapshot");
+      }
+      if (in.readInt() != SNAPSHOT_VERSION) return false;
+      String savedHash = in.readUTF();
+      if (grammarHash == null || !grammarHash.equals(savedHash)) return false;
+      readDFAs(in, lexer.getATN(), lexer.getInterpreter(), 
+        lexer.getInterpreter().decisionToDFA, true, dfas, precedenceDFAs, 
+        startStates, stateMaps);
+      if (parser != null) {
+        readDFAs(in, parser.getATN(), parser.getInterpreter(), 
+          parser.getInterpreter().decisionToDFA, false, dfas, precedenceDFAs,
+          startStates, stateMaps);
+      }
+    } finally {
+      in.close();
+    }
+    
+    // only install the DFA states once the whole snapshot has been read (a
+    // DFA only becomes a precedence DFA once it is first used by prediction)
+    for (int i = 0; i < dfas.size(); i++) {
+      DFA dfa = dfas.get(i);
+      dfa.setPrecedenceDfa(precedenceDFAs.get(i));
+      dfa.states.clear();
+      dfa.states.putAll(stateMaps.get(i));
+      dfa.s0 = startStates.get(i);
+      numStates += dfa.states.size();
+    }
+    return true;
+  }
+  
+  /** Write an array of DFAs, each preceded by its decision number. */
+  protected void writeDFAs(DataOutputStream out, ATN atn, DFA[] dfas, 
+                           boolean lexerDFAs) throws IOException {
+    out.writeInt(dfas.length);
+    for (DFA dfa : dfas) {
+      out.writeInt(dfa.decision);
+      out.writeBoolean(dfa.isPrecedenceDfa());
+      byte[] encodedDFA = encodeDFA(atn, dfa, lexerDFAs);
+      if (encodedDFA == null) {
+        numSkippedDFAs++;
+        out.writeInt(NO_ID);
+      } else {
+        numStates += dfa.states.size();
+        out.writeInt(encodedDFA.length);
+        out.write(encodedDFA);
+      }
+    }
+  }
+  
+  /** 
+   * Read an array of DFAs, collecting the (decoded) states of each DFA 
+   * which matches the corresponding DFA of the recognizer.
+   */
+  protected void readDFAs(DataInputStream in, ATN atn, ATNSimulator simulator,
+                          DFA[] dfas, boolean lexerDFAs, List<DFA> loadedDFAs,
+                          List<Boolean> precedenceDFAs,
+                          List<DFAState> startStates,
+                          List<Map<DFAState, DFAState>> stateMaps) 
+    throws IOException {
+    int numDFAs = in.readInt();
+    if (numDFAs != dfas.length) {
+      throw new IOException("the number of DFAs does not match the grammar");
+    }
+    for (DFA dfa : dfas) {
+      int decision = in.readInt();
+      boolean precedenceDFA = in.readBoolean();
+      int length = in.readInt();
+      if (decision != dfa.decision) {
+        throw new IOException("the DFA decisions do not match the grammar");
+      }
+      if (length == NO_ID) {
+        numSkippedDFAs++;
+        continue;
+      }
+      byte[] encodedDFA = new byte[length];
+      in.readFully(encodedDFA);
+      Map<DFAState, DFAState> states = new IdentityHashMap<DFAState, DFAState>();
+      DFAState s0 = decodeDFA(encodedDFA, atn, simulator, lexerDFAs, states);
+      loadedDFAs.add(dfa);
+      precedenceDFAs.add(precedenceDFA);
+      startStates.add(s0);
+      stateMaps.add(states);
+    }
+  }
+  
+  /**
+   * Encode the states, prediction contexts and edges of one DFA.
+   *
+   * @return the encoded DFA, or null if the DFA can not be saved.
+   */
+  protected byte[] encodeDFA(ATN atn, DFA dfa, boolean lexerDFA) 
+    throws IOException {
+    // number the DFA states (the start state of a precedence DFA is not 
+    // one of the DFA's states)
+    DFAState s0 = dfa.s0;
+    Map<DFAState, Integer> stateIds = new IdentityHashMap<DFAState, Integer>();
+    List<DFAState> states = new ArrayList<DFAState>(dfa.states.values());
+    boolean s0InStates = true;
+    for (DFAState state : states) stateIds.put(state, stateIds.size());
+    if (s0 != null && !stateIds.containsKey(s0)) {
+      s0InStates = false;
+      stateIds.put(s0, states.size());
+      states.add(s0);
+    }
+    
+    // number the prediction contexts (parents before their children)
+    Map<PredictionContext, Integer> contextIds = 
+      new IdentityHashMap<PredictionContext, Integer>();
+    List<PredictionContext> contexts = new ArrayList<PredictionContext>();
+    for (DFAState state : states) {
+      if (state.predicates != null) return null;
+      for (ATNConfig config : state.configs) {
+        if (config.semanticContext != SemanticContext.NONE) return null;
+        addContext(config.context, contextIds, contexts);
+      }
+    }
+    
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeInt(contexts.size());
+    for (PredictionContext context : contexts) {
+      if (context.isEmpty()) {
+        out.writeInt(0);
+        continue;
+      }
+      out.writeInt(context.size());
+      for (int i = 0; i < context.size(); i++) {
+        PredictionContext parent = context.getParent(i);
+        out.writeInt(parent == null ? NO_ID : contextIds.get(parent));
+        out.writeInt(context.getReturnState(i));
+      }
+    }
+    
+    out.writeInt(states.size());
+    for (DFAState state : states) {
+      out.writeInt(state.stateNumber);
+      out.writeBoolean(state.isAcceptState);
+      out.writeInt(state.prediction);
+      out.writeBoolean(state.requiresFullContext);
+      if (!writeLexerActionExecutor(out, atn, state.lexerActionExecutor)) {
+        return null;
+      }
+      ATNConfigSet configs = state.configs;
+      out.writeBoolean(configs.fullCtx);
+      out.writeInt(configs.uniqueAlt);
+      out.writeBoolean(configs.hasSemanticContext);
+      out.writeBoolean(configs.dipsIntoOuterContext);
+      writeBitSet(out, getConflictingAlts(configs));
+      out.writeInt(configs.size());
+      for (ATNConfig config : configs) {
+        out.writeInt(config.state.stateNumber);
+        out.writeInt(config.alt);
+        out.writeInt(contextIds.get(config.context));
+        out.writeInt(config.reachesIntoOuterContext);
+        if (lexerDFA) {
+          LexerATNConfig lexerConfig = (LexerATNConfig)config;
+          out.writeBoolean(lexerConfig.hasPassedThroughNonGreedyDecision());
+          if (!writeLexerActionExecutor(out, atn, 
+                lexerConfig.getLexerActionExecutor())) return null;
+        }
+      }
+    }
+    
+    for (DFAState state : states) {
+      if (state.edges == null) {
+        out.writeInt(NO_ID);
+        continue;
+      }
+      int numEdges = 0;
+      for (DFAState target : state.edges) if (target != null) numEdges++;
+      out.writeInt(state.edges.length);
+      out.writeInt(numEdges);
+      for (int i = 0; i < state.edges.length; i++) {
+        DFAState target = state.edges[i];
+        if (target == null) continue;
+        out.writeInt(i);
+        if (target == ATNSimulator.ERROR) {
+          out.writeInt(ERROR_STATE_ID);
+        } else if (stateIds.containsKey(target)) {
+          out.writeInt(stateIds.get(target));
+        } else {
+          return null;
+        }
+      }
+    }
+    
+    out.writeInt(s0 == null ? NO_ID : stateIds.get(s0));
+    out.writeBoolean(s0InStates);
+    out.flush();
+    return bytes.toByteArray();
+  }
+  
+  /** 
+   * Decode the states of one DFA into the states map.
+   *
+   * @return the DFA's start state (which may be null).
+   */
+  protected DFAState decodeDFA(byte[] encodedDFA, ATN atn, ATNSimulator simulator,
+                               boolean lexerDFA, Map<DFAState, DFAState> stateMap)
+    throws IOException {
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(encodedDFA));
+    
+    int numContexts = in.readInt();
+    PredictionContext[] contexts = new PredictionContext[numContexts];
+    for (int c = 0; c < numContexts; c++) {
+      int size = in.readInt();
+      if (size == 0) {
+        contexts[c] = PredictionContext.EMPTY;
+        continue;
+      }
+      PredictionContext[] parents = new PredictionContext[size];
+      int[] returnStates = new int[size];
+      for (int i = 0; i < size; i++) {
+        int parentId = in.readInt();
+        if (parentId != NO_ID) parents[i] = getById(contexts, parentId, c);
+        returnStates[i] = in.readInt();
+      }
+      if (size == 1) {
+        contexts[c] = SingletonPredictionContext.create(parents[0], returnStates[0]);
+      } else {
+        contexts[c] = new ArrayPredictionContext(parents, returnStates);
+      }
+    }
+    
+    int numStatesInDFA = in.readInt();
+    DFAState[] states = new DFAState[numStatesInDFA];
+    for (int s = 0; s < numStatesInDFA; s++) {
+      int stateNumber = in.readInt();
+      boolean isAcceptState = in.readBoolean();
+      int prediction = in.readInt();
+      boolean requiresFullContext = in.readBoolean();
+      LexerActionExecutor lexerActionExecutor = readLexerActionExecutor(in, atn);
+      
+      boolean fullCtx = in.readBoolean();
+      ATNConfigSet configs = 
+        lexerDFA ? new OrderedATNConfigSet() : new ATNConfigSet(fullCtx);
+      int uniqueAlt = in.readInt();
+      boolean hasSemanticContext = in.readBoolean();
+      boolean dipsIntoOuterContext = in.readBoolean();
+      BitSet conflictingAlts = readBitSet(in);
+      int numConfigs = in.readInt();
+      for (int c = 0; c < numConfigs; c++) {
+        int atnStateNumber = in.readInt();
+        if (atnStateNumber < 0 || atn.states.size() <= atnStateNumber) {
+          throw new IOException("corrupt DFA snapshot (ATN state)");
+        }
+        ATNState atnState = atn.states.get(atnStateNumber);
+        int alt = in.readInt();
+        PredictionContext context = getById(contexts, in.readInt(), numContexts);
+        int reachesIntoOuterContext = in.readInt();
+        ATNConfig config;
+        if (lexerDFA) {
+          boolean passedThroughNonGreedyDecision = in.readBoolean();
+          config = new LexerATNConfig(atnState, alt, context, 
+                                      readLexerActionExecutor(in, atn));
+          if (passedThroughNonGreedyDecision) {
+            setField(LexerATNConfig.class, "passedThroughNonGreedyDecision", 
+                     config, Boolean.TRUE);
+          }
+        } else {
+          config = new ATNConfig(atnState, alt, context, SemanticContext.NONE);
+        }
+        config.reachesIntoOuterContext = reachesIntoOuterContext;
+        configs.add(config);
+      }
+      configs.uniqueAlt = uniqueAlt;
+      configs.hasSemanticContext = hasSemanticContext;
+      configs.dipsIntoOuterContext = dipsIntoOuterContext;
+      setField(ATNConfigSet.class, "conflictingAlts", configs, conflictingAlts);
+      if (!lexerDFA) configs.optimizeConfigs(simulator);
+      configs.setReadonly(true);
+      
+      DFAState state = new DFAState(configs);
+      state.stateNumber = stateNumber;
+      state.isAcceptState = isAcceptState;
+      state.prediction = prediction;
+      state.requiresFullContext = requiresFullContext;
+      state.lexerActionExecutor = lexerActionExecutor;
+      states[s] = state;
+    }
+    
+    for (int s = 0; s < numStatesInDFA; s++) {
+      int numEdgeSlots = in.readInt();
+      if (numEdgeSlots == NO_ID) continue;
+      DFAState[] edges = new DFAState[numEdgeSlots];
+      int numEdges = in.readInt();
+      for (int e = 0; e < numEdges; e++) {
+        int edge = in.readInt();
+        int targetId = in.readInt();
+        if (edge < 0 || numEdgeSlots <= edge) {
+          throw new IOException("corrupt DFA snapshot (edge)");
+        }
+        edges[edge] = (targetId == ERROR_STATE_ID) ? 
+          ATNSimulator.ERROR : getById(states, targetId, numStatesInDFA);
+      }
+      states[s].edges = edges;
+    }
+    
+    int s0Id = in.readInt();
+    boolean s0InStates = in.readBoolean();
+    DFAState s0 = (s0Id == NO_ID) ? null : getById(states, s0Id, numStatesInDFA);
+    for (DFAState state : states) {
+      if (state != s0 || s0InStates) stateMap.put(state, state);
+    }
+    return s0;
+  }
+  
+  /** Number a prediction context after all of its parents. */
+  protected static void addContext(PredictionContext context, 
+                                   Map<PredictionContext, Integer> contextIds,
+                                   List<PredictionContext> contexts) {
+    if (contextIds.containsKey(context)) return;
+    if (!context.isEmpty()) {
+      for (int i = 0; i < context.size(); i++) {
+        PredictionContext parent = context.getParent(i);
+        if (parent != null) addContext(parent, contextIds, contexts);
+      }
+    }
+    contextIds.put(context, contexts.size());
+    contexts.add(context);
+  }
+  
+  /** 
+   * Write a lexer action executor as indexes into the ATN's lexer actions.
+   *
+   * @return false if any of the executor's actions is not one of the ATN's.
+   */
+  protected static boolean writeLexerActionExecutor(DataOutputStream out, ATN atn,
+                                                    LexerActionExecutor executor)
+    throws IOException {
+    if (executor == null) {
+      out.writeInt(NO_ID);
+      return true;
+    }
+    LexerAction[] actions = executor.getLexerActions();
+    out.writeInt(actions.length);
+    for (LexerAction action : actions) {
+      int offset = NO_ID;
+      if (action instanceof LexerIndexedCustomAction) {
+        offset = ((LexerIndexedCustomAction)action).getOffset();
+        action = ((LexerIndexedCustomAction)action).getAction();
+      }
+      int actionIndex = NO_ID;
+      if (atn.lexerActions != null) {
+        for (int i = 0; i < atn.lexerActions.length; i++) {
+          if (atn.lexerActions[i].equals(action)) {
+            actionIndex = i;
+            break;
+          }
+        }
+      }
+      if (actionIndex == NO_ID) return false;
+      out.writeInt(offset);
+      out.writeInt(actionIndex);
+    }
+    return true;
+  }
+  
+  /** Read a lexer action executor written by writeLexerActionExecutor. */
+  protected static LexerActionExecutor readLexerActionExecutor(DataInputStream in,
+                                                               ATN atn)
+    throws IOException {
+    int numActions = in.readInt();
+    if (numActions == NO_ID) return null;
+    LexerAction[] actions = new LexerAction[numActions];
+    for (int i = 0; i < numActions; i++) {
+      int offset = in.readInt();
+      int actionIndex = in.readInt();
+      if (atn.lexerActions == null || actionIndex < 0 || 
+          atn.lexerActions.length <= actionIndex) {
+        throw new IOException("corrupt DFA snapshot (lexer action)");
+      }
+      actions[i] = atn.lexerActions[actionIndex];
+      if (offset != NO_ID) actions[i] = new LexerIndexedCustomAction(offset, actions[i]);
+    }
+    return new LexerActionExecutor(actions);
+  }
+  
+  /** Write a (possibly null) BitSet. */
+  protected static void writeBitSet(DataOutputStream out, BitSet bits) 
+    throws IOException {
+    if (bits == null) {
+      out.writeInt(NO_ID);
+      return;
+    }
+    out.writeInt(bits.cardinality());
+    for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i+1)) {
+      out.writeInt(i);
+    }
+  }
+  
+  /** Read a (possibly null) BitSet written by writeBitSet. */
+  protected static BitSet readBitSet(DataInputStream in) throws IOException {
+    int numBits = in.readInt();
+    if (numBits == NO_ID) return null;
+    BitSet bits = new BitSet();
+    for (int i = 0; i < numBits; i++) bits.set(in.readInt());
+    return bits;
+  }
+  
+  /** An element of an array, by id, which must be less than the limit. */
+  protected static <T> T getById(T[] elements, int id, int limit) 
+    throws IOException {
+    if (id < 0 || limit <= id || elements[id] == null) {
+      throw new IOException("corrupt DFA snapshot (id)");
+    }
+    return elements[id];
+  }
+  
+  /** The (protected) conflicting alternatives of an ATN config set. */
+  protected static BitSet getConflictingAlts(ATNConfigSet configs) {
+    try {
+      Field field = ATNConfigSet.class.getDeclaredField("conflictingAlts");
+      field.setAccessible(true);
+      return (BitSet)field.get(configs);
+    } catch (Exception exp) {
+      return null;
+    }
+  }
+  
+  /** Set a field which the ANTLR runtime does not expose. */
+  protected static void setField(Class<?> aClass, String fieldName, 
+                                 Object target, Object value) 
+    throws IOException {
+    try {
+      Field field = aClass.getDeclaredField(fieldName);
+      field.setAccessible(true);
+      field.set(target, value);
+    } catch (Exception exp) {
+      throw new IOException("could not set the "+fieldName+" of a DFA state");
+    }
+  }
+}
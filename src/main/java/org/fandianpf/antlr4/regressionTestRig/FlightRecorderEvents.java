@@ -0,0 +1,118 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+/**
+ * Emits Java Flight Recorder events around each stage of the processing of
+ * an input file (lex, parse, count, print and write) and around the loading
+ * and saving of the metricsTable, and starts and stops the recordings 
+ * requested by the -jfr option.
+ * <p>
+ * Each event carries the metricsKey of its input file (or the path of the 
+ * metricsTable), the size of the input (in characters) or of the file 
+ * written (in bytes), and the number of tokens and parse tree nodes (-1 
+ * when not known), so that hot input files can be lined up against the 
+ * allocation and lock profiles of the same recording in JDK Mission Control.
+ * <p>
+ * The events themselves are defined in {@link JFREvents}, which is only 
+ * loaded if the JVM provides the jdk.jfr API; on other JVMs all of these
+ * methods do nothing. The events are cheap when no recording is running, so
+ * they are always emitted.
+ */
+public class FlightRecorderEvents {
+  
+  public static final int LEX                = 0;
+  public static final int PARSE              = 1;
+  public static final int COUNT              = 2;
+  public static final int PRINT              = 3;
+  public static final int WRITE              = 4;
+  public static final int METRICS_TABLE_LOAD = 5;
+  public static final int METRICS_TABLE_SAVE = 6;
+  
+  /** Does this JVM provide the jdk.jfr API? */
+  protected static final boolean available = checkAvailable();
+  
+  protected static boolean checkAvailable() {
+    try {
+      Class.forName("jdk.jfr.Event");
+      return true;
+    } catch (Throwable throwable) {
+      return false;
+    }
+  }
+  
+  /** Does this JVM provide the jdk.jfr API? */
+  public static boolean isAvailable() { return available; }
+  
+  /**
+   * Begin timing an event of the given stage.
+   *
+   * @return the event, or null if the JVM does not provide JFR.
+   */
+  public static Object begin(int stage) {
+    if (!available) return null;
+    return JFREvents.begin(stage);
+  }
+  
+  /** End the timing of a (begun) event. */
+  public static void end(Object event) {
+    if (event == null) return;
+    JFREvents.end(event);
+  }
+  
+  /** 
+   * End the timing of an event (unless it has already been ended) and commit
+   * it, with its details, to any running recordings.
+   */
+  public static void commit(Object event, String metricsKey, long size, 
+                            long tokens, long nodes) {
+    if (event == null) return;
+    JFREvents.commit(event, metricsKey, size, tokens, nodes);
+  }
+  
+  /**
+   * Start a recording (using the JVM's "profile" settings, which include
+   * allocation and lock profiling) which will be written to recordingPath
+   * when it is stopped.
+   *
+   * @return the recording.
+   */
+  public static Object startRecording(String recordingPath) throws Exception {
+    if (!available) {
+      throw new UnsupportedOperationException("this JVM does not provide Java Flight Recorder");
+    }
+    return JFREvents.startRecording(recordingPath);
+  }
+  
+  /** Stop a recording, writing it to its file. */
+  public static void stopRecording(Object recording) throws Exception {
+    if (recording == null) return;
+    JFREvents.stopRecording(recording);
+  }
+}
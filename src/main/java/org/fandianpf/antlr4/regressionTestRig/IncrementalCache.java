@@ -0,0 +1,218 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The cache used by incremental runs of the RegressionTestRig to skip the 
+ * input files which have not changed since they were last parsed.
+ * <p>
+ * For each metricsKey (testDoc name) the cache holds the fingerprint of the
+ * last successful parse: a hash of the input file's bytes, a hash of the 
+ * lexer and parser class files, and a hash of the options which affect the 
+ * results file. An input file whose fingerprint matches its cached 
+ * fingerprint would produce the same results file (and structural metrics) 
+ * again, and so need not be re-parsed.
+ * <p>
+ * The cache is a (small) text file with one tab separated line per 
+ * testDoc: 
+ * <pre>
+ *   metricsKey inputHash grammarHash optionsHash
+ * </pre>
+ */
+public class IncrementalCache {
+  
+  /** The first (header) line of the cache file. */
+  public static final String CACHE_HEADER = "# RegressionTestRig incremental cache v1";
+  
+  /** The hash algorithm used to compute all fingerprints. */
+  public static final String HASH_ALGORITHM = "SHA-256";
+  
+  /** The path to the cache file. */
+  protected String cachePath;
+  
+  /** The fingerprint of each metricsKey. */
+  protected final TreeMap<String, String> fingerprints = new TreeMap<String, String>();
+  
+  /** Constructor. */
+  public IncrementalCache(String aCachePath) {
+    cachePath = aCachePath;
+  }
+  
+  /** The number of testDocs in this cache. */
+  public int size() { return fingerprints.size(); }
+  
+  /** 
+   * Load the cache file. A missing cache file is an empty cache, and 
+   * malformed lines are ignored.
+   */
+  public void load() throws IOException {
+    fingerprints.clear();
+    BufferedReader cacheReader;
+    try {
+      cacheReader = new BufferedReader(
+        new InputStreamReader(new FileInputStream(cachePath), "UTF-8"));
+    } catch (FileNotFoundException fnfe) {
+      return;
+    }
+    try {
+      for (String line = cacheReader.readLine(); line != null; 
+           line = cacheReader.readLine()) {
+        int keyEnd = line.indexOf('\t');
+        if (line.startsWith("#") || keyEnd < 1) continue;
+        fingerprints.put(line.substring(0, keyEnd), line.substring(keyEnd+1));
+      }
+    } finally {
+      cacheReader.close();
+    }
+  }
+  
+  /** Save the cache file (ordered by metricsKey). */
+  public void save() throws IOException {
+    PrintStream cacheFile = new PrintStream(new File(cachePath), "UTF-8");
+    try {
+      cacheFile.println(CACHE_HEADER);
+      for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+        cacheFile.print(entry.getKey());
+        cacheFile.print('\t');
+        cacheFile.println(entry.getValue());
+      }
+    } finally {
+      cacheFile.close();
+    }
+  }
+  
+  /** Is the fingerprint of the metricsKey the cached fingerprint? */
+  public boolean isUnchanged(String metricsKey, String fingerprint) {
+    return fingerprint != null && fingerprint.equals(fingerprints.get(metricsKey));
+  }
+  
+  /** Cache the fingerprint of the (successfully parsed) metricsKey. */
+  public void update(String metricsKey, String fingerprint) {
+    if (fingerprint != null) fingerprints.put(metricsKey, fingerprint);
+  }
+  
+  /** 
+   * Combine the input, grammar and options hashes into one fingerprint, or
+   * null if any of them is unknown.
+   */
+  public static String fingerprint(String inputHash, String grammarHash, 
+                                   String optionsHash) {
+    if (inputHash == null || grammarHash == null || optionsHash == null) return null;
+    return inputHash+"\t"+grammarHash+"\t"+optionsHash;
+  }
+  
+  /** Create a new MessageDigest of the {@link #HASH_ALGORITHM}. */
+  protected static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance(HASH_ALGORITHM);
+    } catch (NoSuchAlgorithmException nsae) {
+      // every Java platform is required to support SHA-256
+      throw new IllegalStateException(nsae);
+    }
+  }
+  
+  /** Add all of the bytes of the input stream to the digest. */
+  protected static void digestStream(MessageDigest digest, InputStream input) 
+    throws IOException {
+    byte[] buffer = new byte[1 << 16];
+    for (int numRead = input.read(buffer); 0 <= numRead; numRead = input.read(buffer)) {
+      digest.update(buffer, 0, numRead);
+    }
+  }
+  
+  /** The digest as a hexadecimal string. */
+  protected static String toHex(MessageDigest digest) {
+    StringBuilder hex = new StringBuilder();
+    for (byte b : digest.digest()) {
+      hex.append(Character.forDigit((b >> 4) & 0xF, 16));
+      hex.append(Character.forDigit(b & 0xF, 16));
+    }
+    return hex.toString();
+  }
+  
+  /** The hash of the bytes of a file. */
+  public static String hashFile(String filePath) throws IOException {
+    MessageDigest digest = newDigest();
+    InputStream input = new FileInputStream(filePath);
+    try {
+      digestStream(digest, input);
+    } finally {
+      input.close();
+    }
+    return toHex(digest);
+  }
+  
+  /** The hash of a string. */
+  public static String hashString(String aString) {
+    MessageDigest digest = newDigest();
+    try {
+      digest.update(aString.getBytes("UTF-8"));
+    } catch (IOException ioe) {
+      // every Java platform is required to support UTF-8
+    }
+    return toHex(digest);
+  }
+  
+  /**
+   * The hash of the class file bytes of the (non null) classes, or null if 
+   * any class file can not be read.
+   */
+  public static String hashClasses(Class<?>... classes) {
+    MessageDigest digest = newDigest();
+    for (Class<?> aClass : classes) {
+      if (aClass == null) continue;
+      InputStream input = 
+        aClass.getResourceAsStream("/"+aClass.getName().replace('.', '/')+".class");
+      if (input == null) return null;
+      try {
+        try {
+          digestStream(digest, input);
+        } finally {
+          input.close();
+        }
+      } catch (IOException ioe) {
+        return null;
+      }
+    }
+    return toHex(digest);
+  }
+}
@@ -0,0 +1,160 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import java.nio.file.Paths;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+
+/**
+ * The Java Flight Recorder event types of the RegressionTestRig. 
+ * <p>
+ * This class is only used (through {@link FlightRecorderEvents}) on JVMs 
+ * which provide the jdk.jfr API.
+ */
+public class JFREvents {
+  
+  /** The details shared by all of the RegressionTestRig's events. */
+  @Category({ "ANTLR4", "RegressionTestRig" })
+  public static abstract class StageEvent extends Event {
+    
+    @Label("Metrics Key")
+    @Description("The metricsKey of the input file, or the path of the metricsTable")
+    public String metricsKey;
+    
+    @Label("Size")
+    @Description("The size of the input (characters) or of the file written (bytes)")
+    public long size;
+    
+    @Label("Tokens")
+    @Description("The number of tokens (-1 if not known)")
+    public long tokens;
+    
+    @Label("Nodes")
+    @Description("The number of parse tree nodes (-1 if not known)")
+    public long nodes;
+  }
+  
+  @Name("org.fandianpf.antlr4.regressionTestRig.Lex")
+  @Label("Lex")
+  @Description("The recorded lexing of an input file")
+  public static class LexEvent extends StageEvent { }
+  
+  @Name("org.fandianpf.antlr4.regressionTestRig.Parse")
+  @Label("Parse")
+  @Description("The recorded parse of an input file")
+  public static class ParseEvent extends StageEvent { }
+  
+  @Name("org.fandianpf.antlr4.regressionTestRig.Count")
+  @Label("Count")
+  @Description("The counting of the nodes and depth of a parse tree")
+  public static class CountEvent extends StageEvent { }
+  
+  @Name("org.fandianpf.antlr4.regressionTestRig.Print")
+  @Label("Print")
+  @Description("The printing of a parse tree into a results file")
+  public static class PrintEvent extends StageEvent { }
+  
+  @Name("org.fandianpf.antlr4.regressionTestRig.Write")
+  @Label("Write")
+  @Description("The flushing and closing of a results file")
+  public static class WriteEvent extends StageEvent { }
+  
+  @Name("org.fandianpf.antlr4.regressionTestRig.MetricsTableLoad")
+  @Label("MetricsTable Load")
+  @Description("The loading of a CSV metricsTable")
+  public static class MetricsTableLoadEvent extends StageEvent { }
+  
+  @Name("org.fandianpf.antlr4.regressionTestRig.MetricsTableSave")
+  @Label("MetricsTable Save")
+  @Description("The saving of a CSV metricsTable")
+  public static class MetricsTableSaveEvent extends StageEvent { }
+  
+  /** Begin timing a new event of the given stage. */
+  public static Object begin(int stage) {
+    StageEvent event;
+    switch (stage) {
+      case FlightRecorderEvents.LEX:                event = new LexEvent(); break;
+      case FlightRecorderEvents.PARSE:              event = new ParseEvent(); break;
+      case FlightRecorderEvents.COUNT:              event = new CountEvent(); break;
+      case FlightRecorderEvents.PRINT:              event = new PrintEvent(); break;
+      case FlightRecorderEvents.WRITE:              event = new WriteEvent(); break;
+      case FlightRecorderEvents.METRICS_TABLE_LOAD: event = new MetricsTableLoadEvent(); break;
+      case FlightRecorderEvents.METRICS_TABLE_SAVE: event = new MetricsTableSaveEvent(); break;
+      default: return null;
+    }
+    event.begin();
+    return event;
+  }
+  
+  /** End the timing of a (begun) event. */
+  public static void end(Object event) {
+    ((StageEvent)event).end();
+  }
+  
+  /** Commit an event, with its details, to any running recordings. */
+  public static void commit(Object event, String metricsKey, long size, 
+                            long tokens, long nodes) {
+    StageEvent stageEvent = (StageEvent)event;
+    if (!stageEvent.shouldCommit()) return;
+    stageEvent.metricsKey = metricsKey;
+    stageEvent.size       = size;
+    stageEvent.tokens     = tokens;
+    stageEvent.nodes      = nodes;
+    stageEvent.commit();
+  }
+  
+  /** Start a "profile" recording to be written to recordingPath. */
+  public static Object startRecording(String recordingPath) throws Exception {
+    Recording recording = new Recording(Configuration.getConfiguration("profile"));
+    recording.setName("RegressionTestRig");
+    recording.setDestination(Paths.get(recordingPath));
+    recording.enable(LexEvent.class);
+    recording.enable(ParseEvent.class);
+    recording.enable(CountEvent.class);
+    recording.enable(PrintEvent.class);
+    recording.enable(WriteEvent.class);
+    recording.enable(MetricsTableLoadEvent.class);
+    recording.enable(MetricsTableSaveEvent.class);
+    recording.start();
+    return recording;
+  }
+  
+  /** Stop a recording, writing it to its destination. */
+  public static void stopRecording(Object recording) throws Exception {
+    ((Recording)recording).stop();
+    ((Recording)recording).close();
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.util.Arrays;
+
+/**
+ * An {@link ANTLRInputStream} whose characters are decoded, once, directly 
+ * from a memory-mapped input file into a right-sized char buffer.
+ * <p>
+ * The ANTLRInputStream(Reader) constructors read through a Reader into a 
+ * buffer which is repeatedly reallocated as it grows, so that a large input 
+ * file is decoded twice (once by the Reader and once into the buffer) and is 
+ * held in memory a number of times over. A MappedFileInputStream avoids the 
+ * Reader, and its char buffer is allocated once using the file's size.
+ * <p>
+ * The file is mapped one window at a time, so files larger than a single 
+ * MappedByteBuffer (2GB) can be read, provided their characters fit in one 
+ * char array.
+ */
+public class MappedFileInputStream extends ANTLRInputStream {
+
+  /** The default number of bytes of the file mapped at one time (256MB). */
+  public static final int DEFAULT_WINDOW_SIZE = 256*1024*1024;
+
+  /**
+   * Decode the file named fileName using the given encoding.
+   *
+   * @param fileName the path to the file to be read.
+   * @param encoding the name of the file's encoding (or null for the system's
+   *                 default encoding).
+   * @throws IOException if the file could not be read, or is too large.
+   * @throws java.nio.charset.UnsupportedCharsetException if the encoding is 
+   *         not supported.
+   */
+  public MappedFileInputStream(String fileName, String encoding) 
+    throws IOException {
+    this(fileName, encoding, DEFAULT_WINDOW_SIZE);
+  }
+
+  /**
+   * Decode the file named fileName using the given encoding, mapping at most
+   * windowSize bytes of the file at a time.
+   */
+  protected MappedFileInputStream(String fileName, String encoding, int windowSize)
+    throws IOException {
+    name = fileName;
+    Charset charset = 
+      (encoding != null) ? Charset.forName(encoding) : Charset.defaultCharset();
+    // decode malformed input in the same way as an InputStreamReader
+    CharsetDecoder decoder = charset.newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    FileInputStream inputStream = new FileInputStream(fileName);
+    try {
+      FileChannel channel = inputStream.getChannel();
+      long fileSize = channel.size();
+      double maxChars = Math.ceil(fileSize * (double)decoder.maxCharsPerByte());
+      if (Integer.MAX_VALUE < maxChars) {
+        throw new IOException("The file ["+fileName+"] is too large to be decoded");
+      }
+      CharBuffer chars = CharBuffer.wrap(new char[(int)maxChars]);
+
+      long offset = 0;
+      boolean lastWindow = false;
+      while (!lastWindow) {
+        long windowLength = Math.min(fileSize - offset, (long)windowSize);
+        lastWindow = (offset + windowLength == fileSize);
+        MappedByteBuffer window = 
+          channel.map(FileChannel.MapMode.READ_ONLY, offset, windowLength);
+        checkResult(decoder.decode(window, chars, lastWindow));
+        // any partial character at the end of this window is re-mapped at the
+        // start of the next window
+        if (!lastWindow && window.position() == 0) {
+          throw new IOException("Could not decode the file ["+fileName+"]");
+        }
+        offset += window.position();
+      }
+      checkResult(decoder.flush(chars));
+
+      data = chars.array();
+      n    = chars.position();
+      // only trim the buffer if a significant part of it is unused (for 
+      // example, a UTF-8 encoded file with many multi-byte characters)
+      if (n < data.length - data.length/4) data = Arrays.copyOf(data, n);
+    } finally {
+      inputStream.close();
+    }
+  }
+
+  /** Convert any (unexpected) decoding error into an exception. */
+  protected static void checkResult(CoderResult result) 
+    throws CharacterCodingException {
+    if (result.isError() || result.isOverflow()) result.throwException();
+  }
+}
@@ -0,0 +1,106 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Static helpers which read the JVM's memory and garbage collection 
+ * counters for the RegressionTestRig's memory metrics.
+ * <p>
+ * The bytes allocated by a thread are read from HotSpot's per-thread 
+ * allocation counters (com.sun.management.ThreadMXBean). On JVMs which do
+ * not provide these counters, the allocated bytes are reported as -1.
+ */
+public class MemoryMeter {
+  
+  /** The JVM's thread bean, if it counts the bytes allocated by each thread. */
+  protected static final com.sun.management.ThreadMXBean allocationBean = 
+    getAllocationBean();
+  
+  /** The JVM's thread bean, if it counts the bytes allocated by each thread. */
+  protected static com.sun.management.ThreadMXBean getAllocationBean() {
+    try {
+      ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+      if (!(threadBean instanceof com.sun.management.ThreadMXBean)) return null;
+      com.sun.management.ThreadMXBean allocationBean =
+        (com.sun.management.ThreadMXBean)threadBean;
+      if (!allocationBean.isThreadAllocatedMemorySupported()) return null;
+      if (!allocationBean.isThreadAllocatedMemoryEnabled()) {
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+      }
+      return allocationBean;
+    } catch (Throwable throwable) {
+      // com.sun.management is not provided by this JVM
+      return null;
+    }
+  }
+  
+  /** 
+   * The total number of bytes allocated by the current thread, or -1 if the
+   * JVM does not count them.
+   */
+  public static long getThreadAllocatedBytes() {
+    if (allocationBean == null) return -1L;
+    return allocationBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+  }
+  
+  /** 
+   * The number of bytes allocated by the current thread since an earlier 
+   * {@link #getThreadAllocatedBytes}, or -1 if the JVM does not count them.
+   */
+  public static long getThreadAllocatedBytesSince(long allocatedBytes) {
+    if (allocatedBytes < 0) return -1L;
+    return getThreadAllocatedBytes() - allocatedBytes;
+  }
+  
+  /** 
+   * The total number of garbage collections, and the total time (in 
+   * milliseconds) they have taken, across all of the JVM's collectors.
+   */
+  public static long[] getGCTotals() {
+    long[] gcTotals = new long[2];
+    for (GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+      if (0 < gcBean.getCollectionCount()) gcTotals[0] += gcBean.getCollectionCount();
+      if (0 < gcBean.getCollectionTime())  gcTotals[1] += gcBean.getCollectionTime();
+    }
+    return gcTotals;
+  }
+  
+  /**
+   * The number of bytes of heap in use after a (requested) full garbage 
+   * collection, that is, the heap retained by all reachable objects.
+   */
+  public static long getRetainedHeapBytes() {
+    System.gc();
+    return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+  }
+}
@@ -0,0 +1,111 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+/**
+ * A source of additional per input file metrics.
+ * <p>
+ * Providers are discovered at startup by the {@link MetricsRegistry} using
+ * the standard {@link java.util.ServiceLoader} mechanism: a jar (or
+ * directory) on the classpath lists the provider's fully qualified class
+ * name in the file
+ * <code>META-INF/services/org.fandianpf.antlr4.regressionTestRig.MetricProvider</code>.
+ * Each provider class must have a public no argument constructor.
+ * <p>
+ * The registry assigns each provider a contiguous range of metric ids
+ * following the built-in metrics, so that the provider's values are held in
+ * the same primitive arrays as every other metric. Each RegressionTestRig
+ * (including each worker thread's rig) uses its own provider instances, so
+ * a provider only needs to be thread safe with respect to its own static
+ * state.
+ * <p>
+ * The rig calls {@link #start} and {@link #end} around each phase of the
+ * recorded processing of an input file, on the thread doing that
+ * processing. The {@link #INPUT_FILE} phase encloses the {@link #LEXING}
+ * and {@link #PARSING} phases. A phase may be started but never ended if
+ * its input file times out, so providers should (re)initialise their state
+ * in {@link #start}.
+ */
+public abstract class MetricProvider {
+
+  /** The phase enclosing all recorded processing of one input file. */
+  public static final int INPUT_FILE = 0;
+  
+  /** The phase in which the recorded tokens are lexed. */
+  public static final int LEXING     = 1;
+  
+  /** The phase in which the recorded parse tree is built. */
+  public static final int PARSING    = 2;
+  
+  /** The metric id of this provider's first metric type. */
+  protected int firstMetricId = -1;
+  
+  /** 
+   * The names of this provider's metric types. 
+   * <p>
+   * Names must be unique across all metrics and are used as the metric
+   * type column of the metrics tables, so by convention they start with a
+   * "tNN" prefix which orders them within each test document.
+   */
+  public abstract String[] getMetricTypes();
+  
+  /**
+   * The units of this provider's metric types (in the same order as 
+   * {@link #getMetricTypes}), for example "ns", "bytes" or "count".
+   */
+  public abstract String[] getMetricUnits();
+  
+  /**
+   * Does the index'th metric type vary from run to run (like a timing), so
+   * that the regression check should compare it statistically rather than
+   * report any change? By default every provided metric is a timing.
+   */
+  public boolean isTimingMetric(int index) { return true; }
+  
+  /** Called by the registry to assign this provider's metric ids. */
+  protected void setFirstMetricId(int firstMetricId) {
+    this.firstMetricId = firstMetricId;
+  }
+  
+  /** The metric id of this provider's index'th metric type. */
+  public int getMetricId(int index) {
+    return firstMetricId + index;
+  }
+  
+  /** Record the value of this provider's index'th metric type. */
+  protected void setValue(Metrics metrics, int index, long value) {
+    metrics.setValue(firstMetricId + index, value);
+  }
+  
+  /** Called at the start of a phase; by default does nothing. */
+  public void start(int phase, Metrics metrics) { }
+  
+  /** Called at the end of a phase; by default does nothing. */
+  public void end(int phase, Metrics metrics) { }
+}
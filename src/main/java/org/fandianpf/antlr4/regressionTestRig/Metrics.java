@@ -28,11 +28,11 @@
  */
 package org.fandianpf.antlr4.regressionTestRig;
 
+import java.util.Arrays;
+
 /** A simple class to manage the various Lexer and Parser metrics. */
 public class Metrics {
   
-  public long[] metric = { -1L, -1L, -1L, -1L, -1L, -1L, -1L, -1L, -1L, -1L };
-
   public static final int LEXER_TIMINGS    = 0;
   public static final int PARSER_TIMINGS   = 1;
   public static final int LEXER_NUM_TOKENS = 2;
@@ -43,16 +43,36 @@ public class Metrics {
   public static final int AMBIGUITIES      = 7;
   public static final int WEAK_CONTEXTS    = 8;
   public static final int STRONG_CONTEXTS  = 9;
-  public static final int NUM_METRICS      = 10;
+  public static final int LEXER_NANOS      = 10;
+  public static final int PARSER_NANOS     = 11;
+  public static final int PARSER_STAGE1_NANOS = 12;
+  public static final int PARSER_STAGE2_NANOS = 13;
+  public static final int PARSER_FALLBACKS    = 14;
+  public static final int LEXER_DFA_STATES    = 15;
+  public static final int LEXER_DFA_EDGES     = 16;
+  public static final int LEXER_DFA_MISSES    = 17;
+  public static final int PARSER_DFA_STATES   = 18;
+  public static final int PARSER_DFA_EDGES    = 19;
+  public static final int PARSER_DFA_MISSES   = 20;
+  public static final int TIMEOUTS            = 21;
+  public static final int LEXER_ALLOC_BYTES   = 22;
+  public static final int PARSER_ALLOC_BYTES  = 23;
+  public static final int RETAINED_HEAP_BYTES = 24;
+  public static final int GC_COUNT            = 25;
+  public static final int GC_MILLIS           = 26;
+  
+  /** 
+   * The number of registered metric types (the built-in metrics above
+   * followed by those of any {@link MetricProvider}s).
+   */
+  public static final int NUM_METRICS = MetricsRegistry.getNumMetrics();
   
-  public static final String[] METRIC_TYPE = {
-    "t00LexerTimes",  "t01ParserTimes",
-    "t10LexerTokens", "t11ParserDepth", "t12ParserNodes",
-    "t20LexerErrors", "t21ParserErrors",
-    "t30Ambiguities", "t31WeakContexts", "t32StrongContexts"
-  };
+  /** The registered metric type names, indexed by metric id. */
+  public static final String[] METRIC_TYPE = MetricsRegistry.getMetricTypes();
   
-  public Metrics() {}
+  public long[] metric = new long[NUM_METRICS];
+  
+  public Metrics() { Arrays.fill(metric, -1L); }
   
   public Metrics setMaxValues() {
     for (int i = 0; i < metric.length; i++) metric[i] = Long.MAX_VALUE;
@@ -65,12 +85,7 @@ public class Metrics {
   }
 
   public static int strType2int(String metricStrType) {
-    for (int metricType = 0; metricType < NUM_METRICS; metricType++) {
-      if (metricStrType.compareToIgnoreCase(METRIC_TYPE[metricType]) == 0) {
-        return metricType;
-      }
-    }
-    return -1;
+    return MetricsRegistry.getMetricId(metricStrType);
   }
   
   public long getValue(int metricType) {
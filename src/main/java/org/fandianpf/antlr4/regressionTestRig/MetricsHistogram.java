@@ -0,0 +1,255 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import java.util.Arrays;
+
+/**
+ * A bounded memory (log-linear) histogram of the (non-negative) values of 
+ * one metric type, from which the median, median absolute deviation (MAD), 
+ * percentiles, and a confidence interval of the median can be computed.
+ * <p>
+ * Values smaller than 2*SUB_BUCKET_COUNT are counted exactly. Larger values
+ * are counted in one of SUB_BUCKET_COUNT equal width buckets per power of 
+ * two, so that any value computed from this histogram is within 
+ * 1/SUB_BUCKET_COUNT (about 1.6%) of the true value, while at most 
+ * 64*SUB_BUCKET_COUNT counts are needed however many values are added. 
+ * Only the range of buckets actually used is allocated. 
+ * <p>
+ * The values computed are always within the (exact) minimum and maximum 
+ * values added.
+ */
+public class MetricsHistogram {
+  
+  /** The log (base 2) of the number of buckets per power of two. */
+  public static final int SUB_BUCKET_BITS  = 6;
+  
+  /** The number of buckets per power of two. */
+  public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  
+  /** The (standard normal) z-value of a two sided 95% confidence interval. */
+  public static final double Z_95 = 1.959963984540054;
+  
+  /** The counts of the buckets, starting with the bucket firstIndex. */
+  protected int[] counts = null;
+  
+  /** The bucket index of counts[0]. */
+  protected int firstIndex = 0;
+  
+  /** The total number of values added. */
+  protected long totalCount = 0;
+  
+  /** The smallest value added. */
+  protected long minValue = Long.MAX_VALUE;
+  
+  /** The largest value added. */
+  protected long maxValue = Long.MIN_VALUE;
+  
+  /** Constructor. */
+  public MetricsHistogram() { }
+  
+  /** Forget all values added. */
+  public void clear() {
+    if (counts != null) Arrays.fill(counts, 0);
+    totalCount = 0;
+    minValue   = Long.MAX_VALUE;
+    maxValue   = Long.MIN_VALUE;
+  }
+  
+  /** The number of values added. */
+  public long getTotalCount() { return totalCount; }
+  
+  /** The index of the bucket counting the (non-negative) value. */
+  public static int bucketIndex(long value) {
+    if (value < 2*SUB_BUCKET_COUNT) return (int)value;
+    int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+    return (shift << SUB_BUCKET_BITS) + (int)(value >>> shift);
+  }
+  
+  /** The smallest value counted by the bucket index. */
+  public static long bucketLowerValue(int index) {
+    if (index < 2*SUB_BUCKET_COUNT) return index;
+    int shift = (index >>> SUB_BUCKET_BITS) - 1;
+    return ((long)(index - (shift << SUB_BUCKET_BITS))) << shift;
+  }
+  
+  /** The width (number of values) of the bucket index. */
+  public static long bucketWidth(int index) {
+    if (index < 2*SUB_BUCKET_COUNT) return 1L;
+    return 1L << ((index >>> SUB_BUCKET_BITS) - 1);
+  }
+  
+  /** 
+   * Add one value. Since metrics are positive, negative values (which 
+   * denote a non-value) are ignored.
+   */
+  public void add(long value) {
+    if (value < 0) return;
+    int index = bucketIndex(value);
+    if (counts == null) {
+      counts     = new int[SUB_BUCKET_COUNT];
+      firstIndex = Math.max(0, index - SUB_BUCKET_COUNT/2);
+    } else if (index < firstIndex) {
+      int newFirstIndex = Math.max(0, Math.min(index, firstIndex - counts.length));
+      int[] newCounts = new int[counts.length + firstIndex - newFirstIndex];
+      System.arraycopy(counts, 0, newCounts, firstIndex - newFirstIndex, counts.length);
+      counts     = newCounts;
+      firstIndex = newFirstIndex;
+    } else if (firstIndex + counts.length <= index) {
+      counts = Arrays.copyOf(counts, 
+        Math.max(index - firstIndex + 1, 2*counts.length));
+    }
+    counts[index - firstIndex]++;
+    totalCount++;
+    if (value < minValue) minValue = value;
+    if (maxValue < value) maxValue = value;
+  }
+  
+  /** 
+   * The value representing the bucket (at counts offset i): the middle of
+   * the bucket, limited to the minimum and maximum values added.
+   */
+  protected long representativeValue(int i) {
+    int index = firstIndex + i;
+    long value = bucketLowerValue(index) + (bucketWidth(index) - 1)/2;
+    if (value < minValue) value = minValue;
+    if (maxValue < value) value = maxValue;
+    return value;
+  }
+  
+  /** The counts offset of the bucket holding the value of the given rank. */
+  protected int bucketOfRank(long rank) {
+    long cumulative = 0;
+    for (int i = 0; i < counts.length; i++) {
+      cumulative += counts[i];
+      if (rank <= cumulative) return i;
+    }
+    return counts.length - 1;
+  }
+  
+  /**
+   * The value of the given (one based) rank amongst the values added, or 
+   * -1L if no values have been added.
+   */
+  public long getValueAtRank(long rank) {
+    if (totalCount == 0) return -1L;
+    if (rank <= 1) return minValue;
+    if (totalCount <= rank) return maxValue;
+    return representativeValue(bucketOfRank(rank));
+  }
+  
+  /**
+   * The (nearest rank) quantile q, between 0 and 1, of the values added,
+   * or -1L if no values have been added.
+   */
+  public long getValueAtQuantile(double q) {
+    return getValueAtRank((long)Math.ceil(q*totalCount));
+  }
+  
+  /** The rank of the (lower) median. */
+  protected long medianRank() { return (totalCount + 1)/2; }
+  
+  /** The (lower) median of the values added, or -1L if there are none. */
+  public long getMedian() { return getValueAtRank(medianRank()); }
+  
+  /**
+   * The (unscaled) median absolute deviation from the median of the values 
+   * added, or -1L if there are none.
+   * <p>
+   * The deviations of the buckets increase on either side of the median's 
+   * bucket, so the median deviation is found by merging the buckets below 
+   * and above the median's bucket in order of their deviations.
+   */
+  public long getMedianAbsoluteDeviation() {
+    if (totalCount == 0) return -1L;
+    long median = getMedian();
+    long rank   = medianRank();
+    int lower   = bucketOfRank(rank);
+    int upper   = lower + 1;
+    long cumulative = 0;
+    while (true) {
+      long lowerDev = (0 <= lower) ? 
+        Math.abs(median - representativeValue(lower)) : Long.MAX_VALUE;
+      long upperDev = (upper < counts.length) ? 
+        Math.abs(representativeValue(upper) - median) : Long.MAX_VALUE;
+      if (lowerDev <= upperDev) {
+        cumulative += counts[lower--];
+        if (rank <= cumulative) return lowerDev;
+      } else {
+        cumulative += counts[upper++];
+        if (rank <= cumulative) return upperDev;
+      }
+    }
+  }
+  
+  /**
+   * The smallest rank, k, for which the probability that the median of a
+   * bootstrap resample is no larger than the k-th smallest value added 
+   * reaches the standard normal probability of z.
+   * <p>
+   * The median of a bootstrap resample (of totalCount values drawn, with 
+   * replacement, from the values added) is no larger than the k-th smallest 
+   * value exactly when at least medianRank of the values drawn are, and the
+   * number of such values has a binomial distribution B(totalCount, 
+   * k/totalCount). The bootstrap distribution of the median is therefore 
+   * known exactly, and is computed here using the (continuity corrected) 
+   * normal approximation to the binomial distribution, without resampling.
+   */
+  protected long bootstrapMedianRank(double z) {
+    long n = totalCount;
+    long m = medianRank();
+    long lo = 1;
+    long hi = n;
+    while (lo < hi) {
+      long k = (lo + hi) >>> 1;
+      double sigma = Math.sqrt(k*(1.0 - ((double)k)/n));
+      if (z*sigma <= (k + 0.5 - m)) hi = k;
+      else lo = k + 1;
+    }
+    return lo;
+  }
+  
+  /**
+   * The lower bound of the 95% bootstrap (percentile) confidence interval of
+   * the median, or -1L if no values have been added.
+   */
+  public long getMedianLowerBound() {
+    if (totalCount == 0) return -1L;
+    return getValueAtRank(bootstrapMedianRank(-Z_95));
+  }
+  
+  /**
+   * The upper bound of the 95% bootstrap (percentile) confidence interval of
+   * the median, or -1L if no values have been added.
+   */
+  public long getMedianUpperBound() {
+    if (totalCount == 0) return -1L;
+    return getValueAtRank(bootstrapMedianRank(Z_95));
+  }
+}
@@ -28,27 +28,95 @@
  */
 package org.fandianpf.antlr4.regressionTestRig;
 
-import java.util.ArrayList;
 import java.io.PrintStream;
 import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Arrays;
+import java.util.Locale;
 
 /** 
  * The a sequence of lexer/parser metrics. 
- * Includes the ability to compute simple statistics.
+ * Includes the ability to compute simple statistics, as well as the robust
+ * statistics (median, median absolute deviation, 90th and 99th percentiles,
+ * and a 95% confidence interval of the median) which are less affected by
+ * the outliers (GC pauses, JIT compilation) common in timing metrics.
  * <p>
  * Since metrics are positive, any negative value represents
  * no measurement was possible for a given run.
  */
 public class MetricsHistory {
-   
-  protected ArrayList<Metrics> metricsHistory = new ArrayList<Metrics>();
+  
+  /** 
+   * The number of statistics (min, mean, stdDev, max, median, mad, p90, 
+   * p99, medianLow95, medianHigh95) saved before the values of each metric.
+   */
+  public static final int NUM_STATS = 10;
+  
+  /** The number of statistics saved by versions before V0.4. */
+  public static final int NUM_LEGACY_STATS = 4;
+  
+  /** The header line of a CSV formated metrics table. */
+  public static final String CSV_HEADER = 
+    "\"testDocName\",\"metricType\",\"min\",\"mean\",\"stdDev\",\"max\","+
+    "\"median\",\"mad\",\"p90\",\"p99\",\"medianLow95\",\"medianHigh95\",\"values\"";
+  
+  /** The initial number of runs which can be stored without growing. */
+  protected static final int INITIAL_CAPACITY = 8;
+  
+  /** 
+   * The values of each run, stored in one column (array) per metricType.
+   * Only the first {@link #numRuns} values of each column are used.
+   */
+  protected long[][] columns = new long[Metrics.NUM_METRICS][INITIAL_CAPACITY];
+  
+  /** The number of runs in this history. */
+  protected int numRuns = 0;
+  
+  /** The number of (non-negative) values of each metricType. */
+  protected int[]    numValues   = new int[Metrics.NUM_METRICS];
+  
+  /** The sum of the (non-negative) values of each metricType. */
+  protected double[] sumValues   = new double[Metrics.NUM_METRICS];
+  
+  /** The running (Welford) mean of the values of each metricType. */
+  protected double[] runningMean = new double[Metrics.NUM_METRICS];
+  
+  /** The sum of the squared deviations from the running mean (Welford). */
+  protected double[] sumSqDevs   = new double[Metrics.NUM_METRICS];
+  
+  /** The smallest (non-negative) value of each metricType. */
+  protected long[]   minValues   = new long[Metrics.NUM_METRICS];
+  
+  /** The largest (non-negative) value of each metricType. */
+  protected long[]   maxValues   = new long[Metrics.NUM_METRICS];
+  
+  /** 
+   * The (bounded memory) histogram of the values of each metricType, 
+   * created when its first value is added.
+   */
+  protected MetricsHistogram[] histograms = new MetricsHistogram[Metrics.NUM_METRICS];
+  
+  /** 
+   * Have values been replaced, so that the online statistics must be 
+   * recomputed? 
+   */
+  protected boolean statsInvalid = false;
    
   protected MetricsDouble mean   = new MetricsDouble();
   protected MetricsDouble stdDev = new MetricsDouble();
   protected Metrics       min    = new Metrics().setMaxValues();
   protected Metrics       max    = new Metrics().setMinValues();
+  
+  protected Metrics median       = new Metrics();
+  protected Metrics mad          = new Metrics();
+  protected Metrics p90          = new Metrics();
+  protected Metrics p99          = new Metrics();
+  protected Metrics medianLow95  = new Metrics();
+  protected Metrics medianHigh95 = new Metrics();
     
-  public MetricsHistory() { }
+  public MetricsHistory() { 
+    clearStats();
+  }
 
   /**
    * Load metrics values from a comma separated list in a {@link String}.
@@ -56,16 +124,25 @@ public class MetricsHistory {
    * Empty entries (a pair of commas separated by white space) are treated as a 
    * non-value and the negative value -1L is stored instead of zero.
    * <p>
-   * The first four values, representing min, mean, stdDev, and max, are ignored.
+   * The first four values, representing min, mean, stdDev, and max (as saved
+   * by versions before V0.4), are ignored.
    */
   public void loadValues(String metricStrType, String valuesLineStr) {
+    loadValues(metricStrType, valuesLineStr, NUM_LEGACY_STATS);
+  }
+  
+  /**
+   * Load metrics values from a comma separated list in a {@link String},
+   * ignoring the first numStats values (the statistics).
+   */
+  public void loadValues(String metricStrType, String valuesLineStr, int numStats) {
     // do not do anything if the metricStrType can not be recognized
     int metricType = Metrics.strType2int(metricStrType);
     if (-1 < metricType) {
       // get the values as an array of strings split on ','
       String[] values    = valuesLineStr.split(",");
-      // ignore the min, mean, stdDev, max
-      for ( int i = 4; i < values.length; i++) {
+      // ignore the statistics (min, mean, stdDev, max, ...)
+      for ( int i = numStats; i < values.length; i++) {
         // get each value in turn (checking for empty values)
         Long value = -1L;
         if (values[i].contains(".")) {
@@ -75,15 +152,22 @@ public class MetricsHistory {
           try { value = Long.valueOf(values[i]); }
           catch ( Exception exp) { /* ignore */ }
         }
-        int index = i - 4;
-        if (metricsHistory.size() <= index) metricsHistory.add(new Metrics());
-        metricsHistory.get(index).setValue(metricType, value);
+        setValue(i - numStats, metricType, value);
       }
     }
   }    
   
+  /**
+   * Create the format used to save the standard deviations to two decimal
+   * places. The format must not group digits, nor use a decimal comma, since
+   * either would add fields to the comma separated values.
+   */
+  public static DecimalFormat newStdDevFormat() {
+    return new DecimalFormat("0.##", DecimalFormatSymbols.getInstance(Locale.ROOT));
+  }
+  
   public static void saveHeaderIntoFile(PrintStream outFile) {
-    outFile.println("\"testDocName\",\"metricType\",\"min\",\"mean\",\"stdDev\",\"max\",\"values\"");
+    outFile.println(CSV_HEADER);
   }
   
   /**
@@ -94,6 +178,7 @@ public class MetricsHistory {
    */
   public void saveIntoFile(String testDocName, PrintStream outFile) {
     computeStats();
+    DecimalFormat df = newStdDevFormat();
     for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
       outFile.print('"');
       outFile.print(testDocName);
@@ -104,32 +189,140 @@ public class MetricsHistory {
       outFile.print(',');
       outFile.print(mean.metric[metricType]);
       outFile.print(',');
-      DecimalFormat df = new DecimalFormat("#,###.##");
       outFile.print(df.format(stdDev.metric[metricType]));
       outFile.print(',');
       outFile.print(max.metric[metricType]);
-      for(int i = 0; i < metricsHistory.size(); i++) {
+      Metrics[] robustStats = getRobustStats();
+      for (int i = 0; i < robustStats.length; i++) {
         outFile.print(',');
-        Long value = metricsHistory.get(i).metric[metricType];
+        long value = robustStats[i].metric[metricType];
         if (-1 < value) { outFile.print(value); }
       }
+      long[] column = columns[metricType];
+      for(int i = 0; i < numRuns; i++) {
+        outFile.print(',');
+        if (-1 < column[i]) { outFile.print(column[i]); }
+      }
       outFile.println();
     }
   }
   
   /** Add one metric into the current list of metrics. */    
   public void appendMetrics(Metrics newMetrics) {
-    metricsHistory.add(newMetrics);
+    int index = numRuns;
+    addRuns(index+1);
+    for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
+      long value = newMetrics.metric[metricType];
+      columns[metricType][index] = value;
+      addToStats(metricType, value);
+    }
   }
-  /** 
-   * Get a specific metric from the ArrayList.
+  
+  /** Get the number of metrics (runs) in this history. */
+  public int size() { return numRuns; }
+  
+  /**
+   * Get one metric value of the given run.
    * Returns -1L if the index is out of range.
    */
+  public long getValue(int index, int metricType) {
+    if (index < 0 || numRuns <= index) return -1L;
+    if (metricType < 0 || Metrics.NUM_METRICS <= metricType) return -1L;
+    return columns[metricType][index];
+  }
+  
+  /**
+   * Set one metric value of the given run, adding (unmeasured) runs to this
+   * history as required.
+   */
+  public void setValue(int index, int metricType, long value) {
+    if (metricType < 0 || Metrics.NUM_METRICS <= metricType) return;
+    addRuns(index+1);
+    long oldValue = columns[metricType][index];
+    columns[metricType][index] = value;
+    if (oldValue < 0) addToStats(metricType, value);
+    else statsInvalid = true;
+  }
+  
+  /** 
+   * Get (a copy of) the metrics of a specific run.
+   * Returns -1L values if the index is out of range.
+   */
   public Metrics getMetrics(int index) {
-    if (index < metricsHistory.size()) {
-      return metricsHistory.get(index);
+    Metrics result = new Metrics();
+    if (index < numRuns) {
+      for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
+        result.metric[metricType] = columns[metricType][index];
+      }
+    }
+    return result;
+  }
+  
+  /**
+   * Get a new history holding (copies of) the runs from fromIndex 
+   * (inclusive) to toIndex (exclusive) of this history.
+   */
+  public MetricsHistory subHistory(int fromIndex, int toIndex) {
+    MetricsHistory result = new MetricsHistory();
+    for (int i = Math.max(0, fromIndex); i < Math.min(toIndex, numRuns); i++) {
+      result.appendMetrics(getMetrics(i));
     }
-    return new Metrics();
+    return result;
+  }
+  
+  /** Grow this history, with unmeasured runs, to (at least) numRuns runs. */
+  protected void addRuns(int newNumRuns) {
+    if (newNumRuns <= numRuns) return;
+    if (columns[0].length < newNumRuns) {
+      int capacity = Math.max(newNumRuns, 2*columns[0].length);
+      for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
+        columns[metricType] = Arrays.copyOf(columns[metricType], capacity);
+      }
+    }
+    for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
+      Arrays.fill(columns[metricType], numRuns, newNumRuns, -1L);
+    }
+    numRuns = newNumRuns;
+  }
+  
+  /** Forget the online statistics of every metricType. */
+  protected void clearStats() {
+    Arrays.fill(numValues, 0);
+    Arrays.fill(sumValues, 0.0);
+    Arrays.fill(runningMean, 0.0);
+    Arrays.fill(sumSqDevs, 0.0);
+    Arrays.fill(minValues, Long.MAX_VALUE);
+    Arrays.fill(maxValues, Long.MIN_VALUE);
+    for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
+      if (histograms[metricType] != null) histograms[metricType].clear();
+    }
+    statsInvalid = false;
+  }
+  
+  /**
+   * Add one value to the online (Welford) statistics of its metricType.
+   * Since metrics are positive, negative values are ignored.
+   */
+  protected void addToStats(int metricType, long value) {
+    if (value < 0) return;
+    int n = ++numValues[metricType];
+    sumValues[metricType] += value;
+    double delta = value - runningMean[metricType];
+    runningMean[metricType] += delta / n;
+    sumSqDevs[metricType] += delta * (value - runningMean[metricType]);
+    if (value < minValues[metricType]) minValues[metricType] = value;
+    if (maxValues[metricType] < value) maxValues[metricType] = value;
+    if (histograms[metricType] == null) histograms[metricType] = new MetricsHistogram();
+    histograms[metricType].add(value);
+  }
+  
+  /** 
+   * Get the robust statistics (median, mad, p90, p99, medianLow95, 
+   * medianHigh95), in the order they are saved, as computed by the last
+   * {@link #computeStats}.
+   */
+  public Metrics[] getRobustStats() {
+    return new Metrics[] { median, mad, p90, p99, medianLow95, medianHigh95 };
   }
     
   /** 
@@ -137,49 +330,71 @@ public class MetricsHistory {
    * <p>
    * Since metrics are positive, any negative values are ignored while
    * computing these statistics.
+   * <p>
+   * The statistics are maintained online (as each value is added) so this 
+   * takes constant time, unless values have been replaced since the last 
+   * computation. The mean is the sum of the values divided by their number
+   * (as it has always been computed), while the standard deviation uses
+   * Welford's numerically stable running sum of squared deviations.
+   * <p>
+   * The robust statistics are computed from a {@link MetricsHistogram} of 
+   * each metricType (and so are within about 1.6% of the exact values). 
+   * A robust statistic is -1L if a metricType has no values.
    */
   public void computeStats() {
-    // have we already computed these stats?
-    if (max.metric[0] != Long.MIN_VALUE) return;
-      
+    if (statsInvalid) {
+      clearStats();
+      for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
+        long[] column = columns[metricType];
+        for (int i = 0; i < numRuns; i++) addToStats(metricType, column[i]);
+      }
+    }
+    
+    min    = new Metrics().setMaxValues();
+    max    = new Metrics().setMinValues();
+    mean   = new MetricsDouble();
+    stdDev = new MetricsDouble();
+    computeRobustStats();
+    
     // directly compute the stats in the case 
     // where we have a sample size of one
-    if (metricsHistory.size() == 0) {
+    if (numRuns == 0) {
       // nothing to do
-    } else if (metricsHistory.size() == 1) {
-      Metrics values = metricsHistory.get(0);
-      min    = values;
-      max    = values;
-      mean   = values.asDoubles();
-      stdDev = new MetricsDouble();
+      return;
+    } else if (numRuns == 1) {
+      min    = getMetrics(0);
+      max    = getMetrics(0);
+      mean   = min.asDoubles();
       return;
     }
 
     for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
-      int numValues = 0;
-     
-      double sum = 0.0;
-      for (int i = 0; i < metricsHistory.size(); i++) {
-        Long value = metricsHistory.get(i).metric[metricType];
-        if (value < 0) continue;
-        numValues += 1;
-        if (value < min.metric[metricType]) min.metric[metricType] = value;
-        if (max.metric[metricType] < value) max.metric[metricType] = value;
-        sum += value;
-      }
-      mean.metric[metricType] = sum;
-      if (0 < numValues) mean.metric[metricType] = sum/((double)numValues);
-
-      double sumDevMean = 0.0;
-      for (int i = 0; i < metricsHistory.size(); i++) {
-        double value = (double)(metricsHistory.get(i).metric[metricType]);
-        if (value < 0) continue;
-        sumDevMean += (value - mean.metric[metricType])*(value - mean.metric[metricType]);
-      }
-      stdDev.metric[metricType] = sumDevMean;
-      if (1 < numValues) 
-        stdDev.metric[metricType] = Math.sqrt( sumDevMean / ((double)(numValues-1)) );
+      int n = numValues[metricType];
+      min.metric[metricType] = minValues[metricType];
+      max.metric[metricType] = maxValues[metricType];
+      if (0 < n) mean.metric[metricType] = sumValues[metricType]/((double)n);
+      if (1 < n) 
+        stdDev.metric[metricType] = Math.sqrt( sumSqDevs[metricType] / ((double)(n-1)) );
+    }
+  }
+  
+  /** Compute the robust statistics from the histogram of each metricType. */
+  protected void computeRobustStats() {
+    median       = new Metrics();
+    mad          = new Metrics();
+    p90          = new Metrics();
+    p99          = new Metrics();
+    medianLow95  = new Metrics();
+    medianHigh95 = new Metrics();
+    for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
+      MetricsHistogram histogram = histograms[metricType];
+      if (histogram == null || histogram.getTotalCount() == 0) continue;
+      median.metric[metricType]       = histogram.getMedian();
+      mad.metric[metricType]          = histogram.getMedianAbsoluteDeviation();
+      p90.metric[metricType]          = histogram.getValueAtQuantile(0.90);
+      p99.metric[metricType]          = histogram.getValueAtQuantile(0.99);
+      medianLow95.metric[metricType]  = histogram.getMedianLowerBound();
+      medianHigh95.metric[metricType] = histogram.getMedianUpperBound();
     }
   }
 }
-
@@ -0,0 +1,246 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+/**
+ * The registry of all metric types known to the RegressionTestRig.
+ * <p>
+ * The built-in metric types keep their fixed ids (the constants in 
+ * {@link Metrics}). The metric types of any {@link MetricProvider}s found
+ * on the classpath at startup are appended after them, in provider class
+ * name order so that the ids are stable for a given classpath. The 
+ * registry is frozen once the class has been initialised.
+ * <p>
+ * Since the metrics tables are keyed by metric type name, tables written
+ * with fewer (or different) metric types still load; unknown metric types
+ * are ignored and missing ones remain unset (-1).
+ * <p>
+ * Providers can be switched off, without changing the classpath, by listing
+ * their class names (comma separated) in the {@link #DISABLED_PROVIDERS_PROPERTY}
+ * system property.
+ */
+public class MetricsRegistry {
+
+  /** The system property listing the class names of the metric providers
+   *  which should not be loaded. */
+  public static final String DISABLED_PROVIDERS_PROPERTY =
+    "regressionTestRig.disabledMetricProviders";
+
+  /** The names of the built-in metric types, indexed by metric id. */
+  protected static final String[] BUILT_IN_METRIC_TYPES = {
+    "t00LexerTimes",  "t01ParserTimes",
+    "t10LexerTokens", "t11ParserDepth", "t12ParserNodes",
+    "t20LexerErrors", "t21ParserErrors",
+    "t30Ambiguities", "t31WeakContexts", "t32StrongContexts",
+    "t02LexerNanos",  "t03ParserNanos",
+    "t04ParserStage1Nanos", "t05ParserStage2Nanos", "t06ParserFallbacks",
+    "t33LexerDFAStates",  "t34LexerDFAEdges",  "t35LexerDFAMisses",
+    "t36ParserDFAStates", "t37ParserDFAEdges", "t38ParserDFAMisses",
+    "t22Timeouts",
+    "t40LexerAllocBytes", "t41ParserAllocBytes", "t42RetainedHeapBytes",
+    "t43GCCount", "t44GCMillis"
+  };
+  
+  /** The units of the built-in metric types, indexed by metric id. */
+  protected static final String[] BUILT_IN_METRIC_UNITS = {
+    "ms", "ms",
+    "tokens", "depth", "nodes",
+    "errors", "errors",
+    "count", "count", "count",
+    "ns", "ns",
+    "ns", "ns", "count",
+    "states", "edges", "count",
+    "states", "edges", "count",
+    "count",
+    "bytes", "bytes", "bytes",
+    "count", "ms"
+  };
+  
+  /** The number of built-in metric types. */
+  public static final int NUM_BUILT_IN_METRICS = BUILT_IN_METRIC_TYPES.length;
+  
+  protected static final List<String> metricTypes = new ArrayList<String>();
+  
+  protected static final List<String> metricUnits = new ArrayList<String>();
+  
+  protected static final List<Class<? extends MetricProvider>> providerClasses =
+    new ArrayList<Class<? extends MetricProvider>>();
+  
+  protected static final List<Integer> providerFirstIds = new ArrayList<Integer>();
+  
+  /** Which of the provided metric types are timings (built-ins are false). */
+  protected static final List<Boolean> timingMetrics = new ArrayList<Boolean>();
+  
+  static {
+    for (int i = 0; i < NUM_BUILT_IN_METRICS; i++) {
+      metricTypes.add(BUILT_IN_METRIC_TYPES[i]);
+      metricUnits.add(BUILT_IN_METRIC_UNITS[i]);
+      timingMetrics.add(false);
+    }
+    registerProviders(discoverProviders());
+  }
+  
+  /**
+   * Find the MetricProviders listed on the classpath, sorted by class name.
+   * Providers which can not be loaded are reported and ignored.
+   */
+  protected static List<MetricProvider> discoverProviders() {
+    List<MetricProvider> providers = new ArrayList<MetricProvider>();
+    List<String> disabledProviders = new ArrayList<String>();
+    String disabledProperty = System.getProperty(DISABLED_PROVIDERS_PROPERTY, "");
+    for (String disabledProvider : disabledProperty.split(",")) {
+      if (!disabledProvider.trim().isEmpty()) disabledProviders.add(disabledProvider.trim());
+    }
+    Iterator<MetricProvider> providerIter = 
+      ServiceLoader.load(MetricProvider.class).iterator();
+    while (true) {
+      try {
+        if (!providerIter.hasNext()) break;
+        MetricProvider provider = providerIter.next();
+        String className = provider.getClass().getName();
+        if (disabledProviders.contains(className)) continue;
+        int insertAt = 0;
+        while (insertAt < providers.size() && 
+               providers.get(insertAt).getClass().getName().compareTo(className) < 0) {
+          insertAt++;
+        }
+        providers.add(insertAt, provider);
+      } catch (ServiceConfigurationError error) {
+        System.err.println("WARNING: could not load metric provider: "+error.getMessage());
+      }
+    }
+    return providers;
+  }
+  
+  /** Append the metric types of each provider whose names are all new. */
+  protected static void registerProviders(List<MetricProvider> providers) {
+    for (MetricProvider provider : providers) {
+      String[] types = provider.getMetricTypes();
+      String[] units = provider.getMetricUnits();
+      String problem = null;
+      if (types == null || types.length == 0) {
+        problem = "it provides no metric types";
+      } else if (units == null || units.length != types.length) {
+        problem = "it does not provide one unit per metric type";
+      } else {
+        for (int i = 0; i < types.length && problem == null; i++) {
+          if (getMetricId(types[i]) > -1) {
+            problem = "metric type ["+types[i]+"] is already registered";
+          }
+        }
+      }
+      if (problem != null) {
+        System.err.println("WARNING: ignoring metric provider "+
+          provider.getClass().getName()+" since "+problem);
+        continue;
+      }
+      providerClasses.add(provider.getClass());
+      providerFirstIds.add(metricTypes.size());
+      for (int i = 0; i < types.length; i++) {
+        metricTypes.add(types[i]);
+        metricUnits.add(units[i]);
+        timingMetrics.add(provider.isTimingMetric(i));
+      }
+    }
+  }
+  
+  /** The total number of registered metric types. */
+  public static int getNumMetrics() { return metricTypes.size(); }
+  
+  /** A copy of the registered metric type names, indexed by metric id. */
+  public static String[] getMetricTypes() {
+    return metricTypes.toArray(new String[metricTypes.size()]);
+  }
+  
+  /** The name of the given metric id (or null if it is not registered). */
+  public static String getMetricType(int metricId) {
+    if (metricId < 0 || metricTypes.size() <= metricId) return null;
+    return metricTypes.get(metricId);
+  }
+  
+  /** The unit of the given metric id (or null if it is not registered). */
+  public static String getMetricUnit(int metricId) {
+    if (metricId < 0 || metricUnits.size() <= metricId) return null;
+    return metricUnits.get(metricId);
+  }
+  
+  /**
+   * Is the given metric id one of the provided metrics which its provider
+   * declares to be a timing? (The built-in timings are known to 
+   * {@link RegressionCheck#isTimingMetric}.)
+   */
+  public static boolean isTimingMetric(int metricId) {
+    if (metricId < 0 || timingMetrics.size() <= metricId) return false;
+    return timingMetrics.get(metricId);
+  }
+  
+  /** The id of the (case insensitive) metric type name, or -1 if unknown. */
+  public static int getMetricId(String metricType) {
+    for (int metricId = 0; metricId < metricTypes.size(); metricId++) {
+      if (metricType.compareToIgnoreCase(metricTypes.get(metricId)) == 0) {
+        return metricId;
+      }
+    }
+    return -1;
+  }
+  
+  /** The number of registered metric providers. */
+  public static int getNumProviders() { return providerClasses.size(); }
+  
+  /**
+   * Create a fresh instance of each registered MetricProvider, with its
+   * metric ids assigned. Providers which can not be instantiated are
+   * reported and omitted.
+   */
+  public static List<MetricProvider> newProviders() {
+    List<MetricProvider> providers = new ArrayList<MetricProvider>();
+    for (int i = 0; i < providerClasses.size(); i++) {
+      try {
+        MetricProvider provider = 
+          providerClasses.get(i).getDeclaredConstructor().newInstance();
+        provider.setFirstMetricId(providerFirstIds.get(i));
+        providers.add(provider);
+      } catch (InvocationTargetException exp) {
+        System.err.println("WARNING: could not create metric provider "+
+          providerClasses.get(i).getName()+": "+exp.getCause());
+      } catch (Exception exp) {
+        System.err.println("WARNING: could not create metric provider "+
+          providerClasses.get(i).getName()+": "+exp.getMessage());
+      }
+    }
+    return providers;
+  }
+}
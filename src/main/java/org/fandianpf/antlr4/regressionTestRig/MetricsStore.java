@@ -0,0 +1,416 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Manages a compact, binary, append-only store of lexer and parser metrics.
+ * <p>
+ * Unlike the CSV formated {@link MetricsTable}, which must be completely
+ * re-written after every run, each run of the RegressionTestRig appends
+ * only one new run block to the end of the store. The store is memory 
+ * mapped when it is loaded.
+ * <p>
+ * The store (all values big-endian) consists of a fixed header:
+ * <pre>
+ *   int  MAGIC
+ *   int  VERSION
+ * </pre>
+ * followed by one run block for each run:
+ * <pre>
+ *   int    BLOCK_MAGIC
+ *   int    numMetrics
+ *   int    numNewTestDocs
+ *   { int numBytes, byte[numBytes] UTF-8 testDocName } * numNewTestDocs
+ *   int    numTestDocs
+ *   int[numTestDocs] testDocIds
+ *   long[numMetrics][numTestDocs] values
+ * </pre>
+ * Each testDocName is given the next testDocId the first time it appears
+ * in a run block. The testDocIds of a run block give the offset of each
+ * test document's values within each of the (columnar) metric columns of 
+ * that block. Each run block records its numMetrics so that stores written 
+ * before further metrics were added can still be read (the missing metrics 
+ * are -1L).
+ * <p>
+ * When {@link MetricProvider}s have registered further metrics, whose ids 
+ * depend upon which providers are on the classpath, the run block instead
+ * starts with NAMED_BLOCK_MAGIC and names those metrics immediately after
+ * its numMetrics:
+ * <pre>
+ *   int    numNamedMetrics
+ *   { int numBytes, byte[numBytes] UTF-8 metricType } * numNamedMetrics
+ * </pre>
+ * The named metrics are the last numNamedMetrics of the block's metrics 
+ * and are loaded by name, so their values survive providers being added or
+ * removed (values of metrics which are no longer registered are ignored).
+ * <p>
+ * A run block which was only partly written (for example, if the
+ * RegressionTestRig was killed) is ignored when loading, and removed before
+ * the next run block is appended.
+ * <p>
+ * Stores can be converted to and from the CSV formated metricsTable using 
+ * {@link #main}.
+ */
+public class MetricsStore {
+
+  /** The first int of every metrics store ("RTRM"). */
+  public static final int MAGIC = 0x5254524D;
+  
+  /** The version of the metrics store format. */
+  public static final int VERSION = 1;
+  
+  /** The size, in bytes, of the fixed header. */
+  public static final int HEADER_SIZE = 8;
+  
+  /** The first int of every run block ("RUNB"). */
+  public static final int BLOCK_MAGIC = 0x52554E42;
+  
+  /** The first int of every run block with named metrics ("RUNN"). */
+  public static final int NAMED_BLOCK_MAGIC = 0x52554E4E;
+  
+  /** The charset used to store the testDocNames. */
+  protected static final Charset UTF8 = Charset.forName("UTF-8");
+  
+  /** The path to the filesystem file containing this store. */
+  protected String metricsStorePath;
+  
+  /** The testDocNames (indexed by testDocId) found while scanning the store. */
+  protected List<String> testDocNames = new ArrayList<String>();
+  
+  /** The testDocId of each testDocName found while scanning the store. */
+  protected Map<String, Integer> testDocIds = new HashMap<String, Integer>();
+  
+  /** The offset of the end of the last complete run block in the store. */
+  protected long endOfRuns = 0L;
+  
+  /** The number of complete run blocks in the store. */
+  protected int numRuns = 0;
+  
+  /**
+   * Constructor.
+   *
+   * @param aMetricsStorePath the path to the filesystem file containing this
+   *                          store (which need not yet exist).
+   */
+  public MetricsStore(String aMetricsStorePath) {
+    metricsStorePath = aMetricsStorePath;
+  }
+  
+  /** Get the number of (complete) runs found the last time the store was read. */
+  public int getNumberOfRuns() { return numRuns; }
+  
+  /**
+   * Load the metrics of every run in this store, appending them to the 
+   * metrics histories of the given metricsTable.
+   *
+   * @param aMetricsTable the metrics table into which to load the metrics.
+   */
+  public void loadMetricsTable(MetricsTable aMetricsTable) throws IOException {
+    scanStore(aMetricsTable);
+  }
+  
+  /**
+   * Append one run block, containing the most recent metrics of each test 
+   * document in the given metrics table, to this store. The store is 
+   * created if it does not yet exist.
+   *
+   * @param runMetricsTable the metrics table containing this run's metrics.
+   */
+  public void appendRun(MetricsTable runMetricsTable) throws IOException {
+    List<String> runTestDocNames = new ArrayList<String>();
+    List<Metrics> runMetrics = new ArrayList<Metrics>();
+    for (String testDocName : runMetricsTable.getTestDocNames()) {
+      MetricsHistory metricsHistory = runMetricsTable.getMetricsHistory(testDocName);
+      if (metricsHistory.size() < 1) continue;
+      runTestDocNames.add(testDocName);
+      runMetrics.add(metricsHistory.getMetrics(metricsHistory.size()-1));
+    }
+    
+    scanStore(null);
+    RandomAccessFile storeFile = new RandomAccessFile(metricsStorePath, "rw");
+    try {
+      FileChannel channel = storeFile.getChannel();
+      // remove any partly written run block
+      channel.truncate(endOfRuns);
+      channel.position(endOfRuns);
+      DataOutputStream out = new DataOutputStream(
+        new BufferedOutputStream(Channels.newOutputStream(channel)));
+      if (endOfRuns == 0L) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+      }
+      writeRunBlock(out, runTestDocNames, runMetrics);
+      out.flush();
+      endOfRuns = channel.position();
+      numRuns++;
+    } finally {
+      storeFile.close();
+    }
+  }
+  
+  /**
+   * Replace this store with the complete metrics histories of the given 
+   * metrics table. The i-th run block contains the i-th metrics of each test 
+   * document which has at least i metrics, so that loading the store 
+   * re-creates the same metrics histories.
+   *
+   * @param aMetricsTable the metrics table to be saved.
+   */
+  public void saveMetricsTable(MetricsTable aMetricsTable) throws IOException {
+    testDocNames.clear();
+    testDocIds.clear();
+    numRuns = 0;
+    
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+      new FileOutputStream(metricsStorePath)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      for (int run = 0; ; run++) {
+        List<String> runTestDocNames = new ArrayList<String>();
+        List<Metrics> runMetrics = new ArrayList<Metrics>();
+        for (String testDocName : aMetricsTable.getTestDocNames()) {
+          MetricsHistory metricsHistory = aMetricsTable.getMetricsHistory(testDocName);
+          if (metricsHistory.size() <= run) continue;
+          runTestDocNames.add(testDocName);
+          runMetrics.add(metricsHistory.getMetrics(run));
+        }
+        if (runTestDocNames.isEmpty()) break;
+        writeRunBlock(out, runTestDocNames, runMetrics);
+        numRuns++;
+      }
+    } finally {
+      out.close();
+    }
+    endOfRuns = new File(metricsStorePath).length();
+  }
+  
+  /**
+   * Write one run block, giving new testDocIds to any testDocNames which
+   * have not been seen before.
+   */
+  protected void writeRunBlock(DataOutputStream out, List<String> runTestDocNames,
+                               List<Metrics> runMetrics) throws IOException {
+    List<String> newTestDocNames = new ArrayList<String>();
+    int[] runTestDocIds = new int[runTestDocNames.size()];
+    for (int i = 0; i < runTestDocIds.length; i++) {
+      String testDocName = runTestDocNames.get(i);
+      Integer testDocId = testDocIds.get(testDocName);
+      if (testDocId == null) {
+        testDocId = testDocNames.size();
+        testDocNames.add(testDocName);
+        testDocIds.put(testDocName, testDocId);
+        newTestDocNames.add(testDocName);
+      }
+      runTestDocIds[i] = testDocId;
+    }
+    
+    // write the whole block in one go to keep partly written blocks rare
+    ByteArrayOutputStream blockBytes = new ByteArrayOutputStream();
+    DataOutputStream block = new DataOutputStream(blockBytes);
+    int numNamedMetrics = Metrics.NUM_METRICS - MetricsRegistry.NUM_BUILT_IN_METRICS;
+    block.writeInt(0 < numNamedMetrics ? NAMED_BLOCK_MAGIC : BLOCK_MAGIC);
+    block.writeInt(Metrics.NUM_METRICS);
+    if (0 < numNamedMetrics) {
+      block.writeInt(numNamedMetrics);
+      for (int metricType = MetricsRegistry.NUM_BUILT_IN_METRICS; 
+           metricType < Metrics.NUM_METRICS; metricType++) {
+        byte[] typeBytes = Metrics.METRIC_TYPE[metricType].getBytes(UTF8);
+        block.writeInt(typeBytes.length);
+        block.write(typeBytes);
+      }
+    }
+    block.writeInt(newTestDocNames.size());
+    for (String testDocName : newTestDocNames) {
+      byte[] nameBytes = testDocName.getBytes(UTF8);
+      block.writeInt(nameBytes.length);
+      block.write(nameBytes);
+    }
+    block.writeInt(runTestDocIds.length);
+    for (int i = 0; i < runTestDocIds.length; i++) block.writeInt(runTestDocIds[i]);
+    for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
+      for (int i = 0; i < runTestDocIds.length; i++) {
+        block.writeLong(runMetrics.get(i).metric[metricType]);
+      }
+    }
+    block.flush();
+    blockBytes.writeTo(out);
+  }
+  
+  /**
+   * Scan (a memory map of) this store, recording its testDocNames, the number 
+   * of complete run blocks and the end of the last complete run block.
+   *
+   * @param aMetricsTable if not null, the metrics table into which the 
+   *                      metrics of each run are loaded.
+   */
+  protected void scanStore(MetricsTable aMetricsTable) throws IOException {
+    testDocNames.clear();
+    testDocIds.clear();
+    endOfRuns = 0L;
+    numRuns = 0;
+    
+    File file = new File(metricsStorePath);
+    if (!file.exists() || file.length() == 0L) return;
+    if (Integer.MAX_VALUE < file.length()) {
+      throw new IOException("The metrics store ["+metricsStorePath+"] is too large to map");
+    }
+    
+    RandomAccessFile storeFile = new RandomAccessFile(file, "r");
+    try {
+      MappedByteBuffer buffer = 
+        storeFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0L, file.length());
+      if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+        throw new IOException("["+metricsStorePath+"] is not a metrics store");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unknown metrics store version ["+version+"] in ["+
+          metricsStorePath+"]");
+      }
+      endOfRuns = HEADER_SIZE;
+      while (scanRunBlock(buffer, aMetricsTable)) {
+        endOfRuns = buffer.position();
+        numRuns++;
+      }
+    } finally {
+      storeFile.close();
+    }
+  }
+  
+  /**
+   * Scan one run block starting at the buffer's current position.
+   *
+   * @return false if there is no further complete run block.
+   */
+  protected boolean scanRunBlock(ByteBuffer buffer, MetricsTable aMetricsTable) {
+    if (buffer.remaining() < 16) return false;
+    int blockMagic = buffer.getInt();
+    if (blockMagic != BLOCK_MAGIC && blockMagic != NAMED_BLOCK_MAGIC) return false;
+    int numMetrics = buffer.getInt();
+    // the metric id of each of the block's metrics (by default its position)
+    int[] metricIds = new int[Math.max(numMetrics, 0)];
+    for (int i = 0; i < metricIds.length; i++) metricIds[i] = i;
+    if (blockMagic == NAMED_BLOCK_MAGIC) {
+      if (buffer.remaining() < 4) return false;
+      int numNamedMetrics = buffer.getInt();
+      if (numNamedMetrics < 0 || metricIds.length < numNamedMetrics) return false;
+      for (int i = metricIds.length - numNamedMetrics; i < metricIds.length; i++) {
+        if (buffer.remaining() < 4) return false;
+        int numBytes = buffer.getInt();
+        if (numBytes < 0 || buffer.remaining() < numBytes) return false;
+        byte[] typeBytes = new byte[numBytes];
+        buffer.get(typeBytes);
+        metricIds[i] = Metrics.strType2int(new String(typeBytes, UTF8));
+      }
+    }
+    if (buffer.remaining() < 4) return false;
+    int numNewTestDocs = buffer.getInt();
+    List<String> newTestDocNames = new ArrayList<String>();
+    for (int i = 0; i < numNewTestDocs; i++) {
+      if (buffer.remaining() < 4) return false;
+      int numBytes = buffer.getInt();
+      if (numBytes < 0 || buffer.remaining() < numBytes) return false;
+      byte[] nameBytes = new byte[numBytes];
+      buffer.get(nameBytes);
+      newTestDocNames.add(new String(nameBytes, UTF8));
+    }
+    if (buffer.remaining() < 4) return false;
+    int numTestDocs = buffer.getInt();
+    if (numMetrics < 0 || numTestDocs < 0 || 
+        buffer.remaining() < numTestDocs*(4L + 8L*numMetrics)) return false;
+    
+    // the block is complete, so its new testDocNames can be recorded
+    for (String testDocName : newTestDocNames) {
+      testDocIds.put(testDocName, testDocNames.size());
+      testDocNames.add(testDocName);
+    }
+    
+    if (aMetricsTable == null) {
+      buffer.position(buffer.position() + numTestDocs*(4 + 8*numMetrics));
+      return true;
+    }
+    
+    int[] runTestDocIds = new int[numTestDocs];
+    for (int i = 0; i < numTestDocs; i++) runTestDocIds[i] = buffer.getInt();
+    Metrics[] runMetrics = new Metrics[numTestDocs];
+    for (int i = 0; i < numTestDocs; i++) runMetrics[i] = new Metrics();
+    for (int metricType = 0; metricType < numMetrics; metricType++) {
+      for (int i = 0; i < numTestDocs; i++) {
+        runMetrics[i].setValue(metricIds[metricType], buffer.getLong());
+      }
+    }
+    for (int i = 0; i < numTestDocs; i++) {
+      aMetricsTable.appendMetrics(testDocNames.get(runTestDocIds[i]), runMetrics[i]);
+    }
+    return true;
+  }
+  
+  /**
+   * Convert a metrics store to or from a CSV formated metricsTable.
+   * <pre>
+   *   $ java org.fandianpf.antlr4.regressionTestRig.MetricsStore 
+   *       (-toCSV|-fromCSV) metricsStorePath metricsTablePath
+   * </pre>
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length != 3 || 
+        !(args[0].equals("-toCSV") || args[0].equals("-fromCSV"))) {
+      System.err.println("java org.fandianpf.antlr4.regressionTestRig.MetricsStore\n"+
+                         "  (-toCSV|-fromCSV) metricsStorePath metricsTablePath");
+      System.exit(1);
+    }
+    MetricsStore metricsStore = new MetricsStore(args[1]);
+    MetricsTable metricsTable = new MetricsTable();
+    if (args[0].equals("-toCSV")) {
+      metricsStore.loadMetricsTable(metricsTable);
+      metricsTable.saveMetricsTable(args[2]);
+    } else {
+      metricsTable.loadMetricsTable(args[2]);
+      metricsStore.saveMetricsTable(metricsTable);
+    }
+  }
+}
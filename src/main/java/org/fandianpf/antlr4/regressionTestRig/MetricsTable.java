@@ -30,14 +30,19 @@ package org.fandianpf.antlr4.regressionTestRig;
 
 import java.lang.Math;
 import java.io.PrintStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.io.InputStreamReader;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.FileNotFoundException;
 import java.io.UnsupportedEncodingException;
+import java.nio.channels.Channels;
 import java.util.TreeMap;
-import java.util.Iterator;
+import java.util.Set;
 
 /**
  * Manages a simple CSV formated table of various lexer and parser metrics.
@@ -58,7 +63,23 @@ public class MetricsTable {
       metricsTable.put(testDocName, new MetricsHistory());
   }
   
-  public void appendMetrics(String testDocName, Metrics someMetrics) {
+  /** Get the (sorted) testDocNames of this metrics table. */
+  public Set<String> getTestDocNames() {
+    return metricsTable.keySet();
+  }
+  
+  /** Get the metrics history of the given testDocName (or null). */
+  public MetricsHistory getMetricsHistory(String testDocName) {
+    return metricsTable.get(testDocName);
+  }
+  
+  /**
+   * Append the metrics of one run to the history of the given testDocName.
+   * <p>
+   * This method is synchronized so that worker threads may safely share one 
+   * MetricsTable.
+   */
+  public synchronized void appendMetrics(String testDocName, Metrics someMetrics) {
     addTestDocName(testDocName);
     
     MetricsHistory metricsHistory = metricsTable.get(testDocName);
@@ -78,17 +99,7 @@ public class MetricsTable {
    */
   protected void loadMetricsTable(BufferedReader metricsBuffer)  
                                   throws IOException {
-    
-    metricsBuffer.readLine(); // ignore the first (header) line    
-    for (String curLine = metricsBuffer.readLine(); 
-         curLine!=null; curLine = metricsBuffer.readLine()) {
-    
-      // ignore this line if it does not start with the name of a testDoc
-      if (!curLine.startsWith("\"")) continue;
-      MetricsTableLineParser lp = new MetricsTableLineParser(curLine);
-      addTestDocName(lp.testDocName);
-      metricsTable.get(lp.testDocName).loadValues(lp.metricsType, lp.restOfLine);
-    }
+    new MetricsTableCodec().loadMetricsTable(metricsBuffer, this);
   }
 
   /**
@@ -100,6 +111,7 @@ public class MetricsTable {
    */
   public void loadMetricsTable(String metricsTableFileName) throws FileNotFoundException,
     IOException {
+    Object loadEvent = FlightRecorderEvents.begin(FlightRecorderEvents.METRICS_TABLE_LOAD);
     FileInputStream metricsFile  = new FileInputStream(metricsTableFileName);
     InputStreamReader metricsReader;
     try {
@@ -107,13 +119,13 @@ public class MetricsTable {
     } catch ( UnsupportedEncodingException usee) {
       metricsReader = new InputStreamReader(metricsFile);
     }
-    BufferedReader metricsBuffer  = new BufferedReader(metricsReader);
+    // the MetricsTableCodec does its own buffering
+    new MetricsTableCodec().loadMetricsTable(metricsReader, this);
 
-    loadMetricsTable(metricsBuffer);
-
-    metricsBuffer.close();
     metricsReader.close();
     metricsFile.close();
+    FlightRecorderEvents.commit(loadEvent, metricsTableFileName, 
+      new File(metricsTableFileName).length(), -1L, -1L);
   }
 
   /**
@@ -129,16 +141,17 @@ public class MetricsTable {
    * with the character t (for type) to ensure the field is interpreted as a 
    * string.
    * <p>
+   * The metrics are written by a {@link MetricsTableCodec} using the UTF-8
+   * encoding.
+   * <p>
    * @param metricsFile PrintStream used to save the metrics.
    */
   public void saveMetricsTable(PrintStream metricsFile) {
-    MetricsHistory.saveHeaderIntoFile(metricsFile);
-    
-    Iterator metricsIter = metricsTable.keySet().iterator();
-    while(metricsIter.hasNext()) {
-      String metricsKey = (String)metricsIter.next();
-      MetricsHistory metricsHistory = metricsTable.get(metricsKey);
-      metricsHistory.saveIntoFile(metricsKey, metricsFile);
+    try {
+      new MetricsTableCodec().saveMetricsTable(this, 
+        new OutputStreamWriter(metricsFile, "UTF-8"));
+    } catch (IOException ioe) {
+      // a PrintStream never throws IOExceptions
     }
   }
   
@@ -149,17 +162,19 @@ public class MetricsTable {
    * @param metricsTableFileName the path to the filesystem file in which to
    *                             save the metrics.
    */
-  public void saveMetricsTable(String metricsTableFileName) throws FileNotFoundException {
-    PrintStream metricsFile;
-    try { 
-      metricsFile = new PrintStream(metricsTableFileName, "UTF-8");
-    } catch (UnsupportedEncodingException usee) {
-      metricsFile = new PrintStream(metricsTableFileName);
+  public void saveMetricsTable(String metricsTableFileName) throws FileNotFoundException,
+    IOException {
+    Object saveEvent = FlightRecorderEvents.begin(FlightRecorderEvents.METRICS_TABLE_SAVE);
+    FileOutputStream metricsFile = new FileOutputStream(metricsTableFileName);
+    Writer metricsWriter = Channels.newWriter(metricsFile.getChannel(), "UTF-8");
+    try {
+      new MetricsTableCodec().saveMetricsTable(this, metricsWriter);
+    } finally {
+      metricsWriter.close();
+      metricsFile.close();
     }
-
-    saveMetricsTable(metricsFile);
-    
-    metricsFile.close();
+    FlightRecorderEvents.commit(saveEvent, metricsTableFileName, 
+      new File(metricsTableFileName).length(), -1L, -1L);
   }
   
 }
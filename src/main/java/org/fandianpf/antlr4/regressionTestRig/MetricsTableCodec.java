@@ -0,0 +1,316 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.text.DecimalFormat;
+import java.util.Arrays;
+
+/**
+ * A streaming reader and writer of the CSV formated {@link MetricsTable}.
+ * <p>
+ * The metrics table is read through one (reused) character buffer. Each 
+ * line is parsed in place, and the metrics values are parsed directly from
+ * the buffer into the (primitive) metrics of each {@link MetricsHistory},
+ * without creating a String (or boxed Long) per line or per value.
+ * <p>
+ * The metrics table is written through one large character buffer, using
+ * one DecimalFormat for the whole table. The CSV format read and written is
+ * exactly that of {@link MetricsTable#loadMetricsTable(java.io.BufferedReader)}
+ * and {@link MetricsHistory#saveIntoFile}.
+ * <p>
+ * A MetricsTableCodec is not thread safe.
+ */
+public class MetricsTableCodec {
+
+  /** The default size, in chars, of the read and write buffers. */
+  public static final int BUFFER_SIZE = 1 << 16;
+  
+  /** The buffer holding the characters being read or written. */
+  protected char[] buffer = new char[BUFFER_SIZE];
+  
+  /** The number of characters in the buffer. */
+  protected int limit = 0;
+  
+  /** The number of statistics, before the values, of the table being read. */
+  protected int numStats = MetricsHistory.NUM_STATS;
+  
+  /** The line separator written (as used by PrintStream::println). */
+  protected final String lineSeparator = System.getProperty("line.separator");
+  
+  /** The format used to write the standard deviations. */
+  protected final DecimalFormat stdDevFormat = MetricsHistory.newStdDevFormat();
+  
+  /** Constructor. */
+  public MetricsTableCodec() { }
+  
+  /**
+   * Load the metrics table from the Reader provided. The Reader is not 
+   * closed.
+   * <p>
+   * The first (header) line, and any line which does not start with the 
+   * (quoted) name of a testDoc, is ignored. The number of fields of the 
+   * header line determines the number of statistics (min, mean, stdDev, 
+   * max, ...) saved before the values, so that metrics tables saved by 
+   * earlier versions (with only four statistics) can still be loaded. As for
+   * {@link MetricsHistory#loadValues}, the statistics
+   * are ignored, empty values are stored as -1L and lines of unrecognized
+   * metricsTypes are ignored.
+   *
+   * @param reader the Reader from which to load the metrics table.
+   * @param metricsTable the metrics table into which the metrics are loaded.
+   */
+  public void loadMetricsTable(Reader reader, MetricsTable metricsTable) 
+    throws IOException {
+    limit = 0;
+    numStats = MetricsHistory.NUM_LEGACY_STATS;
+    boolean firstLine = true;
+    boolean endOfInput = false;
+    int lineStart = 0;
+    while (true) {
+      // find the end of the next line
+      int lineEnd = lineStart;
+      while (lineEnd < limit && buffer[lineEnd] != '\n' && buffer[lineEnd] != '\r') {
+        lineEnd++;
+      }
+      if (lineEnd == limit && !endOfInput) {
+        // move the partial line to the start of the (possibly larger) buffer
+        int partial = limit - lineStart;
+        if (lineStart == 0 && limit == buffer.length) {
+          buffer = Arrays.copyOf(buffer, 2*buffer.length);
+        } else {
+          System.arraycopy(buffer, lineStart, buffer, 0, partial);
+        }
+        limit = partial;
+        lineStart = 0;
+        int numRead = reader.read(buffer, limit, buffer.length - limit);
+        if (numRead < 0) endOfInput = true;
+        else limit += numRead;
+        continue;
+      }
+      if (lineEnd == limit && lineStart == limit) break;
+      
+      if (firstLine) {
+        firstLine = false; // only count the fields of the (header) line
+        parseHeader(lineStart, lineEnd);
+      } else parseLine(lineStart, lineEnd, metricsTable);
+      
+      // skip the end of line (\n, \r or \r\n)
+      lineStart = lineEnd+1;
+      if (lineEnd < limit && buffer[lineEnd] == '\r') {
+        if (lineStart == limit && !endOfInput) {
+          int numRead = reader.read();
+          if (numRead < 0) endOfInput = true;
+          else if (numRead != '\n') {
+            buffer[0] = (char)numRead;
+            limit = 1;
+            lineStart = 0;
+          }
+        } else if (lineStart < limit && buffer[lineStart] == '\n') {
+          lineStart++;
+        }
+      }
+      if (limit < lineStart) lineStart = limit;
+    }
+  }
+  
+  /** 
+   * Parse the header line (from lineStart up to lineEnd) to find the number
+   * of statistics saved before the values: all fields except the 
+   * testDocName, metricType and values fields.
+   */
+  protected void parseHeader(int lineStart, int lineEnd) {
+    if (lineEnd <= lineStart || buffer[lineStart] != '"') return;
+    int numFields = 1;
+    for (int i = lineStart; i < lineEnd; i++) if (buffer[i] == ',') numFields++;
+    if (3 <= numFields) numStats = numFields - 3;
+  }
+  
+  /** Parse one line (from lineStart up to lineEnd) of the metrics table. */
+  protected void parseLine(int lineStart, int lineEnd, MetricsTable metricsTable) {
+    // ignore this line if it does not start with the name of a testDoc
+    if (lineEnd <= lineStart || buffer[lineStart] != '"') return;
+    int endTdnIndex = indexOf('"', lineStart+1, lineEnd);
+    if (endTdnIndex < 0) return;
+    int begTTIndex = indexOf('"', endTdnIndex+1, lineEnd);
+    if (begTTIndex < 0) return;
+    int endTTIndex = indexOf('"', begTTIndex+1, lineEnd);
+    if (endTTIndex < 0) return;
+    
+    String testDocName = new String(buffer, lineStart+1, endTdnIndex-lineStart-1);
+    metricsTable.addTestDocName(testDocName);
+    int metricType = 
+      Metrics.strType2int(new String(buffer, begTTIndex+1, endTTIndex-begTTIndex-1));
+    if (metricType < 0) return;
+    MetricsHistory metricsHistory = metricsTable.getMetricsHistory(testDocName);
+    
+    // the values start after the comma following the metricsType, and the
+    // statistics (min, mean, stdDev, max, ...) are ignored
+    int valueIndex = -numStats;
+    int fieldStart = endTTIndex+2;
+    while (fieldStart <= lineEnd) {
+      int fieldEnd = indexOf(',', fieldStart, lineEnd);
+      if (fieldEnd < 0) fieldEnd = lineEnd;
+      if (0 <= valueIndex && fieldStart < fieldEnd) {
+        metricsHistory.setValue(valueIndex, metricType, 
+                                parseValue(fieldStart, fieldEnd));
+      }
+      valueIndex++;
+      fieldStart = fieldEnd+1;
+    }
+  }
+  
+  /** Find the index of the character c in the buffer (or -1). */
+  protected int indexOf(char c, int start, int end) {
+    for (int i = start; i < end; i++) if (buffer[i] == c) return i;
+    return -1;
+  }
+  
+  /**
+   * Parse a (non-empty) value directly from the buffer. Values containing a
+   * decimal point are truncated, and unparsable values are -1L.
+   */
+  protected long parseValue(int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (buffer[i] == '-') { negative = true; i++; }
+    // the fast path: at most 18 decimal digits can not overflow
+    if (i < end && end - i <= 18) {
+      long value = 0L;
+      for (; i < end; i++) {
+        char c = buffer[i];
+        if (c < '0' || '9' < c) break;
+        value = value*10 + (c - '0');
+      }
+      if (i == end) return negative ? -value : value;
+    }
+    // the slow path
+    String valueStr = new String(buffer, start, end-start);
+    try {
+      if (0 <= valueStr.indexOf('.')) return Double.valueOf(valueStr).longValue();
+      return Long.valueOf(valueStr);
+    } catch (Exception exp) {
+      return -1L;
+    }
+  }
+  
+  /**
+   * Save the metrics table into the Writer provided. The Writer is flushed
+   * but not closed.
+   * <p>
+   * See {@link MetricsTable#saveMetricsTable(java.io.PrintStream)} for the 
+   * ordering of the metrics.
+   *
+   * @param metricsTable the metrics table to be saved.
+   * @param writer the Writer used to save the metrics table.
+   */
+  public void saveMetricsTable(MetricsTable metricsTable, Writer writer) 
+    throws IOException {
+    limit = 0;
+    append(MetricsHistory.CSV_HEADER);
+    append(lineSeparator);
+    for (String testDocName : metricsTable.getTestDocNames()) {
+      MetricsHistory metricsHistory = metricsTable.getMetricsHistory(testDocName);
+      metricsHistory.computeStats();
+      Metrics[] robustStats = metricsHistory.getRobustStats();
+      for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
+        append('"');
+        append(testDocName);
+        append("\",\"");
+        append(Metrics.METRIC_TYPE[metricType]);
+        append("\",");
+        append(metricsHistory.min.metric[metricType]);
+        append(',');
+        append(String.valueOf(metricsHistory.mean.metric[metricType]));
+        append(',');
+        append(stdDevFormat.format(metricsHistory.stdDev.metric[metricType]));
+        append(',');
+        append(metricsHistory.max.metric[metricType]);
+        for (Metrics robustStat : robustStats) {
+          append(',');
+          long value = robustStat.metric[metricType];
+          if (-1 < value) append(value);
+        }
+        for (int i = 0; i < metricsHistory.size(); i++) {
+          append(',');
+          long value = metricsHistory.getValue(i, metricType);
+          if (-1 < value) append(value);
+        }
+        append(lineSeparator);
+        if (BUFFER_SIZE <= limit) {
+          writer.write(buffer, 0, limit);
+          limit = 0;
+        }
+      }
+    }
+    writer.write(buffer, 0, limit);
+    limit = 0;
+    writer.flush();
+  }
+  
+  /** Ensure there is room for numChars more characters in the buffer. */
+  protected void ensureCapacity(int numChars) {
+    if (buffer.length < limit + numChars) {
+      buffer = Arrays.copyOf(buffer, Math.max(2*buffer.length, limit + numChars));
+    }
+  }
+  
+  /** Append a character to the buffer. */
+  protected void append(char c) {
+    ensureCapacity(1);
+    buffer[limit++] = c;
+  }
+  
+  /** Append a String to the buffer. */
+  protected void append(String s) {
+    ensureCapacity(s.length());
+    s.getChars(0, s.length(), buffer, limit);
+    limit += s.length();
+  }
+  
+  /** Append the decimal digits of a long to the buffer. */
+  protected void append(long value) {
+    if (value < 0) {
+      if (value == Long.MIN_VALUE) { append(Long.toString(value)); return; }
+      append('-');
+      value = -value;
+    }
+    ensureCapacity(19);
+    int numDigits = 1;
+    for (long v = value; 10 <= v; v /= 10) numDigits++;
+    int pos = limit + numDigits;
+    limit = pos;
+    do {
+      buffer[--pos] = (char)('0' + (value % 10));
+      value /= 10;
+    } while (value != 0);
+  }
+}
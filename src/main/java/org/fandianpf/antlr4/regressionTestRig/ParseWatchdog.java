@@ -0,0 +1,122 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A watchdog which limits the wall-clock time taken to lex and parse an 
+ * input file.
+ * <p>
+ * The start rule of a parser can not be interrupted, so the watchdog only 
+ * raises a (volatile) timed out flag once the timeout has expired. The 
+ * lexer's and parser's ATN simulators check this flag each time adaptive 
+ * prediction computes an ATN closure (which is where pathological inputs 
+ * spend their time), and then abort the parse, cooperatively, by throwing a
+ * {@link ParseTimeoutException}.
+ * <p>
+ * All watchdogs share a single (daemon) timer thread.
+ */
+public class ParseWatchdog {
+  
+  /** The exception thrown (by {@link #checkTimeout}) to abort a parse. */
+  public static class ParseTimeoutException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+    public ParseTimeoutException() { super("parse timed out"); }
+  }
+  
+  /** The timer thread shared by all watchdogs. */
+  protected static ScheduledExecutorService timer = null;
+  
+  /** Has the current timeout expired? */
+  protected volatile boolean timedOut = false;
+  
+  /** The pending expiry of the current timeout (if any). */
+  protected ScheduledFuture<?> expiry = null;
+  
+  /** The shared timer thread (which is created when first needed). */
+  protected static synchronized ScheduledExecutorService getTimer() {
+    if (timer == null) {
+      timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "RegressionTestRig watchdog");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+    }
+    return timer;
+  }
+  
+  /** 
+   * Start watching a new parse, which times out after timeoutMillis 
+   * milliseconds. A timeout of zero (or less) never times out.
+   */
+  public synchronized void start(long timeoutMillis) {
+    stop();
+    timedOut = false;
+    if (timeoutMillis <= 0) return;
+    expiry = getTimer().schedule(new Runnable() {
+      public void run() { timedOut = true; }
+    }, timeoutMillis, TimeUnit.MILLISECONDS);
+  }
+  
+  /** Stop watching the current parse (the timed out flag is kept). */
+  public synchronized void stop() {
+    if (expiry != null) expiry.cancel(false);
+    expiry = null;
+  }
+  
+  /** Has the current parse timed out? */
+  public boolean hasTimedOut() { return timedOut; }
+  
+  /** 
+   * Abort the current parse if it has timed out.
+   *
+   * @throws ParseTimeoutException if the current parse has timed out.
+   */
+  public void checkTimeout() {
+    if (timedOut) throw new ParseTimeoutException();
+  }
+  
+  /**
+   * Rethrow the ParseTimeoutException which caused an exception (for 
+   * example, the InvocationTargetException of a parser's start rule), so 
+   * that the parse is not reported as a failure of some other kind.
+   */
+  public static void rethrowTimeout(Throwable exception) {
+    for (Throwable cause = exception; cause != null; cause = cause.getCause()) {
+      if (cause instanceof ParseTimeoutException) throw (ParseTimeoutException)cause;
+    }
+  }
+}
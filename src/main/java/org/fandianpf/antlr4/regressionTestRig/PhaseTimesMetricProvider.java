@@ -0,0 +1,81 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+/**
+ * A MetricProvider which splits the wall clock timings of the lexer and of
+ * the parser into the thread CPU time, and the time the JVM spent in garbage
+ * collection and JIT compilation, while lexing and parsing each input file
+ * (see {@link CPUMeter}).
+ * <p>
+ * A wall clock regression without a matching CPU time regression is usually
+ * due to the environment (other processes, GC or the JIT) rather than the 
+ * grammar. All of these metrics are timings. Metrics which the JVM does not
+ * measure are left as -1.
+ */
+public class PhaseTimesMetricProvider extends MetricProvider {
+  
+  protected static final String[] METRIC_TYPES = {
+    "t07LexerCPUNanos",  "t08ParserCPUNanos",
+    "t45LexerGCMillis",  "t46ParserGCMillis",
+    "t47LexerJITMillis", "t48ParserJITMillis"
+  };
+  
+  protected static final String[] METRIC_UNITS = {
+    "ns", "ns",
+    "ms", "ms",
+    "ms", "ms"
+  };
+  
+  /** The CPU, GC and JIT totals taken at the start of the current phase. */
+  protected long[] phaseTotals = null;
+  
+  @Override
+  public String[] getMetricTypes() { return METRIC_TYPES.clone(); }
+  
+  @Override
+  public String[] getMetricUnits() { return METRIC_UNITS.clone(); }
+  
+  @Override
+  public void start(int phase, Metrics metrics) {
+    if (phase == LEXING || phase == PARSING) phaseTotals = CPUMeter.getPhaseTotals();
+  }
+  
+  @Override
+  public void end(int phase, Metrics metrics) {
+    if (phaseTotals == null || !(phase == LEXING || phase == PARSING)) return;
+    long[] phaseTimes = CPUMeter.getPhaseTotalsSince(phaseTotals);
+    phaseTotals = null;
+    // the lexer's metrics are at even indexes, and the parser's at odd ones
+    int offset = (phase == LEXING) ? 0 : 1;
+    setValue(metrics, offset,     phaseTimes[CPUMeter.CPU_NANOS]);
+    setValue(metrics, offset + 2, phaseTimes[CPUMeter.GC_MILLIS]);
+    setValue(metrics, offset + 4, phaseTimes[CPUMeter.JIT_MILLIS]);
+  }
+}
@@ -0,0 +1,258 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.atn.ATN;
+import org.antlr.v4.runtime.atn.DecisionInfo;
+import org.antlr.v4.runtime.atn.DecisionState;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.TreeMap;
+
+/**
+ * Accumulates the per-decision profiling information collected by ANTLR's
+ * {@link org.antlr.v4.runtime.atn.ProfilingATNSimulator}, either for a single
+ * input file or across a whole corpus of input files.
+ * <p>
+ * The decisions are reported in order of their cost (the total time spent in 
+ * prediction), so that the grammar decisions which are eating the parse time
+ * are listed first.
+ */
+public class ProfileTable {
+
+  /** The accumulated profiling information for one grammar decision. */
+  public static class DecisionProfile {
+  
+    /** The ATN decision number. */
+    public final int decision;
+    
+    /** The name of the rule which contains this decision (may be null). */
+    public final String ruleName;
+    
+    /** The number of times adaptivePredict was invoked for this decision. */
+    public long invocations = 0L;
+    
+    /** The total time (in nanoseconds) spent in adaptivePredict. */
+    public long timeInPrediction = 0L;
+    
+    /** The total number of SLL lookahead symbols examined. */
+    public long SLL_TotalLook = 0L;
+    
+    /** The largest number of SLL lookahead symbols examined by one prediction. */
+    public long SLL_MaxLook = 0L;
+    
+    /** The total number of full-context (LL) lookahead symbols examined. */
+    public long LL_TotalLook = 0L;
+    
+    /** The largest number of LL lookahead symbols examined by one prediction. */
+    public long LL_MaxLook = 0L;
+    
+    /** The number of times SLL prediction fell back to full-context (LL). */
+    public long LL_Fallback = 0L;
+    
+    /** The number of ambiguities reported for this decision. */
+    public long ambiguities = 0L;
+    
+    /** The number of context sensitivities reported for this decision. */
+    public long contextSensitivities = 0L;
+    
+    /** Constructor. */
+    public DecisionProfile(int aDecision, String aRuleName) {
+      decision = aDecision;
+      ruleName = aRuleName;
+    }
+    
+    /** Add the information collected by ANTLR for this decision. */
+    public void add(DecisionInfo info) {
+      invocations          += info.invocations;
+      timeInPrediction     += info.timeInPrediction;
+      SLL_TotalLook        += info.SLL_TotalLook;
+      SLL_MaxLook           = Math.max(SLL_MaxLook, info.SLL_MaxLook);
+      LL_TotalLook         += info.LL_TotalLook;
+      LL_MaxLook            = Math.max(LL_MaxLook, info.LL_MaxLook);
+      LL_Fallback          += info.LL_Fallback;
+      ambiguities          += info.ambiguities.size();
+      contextSensitivities += info.contextSensitivities.size();
+    }
+    
+    /** Add the (accumulated) profile of the same decision. */
+    public void add(DecisionProfile other) {
+      invocations          += other.invocations;
+      timeInPrediction     += other.timeInPrediction;
+      SLL_TotalLook        += other.SLL_TotalLook;
+      SLL_MaxLook           = Math.max(SLL_MaxLook, other.SLL_MaxLook);
+      LL_TotalLook         += other.LL_TotalLook;
+      LL_MaxLook            = Math.max(LL_MaxLook, other.LL_MaxLook);
+      LL_Fallback          += other.LL_Fallback;
+      ambiguities          += other.ambiguities;
+      contextSensitivities += other.contextSensitivities;
+    }
+    
+    /** The average number of SLL lookahead symbols examined per prediction. */
+    public double getSLLAverageLook() {
+      if (invocations < 1) return 0.0;
+      return ((double)SLL_TotalLook) / invocations;
+    }
+    
+    /** The average number of LL lookahead symbols examined per fallback. */
+    public double getLLAverageLook() {
+      if (LL_Fallback < 1) return 0.0;
+      return ((double)LL_TotalLook) / LL_Fallback;
+    }
+  }
+  
+  /** Orders the decisions by decreasing cost, and then by decision number. */
+  protected static final Comparator<DecisionProfile> BY_COST = 
+    new Comparator<DecisionProfile>() {
+      public int compare(DecisionProfile a, DecisionProfile b) {
+        if (a.timeInPrediction != b.timeInPrediction) {
+          return (a.timeInPrediction < b.timeInPrediction) ? 1 : -1;
+        }
+        return (a.decision < b.decision) ? -1 : ((a.decision == b.decision) ? 0 : 1);
+      }
+    };
+  
+  /** The profiles of the decisions which have been invoked, by decision. */
+  protected final TreeMap<Integer, DecisionProfile> decisions = 
+    new TreeMap<Integer, DecisionProfile>();
+  
+  /** Constructor. */
+  public ProfileTable() { }
+  
+  /** Remove all decision profiles. */
+  public void clear() { decisions.clear(); }
+  
+  /** Have no decisions been profiled? */
+  public boolean isEmpty() { return decisions.isEmpty(); }
+  
+  /** Get the profile of one decision (or null if it has not been invoked). */
+  public DecisionProfile getDecisionProfile(int decision) {
+    return decisions.get(decision);
+  }
+  
+  /**
+   * Add the decision information collected by a parser's profiling simulator.
+   * Decisions which have never been invoked are ignored.
+   *
+   * @param parser the parser used to look up the name of each decision's rule.
+   * @param decisionInfo the profiling information of each decision.
+   */
+  public void addDecisionInfo(Parser parser, DecisionInfo[] decisionInfo) {
+    if (decisionInfo == null) return;
+    for (DecisionInfo info : decisionInfo) {
+      if (info == null || info.invocations < 1) continue;
+      DecisionProfile profile = decisions.get(info.decision);
+      if (profile == null) {
+        profile = new DecisionProfile(info.decision, getRuleName(parser, info.decision));
+        decisions.put(info.decision, profile);
+      }
+      profile.add(info);
+    }
+  }
+  
+  /**
+   * Add all of the decision profiles of another ProfileTable (for example, 
+   * one collected by a worker RegressionTestRig).
+   */
+  public void addProfileTable(ProfileTable other) {
+    for (DecisionProfile otherProfile : other.decisions.values()) {
+      DecisionProfile profile = decisions.get(otherProfile.decision);
+      if (profile == null) {
+        profile = new DecisionProfile(otherProfile.decision, otherProfile.ruleName);
+        decisions.put(otherProfile.decision, profile);
+      }
+      profile.add(otherProfile);
+    }
+  }
+  
+  /** Get the name of the rule containing a decision (or null if not known). */
+  protected static String getRuleName(Parser parser, int decision) {
+    if (parser == null) return null;
+    ATN atn = parser.getATN();
+    String[] ruleNames = parser.getRuleNames();
+    if (atn == null || ruleNames == null) return null;
+    if (decision < 0 || atn.decisionToState.size() <= decision) return null;
+    DecisionState state = atn.decisionToState.get(decision);
+    if (state == null || state.ruleIndex < 0 || ruleNames.length <= state.ruleIndex) {
+      return null;
+    }
+    return ruleNames[state.ruleIndex];
+  }
+  
+  /** Get the decision profiles ordered by decreasing cost. */
+  public List<DecisionProfile> getDecisionsByCost() {
+    List<DecisionProfile> byCost = 
+      new ArrayList<DecisionProfile>(decisions.values());
+    Collections.sort(byCost, BY_COST);
+    return byCost;
+  }
+  
+  /** The total time (in nanoseconds) spent in prediction. */
+  public long getTotalTimeInPrediction() {
+    long total = 0L;
+    for (DecisionProfile profile : decisions.values()) total += profile.timeInPrediction;
+    return total;
+  }
+  
+  /** The total number of predictions made. */
+  public long getTotalInvocations() {
+    long total = 0L;
+    for (DecisionProfile profile : decisions.values()) total += profile.invocations;
+    return total;
+  }
+  
+  /**
+   * Print the decision profiles, one per line ordered by decreasing cost, 
+   * preceded by a header line naming the columns.
+   *
+   * @param out the PrintStream into which the table is printed.
+   */
+  public void printProfileTable(PrintStream out) {
+    out.println(String.format(Locale.ROOT,
+      "%8s %-24s %11s %15s %6s %7s %12s %6s %7s %11s %11s",
+      "decision", "rule", "invocations", "timeInPredNanos", 
+      "SLLavg", "SLLmax", "LLfallbacks", "LLavg", "LLmax",
+      "ambiguities", "contextSens"));
+    for (DecisionProfile profile : getDecisionsByCost()) {
+      out.println(String.format(Locale.ROOT,
+        "%8d %-24s %11d %15d %6.2f %7d %12d %6.2f %7d %11d %11d",
+        profile.decision, profile.ruleName, profile.invocations, 
+        profile.timeInPrediction, profile.getSLLAverageLook(), 
+        profile.SLL_MaxLook, profile.LL_Fallback, profile.getLLAverageLook(),
+        profile.LL_MaxLook, profile.ambiguities, profile.contextSensitivities));
+    }
+  }
+}
@@ -0,0 +1,354 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import java.io.PrintStream;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compare the newest metrics of each test document with the (baseline) 
+ * history of its earlier metrics, and report any performance regressions.
+ * <p>
+ * The timing metrics (lexer and parser times and nanos) vary from run to 
+ * run, so a newest timing is a regression only when it is both 
+ * statistically unusual (its score is larger than the scoreThreshold of its 
+ * metricType) and practically significant (it is slower than the baseline 
+ * by more than the changeThreshold of its metricType). A timing is only 
+ * checked once the baseline has at least {@link #minBaselineRuns} values.
+ * <p>
+ * Two statistical tests are provided: 
+ * <ul>
+ * <li>"robust" (the default) scores a timing by its distance above the
+ * baseline median, in units of the (normal consistent) median absolute
+ * deviation, which is hardly affected by the GC and JIT outliers in the 
+ * baseline.</li>
+ * <li>"stdDev" scores a timing by its distance above the baseline mean, in 
+ * units of the baseline standard deviation.</li>
+ * </ul>
+ * <p>
+ * The structural metrics (tokens, parse tree depth and nodes, errors, 
+ * ambiguities, contexts and fallbacks) do not vary from run to run, so any 
+ * change, larger than the changeThreshold of its metricType, from the last
+ * baseline value is reported as a regression.
+ */
+public class RegressionCheck {
+  
+  /** The name of the (default) median and MAD based statistical test. */
+  public static final String ROBUST_TEST = "robust";
+  
+  /** The name of the mean and standard deviation based statistical test. */
+  public static final String STDDEV_TEST = "stdDev";
+  
+  /** 
+   * The factor which makes the median absolute deviation a consistent 
+   * estimator of the standard deviation of normally distributed values.
+   */
+  public static final double MAD_SCALE = 1.4826;
+  
+  /** The default scoreThreshold of the timing metrics. */
+  public static final double DEFAULT_SCORE_THRESHOLD = 3.0;
+  
+  /** The default changeThreshold (a fraction) of the timing metrics. */
+  public static final double DEFAULT_CHANGE_THRESHOLD = 0.10;
+  
+  /** The statistical test used to score the timing metrics. */
+  protected String statisticalTest = ROBUST_TEST;
+  
+  /** The score above which a timing metric may be a regression. */
+  protected double[] scoreThresholds = new double[Metrics.NUM_METRICS];
+  
+  /** 
+   * The (relative) change from the baseline above which a metric may be a
+   * regression.
+   */
+  protected double[] changeThresholds = new double[Metrics.NUM_METRICS];
+  
+  /** The smallest baseline for which the timing metrics are checked. */
+  protected int minBaselineRuns = 3;
+  
+  /** One regressed metric of one test document. */
+  public static class Regression {
+    public String testDocName;
+    public int    metricType;
+    /** The newest value of the metric. */
+    public long   value;
+    /** The baseline value (median, mean or last value) of the metric. */
+    public double baseline;
+    /** 
+     * The score of the newest value; POSITIVE_INFINITY for a changed 
+     * structural metric.
+     */
+    public double score;
+    
+    /** The relative change of the newest value from the baseline. */
+    public double getRelativeChange() {
+      if (baseline == 0.0) return (value == 0) ? 0.0 : Double.POSITIVE_INFINITY;
+      return (value - baseline)/baseline;
+    }
+  }
+  
+  /** Rank regressions by decreasing score, then relative change. */
+  protected static final Comparator<Regression> RANKING = 
+    new Comparator<Regression>() {
+      public int compare(Regression r1, Regression r2) {
+        int result = Double.compare(r2.score, r1.score);
+        if (result != 0) return result;
+        result = Double.compare(Math.abs(r2.getRelativeChange()), 
+                                Math.abs(r1.getRelativeChange()));
+        if (result != 0) return result;
+        result = r1.testDocName.compareTo(r2.testDocName);
+        if (result != 0) return result;
+        return r1.metricType - r2.metricType;
+      }
+    };
+  
+  /** Constructor using the default statistical test and thresholds. */
+  public RegressionCheck() {
+    for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
+      if (isTimingMetric(metricType)) {
+        scoreThresholds[metricType]  = DEFAULT_SCORE_THRESHOLD;
+        changeThresholds[metricType] = DEFAULT_CHANGE_THRESHOLD;
+      }
+    }
+  }
+  
+  /** 
+   * Is the metricType a (run to run varying) timing metric? The DFA cache
+   * metrics are checked as timings, since they depend upon how warm the DFA
+   * caches were and (with -threads) upon the order in which the input files
+   * were parsed. So are the memory metrics, which depend upon the JIT and 
+   * the garbage collector. Each MetricProvider declares which of its
+   * metrics are timings.
+   */
+  public static boolean isTimingMetric(int metricType) {
+    switch (metricType) {
+      case Metrics.LEXER_DFA_STATES:
+      case Metrics.LEXER_DFA_EDGES:
+      case Metrics.LEXER_DFA_MISSES:
+      case Metrics.PARSER_DFA_STATES:
+      case Metrics.PARSER_DFA_EDGES:
+      case Metrics.PARSER_DFA_MISSES:
+      case Metrics.LEXER_ALLOC_BYTES:
+      case Metrics.PARSER_ALLOC_BYTES:
+      case Metrics.RETAINED_HEAP_BYTES:
+      case Metrics.GC_COUNT:
+      case Metrics.GC_MILLIS:
+      case Metrics.LEXER_TIMINGS:
+      case Metrics.PARSER_TIMINGS:
+      case Metrics.LEXER_NANOS:
+      case Metrics.PARSER_NANOS:
+      case Metrics.PARSER_STAGE1_NANOS:
+      case Metrics.PARSER_STAGE2_NANOS:
+        return true;
+      default:
+        return MetricsRegistry.isTimingMetric(metricType);
+    }
+  }
+  
+  /** 
+   * Set the statistical test used to score the timing metrics.
+   *
+   * @return false if the statistical test is not recognized.
+   */
+  public boolean setStatisticalTest(String aStatisticalTest) {
+    if (ROBUST_TEST.equalsIgnoreCase(aStatisticalTest)) {
+      statisticalTest = ROBUST_TEST;
+    } else if (STDDEV_TEST.equalsIgnoreCase(aStatisticalTest)) {
+      statisticalTest = STDDEV_TEST;
+    } else {
+      return false;
+    }
+    return true;
+  }
+  
+  /** Set the smallest baseline for which the timing metrics are checked. */
+  public void setMinBaselineRuns(int aMinBaselineRuns) {
+    minBaselineRuns = Math.max(1, aMinBaselineRuns);
+  }
+  
+  /**
+   * Set the thresholds of one metricType from a specification of the form
+   * "metricType=scoreThreshold" or "metricType=scoreThreshold:changePercent",
+   * for example "t01ParserTimes=4:20".
+   *
+   * @return false if the specification could not be parsed.
+   */
+  public boolean setThresholds(String thresholdSpec) {
+    int equalsIndex = thresholdSpec.indexOf('=');
+    if (equalsIndex < 0) return false;
+    int metricType = Metrics.strType2int(thresholdSpec.substring(0, equalsIndex));
+    if (metricType < 0) return false;
+    String thresholds = thresholdSpec.substring(equalsIndex+1);
+    int colonIndex = thresholds.indexOf(':');
+    try {
+      if (colonIndex < 0) {
+        scoreThresholds[metricType] = Double.parseDouble(thresholds);
+      } else {
+        double score  = Double.parseDouble(thresholds.substring(0, colonIndex));
+        double change = Double.parseDouble(thresholds.substring(colonIndex+1))/100.0;
+        scoreThresholds[metricType]  = score;
+        changeThresholds[metricType] = change;
+      }
+    } catch (NumberFormatException nfe) {
+      return false;
+    }
+    return true;
+  }
+  
+  /**
+   * Check the newest metrics of each of the given test documents against 
+   * the baseline of all of its earlier metrics in the metrics table.
+   *
+   * @return the regressions found, ranked from the most to the least 
+   *         significant.
+   */
+  public List<Regression> check(MetricsTable metricsTable, 
+                                Collection<String> testDocNames) {
+    List<Regression> regressions = new ArrayList<Regression>();
+    for (String testDocName : testDocNames) {
+      MetricsHistory history = metricsTable.getMetricsHistory(testDocName);
+      if (history == null || history.size() < 2) continue;
+      int newestIndex = history.size() - 1;
+      MetricsHistory baseline = history.subHistory(0, newestIndex);
+      baseline.computeStats();
+      for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
+        long value = history.getValue(newestIndex, metricType);
+        if (value < 0) continue;
+        Regression regression = isTimingMetric(metricType) ?
+          checkTiming(baseline, metricType, value) :
+          checkStructure(baseline, metricType, value);
+        if (regression != null) {
+          regression.testDocName = testDocName;
+          regressions.add(regression);
+        }
+      }
+    }
+    Collections.sort(regressions, RANKING);
+    return regressions;
+  }
+  
+  /** Check the newest value of a timing metric against its baseline. */
+  protected Regression checkTiming(MetricsHistory baseline, int metricType, 
+                                   long value) {
+    MetricsHistogram histogram = baseline.histograms[metricType];
+    if (histogram == null || histogram.getTotalCount() < minBaselineRuns) {
+      return null;
+    }
+    double center;
+    double spread;
+    if (STDDEV_TEST.equals(statisticalTest)) {
+      center = baseline.mean.metric[metricType];
+      spread = baseline.stdDev.metric[metricType];
+    } else {
+      center = baseline.median.metric[metricType];
+      spread = MAD_SCALE*baseline.mad.metric[metricType];
+    }
+    // timings are integers, so the baseline can not be more precise than one
+    spread = Math.max(1.0, spread);
+    double score = (value - center)/spread;
+    if (score <= scoreThresholds[metricType]) return null;
+    if (value - center <= changeThresholds[metricType]*center) return null;
+    Regression regression = new Regression();
+    regression.metricType = metricType;
+    regression.value      = value;
+    regression.baseline   = center;
+    regression.score      = score;
+    return regression;
+  }
+  
+  /** 
+   * Check the newest value of a structural metric against the last value 
+   * of its baseline.
+   */
+  protected Regression checkStructure(MetricsHistory baseline, int metricType, 
+                                      long value) {
+    long lastValue = -1L;
+    for (int i = baseline.size() - 1; lastValue < 0 && 0 <= i; i--) {
+      lastValue = baseline.getValue(i, metricType);
+    }
+    if (lastValue < 0) return null;
+    if (Math.abs(value - lastValue) <= changeThresholds[metricType]*lastValue) {
+      return null;
+    }
+    Regression regression = new Regression();
+    regression.metricType = metricType;
+    regression.value      = value;
+    regression.baseline   = lastValue;
+    regression.score      = Double.POSITIVE_INFINITY;
+    return regression;
+  }
+  
+  /**
+   * Print the ranked report of the regressions found, one regressed metric 
+   * per line.
+   */
+  public void printReport(List<Regression> regressions, PrintStream out) {
+    DecimalFormat df = MetricsHistory.newStdDevFormat();
+    out.println(RegressionTestRig.PRINT_STREAM_BAR);
+    out.print("Regression check (");
+    out.print(statisticalTest);
+    out.print(" test): ");
+    out.print(regressions.size());
+    out.println(" regressed metric(s)");
+    out.println(RegressionTestRig.PRINT_STREAM_BAR);
+    int rank = 1;
+    for (Regression regression : regressions) {
+      out.print(rank++);
+      out.print(". ");
+      out.print(regression.testDocName);
+      out.print(' ');
+      out.print(Metrics.METRIC_TYPE[regression.metricType]);
+      out.print(": ");
+      out.print(regression.value);
+      out.print(' ');
+      out.print(MetricsRegistry.getMetricUnit(regression.metricType));
+      out.print(" (baseline ");
+      out.print(df.format(regression.baseline));
+      double change = regression.getRelativeChange();
+      if (!Double.isInfinite(change)) {
+        out.print(", ");
+        if (0 < change) out.print('+');
+        out.print(df.format(100.0*change));
+        out.print('%');
+      }
+      if (Double.isInfinite(regression.score)) {
+        out.print(", changed");
+      } else {
+        out.print(", score ");
+        out.print(df.format(regression.score));
+      }
+      out.println(')');
+    }
+  }
+}
@@ -33,22 +33,38 @@
 
 package org.fandianpf.antlr4.regressionTestRig;
 
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.ANTLRErrorStrategy;
 import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CommonTokenFactory;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.DiagnosticErrorListener;
 import org.antlr.v4.runtime.Lexer;
 import org.antlr.v4.runtime.Parser;
 import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
 import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.UnbufferedCharStream;
+import org.antlr.v4.runtime.UnbufferedTokenStream;
 import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.atn.ProfilingATNSimulator;
+import org.antlr.v4.runtime.misc.Pair;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 
 import javax.print.PrintException;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.PrintStream;
 import java.io.FileNotFoundException;
@@ -57,7 +73,16 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.regex.Pattern;
 
 /**
@@ -66,17 +91,37 @@ import java.util.regex.Pattern;
  *
  *  $ java org.fandianpf.antlr4.RegressionTestRig GrammarName startRuleName
  *        [-tree]
+ *        [-treeless]
  *        [-tokens]
  *        [-trace]
  *        [-diagnostics]
  *        [-SLL]
+ *        [-twoStage]
  *        [-primaryIndent primaryIndentString]
  *        [-secondaryIndent secondaryIndentString]
  *        [-indentCycle indentCyclePeriod]
  *        [-encoding anEncoding]
+ *        [-mmap]
+ *        [-stream]
  *        [-metrics aMetricsTablePath]
+ *        [-metricsStore aMetricsStorePath]
+ *        [-regressionCheck]
+ *        [-regressionTest robust|stdDev]
+ *        [-regressionThreshold metricType=score[:changePercent]]
+ *        [-incremental anIncrementalCachePath]
+ *        [-sampleUnchanged aFraction]
+ *        [-dfaCache cold|warm|persist]
+ *        [-dfaCacheFile aDFASnapshotPath]
+ *        [-timeout numSeconds]
+ *        [-retainedHeap]
+ *        [-jfr aRecordingPath]
+ *        [-telemetryPort aPort]
  *        [-sourceDir aSourceDirPath]
  *        [-outputDir anOutputDirPath]
+ *        [-threads numThreads]
+ *        [-warmup numWarmups]
+ *        [-repeat numRepeats]
+ *        [-profile]
  *        [input-filename(s)]
  */
 public class RegressionTestRig {
@@ -84,6 +129,28 @@ public class RegressionTestRig {
   /** Default start rule for the lexer. */
 	public static final String LEXER_START_RULE_NAME = "tokens";
 	
+	/** The exit status of a run in which the regression check failed. */
+	public static final int REGRESSION_EXIT_STATUS = 1;
+	
+	/** 
+	 * The size of the buffer of each results file. The results (in particular
+	 * the -tree output) are written in many small pieces, each of which would
+	 * otherwise be a separate write to the file.
+	 */
+	public static final int RESULTS_BUFFER_SIZE = 1 << 16;
+	
+	/** DFA cache mode: clear the lexer and parser DFAs before each input file. */
+	public static final String DFA_CACHE_COLD = "cold";
+	
+	/** DFA cache mode: share the lexer and parser DFAs across input files. */
+	public static final String DFA_CACHE_WARM = "warm";
+	
+	/** DFA cache mode: share the DFAs, and persist them between runs. */
+	public static final String DFA_CACHE_PERSIST = "persist";
+	
+	/** The number of nanoseconds in one millisecond. */
+	public static final long NANOS_PER_MILLI = 1000000L;
+	
 	/** Default bar used in results files to delineate sections. */
 	public static final String PRINT_STREAM_BAR =
     "-------------------------------------------------------------------------";
@@ -104,6 +171,14 @@ public class RegressionTestRig {
 	/** Option: Whether or not to print the parse tree. Default: false */ 
 	protected boolean printTree = false;
 	
+	/**
+	 * Option: Whether or not to parse without building a parse tree. The parse
+	 * tree's depth and number of nodes are computed, as the parser runs, by a
+	 * {@link TreeCounterListener}. Ignored if the printTree option has been 
+	 * requested. Default: false
+	 */
+	protected boolean treeless = false;
+	
 	/** Option: The primary indent string for the TreePrinter. */
 	protected String primaryIndentStr = ". ";
 	
@@ -125,6 +200,24 @@ public class RegressionTestRig {
 	/** Option: The encoding used by all input files. Default: system encoding. */
 	protected String encoding = null;
 	
+	/**
+	 * Option: Whether or not to read each input file by decoding a memory 
+	 * mapped copy of the file directly into a right-sized buffer (see: 
+	 * {@link MappedFileInputStream}) rather than through a Reader. Has no 
+	 * effect on stdin. Default: false
+	 */
+	protected boolean mmap = false;
+	
+	/**
+	 * Option: Whether or not to stream the input files through the lexer 
+	 * using unbuffered char and token streams, so that neither the input nor 
+	 * the tokens are held in memory. Only used when the start rule name is 
+	 * LEXER_START_RULE_NAME. Overrides the mmap option, and each input file 
+	 * is lexed only once (the warmup and repeat options are ignored).
+	 * See: {@link #streamAnInputFile}. Default: false
+	 */
+	protected boolean stream = false;
+	
 	/**
 	 * Option: Use the Simple LL(*) (SLL) parsing strategy. This uses a faster 
 	 * but slightly weaker parsing strategy instead of the more powerful but
@@ -132,12 +225,132 @@ public class RegressionTestRig {
 	 */
 	protected boolean SLL = false;
 	
+	/**
+	 * Option: Use the two stage parsing strategy. Each input file is first 
+	 * parsed using the SLL(*) parsing strategy and a bail out error strategy.
+	 * Only if this first stage fails is the input file re-parsed using the
+	 * full ALL(*) (LL) parsing strategy. Overrides the SLL option. 
+	 * Default: false
+	 */
+	protected boolean twoStage = false;
+	
+	/** The error strategy used by the first stage of the two stage strategy. */
+	protected final BailErrorStrategy bailErrorStrategy = new BailErrorStrategy();
+	
 	/** 
 	 * Option: The path to the CSV structured metricsTable used to store the 
 	 * regressionTestRig metrics.
 	 */
 	protected String metricsTablePath = null;
 	
+	/** 
+	 * Option: The path to the binary, append-only {@link MetricsStore} used to 
+	 * store the regressionTestRig metrics. Each run appends only its own 
+	 * metrics to the store.
+	 */
+	protected String metricsStorePath = null;
+	
+	/**
+	 * Option: Whether or not to check the metrics of this run against the 
+	 * history of earlier runs (loaded from the metricsTable or the metrics 
+	 * store), reporting any regressions and exiting with the 
+	 * {@link #REGRESSION_EXIT_STATUS}. See: {@link RegressionCheck}. 
+	 * Default: false
+	 */
+	protected boolean regressionCheck = false;
+	
+	/** 
+	 * The statistical test and thresholds used by the regression check, as 
+	 * set by the -regressionTest and -regressionThreshold options.
+	 */
+	protected RegressionCheck regressionChecker = new RegressionCheck();
+	
+	/**
+	 * Option: The path to the {@link IncrementalCache} used to skip the input
+	 * files which have not changed (nor has the grammar nor any option which
+	 * affects the results) since they were last parsed. The results files of
+	 * skipped input files are kept, and no metrics are recorded for them.
+	 */
+	protected String incrementalCachePath = null;
+	
+	/**
+	 * Option: The fraction (between 0 and 1) of the unchanged input files 
+	 * which are nevertheless parsed, in an incremental run, so that their 
+	 * timings continue to be sampled. Default: 0
+	 */
+	protected double sampleUnchanged = 0.0;
+	
+	/** The random numbers used to sample the unchanged input files. */
+	protected Random sampleRandom = new Random();
+	
+	/** The incremental cache loaded by this (incremental) run. */
+	protected IncrementalCache incrementalCache = null;
+	
+	/** The fingerprint of each input file parsed by this incremental run. */
+	protected Map<String, String> inputFingerprints = new HashMap<String, String>();
+	
+	/**
+	 * Option: How the lexer and parser DFA caches are used: 
+	 * {@link #DFA_CACHE_COLD} measures each input file in isolation,
+	 * {@link #DFA_CACHE_WARM} shares the caches across the input files, and
+	 * {@link #DFA_CACHE_PERSIST} also loads the caches from (and saves them 
+	 * into) the {@link #dfaCachePath} snapshot, so that a fresh JVM starts
+	 * warm. Default: warm
+	 */
+	protected String dfaCacheMode = DFA_CACHE_WARM;
+	
+	/**
+	 * Option: The path to the {@link DFASnapshot} used by the persist DFA 
+	 * cache mode. Default: the grammarName with the ".dfa" extension.
+	 */
+	protected String dfaCachePath = null;
+	
+	/**
+	 * Option: The wall-clock time, in milliseconds, after which the lexing and
+	 * parsing of an input file is aborted (see: {@link ParseWatchdog}). The 
+	 * run then moves on to the next input file. Default: 0 (no timeout)
+	 */
+	protected long timeoutMillis = 0L;
+	
+	/**
+	 * Option: Measure the heap retained after parsing each input file (while
+	 * its tokens and parse tree are still reachable). This requests a full 
+	 * garbage collection per input file. Default: false
+	 */
+	protected boolean retainedHeap = false;
+	
+	/**
+	 * Option: The path of the file into which a Java Flight Recorder 
+	 * recording (with the "profile" settings) of this run, including the 
+	 * RegressionTestRig's lex, parse, count, print, write and metricsTable 
+	 * events, is written. Default: null (no recording)
+	 */
+	protected String jfrPath = null;
+	
+	/**
+	 * Option: The loopback port on which a {@link TelemetryServer} serves 
+	 * the progress of this run (in the OpenMetrics format) while it runs.
+	 * Default: 0 (no telemetry)
+	 */
+	protected int telemetryPort = 0;
+	
+	/** The telemetry server of the current run (if any). */
+	protected TelemetryServer telemetry = null;
+	
+	/** The watchdog which times out the parse of each input file. */
+	protected final ParseWatchdog watchdog = new ParseWatchdog();
+	
+	/** 
+	 * This rig's own instances of the MetricProviders discovered on the 
+	 * classpath by the {@link MetricsRegistry}. 
+	 */
+	protected final List<MetricProvider> metricProviders = 
+	  MetricsRegistry.newProviders();
+	
+	/** The regressions found by the regression check of this run. */
+	protected List<RegressionCheck.Regression> regressions = 
+	  new ArrayList<RegressionCheck.Regression>();
+	
 	/**
 	 * Option: The path to the source directory. All input file paths will have
 	 * this prefix removed before being used as a key in the metricsTable and
@@ -153,6 +366,41 @@ public class RegressionTestRig {
    */
   protected String outputDir = null;
 
+  /**
+   * Option: The number of worker threads used to parse the input files. Each
+   * worker thread uses its own lexer and parser. Default: 1
+   */
+  protected int numThreads = 1;
+
+  /**
+   * Option: The number of times each input file is lexed and parsed, without
+   * being timed, before any timings are taken. Default: 0
+   */
+  protected int numWarmups = 0;
+
+  /**
+   * Option: The number of times each input file is lexed and parsed while
+   * being timed. The median of these timings is recorded in the metrics.
+   * Only the last repetition records its output in the results file.
+   * Default: 1
+   */
+  protected int numRepeats = 1;
+
+  /**
+   * Option: Whether or not to profile the parser's decisions using ANTLR's
+   * {@link ProfilingATNSimulator}. Each result file will contain a 
+   * per-decision profile table, and the profiles are aggregated across all
+   * input files and reported at the end of the run. Default: false
+   */
+  protected boolean profile = false;
+
+  /** 
+   * The PrintStream used to report progress and errors. Worker 
+   * RegressionTestRigs use a buffered console, see: 
+   * {@link #processBufferedInputFile}. Default: System.err
+   */
+  protected PrintStream console = System.err;
+
 	/**
 	 * The lexer used by this grammar to break the input stream into tokens 
 	 * recognized by the parser.
@@ -162,6 +410,15 @@ public class RegressionTestRig {
 	/** The parser used to parse this grammer. */
 	protected Parser parser;
 	
+	/** The lexer's simulator, which counts the lexer's DFA cache misses. */
+	protected CountingLexerATNSimulator lexerSimulator;
+	
+	/** 
+	 * The parser's (non profiling) simulator, which counts the parser's DFA 
+	 * cache misses.
+	 */
+	protected CountingParserATNSimulator parserSimulator;
+	
 	/** The parser's Java Class used to locate the requested grammar start rule. */
 	protected Class<? extends Parser> parserClass;
 	
@@ -170,12 +427,38 @@ public class RegressionTestRig {
 	
 	protected PrintStreamTraceListener traceListener;
 	
+	/** 
+	 * The listener used to count the (unbuilt) parse tree when the treeless 
+	 * option has been requested.
+	 */
+	protected TreeCounterListener treeCounterListener;
+	
 	/**
 	 * The (internal) metrics table structure used to store the regressionTestRig 
 	 * metrics.
 	 */
 	protected MetricsTable metricsTable;
 	
+	/**
+	 * Has the metricsTable already been loaded (for example by a 
+	 * {@link RegressionTestRigDaemon} which keeps it between runs)? If so, 
+	 * processInputFiles does not re-load it from the metricsTablePath.
+	 */
+	protected boolean metricsTableLoaded = false;
+	
+	/**
+	 * The metrics of this run only, which are appended to the metrics store
+	 * and checked for regressions. See: {@link #metricsStorePath} and 
+	 * {@link #regressionCheck}.
+	 */
+	protected MetricsTable runMetricsTable;
+	
+	/** 
+	 * The per-decision profiles aggregated across all of the input files 
+	 * parsed by this RegressionTestRig. See: {@link #profile}.
+	 */
+	protected final ProfileTable profileTable = new ProfileTable();
+	
 	/**
 	 * Constructs an instance of RegressionTestRig on the supplied command line
 	 * argument strings.
@@ -193,13 +476,71 @@ public class RegressionTestRig {
 	  }
 	}
 	
+	/**
+	 * Constructs a worker instance of RegressionTestRig which uses the same 
+	 * options as the given RegressionTestRig but has its own lexer and parser.
+	 * <p>
+	 * @throws various exceptions thrown by {@link #loadLexer} and {@link #loadParser}.
+	 */
+	protected RegressionTestRig(RegressionTestRig aRegressionTestRig) throws Exception {
+	  this();
+	  copyOptions(aRegressionTestRig);
+	  loadLexer();
+	  loadParser();
+	}
+
 	/**
 	 * Constructs an instance of RegressionTestRig for testing purposes only.
 	 */
 	protected RegressionTestRig() {
 	  metricsTable = new MetricsTable();
+	  runMetricsTable = new MetricsTable();
 	}
 	
+	/**
+	 * Copy all options from another RegressionTestRig.
+	 *
+	 * @param other the RegressionTestRig whose options are to be copied.
+	 */
+	protected void copyOptions(RegressionTestRig other) {
+	  grammarName        = other.grammarName;
+	  startRuleName      = other.startRuleName;
+	  inputFiles.clear();
+	  inputFiles.addAll(other.inputFiles);
+	  printTree          = other.printTree;
+	  treeless           = other.treeless;
+	  primaryIndentStr   = other.primaryIndentStr;
+	  secondaryIndentStr = other.secondaryIndentStr;
+	  indentCyclePeriod  = other.indentCyclePeriod;
+	  showTokens         = other.showTokens;
+	  trace              = other.trace;
+	  diagnostics        = other.diagnostics;
+	  encoding           = other.encoding;
+	  mmap               = other.mmap;
+	  stream             = other.stream;
+	  SLL                = other.SLL;
+	  twoStage           = other.twoStage;
+	  metricsTablePath   = other.metricsTablePath;
+	  metricsStorePath   = other.metricsStorePath;
+	  regressionCheck    = other.regressionCheck;
+	  regressionChecker  = other.regressionChecker;
+	  incrementalCachePath = other.incrementalCachePath;
+	  sampleUnchanged    = other.sampleUnchanged;
+	  dfaCacheMode       = other.dfaCacheMode;
+	  dfaCachePath       = other.dfaCachePath;
+	  timeoutMillis      = other.timeoutMillis;
+	  retainedHeap       = other.retainedHeap;
+	  jfrPath            = other.jfrPath;
+	  telemetryPort      = other.telemetryPort;
+	  sourceDir          = other.sourceDir;
+	  sourceDirRegExp    = other.sourceDirRegExp;
+	  outputDir          = other.outputDir;
+	  numThreads         = other.numThreads;
+	  numWarmups         = other.numWarmups;
+	  numRepeats         = other.numRepeats;
+	  profile            = other.profile;
+	}
+
 	/**
 	 * Process the arguments for this use of the regression test rig.
 	 *
@@ -211,14 +552,24 @@ public class RegressionTestRig {
 	protected boolean processArgs(String[] args) {	  
 		if ( args.length < 2 ) {
 			System.err.println("java org.fandianpf.antlr4.RegressionTestRig GrammarName startRuleName\n" +
-							   "  [-tokens] [-tree] [-encoding encodingname]\n"+
-							   "  [-trace] [-diagnostics] [-SLL]\n"+
+							   "  [-tokens] [-tree] [-treeless]\n"+
+							   "  [-encoding encodingname] [-mmap] [-stream]\n"+
+							   "  [-trace] [-diagnostics] [-SLL] [-twoStage]\n"+
 							   "  [-primaryIndent primaryIndentString ]\n"+
 							   "  [-secondaryIndent secondaryIndentString ]\n"+
 							   "  [-indentCycle indentCyclePeriod ]\n"+
-							   "  [-metrics metricsTablePath]\n"+
+							   "  [-metrics metricsTablePath] [-metricsStore metricsStorePath]\n"+
+							   "  [-regressionCheck] [-regressionTest robust|stdDev]\n"+
+							   "  [-regressionThreshold metricType=score[:changePercent]]\n"+
+							   "  [-incremental incrementalCachePath] [-sampleUnchanged fraction]\n"+
+							   "  [-dfaCache cold|warm|persist] [-dfaCacheFile dfaSnapshotPath]\n"+
+							   "  [-timeout numSeconds] [-retainedHeap]\n"+
+							   "  [-jfr recordingPath] [-telemetryPort port]\n"+
 							   "  [-sourceDir aSourceDirPath]\n"+
 							   "  [-outputDir anOutputDirPath]\n"+
+							   "  [-threads numThreads]\n"+
+							   "  [-warmup numWarmups] [-repeat numRepeats]\n"+
+							   "  [-profile]\n"+
 							   "  [input-filename(s)]");
 			System.err.println("Use startRuleName='tokens' if GrammarName is a lexer grammar.");
 			System.err.println("Omitting input-filename makes rig read from stdin.");
@@ -238,14 +589,24 @@ public class RegressionTestRig {
 				inputFiles.add(arg);
 			} else if ( arg.equals("-tree") ) {
 				printTree = true;
+			} else if ( arg.equals("-treeless") ) {
+				treeless = true;
 			} else if ( arg.equals("-tokens") ) {
 				showTokens = true;
 			}	else if ( arg.equals("-trace") ) {
 				trace = true;
 			}	else if ( arg.equals("-SLL") ) {
 				SLL = true;
+			}	else if ( arg.equals("-twoStage") ) {
+				twoStage = true;
+			}	else if ( arg.equals("-mmap") ) {
+				mmap = true;
+			}	else if ( arg.equals("-stream") ) {
+				stream = true;
 			}	else if ( arg.equals("-diagnostics") ) {
 				diagnostics = true;
+			}	else if ( arg.equals("-profile") ) {
+				profile = true;
 		  } else if ( arg.equals("-primaryIndent") ) {
 		    if ( i>=args.length ) {
 		      System.err.println("ERROR: missing primaryIndentString on -primaryIndent");
@@ -284,6 +645,111 @@ public class RegressionTestRig {
 				}
 				metricsTablePath = args[i];
 				i++;
+			} else if ( arg.equals("-metricsStore") ) {
+				if ( i>=args.length ) {
+					System.err.println("ERROR: missing metricsStorePath on -metricsStore");
+					return false;
+				}
+				metricsStorePath = args[i];
+				i++;
+			}	else if ( arg.equals("-regressionCheck") ) {
+				regressionCheck = true;
+			}	else if ( arg.equals("-regressionTest") ) {
+				if ( i>=args.length ) {
+					System.err.println("ERROR: missing statistical test on -regressionTest");
+					return false;
+				}
+				if (!regressionChecker.setStatisticalTest(args[i])) {
+		      System.err.println("WARNING: unknown statistical test ["+args[i]+"]");
+		      System.err.println("         using the "+RegressionCheck.ROBUST_TEST+" test");
+				}
+				i++;
+			}	else if ( arg.equals("-regressionThreshold") ) {
+				if ( i>=args.length ) {
+					System.err.println("ERROR: missing metricType=score[:changePercent] on -regressionThreshold");
+					return false;
+				}
+				if (!regressionChecker.setThresholds(args[i])) {
+		      System.err.println("WARNING: incorrectly formated regression threshold ["+args[i]+"]; ignored");
+				}
+				i++;
+			}	else if ( arg.equals("-incremental") ) {
+				if ( i>=args.length ) {
+					System.err.println("ERROR: missing incrementalCachePath on -incremental");
+					return false;
+				}
+				incrementalCachePath = args[i];
+				i++;
+			}	else if ( arg.equals("-sampleUnchanged") ) {
+				if ( i>=args.length ) {
+					System.err.println("ERROR: missing fraction on -sampleUnchanged");
+					return false;
+				}
+		    try {
+		      sampleUnchanged = Math.max(0.0, Math.min(1.0, Double.valueOf(args[i])));
+		    } catch (Exception exp) {
+		      System.err.println("WARNING: incorrectly formated fraction ["+args[i]+"]");
+		      System.err.println("         using the value 0");
+		      sampleUnchanged = 0.0;
+		    }
+				i++;
+			}	else if ( arg.equals("-dfaCache") ) {
+				if ( i>=args.length ) {
+					System.err.println("ERROR: missing mode on -dfaCache");
+					return false;
+				}
+				if ( args[i].equals(DFA_CACHE_COLD) || args[i].equals(DFA_CACHE_WARM) ||
+				     args[i].equals(DFA_CACHE_PERSIST) ) {
+				  dfaCacheMode = args[i];
+				} else {
+		      System.err.println("WARNING: unknown DFA cache mode ["+args[i]+"]; ignored");
+				}
+				i++;
+			}	else if ( arg.equals("-dfaCacheFile") ) {
+				if ( i>=args.length ) {
+					System.err.println("ERROR: missing dfaSnapshotPath on -dfaCacheFile");
+					return false;
+				}
+				dfaCachePath = args[i];
+				i++;
+			}	else if ( arg.equals("-timeout") ) {
+				if ( i>=args.length ) {
+					System.err.println("ERROR: missing numSeconds on -timeout");
+					return false;
+				}
+		    try {
+		      timeoutMillis = Math.max(0L, Math.round(1000.0*Double.valueOf(args[i])));
+		    } catch (Exception exp) {
+		      System.err.println("WARNING: incorrectly formated numSeconds ["+args[i]+"]");
+		      System.err.println("         using the value 0 (no timeout)");
+		      timeoutMillis = 0L;
+		    }
+				i++;
+			}	else if ( arg.equals("-retainedHeap") ) {
+				retainedHeap = true;
+			}	else if ( arg.equals("-jfr") ) {
+				if ( i>=args.length ) {
+					System.err.println("ERROR: missing recording path on -jfr");
+					return false;
+				}
+				jfrPath = args[i];
+				i++;
+			}	else if ( arg.equals("-telemetryPort") ) {
+				if ( i>=args.length ) {
+					System.err.println("ERROR: missing port on -telemetryPort");
+					return false;
+				}
+		    try {
+		      telemetryPort = Integer.parseInt(args[i]);
+		    } catch (Exception exp) {
+		      telemetryPort = -1;
+		    }
+		    if (telemetryPort < 1 || 65535 < telemetryPort) {
+		      System.err.println("WARNING: incorrect port ["+args[i]+"] on -telemetryPort");
+		      System.err.println("         no telemetry will be served");
+		      telemetryPort = 0;
+		    }
+				i++;
 			}	else if ( arg.equals("-sourceDir") ) {
 				if ( i>=args.length ) {
 					System.err.println("ERROR: missing source directory path on -sourceDir");
@@ -304,11 +770,69 @@ public class RegressionTestRig {
 				outputDir = args[i];
 				if (!outputDir.endsWith("/")) outputDir = outputDir+"/";
 				i++;
+			} else if ( arg.equals("-threads") ) {
+				if ( i>=args.length ) {
+					System.err.println("ERROR: missing numThreads on -threads");
+					return false;
+				}
+		    try {
+		      numThreads = Integer.valueOf(args[i]);
+		    } catch (Exception exp) {
+		      System.err.println("WARNING: incorrectly formated numThreads ["+args[i]+"]");
+		      System.err.println("         using the value 1");
+		      numThreads = 1;
+		    }
+				i++;
+			} else if ( arg.equals("-warmup") ) {
+				if ( i>=args.length ) {
+					System.err.println("ERROR: missing numWarmups on -warmup");
+					return false;
+				}
+		    try {
+		      numWarmups = Math.max(0, Integer.valueOf(args[i]));
+		    } catch (Exception exp) {
+		      System.err.println("WARNING: incorrectly formated numWarmups ["+args[i]+"]");
+		      System.err.println("         using the value 0");
+		      numWarmups = 0;
+		    }
+				i++;
+			} else if ( arg.equals("-repeat") ) {
+				if ( i>=args.length ) {
+					System.err.println("ERROR: missing numRepeats on -repeat");
+					return false;
+				}
+		    try {
+		      numRepeats = Math.max(1, Integer.valueOf(args[i]));
+		    } catch (Exception exp) {
+		      System.err.println("WARNING: incorrectly formated numRepeats ["+args[i]+"]");
+		      System.err.println("         using the value 1");
+		      numRepeats = 1;
+		    }
+				i++;
 			}
 		}
 		// If no inputFiles were specificed add our "Standard IN marker"
 		if (inputFiles.size() < 1) inputFiles.add(null);
 		
+		if ( stream && !startRuleName.equals(LEXER_START_RULE_NAME) ) {
+		  System.err.println("WARNING: -stream is only used with the startRuleName '"+
+		    LEXER_START_RULE_NAME+"'; ignored");
+		}
+		if ( treeless && printTree ) {
+		  System.err.println("WARNING: -treeless can not be used with -tree; ignored");
+		  treeless = false;
+		}
+		if ( regressionCheck && metricsTablePath == null && metricsStorePath == null ) {
+		  System.err.println("WARNING: -regressionCheck requires -metrics or -metricsStore; ignored");
+		  regressionCheck = false;
+		}
+		if ( dfaCacheMode.equals(DFA_CACHE_COLD) && 1 < numThreads ) {
+		  // the DFA caches are shared by the lexers and parsers of all threads
+		  System.err.println("WARNING: -dfaCache cold parses the input files serially; -threads ignored");
+		  numThreads = 1;
+		}
+		if ( dfaCachePath == null ) dfaCachePath = grammarName+".dfa";
+		
 		return true;
 	}
 
@@ -347,6 +871,9 @@ public class RegressionTestRig {
 		  System.err.println("ERROR: Could not create a lexer for "+lexerName);
 		  throw anException;
 		}
+		lexerSimulator = new CountingLexerATNSimulator(lexer);
+		lexerSimulator.setWatchdog(watchdog);
+		lexer.setInterpreter(lexerSimulator);
   }
   
   /**
@@ -385,6 +912,9 @@ public class RegressionTestRig {
 			  System.err.println("ERROR: Could not create a parser for "+parserName);
 			  throw anException;
 			}
+			parserSimulator = new CountingParserATNSimulator(parser);
+			parserSimulator.setWatchdog(watchdog);
+			parser.setInterpreter(parserSimulator);
 			
   		if ( diagnostics ) {
 				parser.getInterpreter().setPredictionMode(PredictionMode.LL_EXACT_AMBIG_DETECTION);
@@ -403,63 +933,455 @@ public class RegressionTestRig {
 			  parser.addParseListener(traceListener);
 			}             
 
+			if ( treeless ) {
+			  parser.setBuildParseTree(false);
+			  treeCounterListener = new TreeCounterListener();
+			  parser.addParseListener(treeCounterListener);
+			}
+
 			if ( SLL ) { // overrides diagnostics
 				parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
 			}
+			
+			if ( profile ) {
+			  installProfiler();
+			}
 		}
   }
+  
+  /**
+   * Install a new {@link ProfilingATNSimulator} (with no profiling 
+   * information) on the parser, keeping the current prediction mode. The
+   * simulator shares the parser's DFA cache, and is checked by the watchdog.
+   */
+  protected void installProfiler() {
+    PredictionMode predictionMode = parser.getInterpreter().getPredictionMode();
+    ProfilingATNSimulator profiler = new WatchedProfilingATNSimulator(parser, watchdog);
+    profiler.setPredictionMode(predictionMode);
+    parser.setInterpreter(profiler);
+  }
 
   /** The main entry point for the command line use of the regression test rig. */ 
 	public static void main(String[] args) throws Exception {
 		RegressionTestRig testRig = new RegressionTestRig(args);
  		testRig.processInputFiles();
+ 		if (!testRig.regressions.isEmpty()) System.exit(REGRESSION_EXIT_STATUS);
 	}
   
 	/** Parse each requested input file in turn. */
 	protected void processInputFiles() {
 
+    Object recording = startFlightRecording();
+    if (dfaCacheMode.equals(DFA_CACHE_PERSIST)) loadDFACache();
+    
 	  // load the metrics table
-    if (metricsTablePath != null) try {
+    if (metricsTablePath != null && !metricsTableLoaded) try {
       metricsTable.loadMetricsTable(metricsTablePath);
     } catch (Exception exp) {
       System.err.println("WARNING: Could not load the metricsTable from ["+metricsTablePath+"]");
+    } else if (regressionCheck && metricsTablePath == null) try {
+      // the regression check uses the history in the metrics store
+      new MetricsStore(metricsStorePath).loadMetricsTable(metricsTable);
+    } catch (Exception exp) {
+      System.err.println("WARNING: Could not load the metricsStore from ["+metricsStorePath+"]");
     }
+    
+    // skip the unchanged input files of an incremental run
+    List<String> changedInputFiles = inputFiles;
+    if (incrementalCachePath != null) changedInputFiles = selectChangedInputFiles();
+    startTelemetry(changedInputFiles.size());
 	  
-    // process each input file one at a time
-		for (String inputFile : inputFiles) {
-		  // Compute the metricsKey and outputFile names
-		  String metricsKey = inputFile;
-		  if (sourceDirRegExp != null) {
-		    metricsKey = sourceDirRegExp.matcher(inputFile).replaceFirst("");
-		  }
-		  String outputFileName = metricsKey+".result";
-		  if (outputDir != null) {
-				// ALAS THIS WILL NOT WORK ON WINDOWS
-		    outputFileName = outputDir+outputFileName;
-		  }
-		  File outputFile = new File(outputFileName);
+    // stdin can only be read once, so it is always processed serially
+    if (1 < numThreads && 1 < changedInputFiles.size() && !changedInputFiles.contains(null)) {
+      processInputFilesInParallel(changedInputFiles);
+    } else {
+      // process each input file one at a time
+      for (String inputFile : changedInputFiles) {
+        Metrics metricsResults = processInputFile(inputFile);
+        if (metricsResults != null) recordMetrics(inputFile, metricsResults);
+      }
+    }
+    
+    if (profile && !profileTable.isEmpty()) {
+      System.err.println("");
+      System.err.println(PRINT_STREAM_BAR);
+      System.err.print("Parser decision profile (all input files); time in prediction: ");
+      System.err.print(Long.toString(profileTable.getTotalTimeInPrediction()));
+      System.err.println(" ns");
+      System.err.println(PRINT_STREAM_BAR);
+      profileTable.printProfileTable(System.err);
+    }
+		
+		// Save the metrics table
+    if (metricsTablePath != null) try {
+      metricsTable.saveMetricsTable(metricsTablePath);
+    } catch (Exception exp) {
+      System.err.println("ERROR: Could not save the metricsTable into ["+metricsTablePath+"]");
+    }
+    
+    // Save the fingerprints of the input files parsed
+    if (incrementalCache != null) try {
+      incrementalCache.save();
+    } catch (Exception exp) {
+      System.err.println("ERROR: Could not save the incremental cache into ["+incrementalCachePath+"]");
+    }
+    
+    // Append this run to the metrics store
+    if (metricsStorePath != null) try {
+      new MetricsStore(metricsStorePath).appendRun(runMetricsTable);
+    } catch (Exception exp) {
+      System.err.println("ERROR: Could not append to the metricsStore ["+metricsStorePath+"]");
+    }
+    
+    // Save the (now warm) DFA caches for the next run
+    if (dfaCacheMode.equals(DFA_CACHE_PERSIST)) saveDFACache();
+    
+    // Check this run against the earlier runs
+    if (regressionCheck) {
+      regressions = regressionChecker.check(metricsTable, 
+        runMetricsTable.getTestDocNames());
+      System.err.println("");
+      regressionChecker.printReport(regressions, System.err);
+    }
+    stopFlightRecording(recording);
+    if (telemetry != null) telemetry.stop();
+    telemetry = null;
+    System.err.println("");
+	}
+	
+	/** Start serving the telemetry of this run if requested by -telemetryPort. */
+	protected void startTelemetry(int numInputFiles) {
+	  if (telemetryPort < 1) return;
+	  try {
+	    telemetry = new TelemetryServer();
+	    telemetry.start(telemetryPort, numInputFiles);
+	    System.err.println("RegressionTestRig: serving telemetry on [http://127.0.0.1:"+
+	      telemetryPort+"/metrics]");
+	  } catch (Exception exp) {
+	    System.err.println("WARNING: Could not serve telemetry on port ["+telemetryPort+"]: "+
+	      exp.getMessage());
+	    telemetry = null;
+	  }
+	}
+	
+	/**
+	 * Start the Java Flight Recorder recording requested by the -jfr option.
+	 *
+	 * @return the recording, or null if none was requested (or it could not
+	 *         be started).
+	 */
+	protected Object startFlightRecording() {
+	  if (jfrPath == null) return null;
+	  try {
+	    return FlightRecorderEvents.startRecording(jfrPath);
+	  } catch (Exception exp) {
+	    System.err.println("WARNING: Could not start a flight recording into ["+
+	      jfrPath+"]: "+exp.getMessage());
+	    return null;
+	  }
+	}
+	
+	/** Stop the flight recording (if any), writing it to its file. */
+	protected void stopFlightRecording(Object recording) {
+	  if (recording == null) return;
+	  try {
+	    FlightRecorderEvents.stopRecording(recording);
+	    System.err.println("RegressionTestRig: flight recording written to ["+jfrPath+"]");
+	  } catch (Exception exp) {
+	    System.err.println("ERROR: Could not write the flight recording into ["+jfrPath+"]");
+	  }
+	}
+
+  /**
+   * Load the {@link #incrementalCache} and select the input files which must
+   * be parsed: those whose fingerprint (input file, grammar and options 
+   * hashes) is not cached, or whose results file is missing, together with
+   * the {@link #sampleUnchanged} fraction of the unchanged input files.
+   * The fingerprints of the selected input files are kept in 
+   * {@link #inputFingerprints} and cached once they have been parsed.
+   *
+   * @return the selected input files (in their original order).
+   */
+  protected List<String> selectChangedInputFiles() {
+    incrementalCache = new IncrementalCache(incrementalCachePath);
+    try {
+      incrementalCache.load();
+    } catch (Exception exp) {
+      System.err.println("WARNING: Could not load the incremental cache from ["+incrementalCachePath+"]");
+    }
+    String grammarHash = getGrammarHash();
+    String optionsHash = IncrementalCache.hashString(getResultsOptions());
+    
+    List<String> changedInputFiles = new ArrayList<String>();
+    int numUnchanged = 0;
+    int numSampled   = 0;
+    for (String inputFile : inputFiles) {
+      if (inputFile == null) { // stdin is always parsed
+        changedInputFiles.add(inputFile);
+        continue;
+      }
+      String inputHash = null;
+      try {
+        inputHash = IncrementalCache.hashFile(inputFile);
+      } catch (IOException ioe) {
+        // parse it anyway (to report the error)
+      }
+      String fingerprint = 
+        IncrementalCache.fingerprint(inputHash, grammarHash, optionsHash);
+      if (incrementalCache.isUnchanged(getMetricsKey(inputFile), fingerprint) &&
+          getResultsFile(inputFile).exists()) {
+        numUnchanged++;
+        if (sampleRandom.nextDouble() >= sampleUnchanged) continue;
+        numSampled++;
+      }
+      inputFingerprints.put(inputFile, fingerprint);
+      changedInputFiles.add(inputFile);
+    }
+    System.err.println("\nRegressionTestRig: skipping "+(numUnchanged - numSampled)+
+      " of "+numUnchanged+" unchanged input file(s)");
+    return changedInputFiles;
+  }
+  
+  /**
+   * The options which affect the contents of the results files (or the 
+   * structural metrics), as used by incremental runs.
+   */
+  protected String getResultsOptions() {
+    StringBuilder options = new StringBuilder();
+    options.append("grammarName=").append(grammarName);
+    options.append(";startRuleName=").append(startRuleName);
+    options.append(";tree=").append(printTree);
+    options.append(";treeless=").append(treeless);
+    options.append(";tokens=").append(showTokens);
+    options.append(";trace=").append(trace);
+    options.append(";diagnostics=").append(diagnostics);
+    options.append(";SLL=").append(SLL);
+    options.append(";twoStage=").append(twoStage);
+    options.append(";primaryIndent=").append(primaryIndentStr);
+    options.append(";secondaryIndent=").append(secondaryIndentStr);
+    options.append(";indentCycle=").append(indentCyclePeriod);
+    options.append(";encoding=").append(encoding);
+    options.append(";stream=").append(stream);
+    options.append(";profile=").append(profile);
+    options.append(";timeout=").append(timeoutMillis);
+    return options.toString();
+  }
+
+  /** The hash of the lexer and parser class files. */
+  protected String getGrammarHash() {
+    return IncrementalCache.hashClasses(
+      (lexer != null) ? lexer.getClass() : null, parserClass);
+  }
+  
+  /**
+   * Clear the lexer and parser DFA caches, so that the next input file is 
+   * parsed without the benefit of the DFA states computed for earlier files.
+   */
+  protected void clearDFACache() {
+    if (lexer != null) lexer.getInterpreter().clearDFA();
+    if (parser != null) parser.getInterpreter().clearDFA();
+  }
+  
+  /** Load the lexer and parser DFA caches from the {@link #dfaCachePath}. */
+  protected void loadDFACache() {
+    if (lexer == null) return;
+    DFASnapshot snapshot = new DFASnapshot(dfaCachePath);
+    try {
+      if (snapshot.load(lexer, parser, getGrammarHash())) {
+        System.err.println("\nRegressionTestRig: loaded "+snapshot.getNumStates()+
+          " DFA states from ["+dfaCachePath+"]");
+      } else if (new File(dfaCachePath).exists()) {
+        System.err.println("WARNING: The DFA snapshot ["+dfaCachePath+
+          "] does not match the grammar; starting cold");
+      }
+    } catch (Exception exp) {
+      System.err.println("WARNING: Could not load the DFA snapshot from ["+dfaCachePath+"]");
+      clearDFACache();
+    }
+  }
+  
+  /** Save the lexer and parser DFA caches into the {@link #dfaCachePath}. */
+  protected void saveDFACache() {
+    if (lexer == null) return;
+    DFASnapshot snapshot = new DFASnapshot(dfaCachePath);
+    try {
+      snapshot.save(lexer, parser, getGrammarHash());
+      if (0 < snapshot.getNumSkippedDFAs()) {
+        System.err.println("\nRegressionTestRig: "+snapshot.getNumSkippedDFAs()+
+          " DFA(s) depend on predicates and were not saved");
+      }
+    } catch (Exception exp) {
+      System.err.println("ERROR: Could not save the DFA snapshot into ["+dfaCachePath+"]");
+    }
+  }
+
+  /** Parse all of the input files using {@link #numThreads} worker threads. */
+  protected void processInputFilesInParallel() {
+    processInputFilesInParallel(inputFiles);
+  }
+  
+  /**
+   * Parse the input files using {@link #numThreads} worker threads.
+   * <p>
+   * Each worker is a copy of this RegressionTestRig which owns its own lexer
+   * and parser. The workers' console reports are buffered and, together with
+   * the metrics, are handed back to this (main) thread in the order of the
+   * input files. This ensures that both the console output and the
+   * metrics table are identical to those of a serial run.
+   */
+  protected void processInputFilesInParallel(List<String> someInputFiles) {
+    final LinkedBlockingQueue<RegressionTestRig> workers =
+      new LinkedBlockingQueue<RegressionTestRig>();
+    try {
+      for (int i = 0; i < numThreads; i++) {
+        workers.add(new RegressionTestRig(this));
+      }
+    } catch (Exception exp) {
+      System.err.println("ERROR: Could not create the worker lexers and parsers");
+      return;
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<InputFileResult>> results = new ArrayList<Future<InputFileResult>>();
+    for (final String inputFile : someInputFiles) {
+      results.add(executor.submit(new Callable<InputFileResult>() {
+        public InputFileResult call() throws Exception {
+          RegressionTestRig worker = workers.take();
+          try {
+            return worker.processBufferedInputFile(inputFile);
+          } finally {
+            workers.put(worker);
+          }
+        }
+      }));
+    }
+    executor.shutdown();
+
+    for (int i = 0; i < results.size(); i++) {
+      String inputFile = someInputFiles.get(i);
+      try {
+        InputFileResult result = results.get(i).get();
+        System.err.print(result.consoleReport);
+        if (result.metrics != null) recordMetrics(inputFile, result.metrics);
+      } catch (Exception exp) {
+        System.err.println("\nERROR: Could not parse ["+inputFile+"]: "+exp.getCause());
+      }
+    }
+    
+    // all of the workers have been returned to the queue
+    for (RegressionTestRig worker : workers) {
+      profileTable.addProfileTable(worker.profileTable);
+    }
+  }
+
+  /**
+   * Record the metrics of one input file in the metrics table and (if 
+   * requested) in this run's metrics, to be appended to the metrics store
+   * and checked for regressions. The fingerprint of the input file is 
+   * cached by incremental runs.
+   */
+  protected void recordMetrics(String inputFile, Metrics metricsResults) {
+    String metricsKey = getMetricsKey(inputFile);
+    // a timed out input file must be parsed again by the next run
+    if (incrementalCache != null && inputFile != null &&
+        metricsResults.metric[Metrics.TIMEOUTS] != 1L) {
+      incrementalCache.update(metricsKey, inputFingerprints.get(inputFile));
+    }
+    metricsTable.appendMetrics(metricsKey, metricsResults);
+    if (telemetry != null) telemetry.recordMetrics(metricsResults);
+    if (metricsStorePath != null || regressionCheck) {
+      runMetricsTable.appendMetrics(metricsKey, metricsResults);
+    }
+  }
+
+  /** The console report and metrics of one input file parsed by a worker. */
+  protected static class InputFileResult {
+    public String  consoleReport;
+    public Metrics metrics;
+  }
+
+  /**
+   * Parse a single input file while buffering all console reports.
+   * <p>
+   * Used by the worker RegressionTestRigs, see: 
+   * {@link #processInputFilesInParallel}.
+   */
+  protected InputFileResult processBufferedInputFile(String inputFile) {
+    ByteArrayOutputStream consoleBytes = new ByteArrayOutputStream();
+    console = new PrintStream(consoleBytes, true);
+    InputFileResult result = new InputFileResult();
+    try {
+      result.metrics = processInputFile(inputFile);
+    } finally {
+      console.flush();
+      console = System.err;
+    }
+    result.consoleReport = consoleBytes.toString();
+    return result;
+  }
+
+  /**
+   * Compute the metricsKey of an input file by removing any sourceDir prefix.
+   */
+  protected String getMetricsKey(String inputFile) {
+    String metricsKey = inputFile;
+    if (sourceDirRegExp != null) {
+      metricsKey = sourceDirRegExp.matcher(inputFile).replaceFirst("");
+    }
+    return metricsKey;
+  }
+
+  /** 
+   * Compute the results file of an input file: its metricsKey, with the 
+   * ".result" extension, in the outputDir (if any).
+   */
+  protected File getResultsFile(String inputFile) {
+    String outputFileName = getMetricsKey(inputFile)+".result";
+    if (outputDir != null) {
+      // ALAS THIS WILL NOT WORK ON WINDOWS
+      outputFileName = outputDir+outputFileName;
+    }
+    return new File(outputFileName);
+  }
+
+  /**
+   * Open, parse and close a single input file (or stdin if the inputFile is 
+   * null). All progress and error reports are sent to the {@link #console}.
+   *
+   * @return the metrics of this input file or null if the file could not be 
+   *         parsed.
+   */
+  protected Metrics processInputFile(String inputFile) {
+		  // Compute the outputFile name
+		  File outputFile = getResultsFile(inputFile);
+		  String outputFileName = outputFile.getPath();
 
       // report what we are doing		  
 		  if (inputFile!=null) {
-		    System.err.println("\nRegressionTestRig: parsing ["+inputFile+"]");
-		    System.err.println("     with reports going to ["+outputFile+"]");
+		    console.println("\nRegressionTestRig: parsing ["+inputFile+"]");
+		    console.println("     with reports going to ["+outputFile+"]");
 		  } else {
-		    System.err.println("\nRegressionTestRig: parsing stdin with reports going to stdout");
+		    console.println("\nRegressionTestRig: parsing stdin with reports going to stdout");
 		  }
 		  
 		  // setup the default intputStream and outputStream
 			InputStream inputStream = System.in;
 			PrintStream outputStream = System.out;
+			ANTLRInputStream mappedInput = null;
 			
 			// If an inputFile has been specified, try to open it
 			if ( inputFile!=null ) {
 
-			  // Open the input file (from the file system).
+			  // Open (or map and decode) the input file (from the file system).
   			try {
-	   			inputStream = new FileInputStream(inputFile);
-		    } catch (FileNotFoundException fnfe) {
-		      System.err.println("ERROR: Could not open the input file ["+inputFile+"]");
-		      continue;
+  			  if ( mmap && !isStreaming() ) {
+  			    mappedInput = openMappedFile(inputFile);
+  			  } else {
+	   			  inputStream = new FileInputStream(inputFile);
+	   			}
+		    } catch (IOException ioe) {
+		      console.println("ERROR: Could not open the input file ["+inputFile+"]");
+		      return null;
 		    }
 
 		    // ensure that all parent directories exist in the path to the output file
@@ -467,59 +1389,77 @@ public class RegressionTestRig {
 		      File parentDir = outputFile.getParentFile();
 		      if (parentDir != null) {
 		        if (!parentDir.exists()) { 
-	  			    if (!parentDir.mkdirs()) {
-  	  			    System.err.println("ERROR: Could not make parent directories for ["+outputFile+"]");
-	    			    continue;
+	  			    if (!parentDir.mkdirs() && !parentDir.isDirectory()) {
+  	  			    console.println("ERROR: Could not make parent directories for ["+outputFile+"]");
+	    			    return null;
 	    			  }
 	    			}
 	    		}
 	  		} catch ( SecurityException se ) {
-	  		  System.err.println("ERROR: Security execption trying to make parent directories for ["+outputFile+"]");
-	  		  continue;
+	  		  console.println("ERROR: Security execption trying to make parent directories for ["+outputFile+"]");
+	  		  return null;
 	  		}
 
-	  		// Open the output file (in the file system).
+	  		// Open the (buffered) output file (in the file system).
 	  		try {
+	  		  OutputStream outputFileStream = new BufferedOutputStream(
+	  		    new FileOutputStream(outputFileName), RESULTS_BUFFER_SIZE);
   			  try {
  		  		  if (encoding!=null) {
-   		  		  outputStream = new PrintStream(outputFileName, encoding);
+   		  		  outputStream = new PrintStream(outputFileStream, false, encoding);
 	  		    } else {
-   	  			  outputStream = new PrintStream(outputFileName);
+   	  			  outputStream = new PrintStream(outputFileStream, false);
   		  	  }
   		    } catch (UnsupportedEncodingException usee) {
-  		      System.err.println("WARNING: Could not use encoding: ["+encoding+"] using system default encoding.");
- 	  			  outputStream = new PrintStream(outputFileName);
+  		      console.println("WARNING: Could not use encoding: ["+encoding+"] using system default encoding.");
+ 	  			  outputStream = new PrintStream(outputFileStream, false);
   		    }
 		    } catch (FileNotFoundException fnfe) {
-		      System.err.println("ERROR: Could not open the output file ["+outputFileName+"]");
-		      continue;
+		      console.println("ERROR: Could not open the output file ["+outputFileName+"]");
+		      return null;
 		    }
 		  }
 		  
 		  // Open the reader with the requested encoding
-			Reader reader;
-		  try {
+			Reader reader = null;
+		  if ( mappedInput==null ) try {
   			if ( encoding!=null ) {
     			reader = new InputStreamReader(inputStream, encoding);
 		    }	else {
 			    reader = new InputStreamReader(inputStream);
 		    }
 		  } catch (UnsupportedEncodingException usee) {
-		    System.err.println("WARNING: Could not use encoding: ["+encoding+"] using system default encoding.");
+		    console.println("WARNING: Could not use encoding: ["+encoding+"] using system default encoding.");
 		    reader = new InputStreamReader(inputStream);
 		  }
 		  
-		  // parse this file
+		  // measure this file in isolation from the earlier files
+		  if (dfaCacheMode.equals(DFA_CACHE_COLD)) clearDFACache();
+		  
+		  // parse this file (under the watchdog)
+		  Metrics metricsResults = null;
+		  String inputFilePath = inputFile;
+		  if ( inputFile == null) inputFilePath = "stdIn";
+		  watchdog.start(timeoutMillis);
 		  try {
-		    String inputFilePath = inputFile;
-		    if ( inputFile == null) inputFilePath = "stdIn";
-  		  Metrics metricsResults = processAnInputFile(inputFilePath, reader, outputStream);
-  		  metricsTable.appendMetrics(metricsKey,  metricsResults);
+		    if ( mappedInput!=null ) {
+  		    metricsResults = processAnInputFile(inputFilePath, mappedInput, outputStream);
+  		  } else if ( isStreaming() ) {
+  		    metricsResults = streamAnInputFile(inputFilePath, reader, outputStream);
+  		  } else {
+  		    metricsResults = processAnInputFile(inputFilePath, reader, outputStream);
+  		  }
+  		  if ( 0 < timeoutMillis ) metricsResults.metric[Metrics.TIMEOUTS] = 0L;
   		} catch (IOException ioe) {
-	  	  System.err.println("ERROR: Could not read: ["+inputFile+"]");
+	  	  console.println("ERROR: Could not read: ["+inputFile+"]");
+  		} catch (ParseWatchdog.ParseTimeoutException pte) {
+  		  metricsResults = recordTimeout(inputFilePath, outputStream);
+		  } finally {
+		    watchdog.stop();
 		  }
 
 		  // close all readers and streams
+		  Object writeEvent = FlightRecorderEvents.begin(FlightRecorderEvents.WRITE);
   		try {
 			  if (reader!=null) reader.close();
   		  if (inputStream!=null && inputStream!= System.in) inputStream.close();
@@ -527,17 +1467,227 @@ public class RegressionTestRig {
 	  	} catch (Exception anException) {
 	  	  // not much more we can do ;-(
 	  	}
-		}
-		
-		// Save the metrics table
-    if (metricsTablePath != null) try {
-      metricsTable.saveMetricsTable(metricsTablePath);
-    } catch (Exception exp) {
-      System.err.println("ERROR: Could not save the metricsTable into ["+metricsTablePath+"]");
-    }
-    System.err.println("");
+	  	FlightRecorderEvents.commit(writeEvent, getMetricsKey(inputFilePath), 
+	  	  (inputFile != null ? outputFile.length() : -1L), -1L, -1L);
+	  	return metricsResults;
 	}
 
+  /**
+   * Report that the lexing and parsing of an input file has been aborted by
+   * the watchdog, in both the results file and on the {@link #console}.
+   *
+   * @return the metrics of the input file, which only record the timeout.
+   */
+  protected Metrics recordTimeout(String inputFilePath, PrintStream writer) {
+    String timeoutStr = Double.toString(timeoutMillis / 1000.0);
+    writer.println();
+    writer.println(PRINT_STREAM_BAR);
+    writer.println("TIMED OUT: parsing aborted after "+timeoutStr+" seconds");
+    writer.println(PRINT_STREAM_BAR);
+    console.println("WARNING: parsing ["+inputFilePath+"] timed out after "+
+      timeoutStr+" seconds");
+    Metrics metricsResults = new Metrics();
+    metricsResults.metric[Metrics.TIMEOUTS] = 1L;
+    return metricsResults;
+  }
+
+  /** Are the input files to be streamed through the lexer? */
+  protected boolean isStreaming() {
+    return stream && startRuleName.equals(LEXER_START_RULE_NAME);
+  }
+
+  /**
+   * Map and decode an input file using the requested encoding. See: 
+   * {@link MappedFileInputStream}.
+   *
+   * @throws IOException if the input file could not be mapped or decoded.
+   */
+  protected ANTLRInputStream openMappedFile(String inputFile) throws IOException {
+    try {
+      return new MappedFileInputStream(inputFile, encoding);
+    } catch (IllegalArgumentException iae) {
+      // an illegal or unsupported charset name
+      console.println("WARNING: Could not use encoding: ["+encoding+"] using system default encoding.");
+      return new MappedFileInputStream(inputFile, null);
+    }
+  }
+
+  /**
+   * Lex and parse the input a number of times without recording any output.
+   * <p>
+   * The first {@link #numWarmups} runs are not timed. The timings of any 
+   * further runs are stored, in nanoseconds, in the lexerNanos and parserNanos
+   * arrays (and in the stage1Nanos and stage2Nanos arrays for the two stage
+   * parsing strategy, see: {@link #parseTokens}).
+   *
+   * @param input the input to be lexed and parsed (it is reset before each run).
+   * @param numRuns the total number of runs (including the warm up runs).
+   */
+  protected void repeatSilently(ANTLRInputStream input, int numRuns,
+                                long[] lexerNanos, long[] parserNanos,
+                                long[] stage1Nanos, long[] stage2Nanos) {
+    if (numRuns < 1) return;
+
+    Method startRule = null;
+    if ( !startRuleName.equals(LEXER_START_RULE_NAME) && 
+         parser!=null && parserClass!=null ) {
+      try {
+        startRule = parserClass.getMethod(startRuleName);
+      } catch (NoSuchMethodException nsme) {
+        // reported by the (recorded) last run
+      }
+      parser.removeErrorListeners();
+      if ( trace ) traceListener.setPrintStream(null);
+      // time the parser's raw recognition speed
+      if ( treeless ) parser.removeParseListener(treeCounterListener);
+    }
+    lexer.removeErrorListeners();
+
+    long[] stageNanos = new long[2];
+    try {
+      for (int run = 0; run < numRuns; run++) {
+        input.reset();
+        lexer.setInputStream(input);
+        CommonTokenStream tokens = new CommonTokenStream(lexer);
+        long beforeNanoSeconds = System.nanoTime();
+        tokens.fill();
+        long lexerTime = System.nanoTime() - beforeNanoSeconds;
+
+        long parserTime = -1L;
+        stageNanos[0] = -1L;
+        stageNanos[1] = -1L;
+        if (startRule != null) {
+          parser.setTokenStream(tokens);
+          beforeNanoSeconds = System.nanoTime();
+          try {
+            parseTokens(startRule, stageNanos);
+            parserTime = System.nanoTime() - beforeNanoSeconds;
+          } catch (Exception exp) {
+            // reported by the (recorded) last run (unless it timed out)
+            ParseWatchdog.rethrowTimeout(exp);
+          }
+        }
+
+        if (numWarmups <= run) {
+          lexerNanos[run - numWarmups]  = lexerTime;
+          parserNanos[run - numWarmups] = parserTime;
+          stage1Nanos[run - numWarmups] = stageNanos[0];
+          stage2Nanos[run - numWarmups] = stageNanos[1];
+        }
+      }
+    } finally {
+      if ( treeless && startRule != null ) parser.addParseListener(treeCounterListener);
+    }
+  }
+
+  /**
+   * Parse the parser's token stream using the {@link #startRuleName} rule.
+   * <p>
+   * If the {@link #twoStage} strategy has been requested, the tokens are 
+   * first parsed using SLL prediction and the {@link BailErrorStrategy}, with
+   * all error listeners removed. Only if this first stage fails are the 
+   * tokens re-parsed using full LL prediction (or exact ambiguity detection if
+   * the diagnostics option has been requested) and the parser's own error 
+   * strategy and listeners.
+   *
+   * @param startRule the parser's start rule method.
+   * @param stageNanos returns the time, in nanoseconds, taken by the first 
+   *                   and second stages of the two stage strategy. The 
+   *                   second stage time is -1L if the first stage 
+   *                   succeeded. Both are -1L if the two stage strategy has 
+   *                   not been requested.
+   * @return the parse tree.
+   * @throws Exception if the start rule could not be invoked.
+   */
+  protected ParserRuleContext parseTokens(Method startRule, long[] stageNanos)
+    throws Exception {
+    stageNanos[0] = -1L;
+    stageNanos[1] = -1L;
+    if ( !twoStage ) {
+      return (ParserRuleContext)startRule.invoke(parser, (Object[])null);
+    }
+
+    List<ANTLRErrorListener> errorListeners = 
+      new ArrayList<ANTLRErrorListener>(parser.getErrorListeners());
+    ANTLRErrorStrategy errorStrategy = parser.getErrorHandler();
+    parser.removeErrorListeners();
+    parser.setErrorHandler(bailErrorStrategy);
+    parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+    long beforeNanoSeconds = System.nanoTime();
+    try {
+      ParserRuleContext tree = 
+        (ParserRuleContext)startRule.invoke(parser, (Object[])null);
+      stageNanos[0] = System.nanoTime() - beforeNanoSeconds;
+      return tree;
+    } catch (InvocationTargetException ite) {
+      stageNanos[0] = System.nanoTime() - beforeNanoSeconds;
+      if ( !(ite.getCause() instanceof ParseCancellationException) ) throw ite;
+    } finally {
+      for (ANTLRErrorListener errorListener : errorListeners) {
+        parser.addErrorListener(errorListener);
+      }
+      parser.setErrorHandler(errorStrategy);
+    }
+
+    // the first (SLL) stage failed, so re-parse using full LL prediction
+    parser.reset();
+    if ( treeless ) treeCounterListener.reset();
+    parser.getInterpreter().setPredictionMode(diagnostics ? 
+      PredictionMode.LL_EXACT_AMBIG_DETECTION : PredictionMode.LL);
+    beforeNanoSeconds = System.nanoTime();
+    ParserRuleContext tree = 
+      (ParserRuleContext)startRule.invoke(parser, (Object[])null);
+    stageNanos[1] = System.nanoTime() - beforeNanoSeconds;
+    return tree;
+  }
+
+  /**
+   * Parse the (already recorded) tokens once more, using a new 
+   * {@link ProfilingATNSimulator}, to profile the parser's decisions.
+   * <p>
+   * The profiler's bookkeeping slows the parser down and allocates, so the 
+   * profiled parse is a separate pass which is neither timed nor counted in 
+   * any of the recorded metrics. Its errors are not reported (they were 
+   * reported by the recorded run), but it is still checked by the watchdog.
+   * The profiler is left installed so that its decision information can be 
+   * printed.
+   *
+   * @param startRule the parser's {@link #startRuleName} rule method.
+   * @param tokens the token stream of the recorded run.
+   */
+  protected void profileParse(Method startRule, CommonTokenStream tokens)
+    throws Exception {
+    parser.removeErrorListeners();
+    if ( trace ) traceListener.setPrintStream(null);
+    if ( treeless ) parser.removeParseListener(treeCounterListener);
+    installProfiler();
+    try {
+      tokens.seek(0);
+      parser.setTokenStream(tokens);
+      parseTokens(startRule, new long[2]);
+    } finally {
+      if ( treeless ) parser.addParseListener(treeCounterListener);
+    }
+  }
+
+  /**
+   * Compute the median of a collection of timings. Negative timings (no 
+   * measurement) are ignored.
+   *
+   * @return the median or -1L if there are no (non-negative) timings.
+   */
+  protected static long median(long[] timings) {
+    long[] sorted = Arrays.copyOf(timings, timings.length);
+    Arrays.sort(sorted);
+    int first = 0;
+    while (first < sorted.length && sorted[first] < 0) first++;
+    int numTimings = sorted.length - first;
+    if (numTimings < 1) return -1L;
+    int middle = first + numTimings/2;
+    if (numTimings % 2 == 1) return sorted[middle];
+    return (sorted[middle-1] + sorted[middle])/2;
+  }
+
 	/** 
 	 * Parse a single input file.
 	 * <p>
@@ -550,41 +1700,58 @@ public class RegressionTestRig {
 	                                     Reader reader,
 	                                     PrintStream writer)
 	  throws IOException { 
+	  ANTLRInputStream input = null;
+	  if (reader!=null) input = new ANTLRInputStream(reader);
+	  return processAnInputFile(inputFilePath, input, writer);
+	}
+	
+	/** 
+	 * Parse a single input file.
+	 * <p>
+	 * @param input the {@link ANTLRInputStream} containing the characters in 
+	 *              the input file.
+	 * @param writer the {@link PrintStream} used to print out the tokens,
+	 *               diagnostic reports, and parse tree structure.
+	 */
+	protected Metrics processAnInputFile(String inputFilePath,
+	                                     ANTLRInputStream input,
+	                                     PrintStream writer) { 
 	
 	  Metrics metricsResults = new Metrics();
 	  
     PrintStreamErrorListener psErrorListener = 
       new PrintStreamErrorListener(writer);
     
-    // Start by recording what we have been asked to do:
-    writer.println(PRINT_STREAM_BAR);
-    writer.println("RegressionTestRig options:");
-    writer.println("  grammarName: "+ grammarName);
-    writer.println("  startRuleName: "+ startRuleName);
-    writer.println("  tokens: "+ (showTokens ? "true" : "false"));
-    writer.println("  tree: "+ (printTree ? "true" : "false"));
-    writer.println("  trace: "+ (trace ? "true" : "false"));
-    writer.println("  diagnostics: "+ (diagnostics ? "true" : "false"));
-    writer.println("  SLL: "+ (SLL ? "true" : "false"));
-    writer.println("  encoding: "+ encoding);
-    writer.println("  primaryIndent: ["+ primaryIndentStr + "]");
-    writer.println("  secondaryIndent: ["+ secondaryIndentStr + "]");
-    writer.println("  indentCyclePeriod: "+ Integer.toString(indentCyclePeriod));
-    writer.println("  encoding: ["+ encoding +"]");
-    writer.println("  metrics: ["+ metricsTablePath +"]");
-    writer.println("  sourceDir: ["+ sourceDir + "]");
-    writer.println("  outputDir: ["+ outputDir + "]");
-    writer.println("  inputFile: ["+ inputFilePath +"]");
-    writer.println(PRINT_STREAM_BAR);
-    writer.println("");
+    printOptions(inputFilePath, writer);
     
 	  if (lexer==null) return metricsResults;
-	  if (reader==null) return metricsResults;
-  	  
+	  if (input==null) return metricsResults;
+	  
+	  // none of the warm up, timing or recorded runs are profiled, see: 
+	  // profileParse
+	  if ( profile && parserSimulator != null ) parser.setInterpreter(parserSimulator);
+	  long[] dfaSizes = getDFASizes();
+	  resetDFAMisses();
+	  long[] gcTotals = MemoryMeter.getGCTotals();
+	  startMetricProviders(MetricProvider.INPUT_FILE, metricsResults);
+
+    // Warm up the lexer and parser, and then take all but the last of the
+    // timing samples, without recording any output.
+    long[] lexerNanos  = new long[numRepeats];
+    long[] parserNanos = new long[numRepeats];
+    long[] stage1Nanos = new long[numRepeats];
+    long[] stage2Nanos = new long[numRepeats];
+    Arrays.fill(parserNanos, -1L);
+    Arrays.fill(stage1Nanos, -1L);
+    Arrays.fill(stage2Nanos, -1L);
+    repeatSilently(input, numWarmups + numRepeats - 1, lexerNanos, parserNanos,
+                   stage1Nanos, stage2Nanos);
+    int lastRepeat = numRepeats - 1;
+
     lexer.removeErrorListeners();
     lexer.addErrorListener(psErrorListener);
 
-    ANTLRInputStream input = new ANTLRInputStream(reader);
+    input.reset();
     lexer.setInputStream(input);
   	CommonTokenStream tokens = new CommonTokenStream(lexer);
 
@@ -592,11 +1759,19 @@ public class RegressionTestRig {
   	writer.println("Lexer tokenizing input");
   	writer.println(PRINT_STREAM_BAR);
   		
-  	Long beforeMilliSeconds = System.currentTimeMillis();
+	  startMetricProviders(MetricProvider.LEXING, metricsResults);
+  	long beforeBytes = MemoryMeter.getThreadAllocatedBytes();
+  	long beforeNanoSeconds = System.nanoTime();
+  	Object lexEvent = FlightRecorderEvents.begin(FlightRecorderEvents.LEX);
 	 	tokens.fill();
-	 	Long afterMilliSeconds  = System.currentTimeMillis();
+	 	FlightRecorderEvents.end(lexEvent);
+	 	lexerNanos[lastRepeat] = System.nanoTime() - beforeNanoSeconds;
+	 	metricsResults.metric[Metrics.LEXER_ALLOC_BYTES] = 
+	 	  MemoryMeter.getThreadAllocatedBytesSince(beforeBytes);
+	 	endMetricProviders(MetricProvider.LEXING, metricsResults);
+	 	metricsResults.metric[Metrics.LEXER_NANOS] = median(lexerNanos);
 	 	metricsResults.metric[Metrics.LEXER_TIMINGS] = 
-	 	  afterMilliSeconds - beforeMilliSeconds;
+	 	  metricsResults.metric[Metrics.LEXER_NANOS] / NANOS_PER_MILLI;
  	  
 	 	// Count the number of tokens for the metrics and showTokens output.
 	 	Long numTokens = 0L;
@@ -604,6 +1779,8 @@ public class RegressionTestRig {
   		numTokens++;
 		}
     metricsResults.metric[Metrics.LEXER_NUM_TOKENS] = numTokens;
+    String metricsKey = getMetricsKey(inputFilePath);
+    FlightRecorderEvents.commit(lexEvent, metricsKey, input.size(), numTokens, -1L);
 		
 	  if ( showTokens ) {   		
    		writer.println(PRINT_STREAM_BAR);
@@ -618,15 +1795,19 @@ public class RegressionTestRig {
 	  
 	  metricsResults.metric[Metrics.LEXER_ERRORS] = 
 	    psErrorListener.getNumberOfSyntaxErrors();
+	  recordLexerDFAMetrics(metricsResults, dfaSizes);
 
-	  if ( startRuleName.equals(LEXER_START_RULE_NAME) ) return metricsResults;
-  	if (parser==null) return metricsResults;
-	 	if (parserClass==null) return metricsResults;
+	  if ( startRuleName.equals(LEXER_START_RULE_NAME) || 
+	       parser==null || parserClass==null ) {
+	    recordMemoryMetrics(metricsResults, gcTotals);
+	    endMetricProviders(MetricProvider.INPUT_FILE, metricsResults);
+	    return metricsResults;
+	  }
 
 	 	psErrorListener.clearErrorsAndWarnings();
 	 	
   	writer.println(PRINT_STREAM_BAR);
-    writer.println("Parser building parse tree");
+    writer.println(treeless ? "Parser counting parse tree" : "Parser building parse tree");
   	writer.println(PRINT_STREAM_BAR);
 	  	
 	  parser.removeErrorListeners();
@@ -637,31 +1818,89 @@ public class RegressionTestRig {
 
     parser.setTokenStream(tokens);
     if ( trace ) traceListener.setPrintStream(writer);
+    if ( treeless ) treeCounterListener.reset();
 
 	 	try {
 		  Method startRule = parserClass.getMethod(startRuleName);
-		  beforeMilliSeconds = System.currentTimeMillis();
-  		ParserRuleContext tree = (ParserRuleContext)startRule.invoke(parser, (Object[])null);
-	 	  afterMilliSeconds  = System.currentTimeMillis();
-	 	  metricsResults.metric[Metrics.PARSER_TIMINGS] = afterMilliSeconds - beforeMilliSeconds;
-
-		  TreeCounter treeCounter = new TreeCounter();
-		  treeCounter.countTree(tree);
-		  metricsResults.metric[Metrics.PARSER_DEPTH] = treeCounter.getTreeDepth();
-		  metricsResults.metric[Metrics.PARSER_NUM_NODES] = treeCounter.getNumberOfNodes();
+		  startMetricProviders(MetricProvider.PARSING, metricsResults);
+		  beforeBytes = MemoryMeter.getThreadAllocatedBytes();
+		  beforeNanoSeconds = System.nanoTime();
+		  long[] stageNanos = new long[2];
+		  Object parseEvent = FlightRecorderEvents.begin(FlightRecorderEvents.PARSE);
+  		ParserRuleContext tree = parseTokens(startRule, stageNanos);
+  		FlightRecorderEvents.end(parseEvent);
+	 	  parserNanos[lastRepeat] = System.nanoTime() - beforeNanoSeconds;
+	 	  metricsResults.metric[Metrics.PARSER_ALLOC_BYTES] = 
+	 	    MemoryMeter.getThreadAllocatedBytesSince(beforeBytes);
+	 	  endMetricProviders(MetricProvider.PARSING, metricsResults);
+	 	  // the tokens and the parse tree are still reachable
+	 	  recordMemoryMetrics(metricsResults, gcTotals);
+	 	  metricsResults.metric[Metrics.PARSER_NANOS] = median(parserNanos);
+	 	  metricsResults.metric[Metrics.PARSER_TIMINGS] = 
+	 	    metricsResults.metric[Metrics.PARSER_NANOS] / NANOS_PER_MILLI;
+	 	  
+	 	  if ( twoStage ) {
+	 	    stage1Nanos[lastRepeat] = stageNanos[0];
+	 	    stage2Nanos[lastRepeat] = stageNanos[1];
+	 	    metricsResults.metric[Metrics.PARSER_STAGE1_NANOS] = median(stage1Nanos);
+	 	    metricsResults.metric[Metrics.PARSER_STAGE2_NANOS] = median(stage2Nanos);
+	 	    boolean fellBack = (0 <= stageNanos[1]);
+	 	    metricsResults.metric[Metrics.PARSER_FALLBACKS] = fellBack ? 1L : 0L;
+	 	    if ( fellBack ) {
+	 	      writer.println("Parser SLL stage failed; re-parsed using full LL prediction");
+	 	    }
+	 	  }
+
+		  if ( treeless ) {
+		    metricsResults.metric[Metrics.PARSER_DEPTH] = 
+		      treeCounterListener.getTreeDepth();
+		    metricsResults.metric[Metrics.PARSER_NUM_NODES] = 
+		      treeCounterListener.getNumberOfNodes();
+		  } else {
+		    Object countEvent = FlightRecorderEvents.begin(FlightRecorderEvents.COUNT);
+		    TreeCounter treeCounter = new TreeCounter();
+		    treeCounter.countTree(tree);
+		    metricsResults.metric[Metrics.PARSER_DEPTH] = treeCounter.getTreeDepth();
+		    metricsResults.metric[Metrics.PARSER_NUM_NODES] = treeCounter.getNumberOfNodes();
+		    FlightRecorderEvents.commit(countEvent, metricsKey, input.size(), numTokens,
+		      metricsResults.metric[Metrics.PARSER_NUM_NODES]);
+		  }
+		  FlightRecorderEvents.commit(parseEvent, metricsKey, input.size(), numTokens,
+		    metricsResults.metric[Metrics.PARSER_NUM_NODES]);
 	 	  
 	 		if ( printTree ) {
      		writer.println(PRINT_STREAM_BAR);
      		writer.print("Parser parse tree; num nodes: ");
-     		writer.print(Long.toString(treeCounter.getNumberOfNodes()));
+     		writer.print(Long.toString(metricsResults.metric[Metrics.PARSER_NUM_NODES]));
      		writer.print(", tree depth: ");
-     		writer.println(Long.toString(treeCounter.getTreeDepth()));
+     		writer.println(Long.toString(metricsResults.metric[Metrics.PARSER_DEPTH]));
      		writer.println(PRINT_STREAM_BAR);
-	  		writer.println(treePrinter.printTree(tree));
+	  		Object printEvent = FlightRecorderEvents.begin(FlightRecorderEvents.PRINT);
+	  		treePrinter.printTree(tree, writer);
+	  		writer.println();
+	  		FlightRecorderEvents.commit(printEvent, metricsKey, input.size(), numTokens,
+	  		  metricsResults.metric[Metrics.PARSER_NUM_NODES]);
 		  }
 		  
+		  if ( profile ) profileParse(startRule, tokens);
+		  
   	}	catch (Exception nsme) {
-	 		System.err.println("ERROR: No method for rule "+startRuleName+" or it has arguments");
+  	  ParseWatchdog.rethrowTimeout(nsme);
+	 		console.println("ERROR: No method for rule "+startRuleName+" or it has arguments");
+	  }
+	  
+	  if ( profile && parser.getInterpreter() instanceof ProfilingATNSimulator ) {
+	    ProfileTable fileProfile = new ProfileTable();
+	    fileProfile.addDecisionInfo(parser, 
+	      ((ProfilingATNSimulator)parser.getInterpreter()).getDecisionInfo());
+	    profileTable.addProfileTable(fileProfile);
+	    
+   		writer.println(PRINT_STREAM_BAR);
+   		writer.print("Parser decision profile; time in prediction: ");
+   		writer.print(Long.toString(fileProfile.getTotalTimeInPrediction()));
+   		writer.println(" ns");
+   		writer.println(PRINT_STREAM_BAR);
+	    fileProfile.printProfileTable(writer);
 	  }
 	  
 	  metricsResults.metric[Metrics.PARSER_ERRORS] = 
@@ -672,8 +1911,274 @@ public class RegressionTestRig {
 	    psErrorListener.getNumberOfWeakContextWarnings();
 	  metricsResults.metric[Metrics.STRONG_CONTEXTS] = 
 	    psErrorListener.getNumberOfStrongContextWarnings();
+	  recordParserDFAMetrics(metricsResults, dfaSizes);
+	  endMetricProviders(MetricProvider.INPUT_FILE, metricsResults);
+	  
+		return metricsResults;
+	}
+	
+	/**
+	 * Record the number of garbage collections, and the time they took, since
+	 * the gcTotals were taken, and (if requested) the heap retained by the 
+	 * lexer and parser. (With -threads, the garbage collections of all of the
+	 * workers are included.)
+	 */
+	protected void recordMemoryMetrics(Metrics metricsResults, long[] gcTotals) {
+	  long[] newGCTotals = MemoryMeter.getGCTotals();
+	  metricsResults.metric[Metrics.GC_COUNT]  = newGCTotals[0] - gcTotals[0];
+	  metricsResults.metric[Metrics.GC_MILLIS] = newGCTotals[1] - gcTotals[1];
+	  if ( retainedHeap ) {
+	    metricsResults.metric[Metrics.RETAINED_HEAP_BYTES] = 
+	      MemoryMeter.getRetainedHeapBytes();
+	  }
+	}
+	
+	/** Start the given phase of each of this rig's MetricProviders. */
+	protected void startMetricProviders(int phase, Metrics metricsResults) {
+	  for (MetricProvider provider : metricProviders) {
+	    provider.start(phase, metricsResults);
+	  }
+	}
+	
+	/** End the given phase of each of this rig's MetricProviders. */
+	protected void endMetricProviders(int phase, Metrics metricsResults) {
+	  for (MetricProvider provider : metricProviders) {
+	    provider.end(phase, metricsResults);
+	  }
+	}
+	
+	/**
+	 * The current sizes of the DFA caches: the number of lexer DFA states and
+	 * edges followed by the number of parser DFA states and edges.
+	 */
+	protected long[] getDFASizes() {
+	  long[] dfaSizes = new long[4];
+	  if ( lexer != null ) {
+	    dfaSizes[0] = DFASnapshot.countStates(lexer.getInterpreter().decisionToDFA);
+	    dfaSizes[1] = DFASnapshot.countEdges(lexer.getInterpreter().decisionToDFA);
+	  }
+	  if ( parser != null ) {
+	    dfaSizes[2] = DFASnapshot.countStates(parser.getInterpreter().decisionToDFA);
+	    dfaSizes[3] = DFASnapshot.countEdges(parser.getInterpreter().decisionToDFA);
+	  }
+	  return dfaSizes;
+	}
+	
+	/**
+	 * Reset the DFA cache miss counts, so that the DFA metrics of an input 
+	 * file cover all of its (warm up, timing and recorded) runs.
+	 */
+	protected void resetDFAMisses() {
+	  if ( lexerSimulator != null ) lexerSimulator.resetNumDFAMisses();
+	  if ( parserSimulator != null ) parserSimulator.resetNumDFAMisses();
+	}
+	
+	/** 
+	 * Record the growth of the lexer's DFA cache, since the dfaSizes were 
+	 * taken, and the lexer's DFA cache misses.
+	 */
+	protected void recordLexerDFAMetrics(Metrics metricsResults, long[] dfaSizes) {
+	  long numDFAMisses = (lexerSimulator != null) ? lexerSimulator.getNumDFAMisses() : -1L;
+	  long[] newDFASizes = getDFASizes();
+	  metricsResults.metric[Metrics.LEXER_DFA_STATES] = newDFASizes[0] - dfaSizes[0];
+	  metricsResults.metric[Metrics.LEXER_DFA_EDGES]  = newDFASizes[1] - dfaSizes[1];
+	  metricsResults.metric[Metrics.LEXER_DFA_MISSES] = numDFAMisses;
+	}
+	
+	/** 
+	 * Record the growth of the parser's DFA cache, since the dfaSizes were 
+	 * taken, and the parser's DFA cache misses. (The profiled parse, see: 
+	 * {@link #profileParse}, is not counted.)
+	 */
+	protected void recordParserDFAMetrics(Metrics metricsResults, long[] dfaSizes) {
+	  long numDFAMisses = 
+	    (parserSimulator != null) ? parserSimulator.getNumDFAMisses() : 0L;
+	  long[] newDFASizes = getDFASizes();
+	  metricsResults.metric[Metrics.PARSER_DFA_STATES] = newDFASizes[2] - dfaSizes[2];
+	  metricsResults.metric[Metrics.PARSER_DFA_EDGES]  = newDFASizes[3] - dfaSizes[3];
+	  metricsResults.metric[Metrics.PARSER_DFA_MISSES] = numDFAMisses;
+	}
+  
+	/** 
+	 * Stream a single input file through the lexer.
+	 * <p>
+	 * The characters and tokens are read using an {@link UnbufferedCharStream}
+	 * and an {@link UnbufferedTokenStream}, so that neither the input nor the 
+	 * tokens are held in memory. The tokens (if requested) are printed as they
+	 * are lexed, followed by the total number of tokens of each token type.
+	 * The number of characters and tokens lexed per second are reported on the
+	 * {@link #console}.
+	 *
+	 * @param reader the {@link Reader} used to read the characters in the input 
+	 *               file.
+	 * @param writer the {@link PrintStream} used to print out the tokens and
+	 *               token type counts.
+	 */
+	protected Metrics streamAnInputFile(String inputFilePath,
+	                                    Reader reader,
+	                                    PrintStream writer) {
+	  Metrics metricsResults = new Metrics();
+	  
+    PrintStreamErrorListener psErrorListener = 
+      new PrintStreamErrorListener(writer);
+    
+    printOptions(inputFilePath, writer);
+    
+	  if (lexer==null) return metricsResults;
+	  if (reader==null) return metricsResults;
+	  long[] dfaSizes = getDFASizes();
+	  resetDFAMisses();
+	  long[] gcTotals = MemoryMeter.getGCTotals();
+	  startMetricProviders(MetricProvider.INPUT_FILE, metricsResults);
 	  
+    lexer.removeErrorListeners();
+    lexer.addErrorListener(psErrorListener);
+    
+  	writer.println(PRINT_STREAM_BAR);
+  	writer.println("Lexer streaming tokens");
+  	writer.println(PRINT_STREAM_BAR);
+  	
+  	// The token text must be copied into printed tokens, since the 
+  	// characters are discarded as the tokens are lexed.
+  	lexer.setTokenFactory(showTokens ? 
+  	  new StreamingTokenFactory() : CommonTokenFactory.DEFAULT);
+    UnbufferedCharStream input = new UnbufferedCharStream(reader);
+    input.name = inputFilePath;
+    
+    // token types are counted at (tokenType+1) so that EOF (-1) is counted
+    long[] tokenTypeCounts = new long[lexer.getATN().maxTokenType + 2];
+    long numTokens = 0L;
+    
+	  startMetricProviders(MetricProvider.LEXING, metricsResults);
+  	long beforeBytes = MemoryMeter.getThreadAllocatedBytes();
+  	long beforeNanoSeconds = System.nanoTime();
+    Object lexEvent = FlightRecorderEvents.begin(FlightRecorderEvents.LEX);
+    lexer.setInputStream(input);
+    UnbufferedTokenStream<Token> tokens = new UnbufferedTokenStream<Token>(lexer);
+    while (true) {
+      Token token = tokens.LT(1);
+      numTokens++;
+      int typeIndex = token.getType() + 1;
+      if (tokenTypeCounts.length <= typeIndex) {
+        tokenTypeCounts = Arrays.copyOf(tokenTypeCounts, typeIndex + 1);
+      }
+      if (0 <= typeIndex) tokenTypeCounts[typeIndex]++;
+      if ( showTokens ) writer.println(token);
+      if (token.getType() == Token.EOF) break;
+      tokens.consume();
+    }
+	 	long lexerNanos = System.nanoTime() - beforeNanoSeconds;
+	 	FlightRecorderEvents.end(lexEvent);
+	 	metricsResults.metric[Metrics.LEXER_ALLOC_BYTES] = 
+	 	  MemoryMeter.getThreadAllocatedBytesSince(beforeBytes);
+	 	endMetricProviders(MetricProvider.LEXING, metricsResults);
+	 	recordMemoryMetrics(metricsResults, gcTotals);
+	 	long numChars = input.index();
+	 	FlightRecorderEvents.commit(lexEvent, getMetricsKey(inputFilePath), numChars, 
+	 	                            numTokens, -1L);
+	 	lexer.setTokenFactory(CommonTokenFactory.DEFAULT);
+	 	
+	 	metricsResults.metric[Metrics.LEXER_NANOS] = lexerNanos;
+	 	metricsResults.metric[Metrics.LEXER_TIMINGS] = lexerNanos / NANOS_PER_MILLI;
+    metricsResults.metric[Metrics.LEXER_NUM_TOKENS] = numTokens;
+	  metricsResults.metric[Metrics.LEXER_ERRORS] = 
+	    psErrorListener.getNumberOfSyntaxErrors();
+	  recordLexerDFAMetrics(metricsResults, dfaSizes);
+	 	
+		writer.println(PRINT_STREAM_BAR);
+		writer.print("Lexer token type counts; num tokens: ");
+		writer.println(Long.toString(numTokens));
+		writer.println(PRINT_STREAM_BAR);
+		String[] tokenNames = getParserTokenNames();
+		for (int typeIndex = 0; typeIndex < tokenTypeCounts.length; typeIndex++) {
+		  if (tokenTypeCounts[typeIndex] < 1) continue;
+		  int tokenType = typeIndex - 1;
+		  String tokenName = Integer.toString(tokenType);
+		  if (tokenType == Token.EOF) {
+		    tokenName = "EOF";
+		  } else if (tokenNames != null && tokenType < tokenNames.length) {
+		    tokenName = tokenNames[tokenType].replace("\n","\\n")
+		      .replace("\r","\\r").replace("\t","\\t");
+		  }
+		  writer.println("  "+tokenName+": "+Long.toString(tokenTypeCounts[typeIndex]));
+		}
+		
+		double seconds = Math.max(lexerNanos, 1L) / 1.0e9;
+		console.println("     streamed "+numChars+" chars and "+numTokens+
+		  " tokens in "+(lexerNanos / NANOS_PER_MILLI)+" ms ("+
+		  Math.round(numChars / seconds)+" chars/s, "+
+		  Math.round(numTokens / seconds)+" tokens/s)");
+		endMetricProviders(MetricProvider.INPUT_FILE, metricsResults);
+		
 		return metricsResults;
 	}
+	
+	/**
+	 * A CommonTokenFactory which copies the text of each token, so that the
+	 * tokens of an unbuffered character stream can be printed after their
+	 * characters have been discarded. The EOF token is given the same text
+	 * as it would have when printed from a buffered character stream.
+	 */
+	protected static class StreamingTokenFactory extends CommonTokenFactory {
+	  
+	  public StreamingTokenFactory() { super(true); }
+	  
+	  @Override
+	  public CommonToken create(Pair<TokenSource, CharStream> source, int type, 
+	                            String text, int channel, int start, int stop,
+	                            int line, int charPositionInLine) {
+	    if (type == Token.EOF && text == null) text = "<EOF>";
+	    return super.create(source, type, text, channel, start, stop, 
+	                        line, charPositionInLine);
+	  }
+	}
+	
+	/**
+	 * Get the token names of the parser for this grammar (the token names
+	 * of the lexer are its characters).
+	 * <p>
+	 * The parser is not loaded when only lexing, so the names are taken
+	 * from the static tokenNames of the parser class, if there is one.
+	 *
+	 * @return the parser's token names or null if there is no parser class.
+	 */
+	protected String[] getParserTokenNames() {
+	  if (parser != null) return parser.getTokenNames();
+	  try {
+	    ClassLoader cl = Thread.currentThread().getContextClassLoader();
+	    Class<?> aParserClass = cl.loadClass(grammarName+"Parser");
+	    return (String[])aParserClass.getField("tokenNames").get(null);
+	  } catch (Exception anException) {
+	    return null;
+	  }
+	}
+	
+	/** 
+	 * Record the options used by this RegressionTestRig at the start of the
+	 * results of an input file.
+	 */
+	protected void printOptions(String inputFilePath, PrintStream writer) {
+    // Start by recording what we have been asked to do:
+    writer.println(PRINT_STREAM_BAR);
+    writer.println("RegressionTestRig options:");
+    writer.println("  grammarName: "+ grammarName);
+    writer.println("  startRuleName: "+ startRuleName);
+    writer.println("  tokens: "+ (showTokens ? "true" : "false"));
+    writer.println("  tree: "+ (printTree ? "true" : "false"));
+    writer.println("  trace: "+ (trace ? "true" : "false"));
+    writer.println("  diagnostics: "+ (diagnostics ? "true" : "false"));
+    writer.println("  SLL: "+ (SLL ? "true" : "false"));
+    writer.println("  encoding: "+ encoding);
+    writer.println("  primaryIndent: ["+ primaryIndentStr + "]");
+    writer.println("  secondaryIndent: ["+ secondaryIndentStr + "]");
+    writer.println("  indentCyclePeriod: "+ Integer.toString(indentCyclePeriod));
+    writer.println("  encoding: ["+ encoding +"]");
+    writer.println("  metrics: ["+ metricsTablePath +"]");
+    writer.println("  sourceDir: ["+ sourceDir + "]");
+    writer.println("  outputDir: ["+ outputDir + "]");
+    writer.println("  inputFile: ["+ inputFilePath +"]");
+    writer.println(PRINT_STREAM_BAR);
+    writer.println("");
+  }
 
 }
@@ -0,0 +1,465 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A long lived RegressionTestRig server, which amortises the JVM start up,
+ * class loading and JIT compilation, as well as the warm up of the lexer's 
+ * and parser's (static) DFA caches, over many (small) runs.
+ * <p>
+ * The daemon listens on a loopback socket. Each request is the same 
+ * argument vector as the RegressionTestRig's command line, and is run, one
+ * request at a time, by a new RegressionTestRig in the daemon's JVM. The 
+ * grammar classes are only loaded once, and each metricsTable is kept 
+ * between runs (it is only re-loaded if its file has been changed by 
+ * someone else).
+ * <p>
+ * Since each request is run as the daemon's user, only clients which can
+ * read the daemon's token file may use it. When it starts, the daemon 
+ * writes a random token into the file ".antlr4regressionTest.port.token"
+ * in its working directory, readable and writable only by its owner, and
+ * deletes it when it stops. A client which does not send the token, or
+ * which does not send its whole request within a few seconds, is declined.
+ * <p>
+ * The protocol is line based (UTF-8). A request is:
+ * <pre>
+ *   RTR2
+ *   the daemon's token
+ *   the client's working directory
+ *   the number of arguments
+ *   one line per (escaped) argument
+ * </pre>
+ * Each argument is escaped by replacing each backslash by "\\" and each
+ * newline by "\n", so that empty arguments and arguments containing 
+ * newlines are sent intact.
+ * The response is the console output of the run, followed by a line 
+ * "#RTR-EXIT status" holding the run's exit status. A request which the 
+ * daemon can not run (since it reads stdin, comes from another working
+ * directory, or its grammar classes have been re-compiled since they were
+ * loaded) is answered by the single line "#RTR-DECLINED", and should be
+ * run by a fresh JVM instead. If the grammar classes have been re-compiled
+ * the daemon also stops, so that it can be restarted with the new classes.
+ * <p>
+ * Usage:
+ * <pre>
+ *   java org.fandianpf.antlr4.regressionTestRig.RegressionTestRigDaemon [-port aPort]
+ * </pre>
+ * The bin/antlr4regressionTest script starts a daemon using its -daemon 
+ * option, and transparently uses a running daemon.
+ */
+public class RegressionTestRigDaemon {
+  
+  /** The default (loopback) port of the daemon. */
+  public static final int DEFAULT_PORT = 4763;
+  
+  /** The first line of each request. */
+  public static final String PROTOCOL_VERSION = "RTR2";
+  
+  /** The time (in milliseconds) a client has to send its whole request. */
+  public static final int DEFAULT_REQUEST_TIMEOUT = 5000;
+  
+  /** The maximum number of arguments of a request. */
+  public static final int MAX_ARGUMENTS = 10000;
+  
+  /** The prefix of the last line of each response. */
+  public static final String EXIT_MARKER = "#RTR-EXIT ";
+  
+  /** The response to a declined request. */
+  public static final String DECLINED_MARKER = "#RTR-DECLINED";
+  
+  /** The argument which asks the daemon to stop. */
+  public static final String STOP_ARGUMENT = "-stopDaemon";
+  
+  /** The exit status of a run which failed with an exception. */
+  public static final int FAILURE_EXIT_STATUS = 2;
+  
+  /** A metricsTable kept between runs, with the state of its file. */
+  protected static class CachedMetricsTable {
+    public MetricsTable metricsTable;
+    public long lastModified;
+    public long length;
+  }
+  
+  /** The server socket on which the daemon listens. */
+  protected ServerSocket serverSocket;
+  
+  /** The working directory of the daemon (and so of every run). */
+  protected final String workingDir = 
+    new File(System.getProperty("user.dir")).getAbsolutePath();
+  
+  /** The metricsTables kept between runs, by metricsTablePath. */
+  protected final Map<String, CachedMetricsTable> metricsTables = 
+    new HashMap<String, CachedMetricsTable>();
+  
+  /** 
+   * The hash of each lexer and parser class file, by class name, as it was
+   * when the class was first loaded by the daemon.
+   */
+  protected final Map<String, String> grammarHashes = new HashMap<String, String>();
+  
+  /** Should the daemon stop once the current request has been answered? */
+  protected volatile boolean stopping = false;
+  
+  /** The time (in milliseconds) a client has to send its whole request. */
+  protected int requestTimeout = DEFAULT_REQUEST_TIMEOUT;
+  
+  /** The random token which every request must present. */
+  protected final String token;
+  
+  /** The file (readable only by the daemon's user) holding the token. */
+  protected final File tokenFile;
+  
+  /** Create a daemon listening on the given loopback port (0 for any). */
+  public RegressionTestRigDaemon(int port) throws IOException {
+    serverSocket = new ServerSocket(port, 50, InetAddress.getByName(null));
+    byte[] tokenBytes = new byte[32];
+    new SecureRandom().nextBytes(tokenBytes);
+    StringBuilder tokenStr = new StringBuilder();
+    for (byte aByte : tokenBytes) tokenStr.append(String.format("%02x", aByte & 0xff));
+    token = tokenStr.toString();
+    tokenFile = getTokenFile(new File(workingDir), getPort());
+    try {
+      writeTokenFile();
+    } catch (IOException ioe) {
+      serverSocket.close();
+      throw ioe;
+    }
+  }
+  
+  /** The token file of a daemon listening on port in the directory dir. */
+  public static File getTokenFile(File dir, int port) {
+    return new File(dir, ".antlr4regressionTest."+port+".token");
+  }
+  
+  /** 
+   * Write the token into a new token file, which only the daemon's user can
+   * read or write.
+   */
+  protected void writeTokenFile() throws IOException {
+    if (tokenFile.exists() && !tokenFile.delete()) {
+      throw new IOException("Could not replace the token file ["+tokenFile+"]");
+    }
+    if (!tokenFile.createNewFile() ||
+        !tokenFile.setReadable(false, false) || !tokenFile.setWritable(false, false) ||
+        !tokenFile.setReadable(true, true)   || !tokenFile.setWritable(true, true)) {
+      tokenFile.delete();
+      throw new IOException("Could not create a private token file ["+tokenFile+"]");
+    }
+    tokenFile.deleteOnExit();
+    FileOutputStream tokenOut = new FileOutputStream(tokenFile);
+    try {
+      tokenOut.write((token+"\n").getBytes("UTF-8"));
+    } finally {
+      tokenOut.close();
+    }
+  }
+  
+  /** The loopback port on which this daemon listens. */
+  public int getPort() { return serverSocket.getLocalPort(); }
+  
+  /** The file holding the token which every request must present. */
+  public File getTokenFile() { return tokenFile; }
+  
+  /** Serve requests, one at a time, until asked to stop. */
+  public void serve() {
+    System.err.println("RegressionTestRigDaemon: listening on port "+getPort()+
+      " in ["+workingDir+"]");
+    while (!stopping) {
+      try {
+        Socket socket = serverSocket.accept();
+        try {
+          handleRequest(socket);
+        } finally {
+          socket.close();
+        }
+      } catch (SocketTimeoutException ste) {
+        System.err.println("WARNING: RegressionTestRigDaemon: incomplete request ignored");
+      } catch (IOException ioe) {
+        if (!stopping) System.err.println("ERROR: RegressionTestRigDaemon: "+ioe);
+      }
+    }
+    try {
+      serverSocket.close();
+    } catch (IOException ioe) {
+      // ignore
+    }
+    tokenFile.delete();
+  }
+  
+  /** Ask the daemon to stop (once any current request has been answered). */
+  public void stop() {
+    stopping = true;
+    try {
+      serverSocket.close();
+    } catch (IOException ioe) {
+      // ignore
+    }
+    tokenFile.delete();
+  }
+  
+  /** Read one request from the socket, run it, and write the response. */
+  protected void handleRequest(Socket socket) throws IOException {
+    // a client which never completes its request must not block the daemon
+    socket.setSoTimeout(requestTimeout);
+    BufferedReader in = new BufferedReader(
+      new InputStreamReader(socket.getInputStream(), "UTF-8"));
+    LineTrackingOutputStream out = 
+      new LineTrackingOutputStream(socket.getOutputStream());
+    PrintStream response = new PrintStream(out, true, "UTF-8");
+    
+    if (!PROTOCOL_VERSION.equals(in.readLine()) || !isTokenValid(in.readLine())) {
+      response.println(DECLINED_MARKER);
+      return;
+    }
+    String clientDir = in.readLine();
+    int numArgs = -1;
+    try {
+      numArgs = Integer.parseInt(in.readLine());
+    } catch (Exception exp) {
+      // declined below
+    }
+    if (numArgs < 0 || MAX_ARGUMENTS < numArgs) {
+      response.println(DECLINED_MARKER);
+      return;
+    }
+    List<String> args = new ArrayList<String>();
+    for (int i = 0; i < numArgs; i++) {
+      String arg = in.readLine();
+      if (arg == null) {
+        response.println(DECLINED_MARKER);
+        return;
+      }
+      args.add(unescapeArgument(arg));
+    }
+    socket.setSoTimeout(0);
+    if (clientDir == null || 
+        !new File(clientDir).getAbsolutePath().equals(workingDir)) {
+      response.println(DECLINED_MARKER);
+      return;
+    }
+    if (args.size() == 1 && args.get(0).equals(STOP_ARGUMENT)) {
+      stopping = true;
+      response.println("RegressionTestRigDaemon: stopping");
+      response.println(EXIT_MARKER+"0");
+      serverSocket.close();
+      return;
+    }
+    
+    int status = runRequest(args.toArray(new String[args.size()]), response);
+    if (status < 0) {
+      response.println(DECLINED_MARKER);
+      return;
+    }
+    if (!out.atStartOfLine()) response.println();
+    response.println(EXIT_MARKER+status);
+  }
+  
+  /** Is the token sent by a client this daemon's token? */
+  protected boolean isTokenValid(String clientToken) throws IOException {
+    if (clientToken == null) return false;
+    return MessageDigest.isEqual(token.getBytes("UTF-8"), clientToken.getBytes("UTF-8"));
+  }
+  
+  /** Escape an argument so that it can be sent on a single line. */
+  public static String escapeArgument(String arg) {
+    return arg.replace("\\", "\\\\").replace("\n", "\\n");
+  }
+  
+  /** Undo the escaping of an argument sent on a single line. */
+  public static String unescapeArgument(String escapedArg) {
+    StringBuilder arg = new StringBuilder(escapedArg.length());
+    for (int i = 0; i < escapedArg.length(); i++) {
+      char c = escapedArg.charAt(i);
+      if (c == '\\' && i+1 < escapedArg.length()) {
+        char next = escapedArg.charAt(++i);
+        arg.append(next == 'n' ? '\n' : next);
+      } else {
+        arg.append(c);
+      }
+    }
+    return arg.toString();
+  }
+  
+  /**
+   * Run one request, sending all of its console output to the response.
+   *
+   * @return the exit status of the run, or -1 if the request is declined
+   *         (in which case nothing has been sent to the response).
+   */
+  protected synchronized int runRequest(String[] args, PrintStream response) {
+    PrintStream systemErr = System.err;
+    ByteArrayOutputStream setupBytes = new ByteArrayOutputStream();
+    try {
+      // buffer the console output until the request is known to be accepted
+      System.setErr(new PrintStream(setupBytes, true));
+      RegressionTestRig testRig;
+      try {
+        testRig = new RegressionTestRig(args);
+      } catch (Exception exp) {
+        System.err.println("ERROR: "+exp);
+        response.print(setupBytes.toString());
+        return FAILURE_EXIT_STATUS;
+      }
+      if (testRig.lexer == null) { // the usage has been reported
+        response.print(setupBytes.toString());
+        return FAILURE_EXIT_STATUS;
+      }
+      // stdin belongs to the client
+      if (testRig.inputFiles.contains(null)) return -1;
+      if (!isGrammarCurrent(testRig)) {
+        systemErr.println("RegressionTestRigDaemon: the grammar ["+
+          testRig.grammarName+"] has been re-compiled; stopping");
+        stop();
+        return -1;
+      }
+      
+      response.print(setupBytes.toString());
+      System.setErr(response);
+      testRig.console = response;
+      useCachedMetricsTable(testRig);
+      try {
+        testRig.processInputFiles();
+      } catch (Exception exp) {
+        System.err.println("ERROR: "+exp);
+        metricsTables.remove(testRig.metricsTablePath);
+        return FAILURE_EXIT_STATUS;
+      }
+      cacheMetricsTable(testRig);
+      return testRig.regressions.isEmpty() ? 0 : RegressionTestRig.REGRESSION_EXIT_STATUS;
+    } finally {
+      System.err.flush();
+      System.setErr(systemErr);
+    }
+  }
+  
+  /**
+   * Are the lexer and parser classes loaded for this grammar the same as 
+   * those (now) on the class path?
+   * <p>
+   * The loaded classes are shared by every run (whatever its start rule), 
+   * so the hash of each class file is recorded by class name the first time
+   * the class is seen, that is, when it has just been loaded by the run's 
+   * RegressionTestRig.
+   */
+  protected boolean isGrammarCurrent(RegressionTestRig testRig) {
+    return isClassCurrent(testRig.lexer.getClass()) &&
+      isClassCurrent(testRig.parserClass);
+  }
+  
+  /** Is the (loaded) class the same as the class file (now) on the class path? */
+  protected boolean isClassCurrent(Class<?> aClass) {
+    if (aClass == null) return true;
+    String classHash = IncrementalCache.hashClasses(aClass);
+    String key = aClass.getName();
+    if (!grammarHashes.containsKey(key)) grammarHashes.put(key, classHash);
+    return classHash != null && classHash.equals(grammarHashes.get(key));
+  }
+  
+  /** 
+   * Give the run the metricsTable kept from an earlier run, if its file has
+   * not been changed since.
+   */
+  protected void useCachedMetricsTable(RegressionTestRig testRig) {
+    if (testRig.metricsTablePath == null) return;
+    CachedMetricsTable cached = metricsTables.get(testRig.metricsTablePath);
+    File metricsFile = new File(testRig.metricsTablePath);
+    if (cached != null && cached.lastModified == metricsFile.lastModified() &&
+        cached.length == metricsFile.length()) {
+      testRig.metricsTable = cached.metricsTable;
+      testRig.metricsTableLoaded = true;
+    }
+  }
+  
+  /** Keep the (just saved) metricsTable of the run for later runs. */
+  protected void cacheMetricsTable(RegressionTestRig testRig) {
+    if (testRig.metricsTablePath == null) return;
+    File metricsFile = new File(testRig.metricsTablePath);
+    if (!metricsFile.exists()) return;
+    CachedMetricsTable cached = new CachedMetricsTable();
+    cached.metricsTable = testRig.metricsTable;
+    cached.lastModified = metricsFile.lastModified();
+    cached.length       = metricsFile.length();
+    metricsTables.put(testRig.metricsTablePath, cached);
+  }
+  
+  /** An OutputStream which knows if the last byte written ended a line. */
+  protected static class LineTrackingOutputStream extends FilterOutputStream {
+    protected int lastByte = '\n';
+    public LineTrackingOutputStream(OutputStream out) { super(out); }
+    @Override public void write(int b) throws IOException {
+      out.write(b);
+      lastByte = b;
+    }
+    @Override public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      if (0 < len) lastByte = b[off+len-1];
+    }
+    public boolean atStartOfLine() { return lastByte == '\n'; }
+  }
+  
+  /** Start a daemon (on the -port given or the default port). */
+  public static void main(String[] args) throws Exception {
+    int port = DEFAULT_PORT;
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("-port") && i+1 < args.length) {
+        try {
+          port = Integer.valueOf(args[++i]);
+        } catch (Exception exp) {
+          System.err.println("WARNING: incorrectly formated port ["+args[i]+"]");
+          System.err.println("         using the value "+DEFAULT_PORT);
+          port = DEFAULT_PORT;
+        }
+      } else {
+        System.err.println("java org.fandianpf.antlr4.regressionTestRig.RegressionTestRigDaemon [-port aPort]");
+        return;
+      }
+    }
+    new RegressionTestRigDaemon(port).serve();
+  }
+}
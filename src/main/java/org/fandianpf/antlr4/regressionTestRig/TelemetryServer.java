@@ -0,0 +1,235 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local HTTP endpoint, built on the JDK's own HTTP server, which exposes
+ * the progress of a run (for example to a Prometheus scraper) while it is
+ * still running.
+ * <p>
+ * <code>GET http://127.0.0.1:port/metrics</code> returns, in the 
+ * OpenMetrics text format:
+ * <ul>
+ * <li>the input files done (and the tokens, parse tree nodes, lexer and
+ *     parser errors and timeouts of those files) as counters,</li>
+ * <li>the input files remaining, the tokens and nodes per second (since
+ *     the start of the run), the estimated seconds remaining and the heap 
+ *     in use as gauges,</li>
+ * <li>the lexer and parser latencies (t02LexerNanos and t03ParserNanos) of
+ *     the input files done as histograms.</li>
+ * </ul>
+ * The server only listens on the loopback interface.
+ */
+public class TelemetryServer {
+
+  /** The prefix of the name of every metric family. */
+  public static final String PREFIX = "antlr4_rtr_";
+  
+  /** The upper bounds (in seconds) of the latency histogram buckets. */
+  public static final double[] LATENCY_BUCKETS = {
+    0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 
+    0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0
+  };
+  
+  /** The content type of the OpenMetrics text format. */
+  public static final String CONTENT_TYPE = 
+    "application/openmetrics-text; version=1.0.0; charset=utf-8";
+  
+  protected HttpServer server;
+  
+  protected long startNanos     = System.nanoTime();
+  protected long filesTotal     = 0L;
+  protected long filesDone      = 0L;
+  protected long tokens         = 0L;
+  protected long nodes          = 0L;
+  protected long lexerErrors    = 0L;
+  protected long parserErrors   = 0L;
+  protected long timeouts       = 0L;
+  
+  /** The (non cumulative) counts of each lexer latency bucket (and +Inf). */
+  protected long[] lexerBuckets  = new long[LATENCY_BUCKETS.length + 1];
+  protected long   lexerCount    = 0L;
+  protected double lexerSum      = 0.0;
+  
+  /** The (non cumulative) counts of each parser latency bucket (and +Inf). */
+  protected long[] parserBuckets = new long[LATENCY_BUCKETS.length + 1];
+  protected long   parserCount   = 0L;
+  protected double parserSum     = 0.0;
+  
+  /**
+   * Start serving the telemetry of a run which will process filesTotal 
+   * input files.
+   *
+   * @param port the loopback port on which to listen (0 for any free port).
+   */
+  public void start(int port, long filesTotal) throws IOException {
+    synchronized (this) {
+      this.filesTotal = filesTotal;
+      this.startNanos = System.nanoTime();
+    }
+    server = HttpServer.create(
+      new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port), 0);
+    server.createContext("/metrics", new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException {
+        byte[] body = render().getBytes("UTF-8");
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        out.write(body);
+        out.close();
+      }
+    });
+    server.start();
+  }
+  
+  /** The port on which the server is listening (or -1 if not started). */
+  public int getPort() {
+    if (server == null) return -1;
+    return server.getAddress().getPort();
+  }
+  
+  /** Stop serving (waiting for no exchanges to finish). */
+  public void stop() {
+    if (server == null) return;
+    server.stop(0);
+    server = null;
+  }
+  
+  /** Record the metrics of one more input file done. */
+  public synchronized void recordMetrics(Metrics metrics) {
+    filesDone++;
+    tokens       += positive(metrics.metric[Metrics.LEXER_NUM_TOKENS]);
+    nodes        += positive(metrics.metric[Metrics.PARSER_NUM_NODES]);
+    lexerErrors  += positive(metrics.metric[Metrics.LEXER_ERRORS]);
+    parserErrors += positive(metrics.metric[Metrics.PARSER_ERRORS]);
+    timeouts     += positive(metrics.metric[Metrics.TIMEOUTS]);
+    long lexerNanos = metrics.metric[Metrics.LEXER_NANOS];
+    if (0 <= lexerNanos) {
+      double seconds = lexerNanos / 1.0e9;
+      lexerBuckets[bucketIndex(seconds)]++;
+      lexerCount++;
+      lexerSum += seconds;
+    }
+    long parserNanos = metrics.metric[Metrics.PARSER_NANOS];
+    if (0 <= parserNanos) {
+      double seconds = parserNanos / 1.0e9;
+      parserBuckets[bucketIndex(seconds)]++;
+      parserCount++;
+      parserSum += seconds;
+    }
+  }
+  
+  /** Metrics which were not measured (-1) count as zero. */
+  protected static long positive(long value) {
+    return (0 < value) ? value : 0L;
+  }
+  
+  /** The index of the (smallest) latency bucket containing seconds. */
+  protected static int bucketIndex(double seconds) {
+    int index = 0;
+    while (index < LATENCY_BUCKETS.length && LATENCY_BUCKETS[index] < seconds) index++;
+    return index;
+  }
+  
+  /** Render the current telemetry in the OpenMetrics text format. */
+  public synchronized String render() {
+    StringBuilder out = new StringBuilder();
+    double elapsed = Math.max(System.nanoTime() - startNanos, 1L) / 1.0e9;
+    long filesRemaining = Math.max(filesTotal - filesDone, 0L);
+    
+    counter(out, "files_done", "Input files processed", filesDone);
+    counter(out, "tokens", "Tokens lexed", tokens);
+    counter(out, "nodes", "Parse tree nodes built", nodes);
+    counter(out, "lexer_errors", "Lexer syntax errors", lexerErrors);
+    counter(out, "parser_errors", "Parser syntax errors", parserErrors);
+    counter(out, "timeouts", "Input files whose parse timed out", timeouts);
+    gauge(out, "files_remaining", null, "Input files still to be processed", 
+          filesRemaining);
+    gauge(out, "tokens_per_second", null, "Tokens lexed per second of the run", 
+          tokens / elapsed);
+    gauge(out, "nodes_per_second", null, "Parse tree nodes per second of the run",
+          nodes / elapsed);
+    if (0 < filesDone) {
+      gauge(out, "remaining_seconds", "seconds", 
+            "Estimated time until all input files are processed",
+            filesRemaining * elapsed / filesDone);
+    }
+    gauge(out, "heap_used_bytes", "bytes", "Heap currently in use", 
+          ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+    histogram(out, "lexer_latency_seconds", "Lexer time per input file",
+              lexerBuckets, lexerCount, lexerSum);
+    histogram(out, "parser_latency_seconds", "Parser time per input file",
+              parserBuckets, parserCount, parserSum);
+    out.append("# EOF\n");
+    return out.toString();
+  }
+  
+  protected void counter(StringBuilder out, String name, String help, long value) {
+    out.append("# TYPE ").append(PREFIX).append(name).append(" counter\n");
+    out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+    out.append(PREFIX).append(name).append("_total ").append(value).append('\n');
+  }
+  
+  protected void gauge(StringBuilder out, String name, String unit, String help, 
+                       double value) {
+    out.append("# TYPE ").append(PREFIX).append(name).append(" gauge\n");
+    if (unit != null) {
+      out.append("# UNIT ").append(PREFIX).append(name).append(' ').append(unit).append('\n');
+    }
+    out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+    out.append(PREFIX).append(name).append(' ').append(value).append('\n');
+  }
+  
+  protected void histogram(StringBuilder out, String name, String help, 
+                           long[] buckets, long count, double sum) {
+    out.append("# TYPE ").append(PREFIX).append(name).append(" histogram\n");
+    out.append("# UNIT ").append(PREFIX).append(name).append(" seconds\n");
+    out.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+    long cumulative = 0L;
+    for (int i = 0; i < buckets.length; i++) {
+      cumulative += buckets[i];
+      String bound = (i < LATENCY_BUCKETS.length) ? 
+        Double.toString(LATENCY_BUCKETS[i]) : "+Inf";
+      out.append(PREFIX).append(name).append("_bucket{le=\"").append(bound)
+         .append("\"} ").append(cumulative).append('\n');
+    }
+    out.append(PREFIX).append(name).append("_count ").append(count).append('\n');
+    out.append(PREFIX).append(name).append("_sum ").append(sum).append('\n');
+  }
+}
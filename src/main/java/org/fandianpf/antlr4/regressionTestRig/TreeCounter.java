@@ -47,7 +47,12 @@ import org.antlr.v4.runtime.misc.NotNull;
 import java.util.Arrays;
 import java.util.List;
 
-/** TreeCounter computes complexity metrics for a parse tree. */
+/**
+ * TreeCounter computes complexity metrics for a parse tree.
+ * <p>
+ * The parse tree is walked using an explicit {@link TreeStack} (rather than
+ * recursion) so that arbitrarily deep parse trees can be counted.
+ */
 public class TreeCounter {
 
   /** The length of the longest branch in this tree. */
@@ -56,21 +61,33 @@ public class TreeCounter {
   /** The number of nodes (including terminal nodes) in this tree. */ 
   protected long numNodes  = 0L;
   
+  /** The stack used to walk the tree (reused for each tree counted). */
+  protected final TreeStack stack = new TreeStack();
+  
 	/** Base call to compute the complexity of this tree. */ 
 	public void countTree(@Nullable Tree t) {
 	  treeDepth = 0L;
 	  numNodes  = 0L;
-	  if (t != null) countTree(t, 1L);
+	  if (t == null) return;
+	  
+	  stack.push(t);
+	  int maxDepth = 1;
+	  long nodes   = 0L;
+	  while (!stack.isEmpty()) {
+	    Tree child = stack.nextChild();
+	    if (child == null) {
+	      stack.pop();
+	      continue;
+	    }
+	    nodes++;
+	    int childDepth = stack.size() + 1;
+	    if (maxDepth < childDepth) maxDepth = childDepth;
+	    // leaves need not be pushed since they have no children to visit
+	    if (0 < child.getChildCount()) stack.push(child);
+	  }
+	  treeDepth = maxDepth;
+	  numNodes  = nodes;
   }
-  
-	/** Recursive call to compute the complexity of this (sub)tree. */
-	protected void countTree(@NotNull Tree t, Long depth) {
-	  if (treeDepth < depth) treeDepth = depth;
-		for (int i = 0; i<t.getChildCount(); i++) {
-			countTree(t.getChild(i), depth+1);
-			numNodes++;
-		}
-	}
 
 	/** Get the length of the longest branch in the tree. */
 	public long getTreeDepth() { return treeDepth; }
@@ -0,0 +1,167 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.ErrorNode;
+import org.antlr.v4.runtime.tree.ParseTreeListener;
+import org.antlr.v4.runtime.tree.TerminalNode;
+
+import java.util.Arrays;
+
+/**
+ * TreeCounterListener provides a ParseTreeListener which computes the same
+ * complexity metrics as a {@link TreeCounter}, incrementally, from the 
+ * parser's event stream. It allows the metrics to be computed without the
+ * parser building a parse tree (see: Parser::setBuildParseTree).
+ * <p>
+ * Only the rule invocations which are active in the parser are held on the
+ * listener's stack, so the memory used is bounded by the depth of the rule 
+ * invocation stack, rather than the size of the (unbuilt) parse tree. For 
+ * each active rule invocation the stack records the height of the subtree 
+ * seen so far, so that the depth of the tree is computed bottom up. 
+ * <p>
+ * When a left recursive rule pushes a new recursion context, the current
+ * context is exited and then becomes the first child of the new context. 
+ * So the height of the last context exited is kept until the next event.
+ * <p>
+ * Note that tokens conjured up by the parser's error recovery are added to
+ * a parse tree without a listener event, and so are not counted. 
+ */
+public class TreeCounterListener implements ParseTreeListener {
+
+  /** The length of the longest branch in the tree. */
+  protected long treeDepth = 0L;
+  
+  /** The number of nodes (excluding the root) in the tree. */ 
+  protected long numNodes  = 0L;
+  
+  /** The active rule contexts. */
+  protected ParserRuleContext[] contexts = new ParserRuleContext[64];
+  
+  /** The height of the subtree (seen so far) of each active rule context. */
+  protected int[] heights = new int[64];
+  
+  /** The number of active rule contexts. */
+  protected int size = 0;
+  
+  /** The rule context most recently exited (if no event has followed). */
+  protected ParserRuleContext lastExited = null;
+  
+  /** The height of the subtree of the rule context most recently exited. */
+  protected int lastExitedHeight = 0;
+  
+  /** Constructor. */
+  public TreeCounterListener() { }
+  
+  /** Forget any previous tree, in preparation for a new parse. */
+  public void reset() {
+    while (0 < size) contexts[--size] = null;
+    lastExited = null;
+    treeDepth = 0L;
+    numNodes  = 0L;
+  }
+  
+	/** Get the length of the longest branch in the tree. */
+	public long getTreeDepth() { return treeDepth; }
+	
+	/** Get the total number of nodes (including terminal nodes) in this tree. */
+	public long getNumberOfNodes() { return numNodes; }
+	
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Push the rule context. A new left recursion context starts with the 
+   * height of its first child, the rule context just exited.
+   */
+  @Override
+  public void enterEveryRule(ParserRuleContext ctx) {
+    int height = 0;
+    if (lastExited != null && lastExited.parent == ctx) {
+      // either this context or (if it was the root) the context just 
+      // exited is a new node of the tree
+      height = lastExitedHeight;
+      numNodes++;
+    } else if (0 < size) {
+      // the root of the tree is not counted 
+      numNodes++;
+    }
+    lastExited = null;
+    if (size == contexts.length) {
+      contexts = Arrays.copyOf(contexts, 2*size);
+      heights  = Arrays.copyOf(heights, 2*size);
+    }
+    contexts[size] = ctx;
+    heights[size]  = height;
+    size++;
+  }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Count the terminal node.
+   */
+  @Override
+  public void visitTerminal(TerminalNode node) { countLeaf(); }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Count the error node.
+   */
+  @Override
+  public void visitErrorNode(ErrorNode node) { countLeaf(); }
+
+  /**
+   * {@inheritDoc}
+   * <p>
+   * Pop the rule context, adding its subtree's height to its parent. 
+   */
+  @Override
+  public void exitEveryRule(ParserRuleContext ctx) {
+    if (size == 0) return;
+    size--;
+    contexts[size] = null; // do not retain the context
+    int height = heights[size]+1;
+    lastExited = ctx;
+    lastExitedHeight = height;
+    if (0 < size) {
+      if (heights[size-1] < height) heights[size-1] = height;
+    } else if (treeDepth < height) {
+      treeDepth = height;
+    }
+  }
+  
+  /** Count a terminal or error node of the current rule context. */
+  protected void countLeaf() {
+    lastExited = null;
+    numNodes++;
+    if (0 < size && heights[size-1] < 1) heights[size-1] = 1;
+  }
+}
@@ -45,6 +45,7 @@ import org.antlr.v4.runtime.tree.TerminalNode;
 import org.antlr.v4.runtime.misc.Nullable;
 import org.antlr.v4.runtime.misc.NotNull;
 
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
 
@@ -54,6 +55,14 @@ import java.util.List;
  * 
  * This makes it easier for diff tools to identify the changes during 
  * regression testing
+ * <p>
+ * The parse tree can either be returned as a {@link String}, or streamed 
+ * directly into any {@link Appendable} (such as a {@link java.io.PrintStream} 
+ * or {@link java.io.Writer}) as the tree is walked. Streaming avoids holding 
+ * the whole printed tree in memory.
+ * <p>
+ * The parse tree is walked using an explicit {@link TreeStack} (rather than
+ * recursion) so that arbitrarily deep parse trees can be printed.
  */
 public class TreePrinter {
 
@@ -81,10 +90,37 @@ public class TreePrinter {
   protected List<String> ruleNames = null;
   
   /**
-   * The {@link StringBuilder} used to build up the printTree output across all 
+   * The {@link Appendable} used to output the printTree output across all 
    * recursive calls to {@link #printTree}.
    */
-  protected StringBuilder buf;
+  protected Appendable out;
+  
+  /**
+   * The indent string for one full indent cycle. See: {@link #setIndentDepth}.
+   */
+  protected String cycleIndent;
+  
+  /**
+   * The indent strings for the partial indent cycles, indexed by the number of
+   * primary indents. See: {@link #setIndentDepth}.
+   */
+  protected String[] partialIndents;
+  
+  /**
+   * The indent string for the current depth in the tree being printed. It is 
+   * grown and shrunk as the tree is walked, so that each line's indent is a 
+   * single append. See: {@link #setIndentDepth}.
+   */
+  protected final StringBuilder indent = new StringBuilder();
+  
+  /** The number of primary and secondary indents in {@link #indent}. */
+  protected int indentUnits = 0;
+  
+  /** The stack used to walk the tree (reused for each tree printed). */
+  protected final TreeStack stack = new TreeStack();
+  
+  /** A scratch buffer used to build the text of each token. */
+  protected final StringBuilder tokenText = new StringBuilder();
   
   /**
    * Build the correct indent string.
@@ -99,61 +135,139 @@ public class TreePrinter {
     return currentIndent + secondaryIndentAmount;
   }
   
+  /**
+   * Grow or shrink the current {@link #indent} to that for a given depth in 
+   * the parse tree.
+   *
+   * @param depth the depth in the parse tree (the root has depth zero).
+   */
+  protected void setIndentDepth(int depth) {
+    int numIndents = depth + 1;
+    if (numIndents < indentUnits) {
+      indent.setLength((numIndents / indentCyclePeriod) * cycleIndent.length() +
+        partialIndents[numIndents % indentCyclePeriod].length());
+      indentUnits = numIndents;
+    }
+    while (indentUnits < numIndents) {
+      indentUnits++;
+      if (indentUnits % indentCyclePeriod == 0) indent.append(secondaryIndentAmount);
+      else indent.append(primaryIndentAmount);
+    }
+  }
+  
 	/** 
 	 * Base call to print out a whole parse tree in indented form. 
 	 * {@link #appendNodeText} is used on the node payloads to get the text for the
 	 * nodes.  Detect parse trees and extract data appropriately.
 	 */
 	public String printTree(@Nullable Tree t) {
-	  if (t == null) return "<No parse tree found>";
-	  
-	  buf = new StringBuilder();
-	  
-    printTree(t, newIndent(""));
+	  StringBuilder buf = new StringBuilder();
+	  try {
+	    printTree(t, buf);
+	  } catch (IOException ioe) {
+	    // a StringBuilder never throws an IOException
+	  }
     return buf.toString();
   }
   
 	/** 
-	 * Recursive call to print out a sub-tree in indented form.
+	 * Base call to stream out a whole parse tree in indented form. 
+	 * The output is identical to that returned by {@link #printTree(Tree)}.
+	 *
+	 * @param t the parse tree to be printed.
+	 * @param anOutput the {@link Appendable} to which the tree is streamed.
+	 * @throws IOException if anOutput throws an IOException.
+	 */
+	public void printTree(@Nullable Tree t, @NotNull Appendable anOutput) 
+	  throws IOException {
+	  out = anOutput;
+	  try {
+	    if (t == null) {
+	      out.append("<No parse tree found>");
+	    } else {
+        printTree(t, 0);
+      }
+    } finally {
+      out = null;
+      stack.clear();
+    }
+  }
+  
+	/** 
+	 * Print out a (sub)tree, in indented form, by walking it depth first.
 	 * {@link #appendNodeText} is used on the node payloads to get the text for the
 	 * nodes. Detect parse trees and extract data appropriately.
+	 *
+	 * @param t the (sub)tree to be printed.
+	 * @param depth the depth of the (sub)tree's root in the whole tree.
 	 */
-	protected void printTree(@NotNull Tree t, String indent) {
-		buf.append("\n");
-		buf.append(indent);
+	protected void printTree(@NotNull Tree t, int depth) throws IOException {
+	  int baseSize = stack.size();
+	  printNode(t, depth);
+	  stack.push(t);
+	  while (baseSize < stack.size()) {
+	    Tree child = stack.nextChild();
+	    if (child == null) {
+	      stack.pop();
+	      continue;
+	    }
+	    printNode(child, depth + stack.size() - baseSize);
+	    stack.push(child);
+	  }
+	}
+
+	/** Print out a single node on its own (indented) line. */
+	protected void printNode(@NotNull Tree t, int depth) throws IOException {
+		out.append("\n");
+		setIndentDepth(depth);
+		out.append(indent);
 		appendNodeText(t);
-		String childIndent = newIndent(indent);
-		for (int i = 0; i<t.getChildCount(); i++) {
-			printTree(t.getChild(i), childIndent);
-		}
 	}
 
 	/**
 	 * Append the symbol and its position in the input text to the parse tree
-	 * buffer.
+	 * output.
 	 *
 	 * @param symbol the symbol which should be appended to the parse tree.
 	 * @return boolean true if symbol is not null, false otherwise.
 	 */
-	protected boolean appendToken(Token symbol) {
+	protected boolean appendToken(Token symbol) throws IOException {
 	  if (symbol != null) {
-		  buf.append("[");
-			String s = Utils.escapeWhitespace(symbol.getText(), false);
-			buf.append(s);
-			buf.append("]    (line ");
-			buf.append(String.valueOf(symbol.getLine()));
-			buf.append(":");
-			buf.append(String.valueOf(symbol.getCharPositionInLine()));
-			buf.append(")");
+	    tokenText.setLength(0);
+		  tokenText.append('[');
+			appendEscapedText(symbol.getText());
+			tokenText.append("]    (line ");
+			tokenText.append(symbol.getLine());
+			tokenText.append(':');
+			tokenText.append(symbol.getCharPositionInLine());
+			tokenText.append(')');
+			out.append(tokenText);
 			return true;
 		}
 		return false;
 	}
 	
+	/**
+	 * Append the text to the {@link #tokenText} buffer with any tabs, newlines
+	 * and carriage returns escaped (as {@link Utils#escapeWhitespace} does).
+	 */
+	protected void appendEscapedText(String text) {
+	  if (text == null) return;
+	  for (int i = 0; i < text.length(); i++) {
+	    char c = text.charAt(i);
+	    switch (c) {
+	      case '\t': tokenText.append("\\t"); break;
+	      case '\n': tokenText.append("\\n"); break;
+	      case '\r': tokenText.append("\\r"); break;
+	      default:   tokenText.append(c);
+	    }
+	  }
+	}
+	
 	/** Append the rule name for this rule context. */
-	protected boolean appendRule(RuleContext aRuleContext) {
+	protected boolean appendRule(RuleContext aRuleContext) throws IOException {
 	  if (aRuleContext != null) {
-	    buf.append(ruleNames.get(aRuleContext.getRuleIndex()));
+	    out.append(ruleNames.get(aRuleContext.getRuleIndex()));
 	    return true;
 	  }
 	  return false;
@@ -161,17 +275,17 @@ public class TreePrinter {
 	
 	/**
 	 * Determine some string representation for the given node and append it to
-	 * the parse tree buffer.
+	 * the parse tree output.
 	 *
 	 * @param t The sub-tree whose current node needs a string representation.
 	 */
-	protected void appendNodeText(@NotNull Tree t) {
+	protected void appendNodeText(@NotNull Tree t) throws IOException {
 		if ( ruleNames!=null ) {
 			if ( t instanceof RuleNode ) {
 				if (appendRule(((RuleNode)t).getRuleContext())) return;
 			}
 			if ( t instanceof ErrorNode) {
-			  buf.append("ERROR: ");
+			  out.append("ERROR: ");
 			  appendToken(((ErrorNode)t).getSymbol());
 			  return;
 			}
@@ -188,9 +302,9 @@ public class TreePrinter {
 		  if (appendRule((RuleContext)payload)) return;
 		}
 		String s = Utils.escapeWhitespace(payload.toString(), false);
-		buf.append("unknown payload <<");
-    buf.append(s);
-    buf.append(">>");
+		out.append("unknown payload <<");
+    out.append(s);
+    out.append(">>");
 	}
 
 	/**
@@ -221,6 +335,12 @@ public class TreePrinter {
 	    indentCycleLength = primaryIndentAmount.length() * (indentCyclePeriod - 1) + 
 	      secondaryIndentAmount.length();
 	  }
+	  partialIndents = new String[indentCyclePeriod];
+	  partialIndents[0] = "";
+	  for (int i = 1; i < indentCyclePeriod; i++) {
+	    partialIndents[i] = partialIndents[i-1] + primaryIndentAmount;
+	  }
+	  cycleIndent = partialIndents[indentCyclePeriod-1] + secondaryIndentAmount;
 		String[] ruleNamesArray = (recog != null) ? recog.getRuleNames() : null;
 		ruleNames = (ruleNamesArray != null) ? Arrays.asList(ruleNamesArray) : null;
 
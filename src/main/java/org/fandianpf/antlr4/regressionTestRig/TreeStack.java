@@ -0,0 +1,108 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.antlr.v4.runtime.tree.Tree;
+
+import java.util.Arrays;
+
+/**
+ * An explicit stack used to walk a parse tree, depth first, without 
+ * recursion.
+ * <p>
+ * Each entry records a (sub)tree and the index of its next child to be 
+ * visited. The stack's arrays only grow (by doubling) when the tree is deeper 
+ * than any tree walked before, so walking a tree allocates nothing per node,
+ * and the depth of the tree is limited only by the heap (not the thread 
+ * stack).
+ */
+public class TreeStack {
+
+  /** The (sub)trees on the stack. */
+  protected Tree[] trees = new Tree[64];
+
+  /** The index of the next child to be visited for each (sub)tree. */
+  protected int[] nextChild = new int[64];
+
+  /** The number of children of each (sub)tree. */
+  protected int[] childCount = new int[64];
+
+  /** The number of (sub)trees on the stack. */
+  protected int size = 0;
+
+  /** Constructor. */
+  public TreeStack() { }
+
+  /** Is the stack empty? */
+  public boolean isEmpty() { return size == 0; }
+
+  /** 
+   * The number of (sub)trees on the stack. This is also the depth (counting
+   * from one) of the (sub)tree on the top of the stack.
+   */
+  public int size() { return size; }
+
+  /** Push a (sub)tree, whose children have not yet been visited. */
+  public void push(Tree t) {
+    if (size == trees.length) {
+      trees      = Arrays.copyOf(trees, 2*size);
+      nextChild  = Arrays.copyOf(nextChild, 2*size);
+      childCount = Arrays.copyOf(childCount, 2*size);
+    }
+    trees[size]      = t;
+    nextChild[size]  = 0;
+    childCount[size] = t.getChildCount();
+    size++;
+  }
+
+  /**
+   * Get the next unvisited child of the (sub)tree on the top of the stack.
+   *
+   * @return the next child or null if all children have been visited.
+   */
+  public Tree nextChild() {
+    int top = size-1;
+    int childIndex = nextChild[top];
+    if (childCount[top] <= childIndex) return null;
+    nextChild[top] = childIndex+1;
+    return trees[top].getChild(childIndex);
+  }
+
+  /** Pop the (sub)tree on the top of the stack. */
+  public void pop() {
+    size--;
+    trees[size] = null; // do not retain the tree
+  }
+
+  /** Remove all (sub)trees from the stack. */
+  public void clear() {
+    while (0 < size) pop();
+  }
+}
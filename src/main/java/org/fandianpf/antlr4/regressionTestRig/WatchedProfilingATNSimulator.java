@@ -0,0 +1,65 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.atn.ATNConfig;
+import org.antlr.v4.runtime.atn.ATNConfigSet;
+import org.antlr.v4.runtime.atn.ProfilingATNSimulator;
+
+import java.util.Set;
+
+/**
+ * A ProfilingATNSimulator whose closures check for a timeout, so that the
+ * recorded (profiled) parse of a pathological input file, with -profile,
+ * can be aborted by its {@link ParseWatchdog} just as the 
+ * {@link CountingParserATNSimulator} allows for unprofiled parses.
+ */
+public class WatchedProfilingATNSimulator extends ProfilingATNSimulator {
+  
+  /** The watchdog of the current parse (or null). */
+  protected ParseWatchdog watchdog = null;
+  
+  /** Constructor which shares the DFA cache of the parser's simulator. */
+  public WatchedProfilingATNSimulator(Parser parser, ParseWatchdog aWatchdog) {
+    super(parser);
+    watchdog = aWatchdog;
+  }
+  
+  @Override
+  protected void closureCheckingStopState(ATNConfig config, ATNConfigSet configs,
+                                          Set<ATNConfig> closureBusy,
+                                          boolean collectPredicates,
+                                          boolean fullCtx, int depth,
+                                          boolean treatEofAsEpsilon) {
+    if (watchdog != null) watchdog.checkTimeout();
+    super.closureCheckingStopState(config, configs, closureBusy, 
+      collectPredicates, fullCtx, depth, treatEofAsEpsilon);
+  }
+}
@@ -0,0 +1,59 @@
+/*
+[The "BSD licence"]
+Copyright (c) 2014 FandianPF (Stephen Gaito)
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions
+are met:
+1. Redistributions of source code must retain the above copyright
+notice, this list of conditions and the following disclaimer.
+2. Redistributions in binary form must reproduce the above copyright
+notice, this list of conditions and the following disclaimer in the
+documentation and/or other materials provided with the distribution.
+3. The name of the author may not be used to endorse or promote products
+derived from this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+(INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+*/
+
+// A small expression grammar whose decisions are not all LL(1), used to test
+// the profiling of the parser's (adaptive) predictions. The e rule's decision
+// can only be resolved using full context (LL) prediction, since SLL
+// prediction merges the contexts of the a and b rules.
+
+grammar Expr;
+
+file : stat* EOF ;
+
+stat
+: expr ';'
+| '$' a ';'
+| '@' b ';'
+;
+
+a : e ID ;
+b : e INT ID ;
+e : INT | ;
+
+expr
+: expr ('*'|'/') expr
+| expr ('+'|'-') expr
+| ID '(' expr ')'
+| ID
+| INT
+| '(' expr ')'
+;
+
+ID  : [a-zA-Z]+ ;
+INT : [0-9]+ ;
+WS  : [ \t\r\n]+ -> skip ;
@@ -0,0 +1,94 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+ 
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.junit.Test
+
+/**
+ * Unit tests for the DFASnapshot class.
+ */
+class DFASnapshotTest {
+
+  String exprContentStr = "f(a+2)*b-c; \$ 34 abc; @ 34 abc;";
+
+  /** Parse the expression content, returning the results. */
+  String parse(RegressionTestRig rtr) {
+    ByteArrayOutputStream outBaos = new ByteArrayOutputStream();
+    rtr.processAnInputFile("stdIn", new StringReader(exprContentStr),
+                           new PrintStream(outBaos));
+    return outBaos.toString("UTF-8");
+  }
+
+  /** Test that a saved snapshot reloads into cleared DFA caches. */
+  @Test
+  void saveAndLoadTest() {
+    String[] args = [ "org.fandianpf.testParser.Expr", "file", "-tree", "-tokens" ];
+    RegressionTestRig rtr = new RegressionTestRig(args);
+    rtr.clearDFACache();
+    String results = parse(rtr);
+    int numLexerStates  = 
+      DFASnapshot.countStates(rtr.lexer.getInterpreter().decisionToDFA);
+    int numParserStates = 
+      DFASnapshot.countStates(rtr.parser.getInterpreter().decisionToDFA);
+    assert 0 < numLexerStates;
+    assert 0 < numParserStates;
+    
+    File snapshotFile = File.createTempFile("regressionTestRig", ".dfa");
+    DFASnapshot snapshot = new DFASnapshot(snapshotFile.getPath());
+    snapshot.save(rtr.lexer, rtr.parser, "aGrammarHash");
+    assert 0 < snapshot.getNumStates();
+    assert snapshot.getNumStates() <= numLexerStates + numParserStates;
+    
+    rtr.clearDFACache();
+    assert DFASnapshot.countStates(rtr.lexer.getInterpreter().decisionToDFA) == 0;
+    
+    // a snapshot of a different grammar is ignored
+    DFASnapshot loaded = new DFASnapshot(snapshotFile.getPath());
+    assert !loaded.load(rtr.lexer, rtr.parser, "anotherGrammarHash");
+    assert DFASnapshot.countStates(rtr.lexer.getInterpreter().decisionToDFA) == 0;
+    
+    assert loaded.load(rtr.lexer, rtr.parser, "aGrammarHash");
+    assert loaded.getNumStates() == snapshot.getNumStates();
+    assert loaded.getNumSkippedDFAs() == snapshot.getNumSkippedDFAs();
+    assert DFASnapshot.countStates(rtr.lexer.getInterpreter().decisionToDFA) == 
+      numLexerStates;
+    
+    // the loaded DFA states are used (rather than rebuilt) by prediction
+    assert parse(rtr) == results;
+    assert DFASnapshot.countStates(rtr.lexer.getInterpreter().decisionToDFA) == 
+      numLexerStates;
+    assert DFASnapshot.countStates(rtr.parser.getInterpreter().decisionToDFA) == 
+      numParserStates;
+    
+    snapshotFile.delete();
+    assert !loaded.load(rtr.lexer, rtr.parser, "aGrammarHash");
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+ 
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.junit.Test
+
+/**
+ * Unit tests for the IncrementalCache class.
+ */
+class IncrementalCacheTest {
+  
+  /** Test the saving and (re)loading of the cache file. */
+  @Test
+  void saveLoadTest() {
+    File cacheFile = File.createTempFile("incrementalCache", ".txt");
+    cacheFile.delete();
+    IncrementalCache cache = new IncrementalCache(cacheFile.getPath());
+    cache.load(); // a missing cache is empty
+    assert cache.size() == 0;
+    
+    String fingerprint = IncrementalCache.fingerprint("in", "grammar", "options");
+    assert !cache.isUnchanged("docA", fingerprint);
+    cache.update("docA", fingerprint);
+    cache.update("docB", IncrementalCache.fingerprint("in2", "grammar", "options"));
+    cache.update("docC", null);
+    assert cache.isUnchanged("docA", fingerprint);
+    cache.save();
+    assert cacheFile.text.startsWith(IncrementalCache.CACHE_HEADER);
+    
+    cacheFile.append("malformed line\n");
+    IncrementalCache loaded = new IncrementalCache(cacheFile.getPath());
+    loaded.load();
+    assert loaded.size() == 2;
+    assert loaded.isUnchanged("docA", fingerprint);
+    assert !loaded.isUnchanged("docB", fingerprint);
+    assert !loaded.isUnchanged("docC", null);
+    cacheFile.delete();
+  }
+  
+  /** Test the hashing of files, strings and classes. */
+  @Test
+  void hashTest() {
+    File aFile = File.createTempFile("incrementalCache", ".txt");
+    aFile.text = "abc";
+    // the well known SHA-256 of "abc"
+    String abcHash = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+    assert IncrementalCache.hashFile(aFile.getPath()) == abcHash;
+    assert IncrementalCache.hashString("abc") == abcHash;
+    aFile.delete();
+    
+    String grammarHash = IncrementalCache.hashClasses(
+      org.fandianpf.testParser.CSVLexer, org.fandianpf.testParser.CSVParser);
+    assert grammarHash.length() == 64;
+    assert grammarHash == IncrementalCache.hashClasses(
+      org.fandianpf.testParser.CSVLexer, null, org.fandianpf.testParser.CSVParser);
+    assert grammarHash != IncrementalCache.hashClasses(org.fandianpf.testParser.CSVLexer);
+    assert IncrementalCache.fingerprint(null, grammarHash, "options") == null;
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.junit.Test;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * Unit tests for the MappedFileInputStream class.
+ */
+class MappedFileInputStreamTest {
+
+  /** Write the text into a temporary file using the given encoding. */
+  File tempFile(String text, String encoding) {
+    File file = File.createTempFile("mappedFileInputStream", ".txt");
+    file.deleteOnExit();
+    file.setText(text, encoding);
+    return file;
+  }
+
+  /** Check that a MappedFileInputStream matches an ANTLRInputStream. */
+  void assertSameStream(ANTLRInputStream mapped, String text) {
+    ANTLRInputStream expected = new ANTLRInputStream(new StringReader(text));
+    assert mapped.size() == expected.size();
+    assert mapped.getText(Interval.of(0, mapped.size()-1)) == text;
+    for (int i = 1; i <= expected.size(); i++) {
+      assert mapped.LA(1) == expected.LA(1);
+      mapped.consume();
+      expected.consume();
+    }
+    assert mapped.LA(1) == ANTLRInputStream.EOF;
+  }
+
+  /** Test decoding single and multi-byte characters. */
+  @Test
+  void decodeTest() {
+    // (non-ASCII characters are escaped to keep this source file ASCII)
+    String text = "a,b,\"c\"\n\u00fc\u00f1\u00ef,\u00e7\u00f8d\u00e9,\u4e2d\u6587\n";
+    File file = tempFile(text, "UTF-8");
+    MappedFileInputStream mapped = new MappedFileInputStream(file.getPath(), "UTF-8");
+    assert mapped.getSourceName() == file.getPath();
+    assertSameStream(mapped, text);
+    
+    String latinText = text.substring(0, 16);
+    file = tempFile(latinText, "ISO-8859-1");
+    assertSameStream(new MappedFileInputStream(file.getPath(), "ISO-8859-1"), latinText);
+  }
+
+  /**
+   * Test that multi-byte characters which straddle the boundary between two
+   * mapped windows are decoded correctly.
+   */
+  @Test
+  void windowBoundaryTest() {
+    String text = "\u4e2d\u6587\u00fc" * 50 + "end";
+    File file = tempFile(text, "UTF-8");
+    for (int windowSize = 4; windowSize < 12; windowSize++) {
+      assertSameStream(new MappedFileInputStream(file.getPath(), "UTF-8", windowSize), text);
+    }
+  }
+
+  /** Test an empty file. */
+  @Test
+  void emptyFileTest() {
+    File file = tempFile("", "UTF-8");
+    MappedFileInputStream mapped = new MappedFileInputStream(file.getPath(), "UTF-8");
+    assert mapped.size() == 0;
+    assert mapped.LA(1) == ANTLRInputStream.EOF;
+  }
+}
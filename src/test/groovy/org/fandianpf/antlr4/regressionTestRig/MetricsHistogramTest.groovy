@@ -0,0 +1,172 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.junit.Test
+
+/**
+ * Unit tests for the MetricsHistogram class.
+ */
+class MetricsHistogramTest {
+  
+  /** The (nearest rank) value of the given rank of the sorted values. */
+  long exactValueAtRank(List<Long> sorted, long rank) {
+    return sorted[(int)Math.max(1, Math.min(rank, sorted.size())) - 1];
+  }
+  
+  /** Is the value within the relative error of the histogram? */
+  boolean isClose(long value, long exact) {
+    return Math.abs(value - exact) <= exact/MetricsHistogram.SUB_BUCKET_COUNT;
+  }
+  
+  /**
+   * Test that every value is counted by the bucket whose lower value and 
+   * width contain it, and that the buckets are contiguous.
+   */
+  @Test
+  void bucketIndexTest() {
+    long nextLowerValue = 0;
+    int maxIndex = MetricsHistogram.bucketIndex(Long.MAX_VALUE);
+    assert maxIndex < 64*MetricsHistogram.SUB_BUCKET_COUNT;
+    for (int index = 0; index <= maxIndex; index++) {
+      long lower = MetricsHistogram.bucketLowerValue(index);
+      long width = MetricsHistogram.bucketWidth(index);
+      assert lower == nextLowerValue;
+      assert MetricsHistogram.bucketIndex(lower) == index;
+      assert MetricsHistogram.bucketIndex(lower + width - 1) == index;
+      nextLowerValue = lower + width;
+    }
+    // the last bucket ends with Long.MAX_VALUE
+    assert nextLowerValue == Long.MIN_VALUE;
+    assert MetricsHistogram.bucketIndex(127) == 127;
+  }
+  
+  /**
+   * Test the median, MAD and percentiles of (long tailed) timing like 
+   * values against their exact values, and that the memory used stays 
+   * bounded.
+   */
+  @Test
+  void quantilesTest() {
+    Random random = new Random(4);
+    MetricsHistogram histogram = new MetricsHistogram();
+    List<Long> values = [];
+    for (int i = 0; i < 100000; i++) {
+      // mostly near 2ms, with occasional (GC like) outliers of up to 50ms 
+      long value = (long)(2000000*Math.exp(0.1*random.nextGaussian()));
+      if (random.nextInt(100) == 0) value += random.nextInt(50000000);
+      values.add(value);
+      histogram.add(value);
+    }
+    histogram.add(-1L);
+    assert histogram.getTotalCount() == 100000;
+    List<Long> sorted = values.sort(false);
+    long n = sorted.size();
+    
+    long median = histogram.getMedian();
+    long exactMedian = exactValueAtRank(sorted, (long)((n+1)/2));
+    assert isClose(median, exactMedian);
+    assert isClose(histogram.getValueAtQuantile(0.90), 
+                   exactValueAtRank(sorted, (long)Math.ceil(0.90*n)));
+    assert isClose(histogram.getValueAtQuantile(0.99), 
+                   exactValueAtRank(sorted, (long)Math.ceil(0.99*n)));
+    assert histogram.getValueAtQuantile(0.0) == sorted[0];
+    assert histogram.getValueAtQuantile(1.0) == sorted[-1];
+    
+    List<Long> deviations = values.collect { Math.abs(it - exactMedian) }.sort();
+    long exactMad = exactValueAtRank(deviations, (long)((n+1)/2));
+    assert Math.abs(histogram.getMedianAbsoluteDeviation() - exactMad) <= 
+      2*exactMedian/MetricsHistogram.SUB_BUCKET_COUNT;
+    
+    // the outliers hardly move the median, but dominate the mean
+    assert median < 2100000;
+    assert 2100000 < values.sum()/n;
+    
+    // about 5 powers of two of buckets are used
+    assert histogram.counts.length <= 8*MetricsHistogram.SUB_BUCKET_COUNT;
+  }
+  
+  /**
+   * Test the (analytic) bootstrap confidence interval of the median against
+   * a (Monte Carlo) bootstrap by resampling.
+   */
+  @Test
+  void medianConfidenceIntervalTest() {
+    Random random = new Random(7);
+    MetricsHistogram histogram = new MetricsHistogram();
+    List<Long> values = [];
+    for (int i = 0; i < 101; i++) {
+      long value = 100 + random.nextInt(27);
+      values.add(value);
+      histogram.add(value);
+    }
+    int n = values.size();
+    List<Long> resampledMedians = [];
+    for (int b = 0; b < 2000; b++) {
+      List<Long> resample = [];
+      for (int i = 0; i < n; i++) resample.add(values[random.nextInt(n)]);
+      resampledMedians.add(resample.sort()[(n+1).intdiv(2) - 1]);
+    }
+    resampledMedians.sort();
+    long lower = histogram.getMedianLowerBound();
+    long upper = histogram.getMedianUpperBound();
+    assert lower <= histogram.getMedian();
+    assert histogram.getMedian() <= upper;
+    assert Math.abs(lower - resampledMedians[49])   <= 1;
+    assert Math.abs(upper - resampledMedians[1949]) <= 1;
+  }
+  
+  /**
+   * Test the statistics of empty and single valued histograms.
+   */
+  @Test
+  void smallHistogramTest() {
+    MetricsHistogram histogram = new MetricsHistogram();
+    assert histogram.getMedian() == -1L;
+    assert histogram.getMedianAbsoluteDeviation() == -1L;
+    assert histogram.getValueAtQuantile(0.99) == -1L;
+    assert histogram.getMedianLowerBound() == -1L;
+    
+    histogram.add(123456789L);
+    assert histogram.getMedian() == 123456789L;
+    assert histogram.getMedianAbsoluteDeviation() == 0L;
+    assert histogram.getValueAtQuantile(0.90) == 123456789L;
+    assert histogram.getMedianLowerBound() == 123456789L;
+    assert histogram.getMedianUpperBound() == 123456789L;
+    
+    histogram.clear();
+    assert histogram.getTotalCount() == 0;
+    histogram.add(5L);
+    histogram.add(3L);
+    histogram.add(1000000L);
+    assert histogram.getMedian() == 5L;
+    assert histogram.getMedianAbsoluteDeviation() == 2L;
+  }
+}
@@ -55,14 +55,14 @@ class MetricsHistoryTest {
     metricsHistory.loadValues(Metrics.METRIC_TYPE[2], "0.1,0.2,0.3,0.4,5.0,6,7,8,9,10,,12,nonLongValue,14");
     metricsHistory.computeStats();
 //    assert metricsHistory.getNumValues() == 8;
-    assert metricsHistory.metricsHistory.size() == 10;
-    assert metricsHistory.metricsHistory.get(0).metric[2] == 5;
-    assert metricsHistory.metricsHistory.get(1).metric[2] == 6;
-    assert metricsHistory.metricsHistory.get(5).metric[2] == 10;
-    assert metricsHistory.metricsHistory.get(6).metric[2] == -1;
-    assert metricsHistory.metricsHistory.get(7).metric[2] == 12;
-    assert metricsHistory.metricsHistory.get(8).metric[2] == -1;
-    assert metricsHistory.metricsHistory.get(9).metric[2] == 14;
+    assert metricsHistory.size() == 10;
+    assert metricsHistory.getMetrics(0).metric[2] == 5;
+    assert metricsHistory.getMetrics(1).metric[2] == 6;
+    assert metricsHistory.getMetrics(5).metric[2] == 10;
+    assert metricsHistory.getMetrics(6).metric[2] == -1;
+    assert metricsHistory.getMetrics(7).metric[2] == 12;
+    assert metricsHistory.getMetrics(8).metric[2] == -1;
+    assert metricsHistory.getMetrics(9).metric[2] == 14;
   }
   
   /**
@@ -72,11 +72,12 @@ class MetricsHistoryTest {
   void loadValuesWrongTypeTest() {
     MetricsHistory metricsHistory = new MetricsHistory();
     metricsHistory.loadValues("NoType", "0.1,0.2,0.3,0.4,5.0,6,7,8,9,10,,12,nonLongValue,14");
-    assert metricsHistory.metricsHistory.size() == 0;
+    assert metricsHistory.size() == 0;
   }
   
   /**
-   * Test the saving of metrics values (and min, mean, stdDev, and max) into a
+   * Test the saving of metrics values (and min, mean, stdDev, max, and the
+   * robust statistics) into a
    * PrintStream.
    * <p>
    * Values which are negative are output as white space.
@@ -91,7 +92,8 @@ class MetricsHistoryTest {
     metricsHistory.saveIntoFile("testDocName", ps);
     String content = baos.toString("UTF-8");
     assert content.startsWith("\"testDocName\",\"t00LexerTimes\",5,8.875,3.");
-    assert content.contains(",14,5,6,7,8,9,10,,12,,14\n");
+    // max, median, mad, p90, p99, medianLow95, medianHigh95, values
+    assert content.contains(",14,8,2,14,14,6,10,5,6,7,8,9,10,,12,,14\n");
   }
   
   /**
@@ -107,4 +109,119 @@ class MetricsHistoryTest {
     assert Math.abs(metricsHistory.stdDev.metric[0]-3.04431) < 0.001;
     assert metricsHistory.max.metric[0] == 14;
   }
+  
+  /**
+   * Compute the (two pass) statistics of the non-negative values of one
+   * metricType, as a reference for the online statistics.
+   */
+  private static List twoPassStats(List<Long> values) {
+    List<Long> measured = values.findAll { it >= 0 };
+    double sum = 0.0;
+    for (long value : measured) { sum += value; }
+    double mean = measured.size() ? sum/measured.size() : 0.0;
+    double sumDevMean = 0.0;
+    for (long value : measured) { sumDevMean += (value - mean)*(value - mean); }
+    double stdDev = (1 < measured.size()) ? 
+      Math.sqrt(sumDevMean/(measured.size()-1)) : 0.0;
+    return [ measured.min(), mean, stdDev, measured.max() ];
+  }
+  
+  /**
+   * Test that the online statistics, maintained as metrics are appended and
+   * values are replaced, agree with the two pass statistics.
+   */
+  @Test
+  void onlineStatsTest() {
+    Random random = new Random(42);
+    MetricsHistory metricsHistory = new MetricsHistory();
+    List<List<Long>> values = [];
+    for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
+      values.add([]);
+    }
+    for (int i = 0; i < 100; i++) {
+      Metrics metrics = new Metrics();
+      for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
+        long value = (random.nextInt(10) == 0) ? -1L : 
+          1000000L + random.nextInt(1000);
+        metrics.metric[metricType] = value;
+        values[metricType].add(value);
+      }
+      metricsHistory.appendMetrics(metrics);
+    }
+    // replace a few values (both measured and unmeasured)
+    for (int i = 0; i < 10; i++) {
+      int index = random.nextInt(100);
+      metricsHistory.setValue(index, 3, 2000000L + i);
+      values[3][index] = 2000000L + i;
+    }
+    
+    metricsHistory.computeStats();
+    assert metricsHistory.size() == 100;
+    for (int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
+      List stats = twoPassStats(values[metricType]);
+      assert metricsHistory.min.metric[metricType]  == stats[0];
+      assert metricsHistory.mean.metric[metricType] == stats[1];
+      assert Math.abs(metricsHistory.stdDev.metric[metricType] - stats[2]) < 1e-6;
+      assert metricsHistory.max.metric[metricType]  == stats[3];
+      for (int i = 0; i < 100; i++) {
+        assert metricsHistory.getValue(i, metricType) == values[metricType][i];
+      }
+    }
+    
+    // the statistics follow any further metrics
+    Metrics metrics = new Metrics();
+    metrics.metric[0] = 1L;
+    metricsHistory.appendMetrics(metrics);
+    metricsHistory.computeStats();
+    assert metricsHistory.size() == 101;
+    assert metricsHistory.min.metric[0] == 1L;
+    assert metricsHistory.max.metric[1] == twoPassStats(values[1])[3];
+  }
+  
+  /**
+   * Test the statistics of histories with none or only one metrics.
+   */
+  @Test
+  void computeStatsSmallTest() {
+    MetricsHistory metricsHistory = new MetricsHistory();
+    metricsHistory.computeStats();
+    assert metricsHistory.min.metric[0]    == Long.MAX_VALUE;
+    assert metricsHistory.max.metric[0]    == Long.MIN_VALUE;
+    assert metricsHistory.mean.metric[0]   == 0.0;
+    assert metricsHistory.stdDev.metric[0] == 0.0;
+    
+    Metrics metrics = new Metrics();
+    metrics.metric[0] = 10L;
+    metricsHistory.appendMetrics(metrics);
+    metricsHistory.computeStats();
+    assert metricsHistory.min.metric[0]    == 10L;
+    assert metricsHistory.max.metric[0]    == 10L;
+    assert metricsHistory.mean.metric[0]   == 10.0;
+    assert metricsHistory.stdDev.metric[0] == 0.0;
+    assert metricsHistory.min.metric[1]    == -1L;
+    
+    // the history holds copies of the metrics
+    metrics.metric[0] = 20L;
+    assert metricsHistory.getValue(0, 0) == 10L;
+    assert metricsHistory.getValue(1, 0) == -1L;
+  }
+  
+  /**
+   * Test that setValue grows the history with unmeasured runs.
+   */
+  @Test
+  void setValueTest() {
+    MetricsHistory metricsHistory = new MetricsHistory();
+    metricsHistory.setValue(20, 2, 7L);
+    assert metricsHistory.size() == 21;
+    assert metricsHistory.getValue(20, 2) == 7L;
+    assert metricsHistory.getValue(19, 2) == -1L;
+    assert metricsHistory.getValue(20, 1) == -1L;
+    metricsHistory.setValue(0, 2, 3L);
+    metricsHistory.computeStats();
+    assert metricsHistory.min.metric[2]  == 3L;
+    assert metricsHistory.mean.metric[2] == 5.0;
+    assert metricsHistory.max.metric[2]  == 7L;
+    assert metricsHistory.min.metric[1]  == Long.MAX_VALUE;
+  }
 }
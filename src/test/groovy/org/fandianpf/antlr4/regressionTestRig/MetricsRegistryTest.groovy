@@ -0,0 +1,132 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+ 
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.junit.Test
+
+/**
+ * Unit tests for the MetricsRegistry and its discovery of MetricProviders.
+ */
+class MetricsRegistryTest {
+  
+  /** 
+   * Test that the PhaseTimesMetricProvider and the test resources' 
+   * TestMetricProvider are discovered and their metric types are registered,
+   * in provider class name order, after the built-in metric types.
+   */
+  @Test
+  void registryTest() {
+    int phaseTimesId = MetricsRegistry.NUM_BUILT_IN_METRICS;
+    int firstId = phaseTimesId + 6;
+    assert MetricsRegistry.getNumProviders() == 2;
+    assert Metrics.NUM_METRICS == firstId + 2;
+    assert Metrics.strType2int("t07LexerCPUNanos")   == phaseTimesId;
+    assert Metrics.strType2int("t48ParserJITMillis") == phaseTimesId + 5;
+    assert MetricsRegistry.getMetricUnit(phaseTimesId) == "ns";
+    assert RegressionCheck.isTimingMetric(phaseTimesId + 5);
+    assert Metrics.METRIC_TYPE.length == Metrics.NUM_METRICS;
+    assert Metrics.strType2int("t90TestPhaseStarts") == firstId;
+    assert Metrics.strType2int("T91TESTPHASEENDS")   == firstId + 1;
+    assert MetricsRegistry.getMetricType(Metrics.GC_MILLIS) == "t44GCMillis";
+    assert MetricsRegistry.getMetricUnit(Metrics.PARSER_NANOS) == "ns";
+    assert MetricsRegistry.getMetricUnit(firstId + 1) == "count";
+    assert MetricsRegistry.getMetricUnit(Metrics.NUM_METRICS) == null;
+    assert !RegressionCheck.isTimingMetric(firstId);
+    
+    List<MetricProvider> providers = MetricsRegistry.newProviders();
+    assert providers.size() == 2;
+    assert providers[0] instanceof PhaseTimesMetricProvider;
+    assert providers[1] instanceof TestMetricProvider;
+    assert providers[1].getMetricId(1) == firstId + 1;
+    assert !MetricsRegistry.newProviders()[1].is(providers[1]);
+  }
+  
+  /** 
+   * Test that the rig calls its providers around the lexing and parsing of
+   * each input file.
+   */
+  @Test
+  void providerPhasesTest() {
+    int startsId = Metrics.strType2int("t90TestPhaseStarts");
+    int endsId   = Metrics.strType2int("t91TestPhaseEnds");
+    Closure parse = { String startRuleName ->
+      RegressionTestRig rtr = new RegressionTestRig(
+        [ "org.fandianpf.testParser.Expr", startRuleName ] as String[]);
+      rtr.processAnInputFile("stdIn", new StringReader("f(a+2)*b-c;"),
+                             new PrintStream(new ByteArrayOutputStream()));
+    }
+    
+    Metrics metrics = parse("file");
+    assert metrics.metric[startsId] == 3;
+    assert metrics.metric[endsId]   == 3;
+    
+    metrics = parse("tokens");
+    assert metrics.metric[startsId] == 2;
+    assert metrics.metric[endsId]   == 2;
+  }
+  
+  /**
+   * Test that a metrics store run block names the provided metrics, so that
+   * they are loaded by name even if the provided metric ids change.
+   */
+  @Test
+  void storeNamedMetricsTest() {
+    File storeFile = File.createTempFile("metricsRegistryTest", ".rtrm");
+    storeFile.deleteOnExit();
+    storeFile.delete();
+    Metrics metrics = new Metrics();
+    int startsId = Metrics.strType2int("t90TestPhaseStarts");
+    metrics.metric[Metrics.LEXER_NUM_TOKENS] = 12;
+    metrics.metric[startsId] = 3;
+    MetricsTable runTable = new MetricsTable();
+    runTable.appendMetrics("doc", metrics);
+    new MetricsStore(storeFile.getPath()).appendRun(runTable);
+    
+    // swap the names of the two provided metrics in the stored block
+    byte[] bytes = storeFile.bytes;
+    String storeStr = new String(bytes, "ISO-8859-1");
+    int startsAt = storeStr.indexOf("t90TestPhaseStarts");
+    int endsAt   = storeStr.indexOf("t91TestPhaseEnds");
+    assert 0 < startsAt && startsAt < endsAt;
+    storeStr = storeStr.substring(0, startsAt-4)+
+      storeStr.substring(endsAt-4, endsAt+16)+
+      storeStr.substring(startsAt-4, startsAt+18)+
+      storeStr.substring(endsAt+16);
+    storeFile.bytes = storeStr.getBytes("ISO-8859-1");
+    
+    MetricsTable loadedTable = new MetricsTable();
+    new MetricsStore(storeFile.getPath()).loadMetricsTable(loadedTable);
+    Metrics loaded = loadedTable.getMetricsHistory("doc").getMetrics(0);
+    assert loaded.metric[Metrics.LEXER_NUM_TOKENS] == 12;
+    assert loaded.metric[startsId]     == -1;
+    assert loaded.metric[startsId + 1] == 3;
+  }
+}
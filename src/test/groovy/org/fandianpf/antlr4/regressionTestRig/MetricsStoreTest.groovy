@@ -0,0 +1,198 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+/**
+ * Unit tests for the MetricsStore class.
+ */
+class MetricsStoreTest {
+  
+  /** Create the metrics of one run of one test document. */
+  Metrics someMetrics(long value) {
+    Metrics metrics = new Metrics();
+    for (int i = 0; i < Metrics.NUM_METRICS; i++) metrics.metric[i] = value + i;
+    return metrics;
+  }
+  
+  /** Create an (empty) temporary metrics store file. */
+  File tempStoreFile() {
+    File storeFile = File.createTempFile("metricsStore", ".bin");
+    storeFile.deleteOnExit();
+    return storeFile;
+  }
+  
+  /**
+   * Test that each appended run only adds one run block to the store, and
+   * that loading the store re-creates the metrics histories of each test 
+   * document (including documents which are not part of every run).
+   */
+  @Test
+  void appendRunTest() {
+    File storeFile = tempStoreFile();
+    MetricsStore store = new MetricsStore(storeFile.getPath());
+    
+    MetricsTable runTable = new MetricsTable();
+    runTable.appendMetrics("docA", someMetrics(100));
+    runTable.appendMetrics("docB", someMetrics(200));
+    store.appendRun(runTable);
+    long firstLength = storeFile.length();
+    
+    runTable = new MetricsTable();
+    runTable.appendMetrics("docA", someMetrics(110));
+    runTable.appendMetrics("docC", someMetrics(300));
+    store.appendRun(runTable);
+    // the second block has two documents and one new testDocName (and 
+    // names the metrics of any MetricProviders)
+    long namedMetricsBytes = 0;
+    if (MetricsRegistry.NUM_BUILT_IN_METRICS < Metrics.NUM_METRICS) {
+      namedMetricsBytes = 4;
+      for (int i = MetricsRegistry.NUM_BUILT_IN_METRICS; i < Metrics.NUM_METRICS; i++) {
+        namedMetricsBytes += 4 + Metrics.METRIC_TYPE[i].length();
+      }
+    }
+    assert storeFile.length() == 
+      firstLength + 12 + namedMetricsBytes + (4 + 4) + 4 + 2*(4 + 8*Metrics.NUM_METRICS);
+    
+    MetricsStore loadedStore = new MetricsStore(storeFile.getPath());
+    MetricsTable loadedTable = new MetricsTable();
+    loadedStore.loadMetricsTable(loadedTable);
+    assert loadedStore.getNumberOfRuns() == 2;
+    assert loadedTable.getTestDocNames() as List == [ "docA", "docB", "docC" ];
+    MetricsHistory docA = loadedTable.getMetricsHistory("docA");
+    assert docA.size() == 2;
+    assert docA.getMetrics(0).metric == someMetrics(100).metric;
+    assert docA.getMetrics(1).metric == someMetrics(110).metric;
+    assert loadedTable.getMetricsHistory("docB").size() == 1;
+    assert loadedTable.getMetricsHistory("docC").getMetrics(0).metric == 
+      someMetrics(300).metric;
+  }
+  
+  /**
+   * Test that a partly written run block is ignored when loading, and 
+   * replaced by the next run block appended.
+   */
+  @Test
+  void partlyWrittenRunTest() {
+    File storeFile = tempStoreFile();
+    MetricsStore store = new MetricsStore(storeFile.getPath());
+    MetricsTable runTable = new MetricsTable();
+    runTable.appendMetrics("docA", someMetrics(100));
+    store.appendRun(runTable);
+    long firstLength = storeFile.length();
+    store.appendRun(runTable);
+    
+    RandomAccessFile raf = new RandomAccessFile(storeFile, "rw");
+    raf.setLength(storeFile.length() - 5);
+    raf.close();
+    
+    MetricsTable loadedTable = new MetricsTable();
+    store.loadMetricsTable(loadedTable);
+    assert store.getNumberOfRuns() == 1;
+    assert loadedTable.getMetricsHistory("docA").size() == 1;
+    
+    runTable = new MetricsTable();
+    runTable.appendMetrics("docB", someMetrics(200));
+    store.appendRun(runTable);
+    loadedTable = new MetricsTable();
+    store.loadMetricsTable(loadedTable);
+    assert store.getNumberOfRuns() == 2;
+    assert loadedTable.getMetricsHistory("docA").size() == 1;
+    assert loadedTable.getMetricsHistory("docB").getMetrics(0).metric == 
+      someMetrics(200).metric;
+  }
+  
+  /** Test that run blocks with fewer metrics (older stores) can be loaded. */
+  @Test
+  void fewerMetricsTest() {
+    File storeFile = tempStoreFile();
+    DataOutputStream out = new DataOutputStream(new FileOutputStream(storeFile));
+    out.writeInt(MetricsStore.MAGIC);
+    out.writeInt(MetricsStore.VERSION);
+    out.writeInt(MetricsStore.BLOCK_MAGIC);
+    out.writeInt(2);               // numMetrics
+    out.writeInt(1);               // numNewTestDocs
+    out.writeInt(4);
+    out.write("docA".getBytes("UTF-8"));
+    out.writeInt(1);               // numTestDocs
+    out.writeInt(0);               // testDocId
+    out.writeLong(12L);
+    out.writeLong(34L);
+    out.close();
+    
+    MetricsTable loadedTable = new MetricsTable();
+    new MetricsStore(storeFile.getPath()).loadMetricsTable(loadedTable);
+    Metrics metrics = loadedTable.getMetricsHistory("docA").getMetrics(0);
+    assert metrics.metric[Metrics.LEXER_TIMINGS] == 12L;
+    assert metrics.metric[Metrics.PARSER_TIMINGS] == 34L;
+    assert metrics.metric[Metrics.PARSER_FALLBACKS] == -1L;
+  }
+  
+  /** 
+   * Test converting a CSV formated metrics table into a metrics store and
+   * back again.
+   */
+  @Test
+  void convertTest() {
+    MetricsTable metricsTable = new MetricsTable();
+    metricsTable.appendMetrics("docA", someMetrics(100));
+    metricsTable.appendMetrics("docA", someMetrics(110));
+    metricsTable.appendMetrics("docA", someMetrics(120));
+    metricsTable.appendMetrics("docB", someMetrics(200));
+    Metrics unmeasured = someMetrics(300);
+    unmeasured.metric[Metrics.AMBIGUITIES] = -1L;
+    metricsTable.appendMetrics("doc\u00e9", unmeasured);
+    File csvFile = File.createTempFile("metricsTable", ".csv");
+    csvFile.deleteOnExit();
+    metricsTable.saveMetricsTable(csvFile.getPath());
+    
+    File storeFile = tempStoreFile();
+    MetricsStore.main([ "-fromCSV", storeFile.getPath(), csvFile.getPath() ] as String[]);
+    MetricsStore store = new MetricsStore(storeFile.getPath());
+    MetricsTable loadedTable = new MetricsTable();
+    store.loadMetricsTable(loadedTable);
+    assert store.getNumberOfRuns() == 3;
+    assert loadedTable.getMetricsHistory("docA").getMetrics(2).metric == 
+      someMetrics(120).metric;
+    assert loadedTable.getMetricsHistory("doc\u00e9").getMetrics(0).metric == 
+      unmeasured.metric;
+    
+    File roundTripFile = File.createTempFile("metricsTable", ".csv");
+    roundTripFile.deleteOnExit();
+    MetricsStore.main([ "-toCSV", storeFile.getPath(), roundTripFile.getPath() ] as String[]);
+    assert roundTripFile.getText("UTF-8") == csvFile.getText("UTF-8");
+  }
+}
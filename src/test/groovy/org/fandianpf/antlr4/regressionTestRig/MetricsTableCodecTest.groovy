@@ -0,0 +1,141 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+/**
+ * Unit tests for the MetricsTableCodec class.
+ */
+class MetricsTableCodecTest {
+  
+  /** A metrics table exercising the corners of the CSV format. */
+  String metricsTableStr = 
+    "\"testDocName\",\"metricType\",\"min\",\"mean\",\"stdDev\",\"max\",\"values\"\n"+
+    "\"docA\",\"t00LexerTimes\",1,3.0,1.58,5,1,2,3,4,5\n"+
+    "\"docA\",\"t01ParserTimes\",1,3.0,1.58,5,2,,6.7,x,10,12,,\r\n"+
+    "\"docA\",\"tUnknown\",1,3.0,1.58,5,2,4\r"+
+    "not a testDoc line\n"+
+    "\"docB\",\"t10LexerTokens\",0,0.0,0,0,-3,123456789012345678901,9\n"+
+    "\"docB\",\"t12ParserNodes\",0,0.0,0,0"+(",7"*5000)+"\n"+
+    "\n"+
+    "\"docC\",\"t20LexerErrors\",1,1.0,0,1,1";
+  
+  /** Load a metrics table using the original line by line loader. */
+  MetricsTable loadLineByLine(String aMetricsTableStr) {
+    MetricsTable metricsTable = new MetricsTable();
+    BufferedReader metricsBuffer = 
+      new BufferedReader(new StringReader(aMetricsTableStr));
+    metricsBuffer.readLine();
+    for (String curLine = metricsBuffer.readLine(); 
+         curLine!=null; curLine = metricsBuffer.readLine()) {
+      if (!curLine.startsWith("\"")) continue;
+      MetricsTableLineParser lp = new MetricsTableLineParser(curLine);
+      metricsTable.addTestDocName(lp.testDocName);
+      metricsTable.getMetricsHistory(lp.testDocName).loadValues(lp.metricsType, lp.restOfLine);
+    }
+    return metricsTable;
+  }
+  
+  /** Check that two metrics tables contain the same metrics. */
+  void assertSameMetrics(MetricsTable expected, MetricsTable actual) {
+    assert actual.getTestDocNames() == expected.getTestDocNames();
+    for (String testDocName : expected.getTestDocNames()) {
+      MetricsHistory expectedHistory = expected.getMetricsHistory(testDocName);
+      MetricsHistory actualHistory   = actual.getMetricsHistory(testDocName);
+      assert actualHistory.size() == expectedHistory.size();
+      for (int i = 0; i < expectedHistory.size(); i++) {
+        assert actualHistory.getMetrics(i).metric == expectedHistory.getMetrics(i).metric;
+      }
+    }
+  }
+  
+  /**
+   * Test that the codec loads exactly the same metrics as the original line
+   * by line loader, also when lines span (or are longer than) its buffer.
+   */
+  @Test
+  void loadMetricsTableTest() {
+    MetricsTable expected = loadLineByLine(metricsTableStr);
+    assert expected.getMetricsHistory("docA").getValue(2, Metrics.PARSER_TIMINGS) == 6;
+    
+    MetricsTable loaded = new MetricsTable();
+    new MetricsTableCodec().loadMetricsTable(new StringReader(metricsTableStr), loaded);
+    assertSameMetrics(expected, loaded);
+    
+    [ 1, 2, 3, 7, 64 ].each { int bufferSize ->
+      MetricsTableCodec codec = new MetricsTableCodec();
+      codec.buffer = new char[bufferSize];
+      loaded = new MetricsTable();
+      codec.loadMetricsTable(new StringReader(metricsTableStr), loaded);
+      assertSameMetrics(expected, loaded);
+    }
+  }
+  
+  /**
+   * Test that the codec saves exactly the same CSV as the original 
+   * MetricsHistory::saveIntoFile, and that the saved table can be re-loaded.
+   */
+  @Test
+  void saveMetricsTableTest() {
+    MetricsTable metricsTable = new MetricsTable();
+    for (int run = 0; run < 3; run++) {
+      Metrics metrics = new Metrics();
+      for (int i = 0; i < Metrics.NUM_METRICS; i++) metrics.metric[i] = 1000*run + i;
+      metrics.metric[Metrics.AMBIGUITIES] = -1L;
+      metricsTable.appendMetrics("docA", metrics);
+      if (run == 1) metricsTable.appendMetrics("docB", metrics);
+    }
+    
+    ByteArrayOutputStream expectedBaos = new ByteArrayOutputStream();
+    PrintStream expectedPs = new PrintStream(expectedBaos);
+    MetricsHistory.saveHeaderIntoFile(expectedPs);
+    for (String testDocName : metricsTable.getTestDocNames()) {
+      metricsTable.getMetricsHistory(testDocName).saveIntoFile(testDocName, expectedPs);
+    }
+    expectedPs.flush();
+    
+    StringWriter writer = new StringWriter();
+    new MetricsTableCodec().saveMetricsTable(metricsTable, writer);
+    assert writer.toString() == expectedBaos.toString();
+    // large standard deviations are not grouped (which would add fields)
+    assert writer.toString().contains("\"docA\",\"t00LexerTimes\",0,1000.0,1000,2000,1003,997,2000,2000,0,2000,0,1000,2000");
+    
+    MetricsTable loaded = new MetricsTable();
+    new MetricsTableCodec().loadMetricsTable(new StringReader(writer.toString()), loaded);
+    assertSameMetrics(metricsTable, loaded);
+  }
+}
@@ -49,8 +49,8 @@ class MetricsTableTest {
     metricsTable.appendMetrics("testDocName", someMetrics);
     assert metricsTable.metricsTable.containsKey("testDocName");
     MetricsHistory metricsHistory = metricsTable.metricsTable.get("testDocName");
-    assert metricsHistory.metricsHistory.size() == 1;
-    assert metricsHistory.metricsHistory.get(0).metric[0] == 10L;
+    assert metricsHistory.size() == 1;
+    assert metricsHistory.getMetrics(0).metric[0] == 10L;
   }
   
   /**
@@ -83,31 +83,31 @@ class MetricsTableTest {
     MetricsTable metricsTable = new MetricsTable();
     metricsTable.loadMetricsTable(metricsBuffer);
     MetricsHistory metricsHistory  = metricsTable.metricsTable.get("testDocName");
-    assert metricsHistory.metricsHistory.size() == 6;
-    assert metricsHistory.metricsHistory.get(0).metric[Metrics.LEXER_TIMINGS]   == 1;
-    assert metricsHistory.metricsHistory.get(0).metric[Metrics.PARSER_TIMINGS]  == 2;
-    assert metricsHistory.metricsHistory.get(0).metric[Metrics.LEXER_ERRORS]    == 3;
-    assert metricsHistory.metricsHistory.get(0).metric[Metrics.PARSER_ERRORS]   == 4;
-    assert metricsHistory.metricsHistory.get(0).metric[Metrics.AMBIGUITIES]     == -1;
-    assert metricsHistory.metricsHistory.get(0).metric[Metrics.WEAK_CONTEXTS]   == -1;
-    assert metricsHistory.metricsHistory.get(0).metric[Metrics.STRONG_CONTEXTS] == -1;
+    assert metricsHistory.size() == 6;
+    assert metricsHistory.getMetrics(0).metric[Metrics.LEXER_TIMINGS]   == 1;
+    assert metricsHistory.getMetrics(0).metric[Metrics.PARSER_TIMINGS]  == 2;
+    assert metricsHistory.getMetrics(0).metric[Metrics.LEXER_ERRORS]    == 3;
+    assert metricsHistory.getMetrics(0).metric[Metrics.PARSER_ERRORS]   == 4;
+    assert metricsHistory.getMetrics(0).metric[Metrics.AMBIGUITIES]     == -1;
+    assert metricsHistory.getMetrics(0).metric[Metrics.WEAK_CONTEXTS]   == -1;
+    assert metricsHistory.getMetrics(0).metric[Metrics.STRONG_CONTEXTS] == -1;
 
-    assert metricsHistory.metricsHistory.get(4).metric[Metrics.LEXER_TIMINGS]   == 5;
-    assert metricsHistory.metricsHistory.get(4).metric[Metrics.PARSER_TIMINGS]  == 10;
-    assert metricsHistory.metricsHistory.get(4).metric[Metrics.LEXER_ERRORS]    == 15;
-    assert metricsHistory.metricsHistory.get(4).metric[Metrics.PARSER_ERRORS]   == 20;
-    assert metricsHistory.metricsHistory.get(4).metric[Metrics.AMBIGUITIES]     == -1;
-    assert metricsHistory.metricsHistory.get(4).metric[Metrics.WEAK_CONTEXTS]   == -1;
-    assert metricsHistory.metricsHistory.get(4).metric[Metrics.STRONG_CONTEXTS] == -1;
+    assert metricsHistory.getMetrics(4).metric[Metrics.LEXER_TIMINGS]   == 5;
+    assert metricsHistory.getMetrics(4).metric[Metrics.PARSER_TIMINGS]  == 10;
+    assert metricsHistory.getMetrics(4).metric[Metrics.LEXER_ERRORS]    == 15;
+    assert metricsHistory.getMetrics(4).metric[Metrics.PARSER_ERRORS]   == 20;
+    assert metricsHistory.getMetrics(4).metric[Metrics.AMBIGUITIES]     == -1;
+    assert metricsHistory.getMetrics(4).metric[Metrics.WEAK_CONTEXTS]   == -1;
+    assert metricsHistory.getMetrics(4).metric[Metrics.STRONG_CONTEXTS] == -1;
 
-    assert metricsHistory.metricsHistory.get(5).metric[Metrics.PARSER_TIMINGS] == 12;
+    assert metricsHistory.getMetrics(5).metric[Metrics.PARSER_TIMINGS] == 12;
   }
   
   /**
    * Test the saveMetricsTable method.
    * <p>
-   * The tested metrics has one testDoc, and so has 11 lines of output (a header 
-   * and a line each for the 10 metric types).
+   * The tested metrics has one testDoc, and so has a header line and a line
+   * for each of the registered metric types.
    */
   @Test
   void saveMetricsTableTest() {
@@ -125,7 +125,7 @@ class MetricsTableTest {
     String metricsContent = metricsBaos.toString("UTF-8");
     String[] metricsLines = metricsContent.split("\n");
     
-    assert metricsLines.length  == 11;
+    assert metricsLines.length  == 1 + Metrics.NUM_METRICS;
     
     assert metricsLines[1].startsWith("\"testDocName\",\"t00LexerTimes\",1,3.0,1.");
     assert metricsLines[1].endsWith(",5,1,2,3,4,5");
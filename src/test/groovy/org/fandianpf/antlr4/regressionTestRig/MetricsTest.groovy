@@ -53,6 +53,23 @@ class MetricsTest {
     assert Metrics.strType2int("t30Ambiguities")    == 7;
     assert Metrics.strType2int("t31WeakContexts")   == 8;
     assert Metrics.strType2int("t32StrongContexts") == 9;
+    assert Metrics.strType2int("t02LexerNanos")     == 10;
+    assert Metrics.strType2int("t03ParserNanos")    == 11;
+    assert Metrics.strType2int("t04ParserStage1Nanos") == 12;
+    assert Metrics.strType2int("t05ParserStage2Nanos") == 13;
+    assert Metrics.strType2int("t06ParserFallbacks")   == 14;
+    assert Metrics.strType2int("t33LexerDFAStates")    == 15;
+    assert Metrics.strType2int("t34LexerDFAEdges")     == 16;
+    assert Metrics.strType2int("t35LexerDFAMisses")    == 17;
+    assert Metrics.strType2int("t36ParserDFAStates")   == 18;
+    assert Metrics.strType2int("t37ParserDFAEdges")    == 19;
+    assert Metrics.strType2int("t38ParserDFAMisses")   == 20;
+    assert Metrics.strType2int("t22Timeouts")          == 21;
+    assert Metrics.strType2int("t40LexerAllocBytes")   == 22;
+    assert Metrics.strType2int("t41ParserAllocBytes")  == 23;
+    assert Metrics.strType2int("t42RetainedHeapBytes") == 24;
+    assert Metrics.strType2int("t43GCCount")           == 25;
+    assert Metrics.strType2int("t44GCMillis")          == 26;
   }
   
   /**
@@ -71,7 +88,24 @@ class MetricsTest {
       "t21ParserErrors",
       "t30Ambiguities",
       "t31WeakContexts",
-      "t32StrongContexts"
+      "t32StrongContexts",
+      "t02LexerNanos",
+      "t03ParserNanos",
+      "t04ParserStage1Nanos",
+      "t05ParserStage2Nanos",
+      "t06ParserFallbacks",
+      "t33LexerDFAStates",
+      "t34LexerDFAEdges",
+      "t35LexerDFAMisses",
+      "t36ParserDFAStates",
+      "t37ParserDFAEdges",
+      "t38ParserDFAMisses",
+      "t22Timeouts",
+      "t40LexerAllocBytes",
+      "t41ParserAllocBytes",
+      "t42RetainedHeapBytes",
+      "t43GCCount",
+      "t44GCMillis"
     ]
     String strTypesStr =
       strTypes[0]+"\n"+
@@ -83,12 +117,29 @@ class MetricsTest {
       strTypes[6]+"\n"+
       strTypes[7]+"\n"+
       strTypes[8]+"\n"+
-      strTypes[9]+"\n";
+      strTypes[9]+"\n"+
+      strTypes[10]+"\n"+
+      strTypes[11]+"\n"+
+      strTypes[12]+"\n"+
+      strTypes[13]+"\n"+
+      strTypes[14]+"\n"+
+      strTypes[15]+"\n"+
+      strTypes[16]+"\n"+
+      strTypes[17]+"\n"+
+      strTypes[18]+"\n"+
+      strTypes[19]+"\n"+
+      strTypes[20]+"\n"+
+      strTypes[21]+"\n"+
+      strTypes[22]+"\n"+
+      strTypes[23]+"\n"+
+      strTypes[24]+"\n"+
+      strTypes[25]+"\n"+
+      strTypes[26]+"\n";
       
     StringReader   strTypesReader = new StringReader(strTypesStr);
     BufferedReader strTypesBuffer = new BufferedReader(strTypesReader);
     
-    for( int metricType = 0; metricType < Metrics.NUM_METRICS; metricType++) {
+    for( int metricType = 0; metricType < strTypes.length; metricType++) {
       String aLine = strTypesBuffer.readLine()
       assert aLine == strTypes[metricType];
       if (aLine!=null) assert Metrics.strType2int(aLine) == metricType;
@@ -0,0 +1,106 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.junit.Test;
+
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.atn.DecisionInfo;
+
+import org.fandianpf.testParser.CSVParser;
+
+/**
+ * Unit tests for the ProfileTable class.
+ */
+class ProfileTableTest {
+
+  /** Build a DecisionInfo as collected by the ProfilingATNSimulator. */
+  DecisionInfo decisionInfo(int decision, long invocations, long time) {
+    DecisionInfo info = new DecisionInfo(decision);
+    info.invocations      = invocations;
+    info.timeInPrediction = time;
+    info.SLL_TotalLook    = 2*invocations;
+    info.SLL_MaxLook      = 3;
+    info.LL_Fallback      = 1;
+    info.LL_TotalLook     = 4;
+    info.LL_MaxLook       = 4;
+    return info;
+  }
+
+  /** Test adding, merging and ordering the decision profiles. */
+  @Test
+  void addDecisionInfoTest() {
+    CSVParser parser = new CSVParser((TokenStream)null);
+    ProfileTable pt = new ProfileTable();
+    assert pt.isEmpty();
+    
+    DecisionInfo[] infos = [
+      decisionInfo(0, 10, 100),
+      decisionInfo(1, 0, 0),
+      decisionInfo(2, 5, 500)
+    ];
+    pt.addDecisionInfo(parser, infos);
+    assert !pt.isEmpty();
+    assert pt.getDecisionProfile(1) == null;
+    assert pt.getTotalInvocations() == 15;
+    assert pt.getTotalTimeInPrediction() == 600;
+    assert pt.getDecisionProfile(2).getSLLAverageLook() == 2.0;
+    assert pt.getDecisionProfile(2).getLLAverageLook() == 4.0;
+    
+    ProfileTable corpus = new ProfileTable();
+    corpus.addProfileTable(pt);
+    corpus.addProfileTable(pt);
+    assert corpus.getTotalInvocations() == 30;
+    assert corpus.getDecisionProfile(0).SLL_MaxLook == 3;
+    assert corpus.getDecisionProfile(0).LL_Fallback == 2;
+    
+    List<ProfileTable.DecisionProfile> byCost = corpus.getDecisionsByCost();
+    assert byCost.size() == 2;
+    assert byCost[0].decision == 2;
+    assert byCost[1].decision == 0;
+    assert byCost[0].ruleName == 
+      parser.getRuleNames()[parser.getATN().decisionToState.get(2).ruleIndex];
+  }
+  
+  /** Test that the profile table is printed most costly decision first. */
+  @Test
+  void printProfileTableTest() {
+    ProfileTable pt = new ProfileTable();
+    pt.addDecisionInfo(null, [ decisionInfo(0, 10, 100), 
+                               decisionInfo(1, 10, 900) ] as DecisionInfo[]);
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    pt.printProfileTable(new PrintStream(baos));
+    String[] lines = baos.toString().split("\n");
+    assert lines.length == 3;
+    assert lines[0].contains("timeInPredNanos");
+    assert lines[1].trim().startsWith("1 ");
+    assert lines[2].trim().startsWith("0 ");
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+ 
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.junit.Test
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+
+/**
+ * Unit tests for the RegressionCheck class.
+ */
+class RegressionCheckTest {
+  
+  /** 
+   * Build a metrics table holding one document whose parser nanos and 
+   * parse tree nodes are given by the runs (the last run is the newest).
+   */
+  MetricsTable buildTable(List<Long> parserNanos, List<Long> parserNodes) {
+    MetricsTable metricsTable = new MetricsTable();
+    for (int i = 0; i < parserNanos.size(); i++) {
+      Metrics metrics = new Metrics();
+      metrics.metric[Metrics.PARSER_NANOS]     = parserNanos[i];
+      metrics.metric[Metrics.PARSER_NUM_NODES] = parserNodes[i];
+      metricsTable.appendMetrics("doc", metrics);
+    }
+    return metricsTable;
+  }
+  
+  /** Test that only significant slow downs of the timings are regressions. */
+  @Test
+  void timingRegressionTest() {
+    List<Long> baseline = [ 1000, 1010, 990, 1005, 995, 1002 ];
+    List<Long> nodes    = [ 7 ]*7;
+    RegressionCheck regressionCheck = new RegressionCheck();
+    
+    // within the noise of the baseline
+    assert regressionCheck.check(buildTable(baseline + [ 1012L ], nodes), ["doc"]).isEmpty();
+    // faster is never a regression
+    assert regressionCheck.check(buildTable(baseline + [ 500L ], nodes), ["doc"]).isEmpty();
+    // unusual, but less than the 10% change threshold
+    assert regressionCheck.check(buildTable(baseline + [ 1080L ], nodes), ["doc"]).isEmpty();
+    
+    List regressions = regressionCheck.check(buildTable(baseline + [ 1200L ], nodes), ["doc"]);
+    assert regressions.size() == 1;
+    assert regressions[0].testDocName == "doc";
+    assert regressions[0].metricType  == Metrics.PARSER_NANOS;
+    assert regressions[0].value       == 1200L;
+    assert Math.abs(regressions[0].getRelativeChange() - 0.2) < 0.02;
+    assert 3.0 < regressions[0].score;
+    
+    // a larger change threshold
+    assert regressionCheck.setThresholds("t03ParserNanos=3:25");
+    assert regressionCheck.check(buildTable(baseline + [ 1200L ], nodes), ["doc"]).isEmpty();
+    
+    // too short a baseline
+    assert new RegressionCheck().check(buildTable([ 1000L, 1000L, 1200L ], [ 7L ]*3), ["doc"]).isEmpty();
+  }
+  
+  /** 
+   * Test that the robust test still detects a slow down when the baseline
+   * contains (GC like) outliers, which hide it from the stdDev test.
+   */
+  @Test
+  void robustTestTest() {
+    List<Long> runs  = [ 1000, 1010, 990, 1005, 995, 1002, 9000, 1003, 997, 1500L ];
+    List<Long> nodes = [ 7 ]*runs.size();
+    MetricsTable metricsTable = buildTable(runs, nodes);
+    
+    RegressionCheck regressionCheck = new RegressionCheck();
+    assert regressionCheck.check(metricsTable, ["doc"]).size() == 1;
+    
+    assert regressionCheck.setStatisticalTest("stdDev");
+    assert regressionCheck.check(metricsTable, ["doc"]).isEmpty();
+    assert !regressionCheck.setStatisticalTest("unknown");
+  }
+  
+  /** 
+   * Test that any change of a structural metric, from its last baseline 
+   * value, is a regression, ranked before any timing regression.
+   */
+  @Test
+  void structuralRegressionTest() {
+    List<Long> runs  = [ 1000, 1010, 990, 1005, 2000L ];
+    MetricsTable metricsTable = buildTable(runs, [ 5L, 5L, 7L, 7L, 6L ]);
+    Metrics metrics = new Metrics();
+    metrics.metric[Metrics.PARSER_NUM_NODES] = 3;
+    metricsTable.appendMetrics("other", metrics);
+    metrics = new Metrics();
+    metrics.metric[Metrics.PARSER_NUM_NODES] = 3;
+    metricsTable.appendMetrics("other", metrics);
+    
+    RegressionCheck regressionCheck = new RegressionCheck();
+    List regressions = regressionCheck.check(metricsTable, ["other", "doc"]);
+    assert regressions.size() == 2;
+    assert regressions[0].metricType == Metrics.PARSER_NUM_NODES;
+    assert regressions[0].baseline   == 7.0;
+    assert regressions[0].value      == 6L;
+    assert Double.isInfinite(regressions[0].score);
+    assert regressions[1].metricType == Metrics.PARSER_NANOS;
+    
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    PrintStream ps = new PrintStream(baos);
+    regressionCheck.printReport(regressions, ps);
+    String report = baos.toString("UTF-8");
+    assert report.contains("Regression check (robust test): 2 regressed metric(s)");
+    assert report.contains("1. doc t12ParserNodes: 6 nodes (baseline 7, -14.29%, changed)\n");
+    assert report.contains("2. doc t03ParserNanos: 2000 ns (baseline 1003, +99.4%, score ");
+    
+    // changes within the change threshold are ignored
+    assert regressionCheck.setThresholds("t12ParserNodes=0:20");
+    assert regressionCheck.check(metricsTable, ["doc"]).size() == 1;
+    assert !regressionCheck.setThresholds("t12ParserNodes");
+    assert !regressionCheck.setThresholds("tUnknown=1");
+    assert !regressionCheck.setThresholds("t12ParserNodes=x");
+  }
+}
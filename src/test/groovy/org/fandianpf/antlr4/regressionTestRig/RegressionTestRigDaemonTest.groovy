@@ -0,0 +1,214 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+ 
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+/**
+ * Unit tests for the RegressionTestRigDaemon class.
+ */
+class RegressionTestRigDaemonTest {
+  
+  RegressionTestRigDaemon daemon;
+  Thread daemonThread;
+  
+  /** Start a daemon on any free (loopback) port. */
+  @Before
+  void startDaemon() {
+    daemon = new RegressionTestRigDaemon(0);
+    daemonThread = Thread.start { daemon.serve() };
+  }
+  
+  @After
+  void stopDaemon() {
+    daemon.stop();
+    daemonThread.join(10000);
+  }
+  
+  /** 
+   * Send one request to the daemon.
+   *
+   * @return the lines of the daemon's response.
+   */
+  List<String> request(List<String> args, 
+                       String workingDir = System.getProperty("user.dir"),
+                       String token = daemon.getTokenFile().readLines()[0]) {
+    Socket socket = new Socket(InetAddress.getByName(null), daemon.getPort());
+    try {
+      Writer writer = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+      writer.write(RegressionTestRigDaemon.PROTOCOL_VERSION+"\n"+token+"\n"+
+                   workingDir+"\n"+args.size()+"\n");
+      args.each { writer.write(RegressionTestRigDaemon.escapeArgument(it)+"\n") };
+      writer.flush();
+      return socket.getInputStream().newReader("UTF-8").readLines();
+    } finally {
+      socket.close();
+    }
+  }
+  
+  /**
+   * Test that the daemon runs each request (keeping the metricsTable 
+   * between runs) and reports its console output and exit status.
+   */
+  @Test
+  void runRequestTest() {
+    File inputFile = File.createTempFile("regressionTestRig", ".csv");
+    inputFile.setText(getClass().getResource("/testDocs/example1.csv").text, "UTF-8");
+    File tableFile = File.createTempFile("regressionTestRig", ".metrics.csv");
+    tableFile.delete();
+    List<String> args = [
+      "org.fandianpf.testParser.CSV", "file",
+      "-metrics", tableFile.getPath(),
+      inputFile.getPath()
+    ];
+    
+    List<String> response = request(args);
+    assert response.contains("RegressionTestRig: parsing ["+inputFile.getPath()+"]");
+    assert response[-1] == RegressionTestRigDaemon.EXIT_MARKER+"0";
+    assert new File(inputFile.getPath()+".result").exists();
+    MetricsTable cachedTable = daemon.metricsTables.get(tableFile.getPath()).metricsTable;
+    assert cachedTable.getMetricsHistory(inputFile.getPath()).size() == 1;
+    
+    // the metricsTable is kept between runs
+    response = request(args);
+    assert response[-1] == RegressionTestRigDaemon.EXIT_MARKER+"0";
+    assert daemon.metricsTables.get(tableFile.getPath()).metricsTable.is(cachedTable);
+    assert cachedTable.getMetricsHistory(inputFile.getPath()).size() == 2;
+    
+    // ... unless its file has been changed by someone else
+    tableFile.text = MetricsHistory.CSV_HEADER+"\n";
+    response = request(args);
+    cachedTable = daemon.metricsTables.get(tableFile.getPath()).metricsTable;
+    assert cachedTable.getMetricsHistory(inputFile.getPath()).size() == 1;
+    
+    // failing runs
+    response = request([ "org.fandianpf.testParser.CSV" ]);
+    assert response[-1] == RegressionTestRigDaemon.EXIT_MARKER+
+      RegressionTestRigDaemon.FAILURE_EXIT_STATUS;
+    response = request([ "org.fandianpf.NoSuchGrammar", "file", inputFile.getPath() ]);
+    assert response.find { it.startsWith("ERROR: Can't load") };
+    assert response[-1] == RegressionTestRigDaemon.EXIT_MARKER+
+      RegressionTestRigDaemon.FAILURE_EXIT_STATUS;
+    
+    inputFile.delete();
+    new File(inputFile.getPath()+".result").delete();
+    tableFile.delete();
+  }
+  
+  /**
+   * Test that the daemon declines requests which read stdin, or which come
+   * from another working directory, and that it can be stopped.
+   */
+  @Test
+  void declineRequestTest() {
+    assert request([ "org.fandianpf.testParser.CSV", "file" ]) == 
+      [ RegressionTestRigDaemon.DECLINED_MARKER ];
+    assert request([ "org.fandianpf.testParser.CSV", "file", "aFile" ], "/anotherDir") == 
+      [ RegressionTestRigDaemon.DECLINED_MARKER ];
+    // without the daemon's token
+    assert request([ "org.fandianpf.testParser.CSV", "file", "aFile" ], 
+                   System.getProperty("user.dir"), "aGuessedToken") == 
+      [ RegressionTestRigDaemon.DECLINED_MARKER ];
+    
+    List<String> response = request([ RegressionTestRigDaemon.STOP_ARGUMENT ]);
+    assert response[-1] == RegressionTestRigDaemon.EXIT_MARKER+"0";
+    daemonThread.join(10000);
+    assert !daemonThread.isAlive();
+    assert !daemon.getTokenFile().exists();
+  }
+  
+  /**
+   * Test that the token file can only be read by the daemon's user, and 
+   * that a client which never completes its request does not block other
+   * clients.
+   */
+  @Test
+  void tokenAndTimeoutTest() {
+    File tokenFile = daemon.getTokenFile();
+    assert tokenFile == RegressionTestRigDaemon.getTokenFile(
+      new File(System.getProperty("user.dir")), daemon.getPort());
+    assert tokenFile.readLines()[0].length() == 64;
+    if (java.nio.file.FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+      assert java.nio.file.Files.getPosixFilePermissions(tokenFile.toPath()).collect { 
+        it.toString() } as Set == [ "OWNER_READ", "OWNER_WRITE" ] as Set;
+    }
+    
+    daemon.requestTimeout = 200;
+    Socket idleClient = new Socket(InetAddress.getByName(null), daemon.getPort());
+    try {
+      idleClient.getOutputStream().write(
+        (RegressionTestRigDaemon.PROTOCOL_VERSION+"\n").getBytes("UTF-8"));
+      idleClient.getOutputStream().flush();
+      assert request([ "org.fandianpf.testParser.CSV", "file" ]) == 
+        [ RegressionTestRigDaemon.DECLINED_MARKER ];
+    } finally {
+      idleClient.close();
+    }
+  }
+  
+  /** Test that empty arguments, and those containing newlines, are sent intact. */
+  @Test
+  void escapeArgumentTest() {
+    [ "", "a", "a b", "a\nb", "a\\nb", "\\", "\n\\\n", "c:\\dir\\" ].each {
+      String escaped = RegressionTestRigDaemon.escapeArgument(it);
+      assert !escaped.contains("\n");
+      assert RegressionTestRigDaemon.unescapeArgument(escaped) == it;
+    }
+  }
+  
+  /**
+   * Test that the daemon notices re-compiled grammar classes whatever the
+   * start rule of the request, since every start rule shares the loaded 
+   * classes.
+   */
+  @Test
+  void recompiledGrammarTest() {
+    File inputFile = File.createTempFile("regressionTestRig", ".csv");
+    inputFile.setText(getClass().getResource("/testDocs/example1.csv").text, "UTF-8");
+    
+    List<String> response = request([ "org.fandianpf.testParser.CSV", "file", 
+                                       inputFile.getPath() ]);
+    assert response[-1] == RegressionTestRigDaemon.EXIT_MARKER+"0";
+    assert daemon.grammarHashes.containsKey("org.fandianpf.testParser.CSVParser");
+    
+    // pretend that the parser class file has changed since it was loaded
+    daemon.grammarHashes["org.fandianpf.testParser.CSVParser"] = "aStaleHash";
+    response = request([ "org.fandianpf.testParser.CSV", "row", inputFile.getPath() ]);
+    assert response == [ RegressionTestRigDaemon.DECLINED_MARKER ];
+    daemonThread.join(10000);
+    assert !daemonThread.isAlive();
+    
+    inputFile.delete();
+    new File(inputFile.getPath()+".result").delete();
+  }
+}
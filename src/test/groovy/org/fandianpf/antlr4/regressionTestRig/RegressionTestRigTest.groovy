@@ -34,8 +34,11 @@ package org.fandianpf.antlr4.regressionTestRig;
 
 import org.junit.Test
 
+import java.lang.reflect.Method;
+
 import org.antlr.v4.runtime.Lexer;
 import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
 
 import org.fandianpf.testParser.CSVLexer;
 import org.fandianpf.testParser.CSVParser;
@@ -53,17 +56,35 @@ class RegressionTestRigTest {
       "aGrammarName",
       "aStartRule",
       "-tree",
+      "-treeless",
       "-tokens",
       "-trace",
       "-SLL",
+      "-twoStage",
       "-diagnostics",
       "-primaryIndent", "- ",
       "-secondaryIndent", "| ",
       "-indentCycle", "7",
       "-encoding", "anEncoding",
+      "-mmap",
+      "-stream",
       "-metrics", "metricsTable.csv",
+      "-metricsStore", "metricsStore.bin",
+      "-regressionCheck",
+      "-regressionTest", "stdDev",
+      "-regressionThreshold", "t12ParserNodes=0:5",
+      "-dfaCache", "persist",
+      "-dfaCacheFile", "aGrammarName.dfa",
+      "-timeout", "1.5",
+      "-retainedHeap",
+      "-jfr", "aRecording.jfr",
+      "-telemetryPort", "9464",
       "-sourceDir", "aSourceDirPath",
       "-outputDir", "anOutputDirPath",
+      "-threads", "4",
+      "-warmup", "2",
+      "-repeat", "3",
+      "-profile",
       "firstFileName",
       "secondFileName"
     ]
@@ -71,29 +92,62 @@ class RegressionTestRigTest {
     assert rtr.startRuleName == null;
     assert rtr.inputFiles.isEmpty()
     assert !rtr.printTree;
+    assert !rtr.treeless;
     assert !rtr.showTokens;
     assert !rtr.trace;
     assert !rtr.diagnostics;
     assert !rtr.SLL;
+    assert !rtr.twoStage;
     assert rtr.encoding == null;
+    assert !rtr.mmap;
+    assert !rtr.stream;
     assert rtr.metricsTablePath == null;
+    assert rtr.metricsStorePath == null;
+    assert !rtr.regressionCheck;
+    assert rtr.dfaCacheMode == RegressionTestRig.DFA_CACHE_WARM;
+    assert rtr.timeoutMillis == 0;
+    assert !rtr.retainedHeap;
+    assert rtr.jfrPath == null;
+    assert rtr.telemetryPort == 0;
+    assert rtr.numThreads == 1;
+    assert rtr.numWarmups == 0;
+    assert rtr.numRepeats == 1;
+    assert !rtr.profile;
     assert rtr.metricsTable != null;
     assert rtr.processArgs(args);
     assert rtr.grammarName == "aGrammarName";
     assert rtr.startRuleName == "aStartRule";
     assert rtr.printTree;
+    assert !rtr.treeless; // -tree overrides -treeless
     assert rtr.showTokens;
     assert rtr.trace;
     assert rtr.diagnostics;
     assert rtr.SLL;
+    assert rtr.twoStage;
     assert rtr.primaryIndentStr == "- ";
     assert rtr.secondaryIndentStr == "| ";
     assert rtr.indentCyclePeriod == 7;
     assert rtr.encoding == "anEncoding";
+    assert rtr.mmap;
+    assert rtr.stream;
     assert rtr.sourceDir == "aSourceDirPath/";
     assert rtr.sourceDirRegExp.toString() == "^.*aSourceDirPath/";
     assert rtr.outputDir == "anOutputDirPath/";
     assert rtr.metricsTablePath == "metricsTable.csv";
+    assert rtr.metricsStorePath == "metricsStore.bin";
+    assert rtr.regressionCheck;
+    assert rtr.regressionChecker.statisticalTest == RegressionCheck.STDDEV_TEST;
+    assert rtr.regressionChecker.changeThresholds[Metrics.PARSER_NUM_NODES] == 0.05;
+    assert rtr.dfaCacheMode == RegressionTestRig.DFA_CACHE_PERSIST;
+    assert rtr.dfaCachePath == "aGrammarName.dfa";
+    assert rtr.timeoutMillis == 1500;
+    assert rtr.retainedHeap;
+    assert rtr.jfrPath == "aRecording.jfr";
+    assert rtr.telemetryPort == 9464;
+    assert rtr.numThreads == 4;
+    assert rtr.numWarmups == 2;
+    assert rtr.numRepeats == 3;
+    assert rtr.profile;
     assert rtr.inputFiles.size() == 2;
     assert rtr.inputFiles.get(0) == "firstFileName";
     assert rtr.inputFiles.get(1) == "secondFileName";
@@ -198,8 +252,11 @@ class RegressionTestRigTest {
     PrintStream           outStream = new PrintStream(outBaos);
     
     Metrics metricsResults = rtr.processAnInputFile("stdIn", csvReader, outStream);
-    assert 0 < metricsResults.metric[Metrics.LEXER_TIMINGS];
-    assert 0 < metricsResults.metric[Metrics.PARSER_TIMINGS];
+    // a small document can be lexed/parsed in well under a millisecond
+    assert -1 < metricsResults.metric[Metrics.LEXER_TIMINGS];
+    assert -1 < metricsResults.metric[Metrics.PARSER_TIMINGS];
+    assert 0 < metricsResults.metric[Metrics.LEXER_NANOS];
+    assert 0 < metricsResults.metric[Metrics.PARSER_NANOS];
     assert -1 < metricsResults.metric[Metrics.LEXER_ERRORS];
     assert -1 < metricsResults.metric[Metrics.PARSER_ERRORS];
     assert -1 < metricsResults.metric[Metrics.AMBIGUITIES];
@@ -220,4 +277,722 @@ class RegressionTestRigTest {
     assert testRigContent.contains("row");
     assert testRigContent.contains("field");
   }
+  
+  /**
+   * Test that warming up and repeating the lexing and parsing of an input file
+   * records the same results as a single run, while recording the (median)
+   * timings in nanoseconds.
+   */
+  @Test
+  void processAnInputFileRepeatTest() {
+    String csvContentStr = getClass().getResource("/testDocs/example1.csv").text;
+    
+    String[] args = [ 
+      "org.fandianpf.testParser.CSV", "file",
+      "-tokens", "-tree"
+    ];
+    RegressionTestRig singleRtr = new RegressionTestRig(args);
+    ByteArrayOutputStream singleBaos = new ByteArrayOutputStream();    
+    singleRtr.processAnInputFile("stdIn", new StringReader(csvContentStr),
+                                 new PrintStream(singleBaos));
+    
+    RegressionTestRig repeatRtr = 
+      new RegressionTestRig(args + [ "-warmup", "2", "-repeat", "5" ] as String[]);
+    ByteArrayOutputStream repeatBaos = new ByteArrayOutputStream();    
+    Metrics metricsResults = 
+      repeatRtr.processAnInputFile("stdIn", new StringReader(csvContentStr),
+                                   new PrintStream(repeatBaos));
+    
+    assert repeatBaos.toString("UTF-8") == singleBaos.toString("UTF-8");
+    assert 0 < metricsResults.metric[Metrics.LEXER_NANOS];
+    assert 0 < metricsResults.metric[Metrics.PARSER_NANOS];
+    assert metricsResults.metric[Metrics.LEXER_TIMINGS] == 
+      metricsResults.metric[Metrics.LEXER_NANOS].intdiv(RegressionTestRig.NANOS_PER_MILLI);
+    assert 0 < metricsResults.metric[Metrics.LEXER_NUM_TOKENS];
+  }
+  
+  /**
+   * Test that profiling the parser records a per-decision profile table in
+   * the results and aggregates the profiles across input files.
+   */
+  @Test
+  void processAnInputFileProfileTest() {
+    // (the CSV grammar is LL(1) so it makes no adaptive predictions)
+    String exprContentStr = "f(a+2)*b; \$ 34 abc; @ 34 56 abc;\n";
+    
+    String[] args = [ "org.fandianpf.testParser.Expr", "file", "-profile" ];
+    RegressionTestRig rtr = new RegressionTestRig(args);
+    assert rtr.parser.getInterpreter() instanceof 
+      org.antlr.v4.runtime.atn.ProfilingATNSimulator;
+    
+    ByteArrayOutputStream outBaos = new ByteArrayOutputStream();    
+    rtr.processAnInputFile("stdIn", new StringReader(exprContentStr),
+                           new PrintStream(outBaos));
+    String results = outBaos.toString("UTF-8");
+    assert results.contains("Parser decision profile; time in prediction: ");
+    assert results.contains("timeInPredNanos");
+    assert !rtr.profileTable.isEmpty();
+    long firstInvocations = rtr.profileTable.getTotalInvocations();
+    assert 0 < firstInvocations;
+    // the e rule's decision needs full context (LL) prediction
+    assert rtr.profileTable.getDecisionsByCost().any { 
+      it.ruleName == "e" && 0 < it.LL_Fallback
+    };
+    
+    rtr.processAnInputFile("stdIn", new StringReader(exprContentStr),
+                           new PrintStream(new ByteArrayOutputStream()));
+    assert rtr.profileTable.getTotalInvocations() == 2*firstInvocations;
+  }
+  
+  /**
+   * Test that the timed parses of a profiled run are not profiled, so that
+   * its parser timings stay in the same range as those of an unprofiled run,
+   * and that the profile is taken by a separate, final, parse.
+   */
+  @Test
+  void processAnInputFileProfileTimingsTest() {
+    String exprContentStr = "f(a+2)*b-c; \$ 34 abc; @ 34 abc;\n" * 500;
+    String[] args = [ "org.fandianpf.testParser.Expr", "file",
+                      "-warmup", "3", "-repeat", "5" ];
+    Closure parse = { String[] someArgs, List interpreters ->
+      RegressionTestRig rtr = new RegressionTestRig(someArgs) {
+        protected ParserRuleContext parseTokens(Method startRule, long[] stageNanos) {
+          interpreters << parser.getInterpreter().getClass();
+          return super.parseTokens(startRule, stageNanos);
+        }
+      };
+      rtr.processAnInputFile("stdIn", new StringReader(exprContentStr),
+                             new PrintStream(new ByteArrayOutputStream()));
+    }
+    
+    List plainInterpreters = [];
+    Metrics plainMetrics = parse(args, plainInterpreters);
+    List profiledInterpreters = [];
+    Metrics profiledMetrics = parse(args + [ "-profile" ] as String[], profiledInterpreters);
+    
+    assert plainInterpreters.size() == 8;
+    assert plainInterpreters.every { it == CountingParserATNSimulator };
+    assert profiledInterpreters.size() == 9;
+    assert profiledInterpreters[0..7].every { it == CountingParserATNSimulator };
+    assert profiledInterpreters[8] == WatchedProfilingATNSimulator;
+    
+    long plainNanos    = plainMetrics.metric[Metrics.PARSER_NANOS];
+    long profiledNanos = profiledMetrics.metric[Metrics.PARSER_NANOS];
+    assert 0 < plainNanos;
+    assert 0 < profiledNanos;
+    assert profiledNanos < 3 * plainNanos;
+    assert profiledMetrics.metric[Metrics.PARSER_DFA_MISSES] <= 
+      plainMetrics.metric[Metrics.PARSER_DFA_MISSES];
+  }
+  
+  /**
+   * Test that parsing without building a parse tree computes the same parse
+   * tree metrics as counting the parse tree, also when repeated and when 
+   * using the two stage strategy.
+   */
+  @Test
+  void processAnInputFileTreelessTest() {
+    String exprContentStr = "f(a+2)*b-c; \$ 34 abc; @ 34 abc;";
+    String[] args = [ "org.fandianpf.testParser.Expr", "file" ];
+    RegressionTestRig treeRtr = new RegressionTestRig(args);
+    Metrics treeMetrics = 
+      treeRtr.processAnInputFile("stdIn", new StringReader(exprContentStr),
+                                 new PrintStream(new ByteArrayOutputStream()));
+    assert 0 < treeMetrics.metric[Metrics.PARSER_NUM_NODES];
+    
+    [ [ "-treeless" ], 
+      [ "-treeless", "-warmup", "1", "-repeat", "2" ],
+      [ "-treeless", "-twoStage" ]
+    ].each { List<String> options ->
+      RegressionTestRig treelessRtr = new RegressionTestRig(args + options as String[]);
+      assert treelessRtr.treeless;
+      assert !treelessRtr.parser.getBuildParseTree();
+      
+      ByteArrayOutputStream outBaos = new ByteArrayOutputStream();    
+      Metrics treelessMetrics = 
+        treelessRtr.processAnInputFile("stdIn", new StringReader(exprContentStr),
+                                       new PrintStream(outBaos));
+      assert outBaos.toString("UTF-8").contains("Parser counting parse tree");
+      assert treelessMetrics.metric[Metrics.PARSER_DEPTH] == 
+        treeMetrics.metric[Metrics.PARSER_DEPTH];
+      assert treelessMetrics.metric[Metrics.PARSER_NUM_NODES] == 
+        treeMetrics.metric[Metrics.PARSER_NUM_NODES];
+      assert treelessRtr.parser.getParseListeners().size() == 1;
+    }
+  }
+  
+  /**
+   * Test that the two stage strategy only re-parses using full LL prediction
+   * when the SLL stage fails, and then produces the same parse tree as the
+   * (default) LL strategy.
+   */
+  @Test
+  void processAnInputFileTwoStageTest() {
+    String[] args = [ "org.fandianpf.testParser.Expr", "file", "-tree" ];
+    RegressionTestRig llRtr = new RegressionTestRig(args);
+    RegressionTestRig twoStageRtr = 
+      new RegressionTestRig(args + [ "-twoStage" ] as String[]);
+    
+    // SLL prediction can parse this input
+    ByteArrayOutputStream outBaos = new ByteArrayOutputStream();    
+    Metrics metricsResults = 
+      twoStageRtr.processAnInputFile("stdIn", new StringReader("f(a+2)*b; \$ 34 abc;"),
+                                     new PrintStream(outBaos));
+    assert metricsResults.metric[Metrics.PARSER_FALLBACKS] == 0;
+    assert 0 < metricsResults.metric[Metrics.PARSER_STAGE1_NANOS];
+    assert metricsResults.metric[Metrics.PARSER_STAGE2_NANOS] == -1;
+    assert !outBaos.toString("UTF-8").contains("Parser SLL stage failed");
+    
+    // SLL prediction resolves the e rule's conflict incorrectly in the 
+    // context of the b rule, so this input needs full LL prediction
+    String exprContentStr = "f(a+2)*b; @ 34 abc;";
+    outBaos = new ByteArrayOutputStream();    
+    metricsResults = 
+      twoStageRtr.processAnInputFile("stdIn", new StringReader(exprContentStr),
+                                     new PrintStream(outBaos));
+    assert metricsResults.metric[Metrics.PARSER_FALLBACKS] == 1;
+    long twoStageErrors = metricsResults.metric[Metrics.PARSER_ERRORS];
+    assert 0 < metricsResults.metric[Metrics.PARSER_STAGE1_NANOS];
+    assert 0 < metricsResults.metric[Metrics.PARSER_STAGE2_NANOS];
+    String twoStageResults = outBaos.toString("UTF-8");
+    assert twoStageResults.contains("Parser SLL stage failed");
+    
+    ByteArrayOutputStream llBaos = new ByteArrayOutputStream();    
+    metricsResults = 
+      llRtr.processAnInputFile("stdIn", new StringReader(exprContentStr),
+                               new PrintStream(llBaos));
+    assert metricsResults.metric[Metrics.PARSER_FALLBACKS] == -1;
+    assert metricsResults.metric[Metrics.PARSER_ERRORS] == twoStageErrors;
+    String llResults = llBaos.toString("UTF-8");
+    assert twoStageResults.substring(twoStageResults.indexOf("Parser parse tree")) ==
+      llResults.substring(llResults.indexOf("Parser parse tree"));
+  }
+  
+  /**
+   * Test that streaming an input file through the lexer finds the same 
+   * tokens as the (default) buffered lexer, and counts each token type.
+   */
+  @Test
+  void streamAnInputFileTest() {
+    String csvContentStr = getClass().getResource("/testDocs/example1.csv").text;
+    String[] args = [ "org.fandianpf.testParser.CSV", "tokens", "-tokens" ];
+    
+    RegressionTestRig bufferedRtr = new RegressionTestRig(args);
+    ByteArrayOutputStream bufferedBaos = new ByteArrayOutputStream();    
+    Metrics bufferedMetrics = 
+      bufferedRtr.processAnInputFile("stdIn", new StringReader(csvContentStr),
+                                     new PrintStream(bufferedBaos));
+    
+    RegressionTestRig streamRtr = new RegressionTestRig(args + [ "-stream" ] as String[]);
+    assert streamRtr.isStreaming();
+    ByteArrayOutputStream consoleBaos = new ByteArrayOutputStream();
+    streamRtr.console = new PrintStream(consoleBaos);
+    ByteArrayOutputStream streamBaos = new ByteArrayOutputStream();    
+    Metrics streamMetrics = 
+      streamRtr.streamAnInputFile("stdIn", new StringReader(csvContentStr),
+                                  new PrintStream(streamBaos));
+    
+    assert streamMetrics.metric[Metrics.LEXER_NUM_TOKENS] == 
+      bufferedMetrics.metric[Metrics.LEXER_NUM_TOKENS];
+    assert streamMetrics.metric[Metrics.LEXER_ERRORS] == 
+      bufferedMetrics.metric[Metrics.LEXER_ERRORS];
+    assert 0 < streamMetrics.metric[Metrics.LEXER_NANOS];
+    assert streamMetrics.metric[Metrics.PARSER_NANOS] == -1;
+    
+    // the same tokens are printed
+    List<String> bufferedTokens = bufferedBaos.toString("UTF-8").readLines().findAll { 
+      it.startsWith("[@") 
+    };
+    List<String> streamLines = streamBaos.toString("UTF-8").readLines();
+    assert streamLines.findAll { it.startsWith("[@") } == bufferedTokens;
+    
+    // the token type counts add up to the number of tokens
+    int countsStart = streamLines.findIndexOf { it.startsWith("Lexer token type counts") };
+    List<String> counts = streamLines.subList(countsStart + 2, streamLines.size());
+    assert counts.contains("  EOF: 1");
+    assert counts.collect { Long.valueOf(it.split(": ")[1]) }.sum() == 
+      streamMetrics.metric[Metrics.LEXER_NUM_TOKENS];
+    assert consoleBaos.toString().contains("tokens/s");
+    
+    // streaming is only used by the lexer
+    assert !(new RegressionTestRig([ "org.fandianpf.testParser.CSV", "file", "-stream" ] 
+      as String[]).isStreaming());
+  }
+  
+  /** Test the median of a collection of timings. */
+  @Test
+  void medianTest() {
+    assert RegressionTestRig.median([ 5L, 1L, 3L ] as long[]) == 3L;
+    assert RegressionTestRig.median([ 4L, 1L, 3L, 2L ] as long[]) == 2L;
+    assert RegressionTestRig.median([ -1L, 7L, -1L ] as long[]) == 7L;
+    assert RegressionTestRig.median([ -1L ] as long[]) == -1L;
+  }
+  
+  /**
+   * Test that parsing a collection of input files using several worker threads
+   * produces exactly the same results files and metrics table entries as a 
+   * serial run.
+   */
+  @Test
+  void processInputFilesInParallelTest() {
+    File exampleFile = new File(getClass().getResource("/testDocs/example1.csv").toURI());
+    File sourceDir   = File.createTempFile("regressionTestRig", "Source");
+    File outputDir   = File.createTempFile("regressionTestRig", "Output");
+    sourceDir.delete();
+    outputDir.delete();
+    assert new File(sourceDir, "subDir").mkdirs();
+    List<String> inputFiles = [];
+    for (int i = 0; i < 6; i++) {
+      File inputFile = new File(sourceDir, "subDir/example"+i+".csv");
+      inputFile.text = exampleFile.text * (i+1);
+      inputFiles.add(inputFile.getPath());
+    }
+    String[] args = [
+      "org.fandianpf.testParser.CSV", "file",
+      "-tokens", "-tree",
+      "-sourceDir", sourceDir.getPath(),
+      "-outputDir", outputDir.getPath()
+    ] + inputFiles;
+
+    RegressionTestRig serialRtr = new RegressionTestRig(args);
+    serialRtr.processInputFiles();
+    List<String> serialResults = inputFiles.collect { 
+      new File(outputDir, it.substring(sourceDir.getPath().length()+1)+".result").text
+    }
+    
+    RegressionTestRig parallelRtr = new RegressionTestRig(args + [ "-threads", "3" ] as String[]);
+    assert parallelRtr.numThreads == 3;
+    parallelRtr.processInputFiles();
+    List<String> parallelResults = inputFiles.collect { 
+      new File(outputDir, it.substring(sourceDir.getPath().length()+1)+".result").text
+    }
+    
+    assert parallelResults == serialResults;
+    assert parallelRtr.metricsTable.metricsTable.keySet() == 
+      serialRtr.metricsTable.metricsTable.keySet();
+    for (String metricsKey : serialRtr.metricsTable.metricsTable.keySet()) {
+      assert metricsKey.startsWith("subDir/example");
+      Metrics serialMetrics   = serialRtr.metricsTable.metricsTable.get(metricsKey).getMetrics(0);
+      Metrics parallelMetrics = parallelRtr.metricsTable.metricsTable.get(metricsKey).getMetrics(0);
+      assert parallelMetrics.metric[Metrics.LEXER_NUM_TOKENS] == serialMetrics.metric[Metrics.LEXER_NUM_TOKENS];
+      assert parallelMetrics.metric[Metrics.PARSER_NUM_NODES] == serialMetrics.metric[Metrics.PARSER_NUM_NODES];
+    }
+    
+    sourceDir.deleteDir();
+    outputDir.deleteDir();
+  }
+  
+  /**
+   * Test that reading the input files using memory mapped files produces 
+   * the same results as reading them through a Reader.
+   */
+  @Test
+  void processInputFileMappedTest() {
+    File inputFile = File.createTempFile("regressionTestRig", ".csv");
+    inputFile.setText(getClass().getResource("/testDocs/example1.csv").text, "UTF-8");
+    String[] args = [
+      "org.fandianpf.testParser.CSV", "file",
+      "-tokens", "-tree", "-encoding", "UTF-8",
+      inputFile.getPath()
+    ];
+    File resultFile = new File(inputFile.getPath()+".result");
+
+    RegressionTestRig readerRtr = new RegressionTestRig(args);
+    Metrics readerMetrics = readerRtr.processInputFile(inputFile.getPath());
+    String readerResults = resultFile.getText("UTF-8");
+
+    RegressionTestRig mappedRtr = new RegressionTestRig(args + [ "-mmap" ] as String[]);
+    Metrics mappedMetrics = mappedRtr.processInputFile(inputFile.getPath());
+    String mappedResults = resultFile.getText("UTF-8");
+    
+    assert mappedResults == readerResults;
+    assert mappedMetrics.metric[Metrics.LEXER_NUM_TOKENS] == 
+      readerMetrics.metric[Metrics.LEXER_NUM_TOKENS];
+    assert mappedRtr.processInputFile(inputFile.getPath()+".missing") == null;
+    
+    inputFile.delete();
+    resultFile.delete();
+  }
+  
+  /** Test that each run appends its metrics to the metrics store. */
+  @Test
+  void processInputFilesMetricsStoreTest() {
+    File inputFile = File.createTempFile("regressionTestRig", ".csv");
+    inputFile.setText(getClass().getResource("/testDocs/example1.csv").text, "UTF-8");
+    File storeFile = File.createTempFile("regressionTestRig", ".bin");
+    storeFile.delete();
+    String[] args = [
+      "org.fandianpf.testParser.CSV", "file",
+      "-metricsStore", storeFile.getPath(),
+      inputFile.getPath()
+    ];
+    
+    new RegressionTestRig(args).processInputFiles();
+    new RegressionTestRig(args).processInputFiles();
+    
+    MetricsStore store = new MetricsStore(storeFile.getPath());
+    MetricsTable loadedTable = new MetricsTable();
+    store.loadMetricsTable(loadedTable);
+    assert store.getNumberOfRuns() == 2;
+    MetricsHistory history = loadedTable.getMetricsHistory(inputFile.getPath());
+    assert history.size() == 2;
+    assert history.getMetrics(1).metric[Metrics.LEXER_NUM_TOKENS] == 
+      history.getMetrics(0).metric[Metrics.LEXER_NUM_TOKENS];
+    assert 0 < history.getMetrics(1).metric[Metrics.PARSER_NUM_NODES];
+    
+    inputFile.delete();
+    new File(inputFile.getPath()+".result").delete();
+    storeFile.delete();
+  }
+  
+  /**
+   * Test that the regression check of processInputFiles reports the change
+   * of a structural metric against the metricsTable's history, and that a
+   * run without changes passes.
+   */
+  @Test
+  void processInputFilesRegressionCheckTest() {
+    File inputFile = File.createTempFile("regressionTestRig", ".csv");
+    inputFile.setText(getClass().getResource("/testDocs/example1.csv").text, "UTF-8");
+    File tableFile = File.createTempFile("regressionTestRig", ".metrics.csv");
+    tableFile.delete();
+    String[] args = [
+      "org.fandianpf.testParser.CSV", "file",
+      "-metrics", tableFile.getPath(),
+      "-regressionCheck",
+      inputFile.getPath()
+    ];
+    
+    RegressionTestRig rtr = new RegressionTestRig(args);
+    rtr.processInputFiles();
+    assert rtr.regressions.isEmpty(); // no history
+    rtr = new RegressionTestRig(args);
+    rtr.processInputFiles();
+    assert rtr.regressions.isEmpty(); // the same structure
+    
+    // pretend the earlier runs had fewer parse tree nodes
+    MetricsTable metricsTable = new MetricsTable();
+    metricsTable.loadMetricsTable(tableFile.getPath());
+    MetricsHistory history = metricsTable.getMetricsHistory(inputFile.getPath());
+    long numNodes = history.getValue(1, Metrics.PARSER_NUM_NODES);
+    history.setValue(1, Metrics.PARSER_NUM_NODES, numNodes - 1);
+    metricsTable.saveMetricsTable(tableFile.getPath());
+    
+    rtr = new RegressionTestRig(args);
+    rtr.processInputFiles();
+    assert rtr.regressions.size() == 1;
+    assert rtr.regressions[0].testDocName == inputFile.getPath();
+    assert rtr.regressions[0].metricType == Metrics.PARSER_NUM_NODES;
+    assert rtr.regressions[0].value == numNodes;
+    
+    inputFile.delete();
+    new File(inputFile.getPath()+".result").delete();
+    tableFile.delete();
+  }
+  
+  /**
+   * Test that an incremental run only parses the input files which have 
+   * changed (or whose options or results file have), keeping the results 
+   * files of the others, and that unchanged files can be sampled.
+   */
+  @Test
+  void processInputFilesIncrementalTest() {
+    File exampleFile = new File(getClass().getResource("/testDocs/example1.csv").toURI());
+    File firstFile  = File.createTempFile("regressionTestRig", ".csv");
+    File secondFile = File.createTempFile("regressionTestRig", ".csv");
+    firstFile.text  = exampleFile.text;
+    secondFile.text = exampleFile.text * 2;
+    File cacheFile = File.createTempFile("regressionTestRig", ".cache");
+    cacheFile.delete();
+    String[] args = [
+      "org.fandianpf.testParser.CSV", "file",
+      "-incremental", cacheFile.getPath(),
+      firstFile.getPath(), secondFile.getPath()
+    ];
+    Closure parsedFiles = { String[] someArgs ->
+      RegressionTestRig rtr = new RegressionTestRig(someArgs);
+      rtr.processInputFiles();
+      return rtr.metricsTable.getTestDocNames().collect { it };
+    }
+    File firstResult = new File(firstFile.getPath()+".result");
+    
+    assert parsedFiles(args) == [ firstFile.getPath(), secondFile.getPath() ].sort();
+    assert cacheFile.exists();
+    String firstResultText = firstResult.text;
+    
+    // nothing has changed
+    assert parsedFiles(args) == [];
+    assert firstResult.text == firstResultText;
+    
+    // an input file has changed
+    secondFile.text = exampleFile.text * 3;
+    assert parsedFiles(args) == [ secondFile.getPath() ];
+    assert parsedFiles(args) == [];
+    
+    // a results file is missing
+    firstResult.delete();
+    assert parsedFiles(args) == [ firstFile.getPath() ];
+    
+    // the options which affect the results have changed
+    assert parsedFiles(args + [ "-tokens" ] as String[]).size() == 2;
+    assert parsedFiles(args + [ "-tokens" ] as String[]) == [];
+    
+    // sample all of the unchanged input files
+    assert parsedFiles(args + [ "-tokens", "-sampleUnchanged", "1" ] as String[]).size() == 2;
+    
+    [ firstFile, secondFile ].each { 
+      it.delete();
+      new File(it.getPath()+".result").delete();
+    }
+    cacheFile.delete();
+  }
+  
+  /**
+   * Test that the cold DFA cache mode parses each input file with empty DFA
+   * caches, and that the persist mode starts with the DFA caches saved by
+   * the previous run.
+   */
+  @Test
+  void processInputFilesDFACacheTest() {
+    File exampleFile = new File(getClass().getResource("/testDocs/example1.csv").toURI());
+    File snapshotFile = File.createTempFile("regressionTestRig", ".dfa");
+    snapshotFile.delete();
+    String[] args = [ "org.fandianpf.testParser.CSV", "file", exampleFile.getPath() ];
+    Closure numLexerStates = { RegressionTestRig rtr ->
+      DFASnapshot.countStates(rtr.lexer.getInterpreter().decisionToDFA)
+    }
+    
+    RegressionTestRig coldRtr = 
+      new RegressionTestRig(args + [ "-dfaCache", "cold", "-threads", "2" ] as String[]);
+    assert coldRtr.numThreads == 1;
+    coldRtr.processInputFile(exampleFile.getPath());
+    int numStates = numLexerStates(coldRtr);
+    assert 0 < numStates;
+    coldRtr.processInputFile(exampleFile.getPath());
+    assert numLexerStates(coldRtr) == numStates;
+    
+    String[] persistArgs = 
+      args + [ "-dfaCache", "persist", "-dfaCacheFile", snapshotFile.getPath() ];
+    RegressionTestRig persistRtr = new RegressionTestRig(persistArgs);
+    persistRtr.clearDFACache();
+    persistRtr.processInputFiles();
+    assert snapshotFile.exists();
+    
+    persistRtr = new RegressionTestRig(persistArgs);
+    persistRtr.clearDFACache();
+    persistRtr.loadDFACache();
+    assert numLexerStates(persistRtr) == numStates;
+    
+    snapshotFile.delete();
+    new File(exampleFile.getPath()+".result").delete();
+  }
+  
+  /**
+   * Test that the DFA metrics record the growth of the (cold) DFA caches,
+   * and that (almost) only the full context predictions miss the warm DFA 
+   * caches.
+   */
+  @Test
+  void processAnInputFileDFAMetricsTest() {
+    String exprContentStr = "f(a+2)*b-c; \$ 34 abc; @ 34 abc;";
+    String[] args = [ "org.fandianpf.testParser.Expr", "file" ];
+    RegressionTestRig rtr = new RegressionTestRig(args);
+    assert rtr.lexer.getInterpreter() instanceof CountingLexerATNSimulator;
+    assert rtr.parser.getInterpreter() instanceof CountingParserATNSimulator;
+    Closure parse = { ->
+      rtr.processAnInputFile("stdIn", new StringReader(exprContentStr),
+                             new PrintStream(new ByteArrayOutputStream()));
+    }
+    
+    rtr.clearDFACache();
+    Metrics coldMetrics = parse();
+    [ Metrics.LEXER_DFA_STATES, Metrics.LEXER_DFA_EDGES, Metrics.LEXER_DFA_MISSES,
+      Metrics.PARSER_DFA_STATES, Metrics.PARSER_DFA_EDGES, Metrics.PARSER_DFA_MISSES
+    ].each { assert 0 < coldMetrics.metric[it] }
+    assert coldMetrics.metric[Metrics.LEXER_DFA_STATES] == 
+      DFASnapshot.countStates(rtr.lexer.getInterpreter().decisionToDFA);
+    
+    Metrics warmMetrics = parse();
+    [ Metrics.LEXER_DFA_STATES, Metrics.LEXER_DFA_EDGES,
+      Metrics.PARSER_DFA_STATES, Metrics.PARSER_DFA_EDGES
+    ].each { assert warmMetrics.metric[it] == 0 }
+    // EOF is never an edge of the lexer's DFA
+    assert warmMetrics.metric[Metrics.LEXER_DFA_MISSES] == 1;
+    // the e rule's decision is always predicted using full context
+    assert 0 < warmMetrics.metric[Metrics.PARSER_DFA_MISSES];
+    assert warmMetrics.metric[Metrics.PARSER_DFA_MISSES] < 
+      coldMetrics.metric[Metrics.PARSER_DFA_MISSES];
+    
+    // the misses of the warm up and timing runs are included
+    rtr.numWarmups = 1;
+    rtr.numRepeats = 2;
+    assert parse().metric[Metrics.PARSER_DFA_MISSES] == 
+      3*warmMetrics.metric[Metrics.PARSER_DFA_MISSES];
+  }
+  
+  /**
+   * Test that an input file whose parse does not finish within the -timeout 
+   * is aborted, and recorded as timed out, and that the run moves on to the
+   * next input file.
+   */
+  @Test
+  void processInputFilesTimeoutTest() {
+    // every '$' statement is predicted using full context (an ATN closure)
+    File slowFile = File.createTempFile("regressionTestRig", ".expr");
+    slowFile.text = "\$ 34 abc; " * 200000;
+    File fastFile = File.createTempFile("regressionTestRig", ".expr");
+    fastFile.text = "\$ 34 abc;";
+    String[] args = [ "org.fandianpf.testParser.Expr", "file",
+                      slowFile.getPath(), fastFile.getPath() ];
+    
+    RegressionTestRig rtr = new RegressionTestRig(args + [ "-timeout", "0.25" ] as String[]);
+    rtr.processInputFiles();
+    Metrics slowMetrics = rtr.metricsTable.getMetricsHistory(slowFile.getPath()).getMetrics(0);
+    assert slowMetrics.metric[Metrics.TIMEOUTS] == 1;
+    assert slowMetrics.metric[Metrics.PARSER_NUM_NODES] == -1;
+    assert new File(slowFile.getPath()+".result").text.contains("TIMED OUT");
+    // the run moved on to the next input file
+    Metrics nextMetrics = rtr.metricsTable.getMetricsHistory(fastFile.getPath()).getMetrics(0);
+    assert nextMetrics.metric[Metrics.TIMEOUTS] == 0;
+    assert 0 < nextMetrics.metric[Metrics.PARSER_NUM_NODES];
+    
+    rtr = new RegressionTestRig(args + [ "-timeout", "600" ] as String[]);
+    rtr.processInputFile(fastFile.getPath());
+    Metrics fastMetrics = rtr.processInputFile(fastFile.getPath());
+    assert fastMetrics.metric[Metrics.TIMEOUTS] == 0;
+    assert 0 < fastMetrics.metric[Metrics.PARSER_NUM_NODES];
+    
+    rtr = new RegressionTestRig(args);
+    assert rtr.processInputFile(fastFile.getPath()).metric[Metrics.TIMEOUTS] == -1;
+    
+    // the separate profiled parse is still checked by the watchdog
+    rtr = new RegressionTestRig(args + [ "-profile", "-timeout", "0.25" ] as String[]);
+    assert rtr.processInputFile(slowFile.getPath()).metric[Metrics.TIMEOUTS] == 1;
+    assert rtr.processInputFile(fastFile.getPath()).metric[Metrics.TIMEOUTS] == 0;
+    assert rtr.parser.getInterpreter() instanceof WatchedProfilingATNSimulator;
+    assert rtr.parser.getInterpreter().watchdog.is(rtr.watchdog);
+    
+    // incremental runs parse a timed out input file again, and changing 
+    // the timeout re-parses every input file
+    File cacheFile = File.createTempFile("regressionTestRig", ".cache");
+    cacheFile.delete();
+    Closure parsedFiles = { String timeout ->
+      rtr = new RegressionTestRig(args + [ "-timeout", timeout, 
+                                           "-incremental", cacheFile.getPath() ] as String[]);
+      rtr.processInputFiles();
+      return rtr.metricsTable.getTestDocNames().collect { it };
+    }
+    assert parsedFiles("0.25") == [ slowFile.getPath(), fastFile.getPath() ].sort();
+    assert parsedFiles("0.25") == [ slowFile.getPath() ];
+    assert parsedFiles("0.5").size() == 2;
+    cacheFile.delete();
+    
+    [ slowFile, fastFile ].each { 
+      it.delete();
+      new File(it.getPath()+".result").delete();
+    }
+  }
+  
+  /**
+   * Test that the memory metrics record the bytes allocated by the lexer and
+   * the parser, and (only if requested) the retained heap.
+   */
+  @Test
+  void processAnInputFileMemoryMetricsTest() {
+    String exprContentStr = "f(a+2)*b-c; \$ 34 abc; @ 34 abc;" * 100;
+    String[] args = [ "org.fandianpf.testParser.Expr", "file" ];
+    Closure parse = { RegressionTestRig rtr ->
+      rtr.processAnInputFile("stdIn", new StringReader(exprContentStr),
+                             new PrintStream(new ByteArrayOutputStream()));
+    }
+    
+    Metrics metrics = parse(new RegressionTestRig(args));
+    if (0 <= MemoryMeter.getThreadAllocatedBytes()) {
+      assert 0 < metrics.metric[Metrics.LEXER_ALLOC_BYTES];
+      assert 0 < metrics.metric[Metrics.PARSER_ALLOC_BYTES];
+    }
+    assert 0 <= metrics.metric[Metrics.GC_COUNT];
+    assert 0 <= metrics.metric[Metrics.GC_MILLIS];
+    assert metrics.metric[Metrics.RETAINED_HEAP_BYTES] == -1;
+    
+    metrics = parse(new RegressionTestRig(args + [ "-retainedHeap" ] as String[]));
+    assert 0 < metrics.metric[Metrics.RETAINED_HEAP_BYTES];
+    
+    metrics = parse(new RegressionTestRig(
+      [ "org.fandianpf.testParser.Expr", "tokens" ] as String[]));
+    assert metrics.metric[Metrics.PARSER_ALLOC_BYTES] == -1;
+    assert 0 <= metrics.metric[Metrics.GC_COUNT];
+  }
+  
+  /**
+   * Test that the thread CPU, garbage collection and JIT compilation times
+   * of the lexer and the parser are recorded.
+   */
+  @Test
+  void processAnInputFilePhaseTimesTest() {
+    String exprContentStr = "f(a+2)*b-c; \$ 34 abc; @ 34 abc;" * 100;
+    RegressionTestRig rtr = new RegressionTestRig(
+      [ "org.fandianpf.testParser.Expr", "file" ] as String[]);
+    Metrics metrics = rtr.processAnInputFile("stdIn", new StringReader(exprContentStr),
+                                             new PrintStream(new ByteArrayOutputStream()));
+    int lexerCPUNanos   = Metrics.strType2int("t07LexerCPUNanos");
+    int parserCPUNanos  = Metrics.strType2int("t08ParserCPUNanos");
+    int lexerGCMillis   = Metrics.strType2int("t45LexerGCMillis");
+    int parserGCMillis  = Metrics.strType2int("t46ParserGCMillis");
+    int lexerJITMillis  = Metrics.strType2int("t47LexerJITMillis");
+    int parserJITMillis = Metrics.strType2int("t48ParserJITMillis");
+    if (0 <= CPUMeter.getThreadCPUNanos()) {
+      assert 0 < metrics.metric[lexerCPUNanos];
+      assert 0 < metrics.metric[parserCPUNanos];
+    }
+    assert 0 <= metrics.metric[lexerGCMillis];
+    assert 0 <= metrics.metric[parserGCMillis];
+    if (0 <= CPUMeter.getJITMillis()) {
+      assert 0 <= metrics.metric[lexerJITMillis];
+      assert 0 <= metrics.metric[parserJITMillis];
+    }
+    assert RegressionCheck.isTimingMetric(parserCPUNanos);
+    assert RegressionCheck.isTimingMetric(lexerJITMillis);
+  }
+  
+  /**
+   * Test that -jfr records the lex, parse, count, print, write and 
+   * metricsTable events of a run, with their details.
+   */
+  @Test
+  void processInputFilesFlightRecordingTest() {
+    if (!FlightRecorderEvents.isAvailable()) return;
+    File exprFile = File.createTempFile("regressionTestRig", ".expr");
+    exprFile.text = "f(a+2)*b-c;" * 10;
+    File metricsFile = File.createTempFile("regressionTestRig", ".csv");
+    metricsFile.delete();
+    File recordingFile = File.createTempFile("regressionTestRig", ".jfr");
+    String[] args = [ "org.fandianpf.testParser.Expr", "file", "-tree",
+                      "-metrics", metricsFile.getPath(), 
+                      "-jfr", recordingFile.getPath(), exprFile.getPath() ];
+    
+    RegressionTestRig rtr = new RegressionTestRig(args);
+    rtr.processInputFiles();
+    
+    Map<String, jdk.jfr.consumer.RecordedEvent> events = [:];
+    jdk.jfr.consumer.RecordingFile.readAllEvents(recordingFile.toPath()).each {
+      String name = it.getEventType().getName();
+      if (name.startsWith("org.fandianpf.antlr4.regressionTestRig.")) {
+        events[name.substring(name.lastIndexOf('.')+1)] = it;
+      }
+    }
+    assert events.keySet() == [ "Lex", "Parse", "Count", "Print", "Write", 
+                                "MetricsTableSave" ] as Set;
+    assert events["Lex"].getString("metricsKey") == exprFile.getPath();
+    assert events["Lex"].getLong("size") == exprFile.length();
+    Metrics metrics = rtr.metricsTable.getMetricsHistory(exprFile.getPath()).getMetrics(0);
+    assert events["Lex"].getLong("tokens") == metrics.metric[Metrics.LEXER_NUM_TOKENS];
+    assert events["Parse"].getLong("nodes") == metrics.metric[Metrics.PARSER_NUM_NODES];
+    assert events["Write"].getLong("size") == new File(exprFile.getPath()+".result").length();
+    assert events["MetricsTableSave"].getString("metricsKey") == metricsFile.getPath();
+    
+    [ exprFile, metricsFile, recordingFile, new File(exprFile.getPath()+".result") ].each {
+      it.delete();
+    }
+  }
 }
@@ -0,0 +1,81 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+ 
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.junit.Test
+
+/**
+ * Unit tests for the TelemetryServer class.
+ */
+class TelemetryServerTest {
+  
+  /** Test that the telemetry of the files done is served as OpenMetrics. */
+  @Test
+  void serveMetricsTest() {
+    TelemetryServer telemetry = new TelemetryServer();
+    telemetry.start(0, 3);
+    try {
+      Metrics metrics = new Metrics();
+      metrics.metric[Metrics.LEXER_NUM_TOKENS] = 100;
+      metrics.metric[Metrics.PARSER_NUM_NODES] = 250;
+      metrics.metric[Metrics.PARSER_ERRORS]    = 2;
+      metrics.metric[Metrics.LEXER_NANOS]      = 300000;   // 0.0003 seconds
+      metrics.metric[Metrics.PARSER_NANOS]     = 20000000; // 0.02 seconds
+      telemetry.recordMetrics(metrics);
+      telemetry.recordMetrics(new Metrics());
+      
+      URLConnection connection = 
+        new URL("http://127.0.0.1:"+telemetry.getPort()+"/metrics").openConnection();
+      assert connection.getContentType() == TelemetryServer.CONTENT_TYPE;
+      String body = connection.getInputStream().getText("UTF-8");
+      List<String> lines = body.split("\n") as List;
+      assert lines.contains("antlr4_rtr_files_done_total 2");
+      assert lines.contains("antlr4_rtr_tokens_total 100");
+      assert lines.contains("antlr4_rtr_nodes_total 250");
+      assert lines.contains("antlr4_rtr_lexer_errors_total 0");
+      assert lines.contains("antlr4_rtr_parser_errors_total 2");
+      assert lines.contains("antlr4_rtr_files_remaining 1.0");
+      assert lines.contains("# TYPE antlr4_rtr_parser_latency_seconds histogram");
+      assert lines.contains("antlr4_rtr_lexer_latency_seconds_bucket{le=\"2.5E-4\"} 0");
+      assert lines.contains("antlr4_rtr_lexer_latency_seconds_bucket{le=\"5.0E-4\"} 1");
+      assert lines.contains("antlr4_rtr_parser_latency_seconds_bucket{le=\"0.01\"} 0");
+      assert lines.contains("antlr4_rtr_parser_latency_seconds_bucket{le=\"0.025\"} 1");
+      assert lines.contains("antlr4_rtr_parser_latency_seconds_bucket{le=\"+Inf\"} 1");
+      assert lines.contains("antlr4_rtr_parser_latency_seconds_count 1");
+      assert lines.find { it.startsWith("antlr4_rtr_heap_used_bytes ") } != null;
+      assert lines.find { it.startsWith("antlr4_rtr_remaining_seconds ") } != null;
+      assert lines.last() == "# EOF";
+    } finally {
+      telemetry.stop();
+    }
+    assert telemetry.getPort() == -1;
+  }
+}
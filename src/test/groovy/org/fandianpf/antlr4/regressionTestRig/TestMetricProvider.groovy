@@ -0,0 +1,61 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+ 
+package org.fandianpf.antlr4.regressionTestRig;
+
+/**
+ * A MetricProvider, registered in the test resources' META-INF/services, 
+ * which counts the phases started and ended while processing each input 
+ * file.
+ */
+class TestMetricProvider extends MetricProvider {
+  
+  long phaseStarts = 0;
+  long phaseEnds   = 0;
+  
+  String[] getMetricTypes() { [ "t90TestPhaseStarts", "t91TestPhaseEnds" ] as String[] }
+  
+  String[] getMetricUnits() { [ "count", "count" ] as String[] }
+  
+  boolean isTimingMetric(int index) { false }
+  
+  void start(int phase, Metrics metrics) {
+    if (phase == INPUT_FILE) { phaseStarts = 0; phaseEnds = 0; }
+    phaseStarts++;
+  }
+  
+  void end(int phase, Metrics metrics) {
+    phaseEnds++;
+    if (phase == INPUT_FILE) {
+      setValue(metrics, 0, phaseStarts);
+      setValue(metrics, 1, phaseEnds);
+    }
+  }
+}
@@ -0,0 +1,123 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.junit.Test;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.Lexer;
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.ParserRuleContext;
+
+import org.fandianpf.testParser.CSVLexer;
+import org.fandianpf.testParser.CSVParser;
+import org.fandianpf.testParser.ExprLexer;
+import org.fandianpf.testParser.ExprParser;
+
+/**
+ * Unit tests for the TreeCounterListener class.
+ */
+class TreeCounterListenerTest {
+  
+  /**
+   * Check that the TreeCounterListener, listening to a parser which does not
+   * build a parse tree, computes the same metrics as a TreeCounter counting 
+   * the parse tree built by the same parser (less any tokens conjured up by
+   * the parser's error recovery).
+   */
+  void checkCounts(Lexer lexer, Parser parser, Closure startRule, 
+                   int numConjured = 0) {
+    ANTLRInputStream input = (ANTLRInputStream)lexer.getInputStream();
+    parser.setTokenStream(new CommonTokenStream(lexer));
+    parser.removeErrorListeners();
+    ParserRuleContext tree = startRule();
+    TreeCounter tc = new TreeCounter();
+    tc.countTree(tree);
+    
+    input.reset();
+    lexer.setInputStream(input);
+    parser.setTokenStream(new CommonTokenStream(lexer));
+    parser.setBuildParseTree(false);
+    TreeCounterListener tcl = new TreeCounterListener();
+    parser.addParseListener(tcl);
+    startRule();
+    
+    assert tcl.getTreeDepth() == tc.getTreeDepth();
+    assert tcl.getNumberOfNodes() == tc.getNumberOfNodes() - numConjured;
+    assert tcl.size == 0;
+    
+    tcl.reset();
+    assert tcl.getTreeDepth() == 0;
+    assert tcl.getNumberOfNodes() == 0;
+  }
+  
+  /** Test counting the (unbuilt) parse tree of the example CSV document. */
+  @Test
+  void countCSVTest() {
+    CSVLexer lexer = new CSVLexer(new ANTLRInputStream(
+      getClass().getResource("/testDocs/example1.csv").text));
+    CSVParser parser = new CSVParser(null);
+    checkCounts(lexer, parser, { parser.file() });
+  }
+  
+  /** 
+   * Test counting the (unbuilt) parse trees of left recursive rules, 
+   * nested rules and rules with syntax errors.
+   */
+  @Test
+  void countLeftRecursiveTest() {
+    [ "1+2*3-f(4*(5+6)/7);",
+      "x; y; (z);",
+      "\$ 34 abc; @ 34 abc;",
+      "1 + 2 2; 1 + ;"
+    ].each { String inputStr ->
+      ExprLexer lexer = new ExprLexer(new ANTLRInputStream(inputStr));
+      ExprParser parser = new ExprParser(null);
+      checkCounts(lexer, parser, { parser.file() });
+    }
+    
+    // the missing ')' is conjured up without a listener event
+    ExprLexer lexer = new ExprLexer(new ANTLRInputStream("f(;"));
+    ExprParser parser = new ExprParser(null);
+    checkCounts(lexer, parser, { parser.file() }, 1);
+  }
+  
+  /** Test counting deeply nested (unbuilt) parse trees. */
+  @Test
+  void countDeepTreeTest() {
+    int depth = 200;
+    String inputStr = ("(" * depth) + "x" + (")" * depth) + ";" + 
+      ("1+" * depth) + "1;";
+    ExprLexer lexer = new ExprLexer(new ANTLRInputStream(inputStr));
+    ExprParser parser = new ExprParser(null);
+    checkCounts(lexer, parser, { parser.file() });
+  }
+}
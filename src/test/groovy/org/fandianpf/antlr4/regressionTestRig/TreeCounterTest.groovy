@@ -0,0 +1,102 @@
+/*
+ * [The "BSD license"]
+ *  Copyright (c) 2014 FandianPF (Stephen Gaito)
+ *  All rights reserved.
+ *
+ *  Redistribution and use in source and binary forms, with or without
+ *  modification, are permitted provided that the following conditions
+ *  are met:
+ *
+ *  1. Redistributions of source code must retain the above copyright
+ *     notice, this list of conditions and the following disclaimer.
+ *  2. Redistributions in binary form must reproduce the above copyright
+ *     notice, this list of conditions and the following disclaimer in the
+ *     documentation and/or other materials provided with the distribution.
+ *  3. The name of the author may not be used to endorse or promote products
+ *     derived from this software without specific prior written permission.
+ *
+ *  THIS SOFTWARE IS PROVIDED BY THE AUTHOR ``AS IS'' AND ANY EXPRESS OR
+ *  IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ *  OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED.
+ *  IN NO EVENT SHALL THE AUTHOR BE LIABLE FOR ANY DIRECT, INDIRECT,
+ *  INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ *  NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ *  DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ *  THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ *  (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF
+ *  THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+ 
+package org.fandianpf.antlr4.regressionTestRig;
+
+import org.junit.Test;
+
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+
+import org.fandianpf.testParser.CSVLexer;
+import org.fandianpf.testParser.CSVParser;
+
+/**
+ * Unit tests for the TreeCounter class.
+ */
+class TreeCounterTest {
+  
+  /** Test the depth and number of nodes of a small hand built tree. */
+  @Test
+  void countTreeTest() {
+    ParserRuleContext tree  = new ParserRuleContext();
+    ParserRuleContext child = new ParserRuleContext(tree, -1);
+    tree.addChild(child);
+    tree.addChild(new CommonToken(1, "a"));
+    child.addChild(new CommonToken(1, "b"));
+    child.addChild(new CommonToken(1, "c"));
+    
+    TreeCounter tc = new TreeCounter();
+    tc.countTree(tree);
+    assert tc.getTreeDepth() == 3;
+    assert tc.getNumberOfNodes() == 4;
+    
+    tc.countTree(null);
+    assert tc.getTreeDepth() == 0;
+    assert tc.getNumberOfNodes() == 0;
+  }
+  
+  /** Test counting the parse tree of the example CSV document. */
+  @Test
+  void countParseTreeTest() {
+    CSVLexer  lexer  = new CSVLexer(new ANTLRInputStream(
+      getClass().getResource("/testDocs/example1.csv").text));
+    CSVParser parser = new CSVParser(new CommonTokenStream(lexer));
+    
+    ParserRuleContext tree = parser.file();
+    TreeCounter tc = new TreeCounter();
+    tc.countTree(tree);
+    assert tc.getTreeDepth() == 5;
+    assert tc.getNumberOfNodes() == 
+      new TreePrinter(null, null, 5, parser).printTree(tree).split("\n").length - 2;
+  }
+  
+  /**
+   * Test that very deep parse trees (which would overflow the thread stack if
+   * counted recursively) can be counted.
+   */
+  @Test
+  void countDeepTreeTest() {
+    ParserRuleContext tree = new ParserRuleContext();
+    ParserRuleContext parent = tree;
+    for (int i = 1; i < 100000; i++) {
+      ParserRuleContext child = new ParserRuleContext(parent, -1);
+      parent.addChild(child);
+      parent = child;
+    }
+    parent.addChild(new CommonToken(1, "x"));
+    
+    TreeCounter tc = new TreeCounter();
+    tc.countTree(tree);
+    assert tc.getTreeDepth() == 100001;
+    assert tc.getNumberOfNodes() == 100000;
+  }
+}
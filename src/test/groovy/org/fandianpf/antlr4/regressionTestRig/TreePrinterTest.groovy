@@ -31,6 +31,16 @@ package org.fandianpf.antlr4.regressionTestRig;
 
 import org.junit.Test;
 
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonToken;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.TokenStream;
+import org.antlr.v4.runtime.tree.Tree;
+
+import org.fandianpf.testParser.CSVLexer;
+import org.fandianpf.testParser.CSVParser;
+
 /**
  * Unit tests for the TreePrinter class.
  */
@@ -47,5 +57,80 @@ class TreePrinterTest {
     assert tp.newIndent("- ") == "- - ";
     assert tp.newIndent("- - ") == "- - |- ";
   }
+  
+  /** 
+   * Test that the indent grown and shrunk by setIndentDepth matches, for each
+   * depth, the indent built by repeated calls to newIndent.
+   */
+  @Test
+  void setIndentDepthTest() {
+    TreePrinter tp = new TreePrinter("- ", "|- ", 3, null);
+    List<String> indents = [];
+    String indent = tp.newIndent("");
+    for (int depth = 0; depth < 20; depth++) {
+      indents << indent;
+      indent = tp.newIndent(indent);
+    }
+    assert indents[0] == "- ";
+    assert indents[2] == "- - |- ";
+    assert indents[3] == "- - |- - ";
+    [0, 1, 2, 3, 7, 19, 2, 0, 11, 10, 3, 3, 18].each { int depth ->
+      tp.setIndentDepth(depth);
+      assert tp.indent.toString() == indents[depth];
+    }
+  }
+  
+  /**
+   * Test that streaming a parse tree produces exactly the same output as
+   * printing it into a String.
+   */
+  @Test
+  void printTreeStreamingTest() {
+    CSVLexer  lexer  = new CSVLexer(new ANTLRInputStream(
+      getClass().getResource("/testDocs/example1.csv").text));
+    CSVParser parser = new CSVParser(new CommonTokenStream(lexer));
+    Tree tree = parser.file();
+    TreePrinter tp = new TreePrinter(". ", ", ", 5, parser);
+    
+    String treeStr = tp.printTree(tree);
+    assert treeStr.startsWith("\n. file\n. . hdr\n. . . row\n. . . . field");
+    
+    StringBuilder sb = new StringBuilder();
+    tp.printTree(tree, sb);
+    assert sb.toString() == treeStr;
+    
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    PrintStream ps = new PrintStream(baos);
+    tp.printTree(tree, ps);
+    ps.flush();
+    assert baos.toString() == treeStr;
+    
+    assert tp.printTree(null) == "<No parse tree found>";
+  }
+  
+  /**
+   * Test that very deep parse trees (which would overflow the thread stack if
+   * printed recursively) can be printed.
+   */
+  @Test
+  void printDeepTreeTest() {
+    ParserRuleContext tree = new CSVParser.RowContext(null, -1);
+    ParserRuleContext parent = tree;
+    for (int i = 1; i < 100000; i++) {
+      ParserRuleContext child = new CSVParser.RowContext(parent, -1);
+      parent.addChild(child);
+      parent = child;
+    }
+    parent.addChild(new CommonToken(CSVParser.TEXT, "a\tb"));
+    
+    // (use empty indents to keep the output reasonably small)
+    TreePrinter tp = new TreePrinter("", "", 5, new CSVParser((TokenStream)null));
+    String treeStr = tp.printTree(tree);
+    String[] treeLines = treeStr.split("\n");
+    assert treeLines.length == 100002;
+    assert treeLines[1] == "row";
+    assert treeLines[100000] == "row";
+    assert treeLines[100001] == "[a\\tb]    (line 0:-1)";
+  }
 }
   